@@ -65,7 +65,10 @@ final class AbsoluteLocationPath extends Expression {
 
   @Override
   public Type typeCheck(SymbolTable stable) throws TypeCheckError {
-    if (_path != null) {
+    getXSLTC().getStreamability().checkAbsolutePath(this);
+    if (_path == null) {
+      getXSLTC().getProjection().checkNodeValue(this, Type.NodeSet);
+    } else {
       final Type ptype = _path.typeCheck(stable);
       if (ptype instanceof NodeType) { // promote to node-set
         _path = new CastExpr(_path, Type.NodeSet);
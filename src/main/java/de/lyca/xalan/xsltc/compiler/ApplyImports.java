@@ -83,6 +83,8 @@ final class ApplyImports extends Instruction {
       }
       parent = parent.getParent();
     }
+    // Built-in template rules may be applied to all children
+    getXSLTC().getProjection().disable();
     typeCheckContents(stable); // with-params
     return Type.Void;
   }
@@ -87,6 +87,8 @@ final class ApplyTemplates extends Instruction {
 
   @Override
   public Type typeCheck(SymbolTable stable) throws TypeCheckError {
+    getXSLTC().getStreamability().checkApplyTemplates(this, _select);
+    getXSLTC().getProjection().checkApplyTemplates(_select, _modeName);
     if (_select != null) {
       _type = _select.typeCheck(stable);
       if (_type instanceof NodeType || _type instanceof ReferenceType) {
@@ -71,6 +71,12 @@ public class Constants {
   public static final String TYPES_INDEX = "typesArray";
   public static final String NAMESPACE_INDEX = "namespaceArray";
   public static final String HASIDCALL_INDEX = "_hasIdCall";
+  public static final String PROJECTABLE_INDEX = "_projectable";
+  public static final String ELEMENT_PROJECTABLE_INDEX = "_elementProjectable";
+  public static final String TEXT_PROJECTABLE_INDEX = "_textProjectable";
+  public static final String PROJECTED_SUBTREES_INDEX = "_projectedSubtrees";
+  public static final String TYPE_INDEXED_INDEX = "_typeIndexed";
+  public static final String SHARED_KEYS_INDEX = "_sharedKeys";
   public static final String TRANSLET_VERSION_INDEX = "transletVersion";
 
   public static final String DOM_FIELD = "_dom";
@@ -55,6 +55,8 @@ final class CopyOf extends Instruction {
   @Override
   public Type typeCheck(SymbolTable stable) throws TypeCheckError {
     final Type tselect = _select.typeCheck(stable);
+    // The copies include all attributes of the selected elements
+    getXSLTC().setProjectable(false);
     if (tselect instanceof NodeType || tselect instanceof NodeSetType || tselect instanceof ReferenceType
         || tselect instanceof ResultTreeType) {
       // falls through
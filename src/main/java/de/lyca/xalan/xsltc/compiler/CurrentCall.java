@@ -20,6 +20,8 @@ package de.lyca.xalan.xsltc.compiler;
 import com.sun.codemodel.JExpression;
 
 import de.lyca.xalan.xsltc.compiler.util.CompilerContext;
+import de.lyca.xalan.xsltc.compiler.util.Type;
+import de.lyca.xalan.xsltc.compiler.util.TypeCheckError;
 import de.lyca.xalan.xsltc.dom.CurrentNodeListFilter;
 import de.lyca.xalan.xsltc.dom.NodeSortRecord;
 
@@ -32,6 +34,13 @@ final class CurrentCall extends FunctionCall {
     super(fname);
   }
 
+  @Override
+  public Type typeCheck(SymbolTable stable) throws TypeCheckError {
+    final Type type = super.typeCheck(stable);
+    getXSLTC().getProjection().checkNodeValue(this, type);
+    return type;
+  }
+
   @Override
   public JExpression toJExpression(CompilerContext ctx) {
     if (ctx.ref(NodeSortRecord.class).isAssignableFrom(ctx.clazz())) {
@@ -58,6 +58,10 @@ final class FilterParentPath extends Expression {
     return "FilterParentPath(" + _filterExpr + ", " + _path + ')';
   }
 
+  public Expression getFilterExpr() {
+    return _filterExpr;
+  }
+
   public void setDescendantAxis() {
     _hasDescendantAxis = true;
   }
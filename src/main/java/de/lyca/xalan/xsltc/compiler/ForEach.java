@@ -71,10 +71,12 @@ final class ForEach extends Instruction {
     if (_type instanceof ReferenceType || _type instanceof NodeType) {
       _select = new CastExpr(_select, Type.NodeSet);
       typeCheckContents(stable);
+      getXSLTC().getStreamability().checkForEach(this, _select);
       return Type.Void;
     }
     if (_type instanceof NodeSetType || _type instanceof ResultTreeType) {
       typeCheckContents(stable);
+      getXSLTC().getStreamability().checkForEach(this, _select);
       return Type.Void;
     }
     // TODO
@@ -353,6 +353,8 @@ class FunctionCall extends Expression {
           }
         }
 
+        // External functions may access any part of the input document
+        getXSLTC().setProjectable(false);
         return typeCheckExternal(stable);
       } catch (final TypeCheckError e) {
         ErrorMsg errorMsg = e.getErrorMsg();
@@ -376,6 +378,9 @@ class FunctionCall extends Expression {
 
     final int n = _arguments.size();
     final List<Type> argsType = typeCheckArgs(stable);
+    if (n == 0 && (_fname.getLocalPart().equals("string-length") || _fname.getLocalPart().equals("normalize-space"))) {
+      getXSLTC().getProjection().checkContextValue();
+    }
     final MethodType args = new MethodType(Type.Void, argsType);
     final MethodType ptype = lookupPrimop(stable, _fname.getLocalPart(), args);
 
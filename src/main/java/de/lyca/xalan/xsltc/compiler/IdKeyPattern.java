@@ -102,7 +102,7 @@ abstract class IdKeyPattern extends LocationPathPattern {
     if (ctx.ref(NodeSortRecord.class).isAssignableFrom(ctx.clazz())) {
       clazzCtx = direct("_translet");
     }
-    JInvocation getKeyIndex = clazzCtx.invoke("getKeyIndex").arg(_index);
+    JInvocation getKeyIndex = clazzCtx.invoke("getKeyIndex").arg(_index).invoke("setDom").arg(ctx.currentDom());
 
     // Now use the value in the second argument to determine what nodes
     // the iterator should return.
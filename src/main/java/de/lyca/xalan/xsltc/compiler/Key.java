@@ -129,6 +129,9 @@ final class Key extends TopLevelElement {
     // Type check match pattern
     _match.typeCheck(stable);
 
+    // The index is built from all matching nodes of the document
+    getXSLTC().getProjection().disable();
+
     // Cast node values to string values (except for nodesets)
     _useType = _use.typeCheck(stable);
     if (_useType instanceof StringType == false && _useType instanceof NodeSetType == false) {
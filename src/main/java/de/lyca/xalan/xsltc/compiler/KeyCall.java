@@ -164,6 +164,8 @@ final class KeyCall extends FunctionCall {
     // If in a top-level element, create dependency to the referenced key
     addParentDependency();
 
+    getXSLTC().getStreamability().checkKeyCall(this);
+
     return returnType;
   }
 
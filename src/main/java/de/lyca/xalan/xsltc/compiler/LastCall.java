@@ -24,6 +24,8 @@ import com.sun.codemodel.JExpr;
 import com.sun.codemodel.JExpression;
 
 import de.lyca.xalan.xsltc.compiler.util.CompilerContext;
+import de.lyca.xalan.xsltc.compiler.util.Type;
+import de.lyca.xalan.xsltc.compiler.util.TypeCheckError;
 import de.lyca.xalan.xsltc.dom.CurrentNodeListFilter;
 import de.lyca.xalan.xsltc.dom.NodeSortRecord;
 
@@ -47,6 +49,12 @@ final class LastCall extends FunctionCall {
     return true;
   }
 
+  @Override
+  public Type typeCheck(SymbolTable stable) throws TypeCheckError {
+    getXSLTC().getStreamability().checkLastCall(this);
+    return super.typeCheck(stable);
+  }
+
   @Override
   public JExpression toJExpression(CompilerContext ctx) {
     if (ctx.ref(NodeSortRecord.class).isAssignableFrom(ctx.clazz())) {
@@ -201,6 +201,11 @@ final class Number extends Instruction implements Closure {
     if (_from != null) {
       _from.typeCheck(stable);
     }
+    // The count and from patterns, and level="any", match nodes that the
+    // stylesheet does not select by name
+    if (_count != null || _from != null || _level == LEVEL_ANY) {
+      getXSLTC().getProjection().disable();
+    }
     if (_format != null) {
       _format.typeCheck(stable);
     }
@@ -260,7 +265,11 @@ final class Number extends Instruction implements Closure {
     // il.append(new GETFIELD(fieldIndexes[_level]));
     // final BranchHandle ifBlock1 = il.append(new IFNONNULL(null));
 
-    JBlock _then = ctx.currentBlock()._if(fieldIndexes[_level].eq(_null()))._then();
+    // The counter remembers the last node it numbered; create a new one for
+    // another DOM.
+    JBlock _then = ctx.currentBlock()
+        ._if(fieldIndexes[_level].eq(_null()).cor(fieldIndexes[_level].ref("_document").ne(ctx.currentDom())))
+        ._then();
     // Create an instance of DefaultNodeCounter
     // index = cpg.addMethodref(ClassNames[_level], "getDefaultNodeCounter", "("
     // + TRANSLET_INTF_SIG + DOM_INTF_SIG
@@ -486,7 +495,17 @@ final class Number extends Instruction implements Closure {
     // il.append(new PUTFIELD(cpg.addFieldref(_className, var.getEscapedName(),
     // varType.toSignature())));
     // }
-    return JExpr._new(nodeCounter).arg(JExpr._this()).arg(ctx.currentDom()).arg(ctx.param(ITERATOR_PNAME));
+    final JExpression newCounter = JExpr._new(nodeCounter).arg(JExpr._this()).arg(ctx.currentDom())
+        .arg(ctx.param(ITERATOR_PNAME));
+    if (closureLen > 0)
+      return newCounter;
+
+    // Keep the counter of this instruction in a field, so that it can number
+    // nodes visited in document order incrementally
+    final JFieldVar field = ctx.addPrivateField(NodeCounter.class, "___node_counter_" + nodeCounter.name());
+    ctx.currentBlock()._if(field.eq(_null()).cor(field.ref("_document").ne(ctx.currentDom())))._then()
+        .assign(field, newCounter);
+    return field;
   }
 
   @Override
@@ -41,6 +41,7 @@ final class NumberCall extends FunctionCall {
   public Type typeCheck(SymbolTable stable) throws TypeCheckError {
     switch (argumentCount()) {
     case 0:
+      getXSLTC().getProjection().checkContextValue();
       return _type = Type.Real;
     case 1:
       argument().typeCheck(stable);
@@ -35,6 +35,7 @@ import de.lyca.xalan.xsltc.compiler.util.Messages;
 import de.lyca.xalan.xsltc.compiler.util.Type;
 import de.lyca.xalan.xsltc.compiler.util.TypeCheckError;
 import de.lyca.xml.serializer.Encodings;
+import de.lyca.xml.serializer.OutputPropertiesFactory;
 import de.lyca.xml.utils.XML11Char;
 
 /**
@@ -59,6 +60,7 @@ final class Output extends TopLevelElement {
   private boolean _indent = false;
   private String _mediaType;
   private String _indentamount;
+  private String _compression;
 
   // Disables this output element (when other element has higher precedence)
   private boolean _disabled = false;
@@ -118,6 +120,7 @@ final class Output extends TopLevelElement {
     String prefix = lookupPrefix("http://xml.apache.org/xalan");
     if (prefix != null) {
       transferAttribute(previous, prefix + ':' + "indent-amount");
+      transferAttribute(previous, prefix + ':' + "compression");
     }
     prefix = lookupPrefix("http://xml.apache.org/xslt");
     if (prefix != null) {
@@ -264,6 +267,17 @@ final class Output extends TopLevelElement {
       outputProperties.setProperty("indent_amount", _indentamount);
     }
 
+    // compression: extension attribute of xsl:output
+    _compression = getAttribute(lookupPrefix("http://xml.apache.org/xalan"), "compression");
+    if (_compression.isEmpty()) {
+      _compression = null;
+    } else if (_compression.equals("gzip") || _compression.equals("deflate") || _compression.equals("none")) {
+      outputProperties.setProperty(OutputPropertiesFactory.S_KEY_COMPRESSION, _compression);
+    } else {
+      reportError(this, parser, Messages.get().invalidCompressionInOutput(_compression));
+      _compression = null;
+    }
+
     // Get the MIME type for the output file
     _mediaType = getAttribute("media-type");
     if (_mediaType.isEmpty()) {
@@ -347,6 +361,11 @@ final class Output extends TopLevelElement {
       body.assign(ref("_indentamount"), lit(Integer.parseInt(_indentamount)));
     }
 
+    // Compile code to set the compression of the output stream
+    if (_compression != null) {
+      body.assign(ref("_compression"), lit(_compression));
+    }
+
     // Forward to the translet any elements that should be output as CDATA
     if (_cdata != null) {
       final StringTokenizer tokenizer = new StringTokenizer(_cdata);
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xalan.xsltc.compiler;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import de.lyca.xalan.xsltc.compiler.util.NodeSetType;
+import de.lyca.xalan.xsltc.compiler.util.NodeType;
+import de.lyca.xalan.xsltc.compiler.util.ReferenceType;
+import de.lyca.xalan.xsltc.compiler.util.Type;
+import de.lyca.xml.dtm.Axis;
+
+/**
+ * Static analysis deciding which elements and text nodes of the input document
+ * a stylesheet can never reach. If element projection is possible, every
+ * element whose name is not referenced by the stylesheet is discarded together
+ * with its subtree while the input is built; the document element is always
+ * kept. This is sound as long as the stylesheet only navigates along named
+ * child and sibling steps and upwards, so that a discarded subtree can neither
+ * be selected nor hold a node that can be selected, and as long as built-in
+ * template rules never apply templates to the children of an element.
+ * <p>
+ * Text nodes are kept if a step selects text nodes. The string-value of an
+ * element includes the text of all its descendants: if it is taken for a named
+ * element, the whole subtree of every element of that name is kept. If it is
+ * taken for nodes that are not selected by name (<code>.</code>,
+ * <code>*</code>, a variable), nothing is discarded.
+ * <p>
+ * The analysis is fed by the type checker, like {@link Streamability}.
+ */
+final class Projection {
+
+  /**
+   * Set to false when the stylesheet may reach elements not named in it.
+   */
+  private boolean _elements = true;
+
+  /**
+   * Set to false when the stylesheet may select text nodes.
+   */
+  private boolean _text = true;
+
+  /**
+   * Types of the named elements whose string-value is taken.
+   */
+  private final Set<Integer> _subtrees = new TreeSet<>();
+
+  /**
+   * Modes in which templates are applied to selected nodes. The default mode
+   * is represented by the <code>null</code> key.
+   */
+  private final Set<QName> _appliedModes = new HashSet<>();
+
+  /**
+   * Modes with a template matching all elements.
+   */
+  private final Set<QName> _catchAllModes = new HashSet<>();
+
+  /**
+   * Set to true if a template of the default mode matches the root node.
+   */
+  private boolean _rootMatched = false;
+
+  /**
+   * Checks a location step. Named child and sibling steps can only select
+   * named elements, which are kept, and the ancestors of kept nodes are kept.
+   * All other downward, sibling and document order steps may select nodes in
+   * or behind discarded subtrees.
+   */
+  public void checkStep(Step step) {
+    final Axis axis = step.getAxis();
+    final int type = step.getNodeType();
+    switch (axis) {
+    case ATTRIBUTE:
+    case NAMESPACE:
+      return;
+    case SELF:
+    case PARENT:
+    case ANCESTOR:
+    case ANCESTORORSELF:
+      break;
+    case CHILD:
+    case FOLLOWINGSIBLING:
+    case PRECEDINGSIBLING:
+      if (type == NodeTest.ELEMENT || type == NodeTest.ANODE) {
+        _elements = false;
+      }
+      break;
+    default:
+      _elements = false;
+      break;
+    }
+    if (type == NodeTest.TEXT) {
+      _text = false;
+    }
+    if (isValueUsed(step)) {
+      if (type >= NodeTest.GTYPE) {
+        _subtrees.add(type);
+      } else if (type != NodeTest.TEXT && type != NodeTest.COMMENT && type != NodeTest.PI) {
+        _elements = false;
+      }
+    }
+  }
+
+  /**
+   * Checks an expression that yields input nodes without naming them: a
+   * variable or parameter reference, current() or the root node.
+   */
+  public void checkNodeValue(Expression expr, Type type) {
+    if ((type instanceof NodeSetType || type instanceof NodeType || type instanceof ReferenceType)
+        && isValueUsed(expr)) {
+      _elements = false;
+    }
+  }
+
+  /**
+   * Functions like string() or normalize-space() without an argument take the
+   * string-value of the context node.
+   */
+  public void checkContextValue() {
+    _elements = false;
+  }
+
+  /**
+   * Apply-templates without a select attribute selects all children.
+   */
+  public void checkApplyTemplates(Expression select, QName mode) {
+    if (select == null) {
+      _elements = false;
+    }
+    _appliedModes.add(mode);
+  }
+
+  /**
+   * Records templates that keep built-in template rules from being applied to
+   * elements or to the root node.
+   */
+  public void checkTemplate(Template template) {
+    final Pattern pattern = template.getPattern();
+    if (pattern != null) {
+      if (isCatchAll(pattern)) {
+        _catchAllModes.add(template.getModeName());
+      }
+      if (template.getModeName() == null && matchesRoot(pattern)) {
+        _rootMatched = true;
+      }
+    }
+  }
+
+  /**
+   * Called for constructs that look at nodes anywhere in the document: keys,
+   * apply-imports, and xsl:number with count or from patterns or level="any".
+   */
+  public void disable() {
+    _elements = false;
+  }
+
+  /**
+   * Returns 'true' if elements not named in the stylesheet can be discarded.
+   * Templates are applied to the root node in the default mode before any
+   * other template, so that mode needs a template for the root node or one for
+   * all elements.
+   */
+  public boolean isElementProjectable() {
+    if (!_elements || !_rootMatched && !_catchAllModes.contains(null))
+      return false;
+    return _catchAllModes.containsAll(_appliedModes);
+  }
+
+  /**
+   * Returns 'true' if text nodes outside the kept subtrees can be discarded.
+   */
+  public boolean isTextProjectable() {
+    return _text;
+  }
+
+  /**
+   * Returns the indexes into the names array of the elements whose subtrees
+   * must be kept.
+   */
+  public int[] getSubtrees() {
+    final int[] subtrees = new int[_subtrees.size()];
+    int i = 0;
+    for (final Integer type : _subtrees) {
+      subtrees[i++] = type.intValue() - NodeTest.GTYPE;
+    }
+    return subtrees;
+  }
+
+  /**
+   * Returns 'true' if the value of the nodes selected by the given expression
+   * is used as a string or number. Only the last step of a path and the
+   * branches of a union are followed; the nodes selected by the other steps
+   * are the context of the next step.
+   */
+  private static boolean isValueUsed(Expression expr) {
+    SyntaxTreeNode child = expr;
+    SyntaxTreeNode parent = expr.getParent();
+    while (parent instanceof Expression) {
+      if (parent instanceof ParentLocationPath) {
+        if (((ParentLocationPath) parent).getPath() == child)
+          return false;
+      } else if (parent instanceof FilterParentPath) {
+        if (((FilterParentPath) parent).getFilterExpr() == child)
+          return false;
+      } else if (parent instanceof CastExpr) {
+        final Type type = ((CastExpr) parent).getType();
+        if (type == Type.Boolean)
+          return false;
+        if (!(type instanceof NodeSetType || type instanceof NodeType))
+          return true;
+      } else if (!(parent instanceof AbsoluteLocationPath || parent instanceof UnionPathExpr
+          || parent instanceof FilterExpr)) {
+        break;
+      }
+      child = parent;
+      parent = parent.getParent();
+    }
+    return !isNodeConsumer(parent);
+  }
+
+  /**
+   * Returns 'true' for the instructions and functions that use the nodes of
+   * their argument, or its boolean value, but not its string-value. Copy-of is
+   * not one of them, it copies the whole subtree.
+   */
+  private static boolean isNodeConsumer(SyntaxTreeNode node) {
+    if (node instanceof ForEach || node instanceof ApplyTemplates || node instanceof VariableBase
+        || node instanceof WithParam || node instanceof Predicate || node instanceof LogicalExpr || node instanceof If
+        || node instanceof When)
+      return true;
+    if (node instanceof BooleanCall || node instanceof NotCall || node instanceof NameBase
+        || node instanceof GenerateIdCall)
+      return true;
+    return node instanceof FunctionCall && ((FunctionCall) node).getName().equals("count");
+  }
+
+  private static boolean isCatchAll(Pattern pattern) {
+    if (pattern instanceof AlternativePattern)
+      return isCatchAll(((AlternativePattern) pattern).getLeft())
+          || isCatchAll(((AlternativePattern) pattern).getRight());
+    if (pattern instanceof StepPattern) {
+      final StepPattern step = (StepPattern) pattern;
+      final int type = step.getNodeType();
+      return step.getAxis() == Axis.CHILD && (type == NodeTest.ELEMENT || type == NodeTest.ANODE)
+          && !step.hasPredicates();
+    }
+    return false;
+  }
+
+  private static boolean matchesRoot(Pattern pattern) {
+    if (pattern instanceof AlternativePattern)
+      return matchesRoot(((AlternativePattern) pattern).getLeft())
+          || matchesRoot(((AlternativePattern) pattern).getRight());
+    // '/' is the only absolute pattern without a kernel step
+    return pattern instanceof AbsolutePathPattern && ((AbsolutePathPattern) pattern).getKernelPattern() == null;
+  }
+}
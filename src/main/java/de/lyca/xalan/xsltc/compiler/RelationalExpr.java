@@ -205,7 +205,7 @@ final class RelationalExpr extends Expression {
     if (hasNodeSetArgs() || hasReferenceArgs()) {
       // Call compare() from the BasisLibrary
       JExpression leftExp = _left.startIterator(ctx, _left.toJExpression(ctx));
-      JExpression rightExp = _right.toJExpression(ctx);
+      JExpression rightExp = _right.startIterator(ctx, _right.toJExpression(ctx));
       JClass basisLib = ctx.ref(BasisLibrary.class);
       return basisLib.staticInvoke("compare").arg(leftExp).arg(rightExp).arg(lit(_op)).arg(ctx.currentDom());
     } else {
@@ -193,6 +193,19 @@ final class Step extends RelativeLocationPath {
         pred.typeCheck(stable);
       }
     }
+    getXSLTC().getStreamability().checkStep(this);
+    getXSLTC().getProjection().checkStep(this);
+
+    // Attribute wildcards and attribute::node() need all attributes
+    if (_nodeType == NodeTest.ATTRIBUTE || _axis == Axis.ATTRIBUTE && _nodeType == NodeTest.ANODE) {
+      getXSLTC().setProjectable(false);
+    }
+
+    // Named descendant, following and preceding steps can use a type index
+    if (_nodeType >= DTM.NTYPES && (_axis == Axis.DESCENDANT || _axis == Axis.DESCENDANTORSELF
+        || _axis == Axis.FOLLOWING || _axis == Axis.PRECEDING)) {
+      getXSLTC().countTypedAxisStep();
+    }
 
     // Return either Type.Node or Type.NodeSet
     return _type;
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xalan.xsltc.compiler;
+
+import static de.lyca.xalan.xsltc.compiler.Constants.WARNING;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.lyca.xalan.xsltc.compiler.util.ErrorMsg;
+import de.lyca.xalan.xsltc.compiler.util.Messages;
+import de.lyca.xml.dtm.Axis;
+
+/**
+ * Static streamability analysis of a stylesheet. A mode is streamable if all of
+ * its templates only navigate forward and downward from the context node, so
+ * that it could be evaluated on SAX events while holding nothing but the
+ * current element and its ancestors. The analysis is fed by the type checker:
+ * <code>Template</code>, <code>ApplyTemplates</code>, <code>ForEach</code>,
+ * <code>ValueOf</code>, <code>Step</code>, <code>AbsoluteLocationPath</code>,
+ * <code>LastCall</code> and <code>KeyCall</code> nodes report themselves while
+ * they are type checked. The verdicts are only reported; translets are always
+ * applied to a complete tree of the input document.
+ */
+final class Streamability {
+
+  /**
+   * Violations found in templates, grouped by mode. The default mode is
+   * represented by the <code>null</code> key.
+   */
+  private final Map<QName, List<ErrorMsg>> _modes = new LinkedHashMap<>();
+
+  /**
+   * Violations found outside of any template (global variables, keys).
+   */
+  private final List<ErrorMsg> _global = new ArrayList<>();
+
+  /**
+   * Number of instructions consuming the subtree of the context node, per
+   * instruction that sets the context node (a template or a for-each).
+   */
+  private final Map<SyntaxTreeNode, Integer> _consumers = new HashMap<>();
+
+  /**
+   * Instructions already counted as consumers.
+   */
+  private final Set<Instruction> _consuming = new HashSet<>();
+
+  /**
+   * Nodes already reported - nodes may be type checked more than once.
+   */
+  private final Set<SyntaxTreeNode> _reported = new HashSet<>();
+
+  /**
+   * Checks the axis of a location step. Steps along the ancestor axes are
+   * answered from the window, steps along the downward axes from the events to
+   * come. The sibling and document order axes need look-ahead or history.
+   * Steps inside a variable bind input nodes that would outlive the window.
+   */
+  public void checkStep(Step step) {
+    final Axis axis = step.getAxis();
+    switch (axis) {
+    case FOLLOWING:
+    case FOLLOWINGSIBLING:
+    case PRECEDING:
+    case PRECEDINGSIBLING:
+      addViolation(step, Messages.get().streamingAxisErr(axis.getName()));
+      return;
+    default:
+      break;
+    }
+    if (axis != Axis.ATTRIBUTE && axis != Axis.SELF && getVariable(step) != null) {
+      addViolation(step, Messages.get().streamingVariableErr());
+    }
+  }
+
+  /**
+   * Absolute paths (<code>/...</code> and <code>//...</code>) start again from
+   * the root, whose events have already gone by.
+   */
+  public void checkAbsolutePath(AbsoluteLocationPath path) {
+    addViolation(path, Messages.get().streamingAbsolutePathErr());
+  }
+
+  /**
+   * The last() function needs to see the whole node list before the first item
+   * can be processed.
+   */
+  public void checkLastCall(LastCall call) {
+    addViolation(call, Messages.get().streamingFunctionErr("last"));
+  }
+
+  /**
+   * Keys and ids are built from an index over the whole document.
+   */
+  public void checkKeyCall(KeyCall call) {
+    addViolation(call, Messages.get().streamingFunctionErr(call.getName()));
+  }
+
+  /**
+   * A template may consume the subtree of its context node at most once. The
+   * consumers found in its body are checked when the template itself is
+   * checked, i.e. after its contents have been type checked.
+   */
+  public void checkTemplate(Template template) {
+    checkConsumers(template);
+  }
+
+  /**
+   * Apply-templates consumes the children unless it selects attributes only.
+   */
+  public void checkApplyTemplates(ApplyTemplates apply, Expression select) {
+    checkSort(apply);
+    if (select == null || isConsuming(select)) {
+      addConsumer(apply);
+    }
+  }
+
+  /**
+   * For-each consumes its selection, and its body consumes each selected node.
+   */
+  public void checkForEach(ForEach forEach, Expression select) {
+    checkSort(forEach);
+    checkConsumers(forEach);
+    if (isConsuming(select)) {
+      addConsumer(forEach);
+    }
+  }
+
+  /**
+   * Value-of consumes the subtree of the selected node to get its string value.
+   */
+  public void checkValueOf(ValueOf valueOf, Expression select) {
+    if (isConsuming(select)) {
+      addConsumer(valueOf);
+    }
+  }
+
+  /**
+   * Returns 'true' if no violation was found and the stylesheet does not load
+   * additional documents.
+   */
+  public boolean isStreamable(XSLTC xsltc) {
+    return _global.isEmpty() && _modes.isEmpty() && !xsltc.isMultiDocument();
+  }
+
+  /**
+   * Reports all violations found as warnings, followed by a summary for every
+   * mode and the stylesheet as a whole.
+   */
+  public void report(Parser parser) {
+    if (parser.getXSLTC().isMultiDocument()) {
+      parser.reportError(WARNING, new ErrorMsg(Messages.get().streamingFunctionErr("document")));
+    }
+    for (final ErrorMsg msg : _global) {
+      parser.reportError(WARNING, msg);
+    }
+    for (final Map.Entry<QName, List<ErrorMsg>> entry : _modes.entrySet()) {
+      for (final ErrorMsg msg : entry.getValue()) {
+        parser.reportError(WARNING, msg);
+      }
+      final QName mode = entry.getKey();
+      parser.reportError(WARNING, new ErrorMsg(Messages.get().streamingModeErr(mode == null ? "#default" : mode)));
+    }
+    if (!isStreamable(parser.getXSLTC())) {
+      parser.reportError(WARNING, new ErrorMsg(Messages.get().streamingStylesheetErr()));
+    }
+  }
+
+  private void checkSort(Instruction instruction) {
+    for (final SyntaxTreeNode child : instruction.getContents()) {
+      if (child instanceof Sort) {
+        addViolation(child, Messages.get().streamingSortErr());
+      }
+    }
+  }
+
+  private void checkConsumers(SyntaxTreeNode owner) {
+    final Integer count = _consumers.get(owner);
+    if (count != null && count.intValue() > 1) {
+      addViolation(owner, Messages.get().streamingMultiConsumeErr());
+    }
+  }
+
+  private void addConsumer(Instruction instruction) {
+    if (!_consuming.add(instruction))
+      return;
+    final SyntaxTreeNode owner = getContextOwner(instruction);
+    if (owner != null) {
+      final Integer count = _consumers.get(owner);
+      _consumers.put(owner, count == null ? 1 : count.intValue() + 1);
+    }
+  }
+
+  private void addViolation(SyntaxTreeNode node, String message) {
+    if (!_reported.add(node))
+      return;
+    final ErrorMsg msg = new ErrorMsg(node, message);
+    final Template template = node.getTemplate();
+    if (template == null) {
+      _global.add(msg);
+    } else {
+      List<ErrorMsg> violations = _modes.get(template.getModeName());
+      if (violations == null) {
+        _modes.put(template.getModeName(), violations = new ArrayList<>());
+      }
+      violations.add(msg);
+    }
+  }
+
+  /**
+   * Returns 'true' unless the expression is a constant, a variable reference
+   * or only selects attributes of the context node.
+   */
+  private static boolean isConsuming(Expression select) {
+    if (select instanceof CastExpr) {
+      select = ((CastExpr) select).getExpr();
+    }
+    if (select instanceof LiteralExpr || select instanceof IntExpr || select instanceof RealExpr
+        || select instanceof VariableRefBase)
+      return false;
+    return !(select instanceof Step && ((Step) select).getAxis() == Axis.ATTRIBUTE);
+  }
+
+  /**
+   * Returns the nearest template or for-each that sets the context node for
+   * the given instruction.
+   */
+  private static SyntaxTreeNode getContextOwner(SyntaxTreeNode node) {
+    SyntaxTreeNode parent = node.getParent();
+    while (parent != null && !(parent instanceof Template || parent instanceof ForEach)) {
+      parent = parent.getParent();
+    }
+    return parent;
+  }
+
+  private static VariableBase getVariable(SyntaxTreeNode node) {
+    SyntaxTreeNode parent = node.getParent();
+    while (parent != null && !(parent instanceof Instruction || parent instanceof VariableBase)) {
+      parent = parent.getParent();
+    }
+    return parent instanceof VariableBase ? (VariableBase) parent : null;
+  }
+}
@@ -46,6 +46,8 @@ final class StringCall extends FunctionCall {
 
     if (argc > 0) {
       argument().typeCheck(stable);
+    } else {
+      getXSLTC().getProjection().checkContextValue();
     }
     return _type = Type.String;
   }
@@ -29,11 +29,15 @@ import static de.lyca.xalan.xsltc.DOM.GET_ITERATOR;
 import static de.lyca.xalan.xsltc.DOM.SET_FILTER;
 import static de.lyca.xalan.xsltc.compiler.Constants.DOCUMENT_PNAME;
 import static de.lyca.xalan.xsltc.compiler.Constants.DOM_FIELD;
+import static de.lyca.xalan.xsltc.compiler.Constants.ELEMENT_PROJECTABLE_INDEX;
 import static de.lyca.xalan.xsltc.compiler.Constants.ERROR;
 import static de.lyca.xalan.xsltc.compiler.Constants.HASIDCALL_INDEX;
 import static de.lyca.xalan.xsltc.compiler.Constants.ITERATOR_PNAME;
 import static de.lyca.xalan.xsltc.compiler.Constants.NAMESPACE_INDEX;
 import static de.lyca.xalan.xsltc.compiler.Constants.NAMES_INDEX;
+import static de.lyca.xalan.xsltc.compiler.Constants.PROJECTABLE_INDEX;
+import static de.lyca.xalan.xsltc.compiler.Constants.PROJECTED_SUBTREES_INDEX;
+import static de.lyca.xalan.xsltc.compiler.Constants.SHARED_KEYS_INDEX;
 import static de.lyca.xalan.xsltc.compiler.Constants.STATIC_CHAR_DATA_FIELD;
 import static de.lyca.xalan.xsltc.compiler.Constants.STATIC_NAMESPACE_ARRAY_FIELD;
 import static de.lyca.xalan.xsltc.compiler.Constants.STATIC_NAMES_ARRAY_FIELD;
@@ -43,9 +47,11 @@ import static de.lyca.xalan.xsltc.compiler.Constants.STATIC_PREFIX_URIS_IDX_ARRA
 import static de.lyca.xalan.xsltc.compiler.Constants.STATIC_TYPES_ARRAY_FIELD;
 import static de.lyca.xalan.xsltc.compiler.Constants.STATIC_URIS_ARRAY_FIELD;
 import static de.lyca.xalan.xsltc.compiler.Constants.STRIP_SPACE;
+import static de.lyca.xalan.xsltc.compiler.Constants.TEXT_PROJECTABLE_INDEX;
 import static de.lyca.xalan.xsltc.compiler.Constants.TRANSLET_OUTPUT_PNAME;
 import static de.lyca.xalan.xsltc.compiler.Constants.TRANSLET_VERSION_INDEX;
 import static de.lyca.xalan.xsltc.compiler.Constants.TYPES_INDEX;
+import static de.lyca.xalan.xsltc.compiler.Constants.TYPE_INDEXED_INDEX;
 import static de.lyca.xalan.xsltc.compiler.Constants.URIS_INDEX;
 import static de.lyca.xalan.xsltc.compiler.Constants.XHTML_URI;
 import static de.lyca.xalan.xsltc.compiler.Constants.XSLT_URI;
@@ -53,6 +59,7 @@ import static de.lyca.xml.dtm.DTMAxisIterator.NEXT;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -224,6 +231,25 @@ public final class Stylesheet extends SyntaxTreeNode {
    */
   private boolean _hasIdCall = false;
 
+  /**
+   * Flag indicating if attributes not referenced by name can be discarded from
+   * the input document.
+   */
+  private boolean _projectable = false;
+
+  /**
+   * Flag indicating if elements not referenced by name can be discarded from
+   * the input document, and the elements whose subtrees must be kept.
+   */
+  private boolean _elementProjectable = false;
+  private boolean _textProjectable = false;
+  private int[] _projectedSubtrees;
+
+  /**
+   * Flag indicating if the input documents should get a type index.
+   */
+  private boolean _typeIndexed = false;
+
   /**
    * Set to true to enable template inlining optimization.
    * 
@@ -300,6 +326,38 @@ public final class Stylesheet extends SyntaxTreeNode {
     _hasIdCall = flag;
   }
 
+  public void setProjectable(boolean flag) {
+    _projectable = flag;
+  }
+
+  public boolean isProjectable() {
+    return _projectable;
+  }
+
+  /**
+   * Allows elements not referenced by name to be discarded from the input
+   * document.
+   * 
+   * @param textProjectable
+   *          'true' if text outside the kept subtrees can be discarded too
+   * @param subtrees
+   *          indexes into the names array of the elements whose subtrees must
+   *          be kept
+   */
+  public void setElementProjection(boolean textProjectable, int[] subtrees) {
+    _elementProjectable = true;
+    _textProjectable = textProjectable;
+    _projectedSubtrees = subtrees;
+  }
+
+  public void setTypeIndexed(boolean flag) {
+    _typeIndexed = flag;
+  }
+
+  public boolean isTypeIndexed() {
+    return _typeIndexed;
+  }
+
   public void setOutputProperty(String key, String value) {
     if (_outputProperties == null) {
       _outputProperties = new Properties();
@@ -1018,6 +1076,37 @@ public final class Stylesheet extends SyntaxTreeNode {
       body.assign(refthis(HASIDCALL_INDEX), lit(true));
     }
 
+    if (_projectable) {
+      body.assign(refthis(PROJECTABLE_INDEX), lit(true));
+    }
+
+    if (_elementProjectable) {
+      body.assign(refthis(ELEMENT_PROJECTABLE_INDEX), lit(true));
+      if (_textProjectable) {
+        body.assign(refthis(TEXT_PROJECTABLE_INDEX), lit(true));
+      }
+      if (_projectedSubtrees.length > 0) {
+        final JArray subtrees = newArray(ctx.owner().INT);
+        for (final int subtree : _projectedSubtrees) {
+          subtrees.add(lit(subtree));
+        }
+        body.assign(refthis(PROJECTED_SUBTREES_INDEX), subtrees);
+      }
+    }
+
+    if (_typeIndexed) {
+      body.assign(refthis(TYPE_INDEXED_INDEX), lit(true));
+    }
+
+    final List<String> sharedKeys = getSharedKeys();
+    if (!sharedKeys.isEmpty()) {
+      final JArray names = newArray(ctx.ref(String.class));
+      for (final String name : sharedKeys) {
+        names.add(lit(name));
+      }
+      body.assign(refthis(SHARED_KEYS_INDEX), names);
+    }
+
     ctx.pushBlock(body);
     // Compile in code to set the output configuration from <xsl:output>
     if (output != null) {
@@ -1069,14 +1158,16 @@ public final class Stylesheet extends SyntaxTreeNode {
     // Determine a partial order for the variables/params and keys
     varDepElements = resolveDependencies(varDepElements);
 
-    // Translate vars/params and keys in the right order
+    // Translate vars/params in the right order. Keys are indexed on their
+    // first use by buildKeys(String, ...)
     final int count = varDepElements.size();
     for (int i = 0; i < count; i++) {
       final TopLevelElement tle = varDepElements.get(i);
-      tle.translate(ctx);
       if (tle instanceof Key) {
         final Key key = (Key) tle;
         _keys.put(key.getName(), key);
+      } else {
+        tle.translate(ctx);
       }
     }
 
@@ -1161,32 +1252,56 @@ public final class Stylesheet extends SyntaxTreeNode {
   }
 
   /**
-   * Compile a buildKeys() method into the output class. Note that keys for the
-   * input document are created in topLevel(), not in this method. However, we
-   * still need this method to create keys for documents loaded via the XPath
-   * document() function.
+   * Compile a buildKeys(String, ...) method into the output class. It builds the
+   * index of the keys with the given name for one document and is called when a
+   * key is first used in that document.
    */
-  private void compileBuildKeys(CompilerContext ctx) {
+  private void compileBuildKeyIndex(CompilerContext ctx) {
     JMethod buildKeys = ctx.method(JMod.PUBLIC, void.class, "buildKeys")._throws(TransletException.class);
+    JVar name = ctx.param(String.class, "name");
     ctx.param(DOM.class, DOCUMENT_PNAME);
     ctx.param(DTMAxisIterator.class, ITERATOR_PNAME);
     ctx.param(SerializationHandler.class, TRANSLET_OUTPUT_PNAME);
     JVar current = ctx.param(int.class, "current");
-    ctx.pushBlock(buildKeys.body());
     ctx.pushNode(current);
     for (SyntaxTreeNode element : getContents()) {
       // xsl:key
       if (element instanceof Key) {
         final Key key = (Key) element;
+        ctx.pushBlock(buildKeys.body()._if(name.invoke("equals").arg(lit(key.getName())))._then());
         key.translate(ctx);
+        ctx.popBlock();
         _keys.put(key.getName(), key);
       }
     }
     ctx.popNode();
-    ctx.popBlock();
     ctx.popMethodContext();
   }
 
+  /**
+   * Returns the names of the keys that do not depend on variables, parameters
+   * or other keys. Their indexes only depend on the document.
+   */
+  private List<String> getSharedKeys() {
+    final Map<String, Boolean> keys = new LinkedHashMap<>();
+    for (SyntaxTreeNode element : getContents()) {
+      if (element instanceof Key) {
+        final Key key = (Key) element;
+        final List<TopLevelElement> dependencies = key.getDependencies();
+        final boolean shared = dependencies == null || dependencies.isEmpty();
+        final Boolean other = keys.get(key.getName());
+        keys.put(key.getName(), shared && (other == null || other.booleanValue()));
+      }
+    }
+    final List<String> result = new ArrayList<>();
+    for (final Map.Entry<String, Boolean> entry : keys.entrySet()) {
+      if (entry.getValue().booleanValue()) {
+        result.add(entry.getKey());
+      }
+    }
+    return result;
+  }
+
   /**
    * Compile transform() into the output class. This method is used to
    * initialize global variables and global parameters. The current node is set
@@ -1225,12 +1340,9 @@ public final class Stylesheet extends SyntaxTreeNode {
     // Transfer the output settings to the output post-processor
     block.invoke("transferOutputSettings").arg(serializationHandler);
 
-    /*
-     * Compile buildKeys() method. Note that this method is not invoked here as
-     * keys for the input document are now created in topLevel(). However, this
-     * method is still needed by the LoadDocument class.
-     */
-    compileBuildKeys(ctx);
+    // Compile the buildKeys(String, ...) method. Key indexes are built on
+    // their first use in a document.
+    compileBuildKeyIndex(ctx);
 
     // Look for top-level elements that need handling
     final ListIterator<SyntaxTreeNode> toplevel = elements();
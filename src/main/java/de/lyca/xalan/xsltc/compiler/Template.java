@@ -260,6 +260,7 @@ public final class Template extends TopLevelElement implements Comparable<Templa
 
     _stylesheet = stylesheet;
     setParent(stylesheet);
+    setParser(parser);
 
     _name = null;
     _mode = null;
@@ -298,7 +299,10 @@ public final class Template extends TopLevelElement implements Comparable<Templa
       _pattern.typeCheck(stable);
     }
 
-    return typeCheckContents(stable);
+    final Type result = typeCheckContents(stable);
+    getXSLTC().getStreamability().checkTemplate(this);
+    getXSLTC().getProjection().checkTemplate(this);
+    return result;
   }
 
   /**
@@ -56,6 +56,7 @@ final class ValueOf extends Instruction {
   @Override
   public Type typeCheck(SymbolTable stable) throws TypeCheckError {
     final Type type = _select.typeCheck(stable);
+    getXSLTC().getStreamability().checkValueOf(this, _select);
 
     // Prefer to handle the value as a node; fall back to String, otherwise
     if (type != null && !type.identicalTo(Type.Node)) {
@@ -146,6 +146,8 @@ class VariableRefBase extends Expression {
     // If in a top-level element, create dependency to the referenced var
     addParentDependency();
 
+    _variable.getXSLTC().getProjection().checkNodeValue(this, _type);
+
     // Return the type of the referenced variable
     return _type;
   }
@@ -112,6 +112,15 @@ public final class XSLTC {
   public static final EnumSet<Out> BYTEARRAY = EnumSet.of(Out.BYTES);
   public static final EnumSet<Out> BYTEARRAY_AND_CLASS_FILES = EnumSet.of(Out.BYTES, Out.FILES);
 
+  // The number of descendant, following and preceding steps that select
+  // nodes by name from which the input documents get a type index. Building
+  // the index takes about as long as one such step from the root, which
+  // tests every node of the document: for 800,000 nodes both take some 8ms,
+  // while the step takes 0.3ms with the index. A single step evaluated once
+  // would only break even, and the compiler cannot tell how often a step is
+  // evaluated, so the index is built from the second step on.
+  private static final int TYPE_INDEX_STEPS = 2;
+
   private Set<Out> output = BYTEARRAY;
 
   // Compiler options (passed from command line or XSLTC client)
@@ -123,6 +132,11 @@ public final class XSLTC {
   private boolean _callsNodeset = false;
   private boolean _multiDocument = false;
   private boolean _hasIdCall = false;
+  private boolean _checkStreamability = false; // report streamability
+  private boolean _projectable = true;
+  private int _typedAxisSteps = 0;
+  private Streamability _streamability;
+  private Projection _projection;
 
   private List<Integer> _stylesheetNSAncestorPointers;
   private List<String> _prefixURIPairs;
@@ -216,6 +230,10 @@ public final class XSLTC {
     _attributeSetSerial = 0;
     _multiDocument = false;
     _hasIdCall = false;
+    _projectable = true;
+    _typedAxisSteps = 0;
+    _streamability = new Streamability();
+    _projection = new Projection();
     _stylesheetNSAncestorPointers = null;
     _prefixURIPairs = null;
     _prefixURIPairsIdx = null;
@@ -356,6 +374,14 @@ public final class XSLTC {
         _stylesheet.setCallsNodeset(_callsNodeset);
         _stylesheet.setMultiDocument(_multiDocument);
         _stylesheet.setHasIdCall(_hasIdCall);
+        _stylesheet.setProjectable(isProjectable());
+        if (isElementProjectable()) {
+          _stylesheet.setElementProjection(_projection.isTextProjectable(), _projection.getSubtrees());
+        }
+        _stylesheet.setTypeIndexed(isTypeIndexed());
+        if (_checkStreamability) {
+          _streamability.report(_parser);
+        }
 
         // Class synchronization is needed for BCEL
         synchronized (getClass()) {
@@ -536,6 +562,90 @@ public final class XSLTC {
     return _hasIdCall;
   }
 
+  /**
+   * Returns the streamability analysis of the stylesheet being compiled.
+   * 
+   * @return The streamability analysis
+   */
+  public Streamability getStreamability() {
+    return _streamability;
+  }
+
+  /**
+   * Turn reporting of constructs that would prevent streaming on/off. The
+   * analysis does not change the generated translet.
+   * 
+   * @param flag 'true' to report streamability diagnostics as warnings
+   */
+  public void setCheckStreamability(boolean flag) {
+    _checkStreamability = flag;
+  }
+
+  public boolean isCheckStreamability() {
+    return _checkStreamability;
+  }
+
+  /**
+   * This method is called when the type checker finds a construct that can
+   * access attributes of the input document that are not named in the
+   * stylesheet: attribute wildcards, xsl:copy-of and calls to external Java
+   * functions. Such stylesheets need the full input document.
+   * 
+   * @param flag 'false' if all attributes of the input must be kept
+   */
+  public void setProjectable(boolean flag) {
+    _projectable = flag;
+  }
+
+  /**
+   * Returns 'true' if attributes of the input document that are not named in
+   * the stylesheet can be discarded while the document is built.
+   * 
+   * @return 'true' if the input document can be projected
+   */
+  public boolean isProjectable() {
+    return _projectable && !_multiDocument && !_callsNodeset;
+  }
+
+  /**
+   * Returns the analysis deciding which elements and text nodes of the input
+   * document can be discarded.
+   * 
+   * @return The projection analysis
+   */
+  public Projection getProjection() {
+    return _projection;
+  }
+
+  /**
+   * Returns 'true' if, in addition to the attributes, the elements of the
+   * input document that are not named in the stylesheet can be discarded.
+   * 
+   * @return 'true' if the elements of the input document can be projected
+   */
+  public boolean isElementProjectable() {
+    return isProjectable() && !_hasIdCall && _projection.isElementProjectable();
+  }
+
+  /**
+   * This method is called by the type checker for every descendant, following
+   * or preceding step that selects nodes by name.
+   */
+  public void countTypedAxisStep() {
+    _typedAxisSteps++;
+  }
+
+  /**
+   * Returns 'true' if the stylesheet has enough descendant, following or
+   * preceding steps that select nodes by name to pay for building the type
+   * index of the input documents.
+   * 
+   * @return 'true' if the input documents should get a type index
+   */
+  public boolean isTypeIndexed() {
+    return _typedAxisSteps >= TYPE_INDEX_STEPS;
+  }
+
   /**
    * Set the class name for the generated translet. This class name is overridden if multiple stylesheets are compiled
    * in one go using the compile(List urls) method.
@@ -235,4 +235,24 @@ public interface XsltcErrorMessages {
 
   String outlineErrMethodTooBig();
 
+  String streamingAxisErr(Object axis);
+
+  String streamingFunctionErr(Object functionName);
+
+  String streamingAbsolutePathErr();
+
+  String streamingVariableErr();
+
+  String streamingSortErr();
+
+  String streamingMultiConsumeErr();
+
+  String streamingModeErr(Object modeName);
+
+  String streamingStylesheetErr();
+
+  String invalidCompressionInOutput(Object value);
+
+  String channelNotBlockingErr();
+
 }
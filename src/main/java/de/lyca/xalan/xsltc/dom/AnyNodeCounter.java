@@ -17,15 +17,26 @@
  */
 package de.lyca.xalan.xsltc.dom;
 
+import java.util.Arrays;
+
 import de.lyca.xalan.xsltc.DOM;
 import de.lyca.xalan.xsltc.runtime.AbstractTranslet;
 import de.lyca.xml.dtm.DTMAxisIterator;
+import de.lyca.xml.dtm.DTMManager;
 
 /**
  * @author Jacek Ambroziak
  * @author Santiago Pericas-Geertsen
  */
 public abstract class AnyNodeCounter extends NodeCounter {
+  /**
+   * The last node counted and its count. Nodes are usually numbered in
+   * document order, so the count of the next node is found by counting
+   * forward from the last one rather than back to the root.
+   */
+  private int _lastNode = END;
+  private int _lastCount;
+
   public AnyNodeCounter(AbstractTranslet translet, DOM document, DTMAxisIterator iterator) {
     super(translet, document, iterator);
   }
@@ -52,6 +63,15 @@ public abstract class AnyNodeCounter extends NodeCounter {
         return "Infinity";
       else
         return formatNumbers((int) _value);
+    } else if (follows(_lastNode, _node)) {
+      result = _lastCount;
+      for (int next = _lastNode + 1; next <= _node; next++) {
+        if (matchesFrom(next)) {
+          result = 0;
+        } else if (matchesCount(next)) {
+          ++result;
+        }
+      }
     } else {
       int next = _node;
       final int root = _document.getDocument();
@@ -68,14 +88,31 @@ public abstract class AnyNodeCounter extends NodeCounter {
          */
       }
     }
+    _lastNode = _node;
+    _lastCount = result;
     return formatNumbers(result);
   }
 
+  /**
+   * Returns true if <tt>node</tt> is <tt>last</tt> or comes after it within
+   * the same block of node handles.
+   */
+  static boolean follows(int last, int node) {
+    return last != END && last <= node
+        && (last & DTMManager.IDENT_DTM_DEFAULT) == (node & DTMManager.IDENT_DTM_DEFAULT);
+  }
+
   public static NodeCounter getDefaultNodeCounter(AbstractTranslet translet, DOM document, DTMAxisIterator iterator) {
     return new DefaultAnyNodeCounter(translet, document, iterator);
   }
 
   static class DefaultAnyNodeCounter extends AnyNodeCounter {
+    /**
+     * The last node counted and its count, per expanded type.
+     */
+    private int[] _lastNodes = new int[0];
+    private int[] _lastCounts = new int[0];
+
     public DefaultAnyNodeCounter(AbstractTranslet translet, DOM document, DTMAxisIterator iterator) {
       super(translet, document, iterator);
     }
@@ -97,25 +134,49 @@ public abstract class AnyNodeCounter extends NodeCounter {
           result = (int) _value;
         }
       } else {
-        int next = _node;
-        result = 0;
         final int ntype = _document.getExpandedTypeID(_node);
-        final int root = _document.getDocument();
-        while (next >= 0) {
-          if (ntype == _document.getExpandedTypeID(next)) {
-            result++;
-          }
-          // %HZ%: Is this the best way of finding the root? Is it better to
-          // check
-          // %HZ%: parent(next)?
-          if (next == root) {
-            break;
-          } else {
-            --next;
-          }
+        if (ntype >= _lastNodes.length) {
+          final int length = Math.max(ntype + 1, 2 * _lastNodes.length);
+          final int oldLength = _lastNodes.length;
+          _lastNodes = Arrays.copyOf(_lastNodes, length);
+          _lastCounts = Arrays.copyOf(_lastCounts, length);
+          Arrays.fill(_lastNodes, oldLength, length, END);
         }
+        result = follows(_lastNodes[ntype], _node) ? countForward(ntype) : countBackward(ntype);
+        _lastNodes[ntype] = _node;
+        _lastCounts[ntype] = result;
       }
       return formatNumbers(result);
     }
+
+    private int countForward(int ntype) {
+      int result = _lastCounts[ntype];
+      for (int next = _lastNodes[ntype] + 1; next <= _node; next++) {
+        if (ntype == _document.getExpandedTypeID(next)) {
+          result++;
+        }
+      }
+      return result;
+    }
+
+    private int countBackward(int ntype) {
+      int next = _node;
+      int result = 0;
+      final int root = _document.getDocument();
+      while (next >= 0) {
+        if (ntype == _document.getExpandedTypeID(next)) {
+          result++;
+        }
+        // %HZ%: Is this the best way of finding the root? Is it better to
+        // check
+        // %HZ%: parent(next)?
+        if (next == root) {
+          break;
+        } else {
+          --next;
+        }
+      }
+      return result;
+    }
   }
 }
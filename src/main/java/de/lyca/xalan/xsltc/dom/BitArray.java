@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 
+import de.lyca.xalan.xsltc.util.IntegerArray;
 import de.lyca.xml.dtm.DTMAxisIterator;
 
 /**
@@ -192,6 +193,29 @@ public class BitArray implements Externalizable {
     _bits[i] |= _masks[bit % 32];
   }
 
+  /**
+   * Adds the positions of all set bits plus <code>offset</code> to the given
+   * array, in ascending order, and clears the bits. Only the words between the
+   * first and the last bit set by setBit() are scanned.
+   */
+  public final void drainTo(IntegerArray positions, int offset) {
+    for (int i = _first; i <= _last; i++) {
+      int bits = _bits[i];
+      if (bits != 0) {
+        _bits[i] = 0;
+        final int base = offset + (i << 5);
+        do {
+          final int b = Integer.numberOfLeadingZeros(bits);
+          positions.add(base + b);
+          bits ^= _masks[b];
+        } while (bits != 0);
+      }
+    }
+    _first = Integer.MAX_VALUE;
+    _last = Integer.MIN_VALUE;
+    _pos = Integer.MAX_VALUE;
+  }
+
   /**
    * Merge two bit arrays. This currently only works for nodes from a single DOM
    * (because there is only one _mask per array).
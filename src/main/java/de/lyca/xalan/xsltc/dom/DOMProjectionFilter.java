@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xalan.xsltc.dom;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import de.lyca.xalan.xsltc.runtime.AbstractTranslet;
+import de.lyca.xml.dtm.DTM;
+import de.lyca.xml.dtm.DTMProjectionFilter;
+
+/**
+ * A {@link de.lyca.xml.dtm.DTMProjectionFilter DTMProjectionFilter} that keeps
+ * only the attributes named in a translet's names array. Attributes in the XML
+ * namespace are always kept. The filter must only be used with translets for
+ * which {@link AbstractTranslet#isProjectable()} returns true.
+ * <p>
+ * If {@link AbstractTranslet#isElementProjectable()} returns true, only the
+ * elements named in the names array are kept as well, and the subtrees of the
+ * elements listed by {@link AbstractTranslet#getProjectedSubtrees()} are kept
+ * in full. Text nodes outside these subtrees are discarded if
+ * {@link AbstractTranslet#isTextProjectable()} returns true.
+ */
+public class DOMProjectionFilter implements DTMProjectionFilter {
+
+  private static final String XML_URI = "http://www.w3.org/XML/1998/namespace";
+
+  // Expanded names ("uri:local" or "local") of the attributes to keep
+  private final Set<String> m_names = new HashSet<>();
+
+  // Namespaces in which all attributes are kept ("uri:*" name tests)
+  private final Set<String> m_uris = new HashSet<>();
+
+  // Expanded names of the elements to keep, or null to keep all elements
+  private final Set<String> m_elements;
+
+  // Namespaces in which all elements are kept
+  private final Set<String> m_elementUris;
+
+  // Expanded names of the elements whose subtrees are kept in full
+  private final Set<String> m_subtrees;
+
+  // Namespaces in which the subtrees of all elements are kept in full
+  private final Set<String> m_subtreeUris;
+
+  // True if text nodes outside the kept subtrees are kept
+  private final boolean m_keepText;
+
+  /**
+   * Construct a filter keeping the attributes referenced by a translet.
+   * 
+   * @param translet
+   *          A projectable translet.
+   */
+  public DOMProjectionFilter(AbstractTranslet translet) {
+    final String[] names = translet.getNamesArray();
+    final String[] uris = translet.getUrisArray();
+    final int[] types = translet.getTypesArray();
+
+    final boolean elementProjectable = translet.isElementProjectable();
+    m_elements = elementProjectable ? new HashSet<>() : null;
+    m_elementUris = new HashSet<>();
+    m_subtrees = new HashSet<>();
+    m_subtreeUris = new HashSet<>();
+    m_keepText = !elementProjectable || !translet.isTextProjectable();
+
+    for (int i = 0; i < names.length; i++) {
+      final String uri = uris[i] == null ? "" : uris[i];
+      if (types[i] == DTM.ATTRIBUTE_NODE) {
+        if (names[i].equals("*")) {
+          m_uris.add(uri);
+        } else {
+          m_names.add(expandedName(uri, names[i]));
+        }
+      } else if (types[i] == DTM.ELEMENT_NODE && elementProjectable) {
+        if (names[i].equals("*")) {
+          m_elementUris.add(uri);
+        } else {
+          m_elements.add(expandedName(uri, names[i]));
+        }
+      }
+    }
+
+    final int[] subtrees = translet.getProjectedSubtrees();
+    if (elementProjectable && subtrees != null) {
+      for (final int i : subtrees) {
+        final String uri = uris[i] == null ? "" : uris[i];
+        if (names[i].equals("*")) {
+          m_subtreeUris.add(uri);
+        } else {
+          m_subtrees.add(expandedName(uri, names[i]));
+        }
+      }
+    }
+  }
+
+  private static String expandedName(String uri, String localName) {
+    return uri.length() == 0 ? localName : uri + ':' + localName;
+  }
+
+  @Override
+  public boolean getShouldKeepAttribute(String uri, String localName) {
+    if (uri == null || uri.length() == 0)
+      return m_names.contains(localName);
+    return uri.equals(XML_URI) || m_uris.contains(uri) || m_names.contains(uri + ':' + localName);
+  }
+
+  @Override
+  public boolean getShouldKeepElement(String uri, String localName) {
+    if (m_elements == null)
+      return true;
+    if (uri == null || uri.length() == 0)
+      return m_elements.contains(localName);
+    return m_elementUris.contains(uri) || m_elements.contains(uri + ':' + localName);
+  }
+
+  @Override
+  public boolean getShouldKeepSubtree(String uri, String localName) {
+    if (uri == null || uri.length() == 0)
+      return m_subtrees.contains(localName);
+    return m_subtreeUris.contains(uri) || m_subtrees.contains(uri + ':' + localName);
+  }
+
+  @Override
+  public boolean getShouldKeepText() {
+    return m_keepText;
+  }
+}
@@ -22,101 +22,194 @@ import java.io.PrintWriter;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
 
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
 
 import de.lyca.xalan.xsltc.DOM;
 import de.lyca.xalan.xsltc.DOMCache;
-import de.lyca.xalan.xsltc.DOMEnhancedForDTM;
 import de.lyca.xalan.xsltc.Translet;
-import de.lyca.xalan.xsltc.runtime.AbstractTranslet;
-import de.lyca.xalan.xsltc.runtime.BasisLibrary;
-import de.lyca.xalan.xsltc.runtime.Constants;
-import de.lyca.xalan.xsltc.runtime.Messages;
+import de.lyca.xml.dtm.DTMManager;
 import de.lyca.xml.utils.SystemIDResolver;
 
 /**
+ * A thread-safe DOMCache for the documents loaded by the document() function.
+ * The cache holds at most a given number of documents whose estimated size
+ * does not exceed a given weight, and evicts the least recently used documents
+ * first. Every document is loaded once, even if several transformations ask
+ * for it at the same time. A document that has not been checked for
+ * modifications for {@link #REFRESH_INTERVAL} milliseconds is revalidated on a
+ * background thread, and replaced once the modified document has been loaded.
+ * <p>
+ * The cached DOMs are shared between transformations: LoadDocument registers
+ * them with the DTMManager of the calling transformation, and makes a private
+ * copy if the translet strips whitespace. The DTM IDs of the cached DOMs start
+ * at {@link #FIRST_DTM_ID} to keep them clear of the IDs that transformations
+ * allocate for themselves.
+ *
  * @author Morten Jorgensen
  */
 public final class DocumentCache implements DOMCache {
 
+  /**
+   * The lowest DTM ID used for cached DOMs.
+   */
+  public static final int FIRST_DTM_ID = DTMManager.IDENT_MAX_DTMS >>> 4;
+
+  /**
+   * Milliseconds between two checks whether a document has been modified.
+   */
+  public static final long REFRESH_INTERVAL = 1000;
+
+  /**
+   * The executor used to revalidate documents unless one is given.
+   */
+  private static final Executor REVALIDATOR;
+
+  static {
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "DocumentCache revalidation");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+    REVALIDATOR = executor;
+  }
+
   private final int _size;
-  private final Hashtable<String, CachedDocument> _references;
-  private final String[] _URIs;
-  private int _count;
-  private int _current;
-  private SAXParser _parser;
-  private XMLReader _reader;
-  private XSLTCDTMManager _dtmManager;
-
-  private static final int REFRESH_INTERVAL = 1000;
-
-  /*
-   * Inner class containing a DOMImpl object and DTD handler
+  private final long _maxWeight;
+  private final XSLTCDTMManager _dtmManager;
+  private final Executor _executor;
+  private final ConcurrentHashMap<String, CachedDocument> _documents = new ConcurrentHashMap<>();
+  private final Object _evictionLock = new Object();
+
+  /**
+   * Evicted DOMs that transformations were still using, guarded by
+   * _evictionLock.
+   */
+  private final List<SAXImpl> _retired = new ArrayList<>();
+
+  /**
+   * Incremented on every access, orders the documents by recency of use.
+   */
+  private final AtomicLong _clock = new AtomicLong();
+  private final AtomicLong _weight = new AtomicLong();
+  private final AtomicLong _hits = new AtomicLong();
+  private final AtomicLong _misses = new AtomicLong();
+  private final AtomicLong _loads = new AtomicLong();
+  private final AtomicLong _failures = new AtomicLong();
+  private final AtomicLong _reloads = new AtomicLong();
+  private final AtomicLong _evictions = new AtomicLong();
+
+  /**
+   * A cached document and its statistics.
    */
   public final class CachedDocument {
 
-    // Statistics data
+    private final String _uri;
+    private final CompletableFuture<SAXImpl> _dom = new CompletableFuture<>();
+    private final AtomicBoolean _checking = new AtomicBoolean();
+    private final AtomicLong _accessCount = new AtomicLong();
     private final long _firstReferenced;
-    private final long _lastReferenced;
-    private long _accessCount;
-    private long _lastModified;
-    private long _lastChecked;
-    private long _buildTime;
-
-    // DOM and DTD handler references
-    private DOMEnhancedForDTM _dom = null;
+    private volatile long _lastReferenced;
+    private volatile long _lastUsed;
+    private volatile long _lastModified;
+    private volatile long _lastChecked;
+    private volatile long _buildTime;
+    private volatile long _estimatedSize;
 
     /**
      * Constructor - load document and initialise statistics
+     *
+     * @deprecated The cache creates its entries in
+     *             {@link DocumentCache#retrieveDocument(String, String, Translet)}
      */
+    @Deprecated
     public CachedDocument(String uri) {
-      // Initialise statistics variables
-      final long stamp = System.currentTimeMillis();
-      _firstReferenced = stamp;
-      _lastReferenced = stamp;
-      _accessCount = 0;
-      loadDocument(uri);
+      this(uri, null);
+      build();
+    }
 
-      _buildTime = System.currentTimeMillis() - stamp;
+    private CachedDocument(String uri, CachedDocument previous) {
+      _uri = uri;
+      _firstReferenced = _lastReferenced = _lastChecked = System.currentTimeMillis();
+      if (previous != null) {
+        _lastUsed = previous._lastUsed;
+      }
     }
 
     /**
-     * Loads the document and updates build-time (latency) statistics
+     * Loads the document if it has not been loaded yet.
+     *
+     * @deprecated The cache loads its documents itself
      */
+    @Deprecated
     public void loadDocument(String uri) {
+      if (!_dom.isDone()) {
+        build();
+      }
+    }
 
+    /**
+     * Build the DOM and complete this entry, with <code>null</code> if the
+     * document cannot be loaded.
+     */
+    private SAXImpl build() {
+      SAXImpl dom = null;
       try {
         final long stamp = System.currentTimeMillis();
-        _dom = (DOMEnhancedForDTM) _dtmManager.getDTM(new SAXSource(_reader, new InputSource(uri)), false, null, true,
-            false);
-        _dom.setDocumentURI(uri);
-
-        // The build time can be used for statistics for a better
-        // priority algorithm (currently round robin).
-        final long thisTime = System.currentTimeMillis() - stamp;
-        if (_buildTime > 0) {
-          _buildTime = _buildTime + thisTime >>> 1;
-        } else {
-          _buildTime = thisTime;
-        }
-      } catch (final Exception e) {
-        _dom = null;
+        final long lastModified = DocumentCache.getLastModified(_uri);
+        dom = (SAXImpl) _dtmManager.getDTM(new StreamSource(_uri), true, null, false, false, true);
+        dom.setDocumentURI(_uri);
+        dom.setShared();
+        _lastModified = lastModified;
+        _buildTime = System.currentTimeMillis() - stamp;
+        _estimatedSize = dom.getEstimatedSize();
+      } catch (final RuntimeException e) {
+        dom = null;
       }
+      _dom.complete(dom);
+      return dom;
+    }
+
+    private void access(long tick) {
+      _lastUsed = tick;
+      _lastReferenced = System.currentTimeMillis();
+      _accessCount.incrementAndGet();
+    }
+
+    public String getURI() {
+      return _uri;
     }
 
+    /**
+     * Returns the DOM, or <code>null</code> if it has not been loaded yet or
+     * could not be loaded.
+     */
     public DOM getDocument() {
-      return _dom;
+      return _dom.getNow(null);
     }
 
     public long getFirstReferenced() {
@@ -128,84 +221,191 @@ public final class DocumentCache implements DOMCache {
     }
 
     public long getAccessCount() {
-      return _accessCount;
+      return _accessCount.get();
     }
 
+    /**
+     * @deprecated The cache counts the accesses itself
+     */
+    @Deprecated
     public void incAccessCount() {
-      _accessCount++;
+      _accessCount.incrementAndGet();
     }
 
     public long getLastModified() {
       return _lastModified;
     }
 
+    /**
+     * @deprecated The cache records the time-stamp when it loads the document
+     */
+    @Deprecated
     public void setLastModified(long t) {
       _lastModified = t;
     }
 
-    public long getLatency() {
-      return _buildTime;
-    }
-
     public long getLastChecked() {
       return _lastChecked;
     }
 
+    /**
+     * Set the time the document was last checked for modifications; a time
+     * more than {@link DocumentCache#REFRESH_INTERVAL} milliseconds ago has it
+     * checked on its next access.
+     */
     public void setLastChecked(long t) {
       _lastChecked = t;
     }
 
+    /**
+     * Returns the time in milliseconds it took to load the document.
+     */
+    public long getLatency() {
+      return _buildTime;
+    }
+
+    /**
+     * Returns the estimated size of the DOM in bytes.
+     */
     public long getEstimatedSize() {
-      if (_dom != null)
-        return _dom.getSize() << 5; // ???
-      else
-        return 0;
+      return _estimatedSize;
+    }
+  }
+
+  /**
+   * A snapshot of the cache statistics.
+   */
+  public static final class Statistics {
+
+    private final long _hits;
+    private final long _misses;
+    private final long _loads;
+    private final long _failures;
+    private final long _reloads;
+    private final long _evictions;
+    private final long _weight;
+    private final List<CachedDocument> _documents;
+
+    Statistics(DocumentCache cache, List<CachedDocument> documents) {
+      _hits = cache._hits.get();
+      _misses = cache._misses.get();
+      _loads = cache._loads.get();
+      _failures = cache._failures.get();
+      _reloads = cache._reloads.get();
+      _evictions = cache._evictions.get();
+      _weight = cache._weight.get();
+      _documents = Collections.unmodifiableList(documents);
+    }
+
+    /**
+     * Returns the number of requests answered from the cache, including
+     * requests that waited for another request to load the document.
+     */
+    public long getHitCount() {
+      return _hits;
+    }
+
+    /**
+     * Returns the number of requests that loaded a document.
+     */
+    public long getMissCount() {
+      return _misses;
     }
 
+    /**
+     * Returns the number of documents loaded, including reloads of modified
+     * documents.
+     */
+    public long getLoadCount() {
+      return _loads;
+    }
+
+    /**
+     * Returns the number of documents that could not be loaded.
+     */
+    public long getLoadFailureCount() {
+      return _failures;
+    }
+
+    /**
+     * Returns the number of modified documents that have been replaced.
+     */
+    public long getReloadCount() {
+      return _reloads;
+    }
+
+    /**
+     * Returns the number of documents evicted to keep the cache in its bounds.
+     */
+    public long getEvictionCount() {
+      return _evictions;
+    }
+
+    /**
+     * Returns the estimated size in bytes of all cached DOMs.
+     */
+    public long getWeight() {
+      return _weight;
+    }
+
+    /**
+     * Returns the cached documents, the most recently used first.
+     */
+    public List<CachedDocument> getDocuments() {
+      return _documents;
+    }
   }
 
   /**
-   * DocumentCache constructor
+   * Create a cache for up to <code>size</code> documents that may use a
+   * quarter of the maximum heap.
    */
   public DocumentCache(int size) throws SAXException {
-    this(size, null);
-    try {
-      _dtmManager = (XSLTCDTMManager) XSLTCDTMManager.getDTMManagerClass().newInstance();
-    } catch (final Exception e) {
-      throw new SAXException(e);
-    }
+    this(size, createDTMManager());
   }
 
   /**
-   * DocumentCache constructor
+   * Create a cache for up to <code>size</code> documents that may use a
+   * quarter of the maximum heap, building its DOMs with the given DTMManager.
    */
   public DocumentCache(int size, XSLTCDTMManager dtmManager) throws SAXException {
-    _dtmManager = dtmManager;
-    _count = 0;
-    _current = 0;
+    this(size, Runtime.getRuntime().maxMemory() / 4, dtmManager, null);
+  }
+
+  /**
+   * Create a cache.
+   *
+   * @param size
+   *          the maximum number of documents
+   * @param maxWeight
+   *          the maximum estimated size in bytes of all cached DOMs
+   * @param dtmManager
+   *          the DTMManager that builds the DOMs, or <code>null</code> for a
+   *          new one
+   * @param executor
+   *          the executor that revalidates documents, or <code>null</code> for
+   *          a single daemon thread shared by all caches
+   */
+  public DocumentCache(int size, long maxWeight, XSLTCDTMManager dtmManager, Executor executor) {
     _size = size;
-    _references = new Hashtable<>(_size + 2);
-    _URIs = new String[_size];
+    _maxWeight = maxWeight;
+    _dtmManager = dtmManager != null ? dtmManager : XSLTCDTMManager.newInstance();
+    _dtmManager.setFirstFreeDTMID(FIRST_DTM_ID);
+    _executor = executor != null ? executor : REVALIDATOR;
+  }
 
+  private static XSLTCDTMManager createDTMManager() throws SAXException {
     try {
-      // Create a SAX parser and get the XMLReader object it uses
-      final SAXParserFactory factory = SAXParserFactory.newInstance();
-      try {
-        factory.setFeature(Constants.NAMESPACE_FEATURE, true);
-      } catch (final Exception e) {
-        factory.setNamespaceAware(true);
-      }
-      _parser = factory.newSAXParser();
-      _reader = _parser.getXMLReader();
-    } catch (final ParserConfigurationException e) {
-      BasisLibrary.runTimeError(Messages.get().namespacesSupportErr());
+      return (XSLTCDTMManager) XSLTCDTMManager.getDTMManagerClass().newInstance();
+    } catch (final Exception e) {
+      throw new SAXException(e);
     }
   }
 
   /**
    * Returns the time-stamp for a document's last update
    */
-  private final long getLastModified(String uri) {
+  private static long getLastModified(String uri) {
     try {
       final URL url = new URL(uri);
       final URLConnection connection = url.openConnection();
@@ -213,7 +413,7 @@ public final class DocumentCache implements DOMCache {
       // Check for a "file:" URI (courtesy of Brian Ewins)
       if (timestamp == 0) { // get 0 for local URI
         if ("file".equals(url.getProtocol())) {
-          final File localfile = new File(URLDecoder.decode(url.getFile()));
+          final File localfile = new File(URLDecoder.decode(url.getFile(), "UTF-8"));
           timestamp = localfile.lastModified();
         }
       }
@@ -226,51 +426,12 @@ public final class DocumentCache implements DOMCache {
   }
 
   /**
-     *
-     */
-  private CachedDocument lookupDocument(String uri) {
-    return _references.get(uri);
-  }
-
-  /**
-     *
-     */
-  private synchronized void insertDocument(String uri, CachedDocument doc) {
-    if (_count < _size) {
-      // Insert out URI in circular buffer
-      _URIs[_count++] = uri;
-      _current = 0;
-    } else {
-      // Remove oldest URI from reference Hashtable
-      _references.remove(_URIs[_current]);
-      // Insert our URI in circular buffer
-      _URIs[_current] = uri;
-      if (++_current >= _size) {
-        _current = 0;
-      }
-    }
-    _references.put(uri, doc);
-  }
-
-  /**
-     *
-     */
-  private synchronized void replaceDocument(String uri, CachedDocument doc) {
-    final CachedDocument old = _references.get(uri);
-    if (doc == null) {
-      insertDocument(uri, doc);
-    } else {
-      _references.put(uri, doc);
-    }
-  }
-
-  /**
-   * Returns a document either by finding it in the cache or downloading it and putting it in the cache.
+   * Returns a document either by finding it in the cache or loading it and
+   * putting it in the cache. The returned DOM is shared: it must be registered
+   * with the caller's DTMManager before it is used, as LoadDocument does.
    */
   @Override
-  public DOM retrieveDocument(String baseURI, String href, Translet trs) {
-    CachedDocument doc;
-
+  public DOM retrieveDocument(String baseURI, String href, Translet translet) {
     String uri = href;
     if (baseURI != null && baseURI.length() != 0) {
       try {
@@ -280,65 +441,66 @@ public final class DocumentCache implements DOMCache {
       }
     }
 
-    // Try to get the document from the cache first
-    if ((doc = lookupDocument(uri)) == null) {
-      doc = new CachedDocument(uri);
-      if (doc == null)
-        return null; // better error handling needed!!!
-      doc.setLastModified(getLastModified(uri));
-      insertDocument(uri, doc);
-    }
-    // If the document is in the cache we must check if it is still valid
-    else {
-      final long now = System.currentTimeMillis();
-      final long chk = doc.getLastChecked();
-      doc.setLastChecked(now);
-      // Has the modification time for this file been checked lately?
-      if (now > chk + REFRESH_INTERVAL) {
-        doc.setLastChecked(now);
-        final long last = getLastModified(uri);
-        // Reload document if it has been modified since last download
-        if (last > doc.getLastModified()) {
-          doc = new CachedDocument(uri);
-          if (doc == null)
-            return null;
-          doc.setLastModified(getLastModified(uri));
-          replaceDocument(uri, doc);
+    CachedDocument doc = _documents.get(uri);
+    if (doc == null) {
+      final CachedDocument created = new CachedDocument(uri, null);
+      doc = _documents.putIfAbsent(uri, created);
+      if (doc == null) {
+        _misses.incrementAndGet();
+        doc = created;
+        load(doc);
+        if (doc.getDocument() == null) {
+          _documents.remove(uri, doc);
+          return null;
         }
+        doc.access(_clock.incrementAndGet());
+        evict(doc);
+        return doc.getDocument();
       }
-
     }
 
-    // Get the references to the actual DOM and DTD handler
-    final DOM dom = doc.getDocument();
-
-    // The dom reference may be null if the URL pointed to a
-    // non-existing document
+    _hits.incrementAndGet();
+    // Wait if another transformation is loading the document
+    final SAXImpl dom = doc._dom.join();
     if (dom == null)
       return null;
+    doc.access(_clock.incrementAndGet());
+    revalidate(doc);
+    return dom;
+  }
 
-    doc.incAccessCount(); // For statistics
-
-    final AbstractTranslet translet = (AbstractTranslet) trs;
-
-    // Give the translet an early opportunity to extract any
-    // information from the DOM object that it would like.
-    translet.prepassDocument(dom);
-
-    return doc.getDocument();
+  /**
+   * Returns a snapshot of the cache statistics.
+   */
+  public Statistics getStatistics() {
+    final List<CachedDocument> documents = new ArrayList<>();
+    for (final CachedDocument doc : _documents.values()) {
+      if (doc.getDocument() != null) {
+        documents.add(doc);
+      }
+    }
+    Collections.sort(documents, new Comparator<CachedDocument>() {
+      @Override
+      public int compare(CachedDocument a, CachedDocument b) {
+        return Long.compare(b._lastUsed, a._lastUsed);
+      }
+    });
+    return new Statistics(this, documents);
   }
 
   /**
-   * Outputs the cache statistics
+   * Outputs the cache statistics as an HTML table.
+   *
+   * @deprecated Use {@link #getStatistics()}
    */
+  @Deprecated
   public void getStatistics(PrintWriter out) {
     out.println("<h2>DOM cache statistics</h2><center><table border=\"2\">" + "<tr><td><b>Document URI</b></td>"
         + "<td><center><b>Build time</b></center></td>" + "<td><center><b>Access count</b></center></td>"
         + "<td><center><b>Last accessed</b></center></td>" + "<td><center><b>Last modified</b></center></td></tr>");
 
-    for (int i = 0; i < _count; i++) {
-      final CachedDocument doc = _references.get(_URIs[i]);
-      out.print("<tr><td><a href=\"" + _URIs[i] + "\">" + "<font size=-1>" + _URIs[i] + "</font></a></td>");
+    for (final CachedDocument doc : getStatistics().getDocuments()) {
+      out.print("<tr><td><a href=\"" + doc.getURI() + "\">" + "<font size=-1>" + doc.getURI() + "</font></a></td>");
       out.print("<td><center>" + doc.getLatency() + "ms</center></td>");
       out.print("<td><center>" + doc.getAccessCount() + "</center></td>");
       out.print("<td><center>" + new Date(doc.getLastReferenced()) + "</center></td>");
@@ -348,4 +510,116 @@ public final class DocumentCache implements DOMCache {
 
     out.println("</table></center>");
   }
+
+  /**
+   * Load the document of an entry and complete it, with <code>null</code> if
+   * the document cannot be loaded.
+   */
+  private void load(CachedDocument doc) {
+    if (doc.build() != null) {
+      _weight.addAndGet(doc._estimatedSize);
+      _loads.incrementAndGet();
+    } else {
+      _failures.incrementAndGet();
+    }
+  }
+
+  /**
+   * Check on the background thread whether the document has been modified if
+   * it has not been checked lately. A modified document is loaded and replaces
+   * the cached one; until then, and if it cannot be loaded, the cached
+   * document is used.
+   */
+  private void revalidate(final CachedDocument doc) {
+    if (System.currentTimeMillis() <= doc._lastChecked + REFRESH_INTERVAL || !doc._checking.compareAndSet(false, true))
+      return;
+    try {
+      _executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (_documents.get(doc._uri) == doc && getLastModified(doc._uri) > doc._lastModified) {
+              reload(doc);
+            }
+          } finally {
+            doc._lastChecked = System.currentTimeMillis();
+            doc._checking.set(false);
+          }
+        }
+      });
+    } catch (final RejectedExecutionException e) {
+      doc._checking.set(false);
+    }
+  }
+
+  private void reload(CachedDocument doc) {
+    final CachedDocument fresh = new CachedDocument(doc._uri, doc);
+    load(fresh);
+    if (fresh.getDocument() == null)
+      return;
+    if (_documents.replace(doc._uri, doc, fresh)) {
+      _reloads.incrementAndGet();
+      discard(doc);
+      evict(fresh);
+    } else {
+      discard(fresh);
+    }
+  }
+
+  /**
+   * Evict the least recently used documents until the cache is within its
+   * bounds again. The number of documents is small, so a scan for the least
+   * recently used one keeps the cache hits free of any bookkeeping but a
+   * volatile write.
+   */
+  private void evict(CachedDocument keep) {
+    synchronized (_evictionLock) {
+      releaseRetired();
+      while (_documents.size() > _size || _weight.get() > _maxWeight) {
+        CachedDocument lru = null;
+        for (final CachedDocument doc : _documents.values()) {
+          if (doc != keep && doc._dom.isDone() && (lru == null || doc._lastUsed < lru._lastUsed)) {
+            lru = doc;
+          }
+        }
+        if (lru == null) {
+          break;
+        }
+        if (_documents.remove(lru._uri, lru)) {
+          _evictions.incrementAndGet();
+          discard(lru);
+        }
+      }
+    }
+  }
+
+  /**
+   * Retire a document that has been removed from the cache. Its DOM is
+   * released once no transformation has it bound to its DTMManager; a DOM
+   * still in use is released when the next document is loaded.
+   */
+  private void discard(CachedDocument doc) {
+    final SAXImpl dom = doc._dom.getNow(null);
+    if (dom != null) {
+      _weight.addAndGet(-doc._estimatedSize);
+      synchronized (_evictionLock) {
+        _retired.add(dom);
+        releaseRetired();
+      }
+    }
+  }
+
+  /**
+   * Release the retired DOMs that are no longer in use, which frees their DTM
+   * IDs for new documents.
+   */
+  private void releaseRetired() {
+    for (final Iterator<SAXImpl> i = _retired.iterator(); i.hasNext();) {
+      final SAXImpl dom = i.next();
+      if (!dom.isInUse()) {
+        i.remove();
+        _dtmManager.release(dom, true);
+      }
+    }
+  }
 }
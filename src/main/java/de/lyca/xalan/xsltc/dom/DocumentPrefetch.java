@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xalan.xsltc.dom;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import de.lyca.xalan.xsltc.StripFilter;
+import de.lyca.xalan.xsltc.TransletException;
+import de.lyca.xalan.xsltc.runtime.AbstractTranslet;
+import de.lyca.xml.utils.SystemIDResolver;
+
+/**
+ * Loads the documents named by a node-set argument of the document() function
+ * concurrently. The DTMs are created on the transformation's thread, and their
+ * content is parsed on a shared executor with at most
+ * {@link #THREADS_PROPERTY} threads. Every DTM gets a name table of its own so
+ * that the parsers do not share any state. A document of more than 65536 nodes
+ * takes further DTM IDs while it is parsed, in no particular order, so once all
+ * documents have been parsed their DTM IDs are bound again in the order of
+ * their URIs. The DTM IDs - and thereby the document order between the
+ * documents - are then the same as if they had been loaded one after another.
+ * The documents are registered with the MultiDOM in the order of their URIs.
+ */
+final class DocumentPrefetch {
+
+  /**
+   * The name of the system property holding the maximum number of threads
+   * that parse documents for all transformations. Documents are loaded one
+   * after another if it is 0.
+   */
+  static final String THREADS_PROPERTY = "de.lyca.xalan.xsltc.DOCUMENT_PREFETCH_THREADS";
+
+  private static final int THREADS = Integer.getInteger(THREADS_PROPERTY, 4);
+
+  private static volatile ExecutorService _executor;
+
+  private DocumentPrefetch() {
+  }
+
+  /**
+   * Load the documents that are not registered with the MultiDOM yet, unless
+   * the translet loads its documents through a DOMCache. A document that
+   * cannot be parsed on the executor is loaded again on the calling thread,
+   * under the DTM ID reserved for it; if that fails as well, the error is
+   * reported once the documents before it have been registered.
+   *
+   * @param hrefs
+   *          the URIs as given to the document() function
+   * @param bases
+   *          the base URI of each URI
+   */
+  static void prefetch(List<String> hrefs, List<String> bases, AbstractTranslet translet, MultiDOM multiplexer)
+      throws TransletException {
+    if (hrefs.size() < 2 || THREADS <= 0 || translet.getDOMCache() != null)
+      return;
+
+    final Set<String> uris = new LinkedHashSet<>();
+    for (int i = 0; i < hrefs.size(); i++) {
+      String uri = hrefs.get(i);
+      final String base = bases.get(i);
+      if (base != null && base.length() != 0) {
+        try {
+          uri = SystemIDResolver.getAbsoluteURI(uri, base);
+        } catch (final TransformerException e) {
+          continue;
+        }
+      }
+      if (uri != null && uri.length() != 0 && multiplexer.getDocumentMask(uri) == -1) {
+        uris.add(uri);
+      }
+    }
+    if (uris.size() > 1) {
+      load(new ArrayList<>(uris), translet, multiplexer);
+    }
+  }
+
+  private static void load(List<String> uris, AbstractTranslet translet, MultiDOM multiplexer)
+      throws TransletException {
+    final XSLTCDTMManager dtmManager = (XSLTCDTMManager) multiplexer.getDTMManager();
+    final ExecutorService executor = getExecutor();
+    final List<Parse> parses = new ArrayList<>(uris.size());
+    for (final String uri : uris) {
+      final StreamSource source = new StreamSource(uri);
+      // DOMWSFilter caches the mappings of the DTMs it has seen
+      final SAXImpl dom = dtmManager.createDTM(source,
+          translet instanceof StripFilter ? new DOMWSFilter(translet) : null, translet.hasIdCall(), true);
+      final Parse parse = new Parse(dtmManager, dom, source);
+      parses.add(parse);
+      try {
+        executor.execute(parse);
+      } catch (final RejectedExecutionException e) {
+        parse.run();
+      }
+    }
+
+    boolean interrupted = false;
+    RuntimeException failure = null;
+    final List<SAXImpl> doms = new ArrayList<>(parses.size());
+    for (int i = 0; i < parses.size(); i++) {
+      final Parse parse = parses.get(i);
+      if (interrupted || failure != null) {
+        parse.abandon();
+        continue;
+      }
+      try {
+        parse.await();
+      } catch (final InterruptedException e) {
+        interrupted = true;
+        parse.abandon();
+        continue;
+      }
+      SAXImpl dom = parse._dom;
+      if (parse._failure != null) {
+        // Load the document again on this thread, under the DTM ID reserved
+        // for it, and report the error if it fails again
+        dom = dtmManager.recreateDTM(dom, parse._source,
+            translet instanceof StripFilter ? new DOMWSFilter(translet) : null, translet.hasIdCall(), true);
+        try {
+          dtmManager.parse(dom, parse._source);
+        } catch (final RuntimeException e) {
+          dtmManager.release(dom, true);
+          failure = e;
+          continue;
+        }
+      }
+      doms.add(dom);
+    }
+
+    dtmManager.rebindDTMs(doms);
+    for (int i = 0; i < doms.size(); i++) {
+      final SAXImpl dom = doms.get(i);
+      translet.prepassDocument(dom);
+      dom.setDocumentURI(uris.get(i));
+      multiplexer.addDOMAdapter(translet.makeDOMAdapter(dom));
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure != null)
+      throw failure;
+  }
+
+  /**
+   * Parses the content of a DTM on the executor.
+   */
+  private static final class Parse implements Runnable {
+
+    private final XSLTCDTMManager _dtmManager;
+    private final SAXImpl _dom;
+    private final StreamSource _source;
+    private final AtomicBoolean _claimed = new AtomicBoolean();
+    private final CountDownLatch _done = new CountDownLatch(1);
+    private volatile RuntimeException _failure;
+
+    Parse(XSLTCDTMManager dtmManager, SAXImpl dom, StreamSource source) {
+      _dtmManager = dtmManager;
+      _dom = dom;
+      _source = source;
+    }
+
+    @Override
+    public void run() {
+      if (!_claimed.compareAndSet(false, true))
+        return;
+      try {
+        _dtmManager.parse(_dom, _source);
+      } catch (final RuntimeException e) {
+        _failure = e;
+      } finally {
+        _done.countDown();
+      }
+    }
+
+    void await() throws InterruptedException {
+      _done.await();
+    }
+
+    /**
+     * Release the DTM without registering it. A parse that has not started
+     * yet is skipped; one that is running is waited for, since it is still
+     * writing to the DTM.
+     */
+    void abandon() {
+      if (!_claimed.compareAndSet(false, true)) {
+        boolean interrupted = false;
+        while (true) {
+          try {
+            _done.await();
+            break;
+          } catch (final InterruptedException e) {
+            interrupted = true;
+          }
+        }
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      _dtmManager.release(_dom, true);
+    }
+  }
+
+  private static ExecutorService getExecutor() {
+    ExecutorService executor = _executor;
+    if (executor == null) {
+      synchronized (DocumentPrefetch.class) {
+        executor = _executor;
+        if (executor == null) {
+          final ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+              new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                  final Thread thread = new Thread(r, "document() prefetch");
+                  thread.setDaemon(true);
+                  return thread;
+                }
+              });
+          pool.allowCoreThreadTimeOut(true);
+          _executor = executor = pool;
+        }
+      }
+    }
+    return executor;
+  }
+}
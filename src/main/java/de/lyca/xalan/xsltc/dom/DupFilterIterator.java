@@ -26,7 +26,8 @@ import de.lyca.xml.dtm.ref.DTMDefaultBase;
 
 /**
  * Removes duplicates and sorts a source iterator. The nodes from the source are collected in an array upon calling
- * setStartNode(). This array is later sorted and duplicates are ignored in next().
+ * setStartNode(). This array is later sorted and duplicates are ignored in next(). Dense node-sets are put into order
+ * by a {@link NodeBitmap} instead of being sorted.
  * 
  * @author G. Todd Miller
  */
@@ -94,14 +95,26 @@ public final class DupFilterIterator extends DTMAxisIteratorBase {
         _source.setStartNode(_startNode = node);
 
         _nodes.clear();
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
         while ((node = _source.next()) != END) {
           _nodes.add(node);
+          if (node < first) {
+            first = node;
+          }
+          if (node > last) {
+            last = node;
+          }
         }
 
         // Nodes produced by KeyIndex are known to be in document order.
         // Take advantage of it.
         if (!sourceIsKeyIndex) {
-          _nodes.sort();
+          if (NodeBitmap.isDense(_nodes.cardinality(), first, last)) {
+            NodeBitmap.distinct(_nodes, first, last);
+          } else {
+            _nodes.sort();
+          }
         }
 
         _nodesSize = _nodes.cardinality();
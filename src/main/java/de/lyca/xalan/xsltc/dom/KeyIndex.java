@@ -23,7 +23,10 @@ import java.util.StringTokenizer;
 
 import de.lyca.xalan.xsltc.DOM;
 import de.lyca.xalan.xsltc.DOMEnhancedForDTM;
+import de.lyca.xalan.xsltc.TransletException;
+import de.lyca.xalan.xsltc.runtime.AbstractTranslet;
 import de.lyca.xalan.xsltc.runtime.BasisLibrary;
+import de.lyca.xalan.xsltc.runtime.Messages;
 import de.lyca.xalan.xsltc.util.IntegerArray;
 import de.lyca.xml.dtm.Axis;
 import de.lyca.xml.dtm.DTM;
@@ -32,6 +35,13 @@ import de.lyca.xml.dtm.ref.DTMAxisIteratorBase;
 
 /**
  * Stores mappings of key values or IDs to DTM nodes.
+ * <p>
+ * The index of a key is built for a document on the first lookup in that
+ * document. If the key does not depend on variables or parameters, the index
+ * is kept with the document, so that it can be reused by later transformations
+ * of a cached document with the same translet. IDs are looked up in the ID
+ * table of the document itself.
+ * </p>
  * <em>Use of an instance of this class as a {@link DTMAxisIterator} is
  * <b>deprecated.</b></em>
  * 
@@ -74,9 +84,54 @@ public class KeyIndex extends DTMAxisIteratorBase {
    */
   private int _markedPosition = 0;
 
+  /**
+   * The translet that builds the index of the key on demand, or
+   * <code>null</code> if nodes are added to this index by the caller.
+   */
+  private AbstractTranslet _translet;
+
+  /**
+   * The name of the key.
+   */
+  private String _name;
+
+  /**
+   * Whether the index of a document may be shared with other transformations
+   * of that document.
+   */
+  private boolean _shared;
+
+  /**
+   * The root nodes of the documents that have been indexed.
+   */
+  private IntegerArray _indexedRoots;
+
+  /**
+   * Documents whose ID attributes are looked up by id(), by root node.
+   */
+  private Map<Integer, DOM> _idDocuments;
+
   public KeyIndex(int dummy) {
   }
 
+  /**
+   * Create an index that is built by the translet on the first lookup in a
+   * document.
+   * 
+   * @param translet
+   *          the translet that defines the key
+   * @param name
+   *          the name of the key
+   * @param shared
+   *          true if the key does not depend on variables or parameters
+   */
+  public KeyIndex(AbstractTranslet translet, String name, boolean shared) {
+    _translet = translet;
+    _name = name;
+    _shared = shared;
+    _indexedRoots = new IntegerArray(4);
+  }
+
   @Override
   public void setRestartable(boolean flag) {
   }
@@ -88,14 +143,18 @@ public class KeyIndex extends DTMAxisIteratorBase {
   public void add(Object value, int node, int rootNode) {
     if (_currentDocumentNode != rootNode) {
       _currentDocumentNode = rootNode;
-      _index = new HashMap<>();
-      _rootToIndexMap.put(rootNode, _index);
+      _index = _rootToIndexMap.get(rootNode);
+      if (_index == null) {
+        _index = new HashMap<>();
+        _rootToIndexMap.put(rootNode, _index);
+      }
     }
 
     IntegerArray nodes = _index.get(value);
 
     if (nodes == null) {
-      nodes = new IntegerArray();
+      // Most key values identify a single node
+      nodes = new IntegerArray(1);
       _index.put(value, nodes);
       nodes.add(node);
 
@@ -106,6 +165,88 @@ public class KeyIndex extends DTMAxisIteratorBase {
     }
   }
 
+  /**
+   * Registers a document whose ID attributes are looked up by id().
+   */
+  public void addIdDocument(DOM document) {
+    if (_idDocuments == null) {
+      _idDocuments = new HashMap<>();
+    }
+    _idDocuments.put(document.getDocument(), document);
+  }
+
+  /**
+   * Returns the mapping between values and nodes for the document with the
+   * given root node, building it first if this key has not been used in that
+   * document before.
+   */
+  private Map<Object, IntegerArray> getIndex(int root) {
+    if (_translet != null && _indexedRoots.indexOf(root) < 0) {
+      // Mark the document first; a key must not refer to itself
+      _indexedRoots.add(root);
+      buildIndex(root);
+    }
+    return _rootToIndexMap.get(root);
+  }
+
+  private void buildIndex(int root) {
+    final SAXImpl document = _shared ? getDocumentImpl(root) : null;
+    final SharedIndexKey key = document != null ? new SharedIndexKey(_translet.getClass(), _name, root) : null;
+    if (key != null) {
+      final Map<Object, IntegerArray> index = document.getKeyIndex(key);
+      if (index != null) {
+        _rootToIndexMap.put(root, index);
+        return;
+      }
+    }
+
+    try {
+      _translet.buildKeyIndex(_name, _dom, root);
+    } catch (final TransletException e) {
+      BasisLibrary.runTimeError(Messages.get().runTimeInternalErr(e.getMessage()));
+    }
+    // Nodes are never added to an index once it has been built
+    _currentDocumentNode = DTM.NULL;
+    Map<Object, IntegerArray> index = _rootToIndexMap.get(root);
+    if (index == null) {
+      _rootToIndexMap.put(root, index = new HashMap<>());
+    }
+    for (final IntegerArray nodes : index.values()) {
+      nodes.trimToSize();
+    }
+    if (key != null) {
+      document.putKeyIndex(key, index);
+    }
+  }
+
+  /**
+   * Returns the SAXImpl whose root node is <code>root</code>, or
+   * <code>null</code> if the document is of another kind.
+   */
+  private SAXImpl getDocumentImpl(int root) {
+    DOM dom = _dom instanceof MultiDOM ? ((MultiDOM) _dom).getDOMAdapter(root) : _dom;
+    if (dom instanceof DOMAdapter) {
+      dom = ((DOMAdapter) dom).getDOMImpl();
+    }
+    return dom instanceof SAXImpl && dom.getDocument() == root ? (SAXImpl) dom : null;
+  }
+
+  /**
+   * Looks up a single ID in the ID table of the document with the given root
+   * node.
+   */
+  private IntegerArray lookupIdNodes(int root, String id) {
+    final DOM document = _idDocuments != null ? _idDocuments.get(root) : null;
+    if (document != null) {
+      final Map<String, Integer> elementsByID = document.getElementsWithIDs();
+      final Integer element = elementsByID != null ? elementsByID.get(id) : null;
+      if (element != null)
+        return new IntegerArray(new int[] { document.getNodeHandle(element.intValue()) });
+    }
+    final Map<Object, IntegerArray> index = _rootToIndexMap.get(root);
+    return index != null ? index.get(id) : null;
+  }
+
   /**
    * Merge the current value's nodeset set by lookupKey() with _nodes.
    * 
@@ -253,19 +394,12 @@ public class KeyIndex extends DTMAxisIteratorBase {
     final String string = (String) value;
     final int rootHandle = _dom.getAxisIterator(Axis.ROOT).setStartNode(node).next();
 
-    // Get the mapping table for the document containing the context node
-    final Map<Object, IntegerArray> index = _rootToIndexMap.get(rootHandle);
-
     // Split argument to id function into XML whitespace separated tokens
     final StringTokenizer values = new StringTokenizer(string, " \n\t");
 
     while (values.hasMoreElements()) {
       final String token = (String) values.nextElement();
-      IntegerArray nodes = null;
-
-      if (index != null) {
-        nodes = index.get(token);
-      }
+      IntegerArray nodes = lookupIdNodes(rootHandle, token);
 
       // If input was from W3C DOM, use DOM's getElementById to do
       // the look-up.
@@ -307,7 +441,7 @@ public class KeyIndex extends DTMAxisIteratorBase {
     final int rootHandle = _dom.getAxisIterator(Axis.ROOT).setStartNode(node).next();
 
     // Get the mapping table for the document containing the context node
-    final Map<Object, IntegerArray> index = _rootToIndexMap.get(rootHandle);
+    final Map<Object, IntegerArray> index = getIndex(rootHandle);
 
     // Check whether the context node is present in the set of nodes
     // returned by the key function
@@ -481,6 +615,11 @@ public class KeyIndex extends DTMAxisIteratorBase {
     final KeyIndex other = new KeyIndex(0);
     other._index = _index;
     other._rootToIndexMap = _rootToIndexMap;
+    other._translet = _translet;
+    other._name = _name;
+    other._shared = _shared;
+    other._indexedRoots = _indexedRoots;
+    other._idDocuments = _idDocuments;
     other._nodes = _nodes;
     other._position = _position;
     return other;
@@ -547,6 +686,35 @@ public class KeyIndex extends DTMAxisIteratorBase {
     return new KeyIndexIterator(keyValue, isKeyCall);
   }
 
+  /**
+   * Identifies the index of a key kept with a document. Translet classes
+   * compiled from different stylesheets may define keys of the same name.
+   */
+  static final class SharedIndexKey {
+    private final Class<?> _translet;
+    private final String _name;
+    private final int _root;
+
+    SharedIndexKey(Class<?> translet, String name, int root) {
+      _translet = translet;
+      _name = name;
+      _root = root;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof SharedIndexKey))
+        return false;
+      final SharedIndexKey other = (SharedIndexKey) obj;
+      return _translet == other._translet && _root == other._root && _name.equals(other._name);
+    }
+
+    @Override
+    public int hashCode() {
+      return (_translet.hashCode() * 31 + _name.hashCode()) * 31 + _root;
+    }
+  }
+
   /**
    * Used to represent an empty node set.
    */
@@ -768,9 +936,6 @@ public class KeyIndex extends DTMAxisIteratorBase {
     protected IntegerArray lookupNodes(int root, String keyValue) {
       IntegerArray result = null;
 
-      // Get mapping from key values/IDs to DTM nodes for this document
-      final Map<Object, IntegerArray> index = _rootToIndexMap.get(root);
-
       if (!_isKeyIterator) {
         // For id function, tokenize argument as whitespace separated
         // list of values and look up nodes identified by each ID.
@@ -778,12 +943,9 @@ public class KeyIndex extends DTMAxisIteratorBase {
 
         while (values.hasMoreElements()) {
           final String token = (String) values.nextElement();
-          IntegerArray nodes = null;
 
           // Does the ID map to any node in the document?
-          if (index != null) {
-            nodes = index.get(token);
-          }
+          IntegerArray nodes = lookupIdNodes(root, token);
 
           // If input was from W3C DOM, use DOM's getElementById to do
           // the look-up.
@@ -801,9 +963,12 @@ public class KeyIndex extends DTMAxisIteratorBase {
             }
           }
         }
-      } else if (index != null) {
+      } else {
         // For key function, map key value to nodes
-        result = index.get(keyValue);
+        final Map<Object, IntegerArray> index = getIndex(root);
+        if (index != null) {
+          result = index.get(keyValue);
+        }
       }
 
       return result;
@@ -18,9 +18,13 @@
 package de.lyca.xalan.xsltc.dom;
 
 import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.transform.stream.StreamSource;
 
+import org.xml.sax.SAXException;
+
 import de.lyca.xalan.xsltc.DOM;
 import de.lyca.xalan.xsltc.DOMCache;
 import de.lyca.xalan.xsltc.DOMEnhancedForDTM;
@@ -32,6 +36,7 @@ import de.lyca.xml.dtm.DTM;
 import de.lyca.xml.dtm.DTMAxisIterator;
 import de.lyca.xml.dtm.DTMManager;
 import de.lyca.xml.dtm.DTMWSFilter;
+import de.lyca.xml.dtm.ref.DTMTreeWalker;
 import de.lyca.xml.dtm.ref.EmptyIterator;
 import de.lyca.xml.utils.SystemIDResolver;
 
@@ -171,6 +176,10 @@ public final class LoadDocument {
           final Exception e = new FileNotFoundException(originalUri);
           throw new TransletException(e);
         }
+        if (newdom instanceof SAXImpl && ((SAXImpl) newdom).isShared()) {
+          newdom = adoptSharedDOM((SAXImpl) newdom, translet, multiplexer);
+          translet.prepassDocument(newdom);
+        }
       } else {
         // Parse the input document and construct DOM object
         // Trust the DTMManager to pick the right parser and set up the DOM
@@ -197,9 +206,6 @@ public final class LoadDocument {
       final DOMAdapter domAdapter = translet.makeDOMAdapter(newdom);
       multiplexer.addDOMAdapter(domAdapter);
 
-      // Create index for any key elements
-      translet.buildKeys(domAdapter, null, null, newdom.getDocument());
-
       // Return a singleton iterator containing the root node
       return new SingletonIterator(newdom.getDocument(), true);
     } catch (final Exception e) {
@@ -207,13 +213,40 @@ public final class LoadDocument {
     }
   }
 
+  /**
+   * Register a DOM shared between transformations, such as a DOM from the
+   * DocumentCache, with the DTMManager of this transformation. A private copy
+   * is made if the translet strips whitespace or if one of the DTM IDs of the
+   * DOM is already taken.
+   */
+  private static DOM adoptSharedDOM(SAXImpl dom, AbstractTranslet translet, MultiDOM multiplexer)
+      throws SAXException {
+    final XSLTCDTMManager dtmManager = (XSLTCDTMManager) multiplexer.getDTMManager();
+    if (!(translet instanceof StripFilter) && dtmManager.addSharedDTM(dom)) {
+      dom.migrateTo(dtmManager);
+      translet.addSharedDocument(dom);
+      return dom;
+    }
+
+    final boolean hasIdCall = translet.hasIdCall();
+    final DTMWSFilter wsfilter = translet instanceof StripFilter ? new DOMWSFilter(translet) : null;
+    final SAXImpl copy = (SAXImpl) dtmManager.getDTM(null, true, wsfilter, false, false, hasIdCall);
+    new DTMTreeWalker(copy.getBuilder(), dom).traverse(dom.getDocument());
+    if (hasIdCall) {
+      copy.copyIDAttributes(dom);
+    }
+    copy.setDocumentURI(dom.getDocumentURI());
+    return copy;
+  }
+
   private static DTMAxisIterator document(DTMAxisIterator arg1, String baseURI, AbstractTranslet translet, DOM dom)
       throws Exception {
-    final UnionIterator union = new UnionIterator(dom);
+    final List<String> uris = new ArrayList<>();
+    final List<String> bases = new ArrayList<>();
     int node = DTM.NULL;
 
     while ((node = arg1.next()) != DTM.NULL) {
-      final String uri = dom.getStringValueX(node);
+      uris.add(dom.getStringValueX(node));
       // document(node-set) if true; document(node-set,node-set) if false
       if (baseURI == null) {
         baseURI = dom.getDocumentURI(node);
@@ -221,7 +254,15 @@ public final class LoadDocument {
           baseURI = SystemIDResolver.getAbsoluteURIFromRelative(baseURI);
         }
       }
-      union.addIterator(document(uri, baseURI, translet, dom));
+      bases.add(baseURI);
+    }
+
+    // Load the documents concurrently before they are looked up in order
+    DocumentPrefetch.prefetch(uris, bases, translet, (MultiDOM) dom);
+
+    final UnionIterator union = new UnionIterator(dom);
+    for (int i = 0; i < uris.size(); i++) {
+      union.addIterator(document(uris.get(i), bases.get(i), translet, dom));
     }
     return union;
   }
@@ -251,9 +292,6 @@ public final class LoadDocument {
     final DOMAdapter domAdapter = translet.makeDOMAdapter(newdom);
     ((MultiDOM) dom).addDOMAdapter(domAdapter);
 
-    // Create index for any key elements
-    translet.buildKeys(domAdapter, null, null, newdom.getDocument());
-
     // Return a singleton iterator containing the root node
     return new SingletonIterator(newdom.getDocument(), true);
   }
@@ -365,6 +365,16 @@ public final class MultiDOM implements DOM {
       return _adapters[domIdx.intValue()];
   }
 
+  /**
+   * Returns the DOM adapter of the document containing the given node, or
+   * <code>null</code> if no document with the DTM ID of the node has been
+   * added.
+   */
+  public DOM getDOMAdapter(int node) {
+    final int domNo = node >>> DTMManager.IDENT_DTM_NODE_BITS;
+    return domNo < _adapters.length ? _adapters[domNo] : null;
+  }
+
   @Override
   public int getDocument() {
     return _main.getDocument();
@@ -17,6 +17,8 @@
  */
 package de.lyca.xalan.xsltc.dom;
 
+import java.util.Arrays;
+
 import de.lyca.xalan.xsltc.DOM;
 import de.lyca.xalan.xsltc.runtime.AbstractTranslet;
 import de.lyca.xalan.xsltc.util.IntegerArray;
@@ -29,6 +31,18 @@ import de.lyca.xml.dtm.DTMAxisIterator;
  */
 public abstract class MultipleNodeCounter extends NodeCounter {
   private DTMAxisIterator _precSiblings = null;
+  private DTMAxisIterator _follSiblings = null;
+
+  /**
+   * The last node counted on every level, its parent and its count. A node
+   * with the same parent that comes after it is counted from there rather
+   * than from the first child. The counts are only valid for the node type
+   * they were computed for.
+   */
+  private int[] _lastNodes = new int[0];
+  private int[] _lastParents = new int[0];
+  private int[] _lastCounts = new int[0];
+  private int _lastNodeType = DOM.FIRST_TYPE - 1;
 
   public MultipleNodeCounter(AbstractTranslet translet, DOM document, DTMAxisIterator iterator) {
     super(translet, document, iterator);
@@ -38,7 +52,10 @@ public abstract class MultipleNodeCounter extends NodeCounter {
   public NodeCounter setStartNode(int node) {
     _node = node;
     _nodeType = _document.getExpandedTypeID(node);
-    _precSiblings = _document.getAxisIterator(Axis.PRECEDINGSIBLING);
+    if (_precSiblings == null) {
+      _precSiblings = _document.getAxisIterator(Axis.PRECEDINGSIBLING);
+      _follSiblings = _document.getAxisIterator(Axis.FOLLOWINGSIBLING);
+    }
     return this;
   }
 
@@ -73,25 +90,68 @@ public abstract class MultipleNodeCounter extends NodeCounter {
     for (int i = 0; i < nAncestors; i++) {
       counters[i] = Integer.MIN_VALUE;
     }
+    if (_lastNodeType != _nodeType || _lastNodes.length < nAncestors) {
+      resetLastNodes(_lastNodeType != _nodeType ? 0 : _lastNodes.length, Math.max(nAncestors, _lastNodes.length));
+      _lastNodeType = _nodeType;
+    }
 
     // Increment array of counters according to semantics
     for (int j = 0, i = nAncestors - 1; i >= 0; i--, j++) {
       final int ancestor = ancestors.at(i);
 
       if (matchesCount(ancestor)) {
-        _precSiblings.setStartNode(ancestor);
-        while ((next = _precSiblings.next()) != END) {
-          if (matchesCount(next)) {
-            counters[j] = counters[j] == Integer.MIN_VALUE ? 1 : counters[j] + 1;
+        final int parent = _document.getParent(ancestor);
+        final int last = _lastNodes[j];
+        if (last != END && _lastParents[j] == parent && last <= ancestor) {
+          counters[j] = countFrom(last, _lastCounts[j], ancestor);
+        }
+        if (counters[j] == Integer.MIN_VALUE) {
+          _precSiblings.setStartNode(ancestor);
+          while ((next = _precSiblings.next()) != END) {
+            if (matchesCount(next)) {
+              counters[j] = counters[j] == Integer.MIN_VALUE ? 1 : counters[j] + 1;
+            }
           }
+          // Count the node itself
+          counters[j] = counters[j] == Integer.MIN_VALUE ? 1 : counters[j] + 1;
         }
-        // Count the node itself
-        counters[j] = counters[j] == Integer.MIN_VALUE ? 1 : counters[j] + 1;
+        _lastNodes[j] = ancestor;
+        _lastParents[j] = parent;
+        _lastCounts[j] = counters[j];
       }
     }
     return formatNumbers(counters);
   }
 
+  /**
+   * Count <tt>node</tt> from an earlier sibling with the given count. Returns
+   * Integer.MIN_VALUE if <tt>node</tt> is not found among the following
+   * siblings.
+   */
+  private int countFrom(int last, int count, int node) {
+    if (last == node)
+      return count;
+    int next;
+    _follSiblings.setStartNode(last);
+    while ((next = _follSiblings.next()) != END) {
+      if (next == node)
+        return count + 1;
+      if (matchesCount(next)) {
+        count++;
+      }
+    }
+    return Integer.MIN_VALUE;
+  }
+
+  private void resetLastNodes(int from, int length) {
+    if (length > _lastNodes.length) {
+      _lastNodes = Arrays.copyOf(_lastNodes, length);
+      _lastParents = Arrays.copyOf(_lastParents, length);
+      _lastCounts = Arrays.copyOf(_lastCounts, length);
+    }
+    Arrays.fill(_lastNodes, from, length, END);
+  }
+
   public static NodeCounter getDefaultNodeCounter(AbstractTranslet translet, DOM document, DTMAxisIterator iterator) {
     return new DefaultMultipleNodeCounter(translet, document, iterator);
   }
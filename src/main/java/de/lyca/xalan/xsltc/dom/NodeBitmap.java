@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xalan.xsltc.dom;
+
+import de.lyca.xalan.xsltc.util.IntegerArray;
+
+/**
+ * Puts node handles into document order and removes duplicates by marking them
+ * in a bit array and scanning it. This takes time linear in the number of
+ * nodes plus the range of their handles, instead of sorting them, and pays off
+ * for node-sets that cover a good part of that range, like the union of
+ * several descendant steps. The bit array is reused by all node-sets of a
+ * thread; it is not kept per DOM since a cached DOM may be shared by several
+ * transformations at once.
+ */
+final class NodeBitmap {
+
+  /**
+   * A node-set is dense if it holds at least one node per DENSITY handles of
+   * its range, that is, one node per word of the bit array.
+   */
+  static final int DENSITY = 32;
+
+  /**
+   * Node-sets with fewer nodes are sorted.
+   */
+  static final int MIN_NODES = 64;
+
+  /**
+   * Larger bit arrays are not kept for the next node-set.
+   */
+  private static final int MAX_RETAINED_BITS = 1 << 23;
+
+  private static final ThreadLocal<BitArray> BITS = new ThreadLocal<>();
+
+  private NodeBitmap() {
+  }
+
+  /**
+   * Returns true if <code>size</code> nodes whose handles lie between
+   * <code>first</code> and <code>last</code> are dense enough to be put into
+   * order by {@link #distinct(IntegerArray, int, int)}.
+   */
+  static boolean isDense(int size, int first, int last) {
+    return size >= MIN_NODES && (long) last - first < (long) size * DENSITY;
+  }
+
+  /**
+   * Replace the nodes by their distinct handles in ascending order. All
+   * handles must lie between <code>first</code> and <code>last</code>.
+   */
+  static void distinct(IntegerArray nodes, int first, int last) {
+    final int range = last - first + 1;
+    BitArray bits = BITS.get();
+    if (bits == null || bits.size() < range) {
+      bits = new BitArray(range);
+      if (range <= MAX_RETAINED_BITS) {
+        BITS.set(bits);
+      }
+    }
+    final int size = nodes.cardinality();
+    for (int i = 0; i < size; i++) {
+      bits.setBit(nodes.at(i) - first);
+    }
+    nodes.clear();
+    bits.drainTo(nodes, first);
+  }
+}
@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xalan.xsltc.dom;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.text.CollationKey;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import de.lyca.xalan.xsltc.TransletException;
+import de.lyca.xml.utils.StringComparable;
+
+/**
+ * The sort keys of a list of nodes, stored by column: the keys of every sort
+ * level are extracted once into an array, a <code>double[]</code> for numeric
+ * keys and an array of collation keys for text keys, or of StringComparables
+ * for text keys with a case-order. The nodes are then sorted
+ * by an index merge sort that only compares array elements. Lists with more
+ * than {@link #PARALLEL_THRESHOLD} nodes are sorted by a fork-join merge sort
+ * if all of their keys can be compared from several threads. Sorted keys can
+ * be written to a run for {@link NodeSortRuns}.
+ */
+final class NodeSortKeys {
+
+  /**
+   * Ranges up to this size are sorted by insertion sort.
+   */
+  private static final int INSERTION_THRESHOLD = 32;
+
+  /**
+   * Lists larger than this are sorted in parallel.
+   */
+  static final int PARALLEL_THRESHOLD = 1 << 13;
+
+  private final int[] _nodes;
+  private final int _size;
+  private final int[] _sortOrders;
+  private final double[][] _numericKeys;
+  private final CollationKey[][] _collationKeys;
+  private final StringComparable[][] _caseOrderKeys;
+  private boolean _allCollationKeys = true;
+  private int[] _order;
+
+  /**
+   * Extract the keys of all levels for the first <code>size</code> nodes.
+   *
+   * @param record
+   *          a sort record for the sort; it is used to extract the keys of
+   *          all nodes
+   * @param last
+   *          the number of nodes being sorted, which may be larger than
+   *          <code>size</code> if the nodes are sorted in runs
+   */
+  NodeSortKeys(NodeSortRecord record, int[] nodes, int size, int last) throws TransletException {
+    this(null, record, nodes, size, last);
+  }
+
+  /**
+   * Extract the keys of all levels for the first <code>size</code> nodes,
+   * taking the keys of the leading nodes from keys extracted before.
+   *
+   * @param head
+   *          unsorted keys of the first nodes of <code>nodes</code>, or
+   *          <code>null</code>
+   * @param record
+   *          a sort record for the sort; it is used to extract the keys of
+   *          all nodes
+   * @param last
+   *          the number of nodes being sorted, which may be larger than
+   *          <code>size</code> if the nodes are sorted in runs
+   */
+  NodeSortKeys(NodeSortKeys head, NodeSortRecord record, int[] nodes, int size, int last) throws TransletException {
+    _nodes = nodes;
+    _size = size;
+    _sortOrders = record.settings.getSortOrders();
+    final int[] types = record.settings.getTypes();
+    final int levels = _sortOrders.length;
+    _numericKeys = new double[levels][];
+    _collationKeys = new CollationKey[levels][];
+    _caseOrderKeys = new StringComparable[levels][];
+    final String[] caseOrders = record.settings.getCaseOrders();
+    final int from = head == null ? 0 : Math.min(head._size, size);
+
+    for (int level = 0; level < levels; level++) {
+      if (types[level] == NodeSortRecord.COMPARE_NUMERIC) {
+        final double[] keys = _numericKeys[level] = new double[size];
+        if (from > 0) {
+          System.arraycopy(head._numericKeys[level], 0, keys, 0, from);
+        }
+        for (int i = from; i < size; i++) {
+          keys[i] = record.numericKey(nodes[i], level, last);
+        }
+      } else if (caseOrders[level] == null || caseOrders[level].isEmpty()) {
+        final CollationKey[] keys = _collationKeys[level] = new CollationKey[size];
+        if (from > 0) {
+          System.arraycopy(head._collationKeys[level], 0, keys, 0, from);
+        }
+        for (int i = from; i < size; i++) {
+          keys[i] = (CollationKey) record.stringKey(nodes[i], level, last);
+        }
+      } else {
+        final StringComparable[] keys = _caseOrderKeys[level] = new StringComparable[size];
+        if (from > 0) {
+          System.arraycopy(head._caseOrderKeys[level], 0, keys, 0, from);
+        }
+        for (int i = from; i < size; i++) {
+          keys[i] = (StringComparable) record.stringKey(nodes[i], level, last);
+        }
+        // Keys honouring a case-order call back into a shared Collator and
+        // have no byte representation.
+        _allCollationKeys = false;
+      }
+    }
+  }
+
+  /**
+   * Returns true if all text keys are CollationKeys.
+   */
+  boolean hasCollationKeys() {
+    return _allCollationKeys;
+  }
+
+  /**
+   * Returns a rough estimate of the memory in bytes used by the keys and by
+   * sorting them.
+   */
+  long estimateSize() {
+    // The node, the index array and its sort buffer
+    long size = 12L * _size;
+    for (int level = 0; level < _sortOrders.length; level++) {
+      if (_numericKeys[level] != null) {
+        size += 8L * _size;
+      } else if (_collationKeys[level] != null) {
+        for (int i = 0; i < _size; i++) {
+          // The key, its source string and their object headers
+          size += 4L * _collationKeys[level][i].getSourceString().length() + 96;
+        }
+      } else {
+        for (int i = 0; i < _size; i++) {
+          size += 4L * _caseOrderKeys[level][i].toString().length() + 96;
+        }
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Sort the nodes in place. Nodes with equal keys stay in document order.
+   */
+  void sort() {
+    final int[] index = new int[_size];
+    for (int i = 0; i < _size; i++) {
+      index[i] = i;
+    }
+    final int[] buffer = index.clone();
+    if (_size > PARALLEL_THRESHOLD && _allCollationKeys) {
+      ForkJoinPool.commonPool().invoke(new ParallelSort(buffer, index, 0, _size));
+    } else {
+      mergeSort(buffer, index, 0, _size);
+    }
+    final int[] nodes = _nodes.clone();
+    for (int i = 0; i < _size; i++) {
+      _nodes[i] = nodes[index[i]];
+    }
+    _order = index;
+  }
+
+  /**
+   * Write the sorted nodes together with their keys. Each record holds the
+   * node followed by the key of every level, as a double for numeric keys and
+   * as the length and bytes of the CollationKey for text keys.
+   */
+  void write(DataOutput out) throws IOException {
+    for (int i = 0; i < _size; i++) {
+      final int k = _order[i];
+      out.writeInt(_nodes[i]);
+      for (int level = 0; level < _sortOrders.length; level++) {
+        if (_numericKeys[level] != null) {
+          out.writeDouble(_numericKeys[level][k]);
+        } else {
+          final byte[] bytes = _collationKeys[level][k].toByteArray();
+          out.writeInt(bytes.length);
+          out.write(bytes);
+        }
+      }
+    }
+  }
+
+  private int compare(int i, int j) {
+    for (int level = 0; level < _sortOrders.length; level++) {
+      final int cmp;
+      if (_numericKeys[level] != null) {
+        cmp = Double.compare(_numericKeys[level][i], _numericKeys[level][j]);
+      } else if (_collationKeys[level] != null) {
+        cmp = _collationKeys[level][i].compareTo(_collationKeys[level][j]);
+      } else {
+        cmp = _caseOrderKeys[level][i].compareTo(_caseOrderKeys[level][j]);
+      }
+      if (cmp != 0)
+        return _sortOrders[level] == NodeSortRecord.COMPARE_DESCENDING ? -cmp : cmp;
+    }
+    // Compare based on document order if all sort keys are equal
+    return _nodes[i] - _nodes[j];
+  }
+
+  /**
+   * Sort <code>dst[from, to)</code>, using <code>src</code>, which holds the
+   * same elements, as scratch space.
+   */
+  private void mergeSort(int[] src, int[] dst, int from, int to) {
+    if (to - from <= INSERTION_THRESHOLD) {
+      insertionSort(dst, from, to);
+      return;
+    }
+    final int mid = from + to >>> 1;
+    mergeSort(dst, src, from, mid);
+    mergeSort(dst, src, mid, to);
+    merge(src, dst, from, mid, to);
+  }
+
+  private void insertionSort(int[] a, int from, int to) {
+    for (int i = from + 1; i < to; i++) {
+      final int x = a[i];
+      int j = i - 1;
+      while (j >= from && compare(a[j], x) > 0) {
+        a[j + 1] = a[j];
+        j--;
+      }
+      a[j + 1] = x;
+    }
+  }
+
+  /**
+   * Merge the sorted ranges <code>src[from, mid)</code> and
+   * <code>src[mid, to)</code> into <code>dst[from, to)</code>.
+   */
+  private void merge(int[] src, int[] dst, int from, int mid, int to) {
+    if (compare(src[mid - 1], src[mid]) <= 0) {
+      System.arraycopy(src, from, dst, from, to - from);
+      return;
+    }
+    int i = from;
+    int j = mid;
+    for (int k = from; k < to; k++) {
+      if (j >= to || i < mid && compare(src[i], src[j]) <= 0) {
+        dst[k] = src[i++];
+      } else {
+        dst[k] = src[j++];
+      }
+    }
+  }
+
+  /**
+   * The fork-join version of mergeSort().
+   */
+  private final class ParallelSort extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] _src;
+    private final int[] _dst;
+    private final int _from;
+    private final int _to;
+
+    ParallelSort(int[] src, int[] dst, int from, int to) {
+      _src = src;
+      _dst = dst;
+      _from = from;
+      _to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (_to - _from <= PARALLEL_THRESHOLD) {
+        mergeSort(_src, _dst, _from, _to);
+        return;
+      }
+      final int mid = _from + _to >>> 1;
+      invokeAll(new ParallelSort(_dst, _src, _from, mid), new ParallelSort(_dst, _src, mid, _to));
+      merge(_src, _dst, _from, mid, _to);
+    }
+  }
+}
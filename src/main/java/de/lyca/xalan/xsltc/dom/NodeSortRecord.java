@@ -117,13 +117,8 @@ public abstract class NodeSortRecord {
   private final Comparable stringValue(int level) throws TransletException {
     // Get value from our array if possible
     if (scanned <= level) {
-      final AbstractTranslet translet = settings.getTranslet();
-      final Locale[] locales = settings.getLocales();
-      final String[] caseOrder = settings.getCaseOrders();
-
       // Get value from DOM if accessed for the first time
-      final String str = extractValueFromDOM(dom, node, level, translet, last);
-      final Comparable key = StringComparable.getComparator(str, locales[level], collators[level], caseOrder[level]);
+      final Comparable key = stringKey(node, level, last);
       values[scanned++] = key;
       return key;
     }
@@ -133,24 +128,39 @@ public abstract class NodeSortRecord {
   private final Double numericValue(int level) throws TransletException {
     // Get value from our vector if possible
     if (scanned <= level) {
-      final AbstractTranslet translet = settings.getTranslet();
-
       // Get value from DOM if accessed for the first time
-      final String str = extractValueFromDOM(dom, node, level, translet, last);
-      Double num;
-      try {
-        num = new Double(str);
-      }
-      // Treat number as NaN if it cannot be parsed as a double
-      catch (final NumberFormatException e) {
-        num = new Double(Double.NEGATIVE_INFINITY);
-      }
+      final Double num = numericKey(node, level, last);
       values[scanned++] = num;
       return num;
     }
     return (Double) values[level];
   }
 
+  /**
+   * Extract the text sort key of a level for any node. The sort record is
+   * only used for the sort settings and the variables of the sort keys.
+   */
+  final Comparable<?> stringKey(int node, int level, int last) throws TransletException {
+    final String str = extractValueFromDOM(dom, node, level, settings.getTranslet(), last);
+    return StringComparable.getComparator(str, settings.getLocales()[level], collators[level],
+        settings.getCaseOrders()[level]);
+  }
+
+  /**
+   * Extract the numeric sort key of a level for any node. The sort record is
+   * only used for the sort settings and the variables of the sort keys.
+   */
+  final double numericKey(int node, int level, int last) throws TransletException {
+    final String str = extractValueFromDOM(dom, node, level, settings.getTranslet(), last);
+    try {
+      return Double.parseDouble(str);
+    }
+    // Treat number as NaN if it cannot be parsed as a double
+    catch (final NumberFormatException e) {
+      return Double.NEGATIVE_INFINITY;
+    }
+  }
+
   /**
    * Compare this sort element to another. The first level is checked first, and
    * we proceed to the next level only if the first level keys are identical
@@ -36,6 +36,7 @@ public class NodeSortRecordFactory {
   private final String _className;
   private Class<?> _class;
   private SortSettings _sortSettings;
+  private long _memoryLimit;
 
   /**
      *
@@ -103,6 +104,7 @@ public class NodeSortRecordFactory {
       }
 
       _sortSettings = new SortSettings((AbstractTranslet) translet, iOrder, iType, locales, collators, caseOrder);
+      _memoryLimit = Long.getLong(NodeSortRuns.MEMORY_LIMIT_PROPERTY, 0);
     } catch (final ClassNotFoundException e) {
       throw new TransletException(e);
     }
@@ -120,6 +122,15 @@ public class NodeSortRecordFactory {
     return sortRecord;
   }
 
+  /**
+   * Returns the memory limit in bytes for the sort keys of a node list, above
+   * which the nodes are sorted in runs spilled to a temporary file. Returns 0
+   * if the nodes are always sorted in memory.
+   */
+  public long getMemoryLimit() {
+    return _memoryLimit;
+  }
+
   public String getClassName() {
     return _className;
   }
@@ -0,0 +1,296 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xalan.xsltc.dom;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import de.lyca.xalan.xsltc.TransletException;
+import de.lyca.xalan.xsltc.runtime.AbstractTranslet;
+import de.lyca.xalan.xsltc.runtime.BasisLibrary;
+import de.lyca.xalan.xsltc.runtime.Messages;
+
+/**
+ * External sort for node lists whose sort keys would exceed a memory limit.
+ * The nodes are sorted in runs that fit into the limit, and each sorted run is
+ * written to a temporary file together with the byte representation of its
+ * keys. The runs are merged while the sorted nodes are read, so only one
+ * record of every run is held in memory. The temporary file is removed when
+ * all nodes have been read, when the sort is discarded by its iterator, or at
+ * the latest when the transformation ends.
+ */
+final class NodeSortRuns implements Closeable {
+
+  /**
+   * The name of the system property holding the memory limit in bytes for the
+   * keys of a single sort. Sorts are done in memory if it is not set.
+   */
+  static final String MEMORY_LIMIT_PROPERTY = "de.lyca.xalan.xsltc.SORT_MEMORY_LIMIT";
+
+  /**
+   * Number of nodes whose keys are extracted to estimate the memory needed
+   * for all keys.
+   */
+  private static final int SAMPLE_SIZE = 4096;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final int[] _nodes;
+  private final int[] _sortOrders;
+  private final boolean[] _numeric;
+  private final PriorityQueue<Run> _queue;
+  private final AbstractTranslet _translet;
+  private File _file;
+  private RandomAccessFile _raf;
+  private FileChannel _channel;
+  private int _filled;
+
+  /**
+   * Sort the nodes. If the keys of all nodes fit into the memory limit, the
+   * nodes are sorted in place and <code>null</code> is returned. Otherwise
+   * the nodes are sorted in runs, and the returned object merges them into
+   * <code>nodes</code> on demand.
+   */
+  static NodeSortRuns sort(NodeSortRecord record, int[] nodes, int size, long memoryLimit)
+      throws TransletException, IOException {
+    final int sampleSize = Math.min(size, SAMPLE_SIZE);
+    final int[] sample = Arrays.copyOf(nodes, sampleSize);
+    final NodeSortKeys keys = new NodeSortKeys(record, sample, sampleSize, size);
+    if (sampleSize == size) {
+      keys.sort();
+      System.arraycopy(sample, 0, nodes, 0, size);
+      return null;
+    }
+    final long nodeSize = Math.max(1, keys.estimateSize() / sampleSize);
+    if (!keys.hasCollationKeys() || nodeSize * size <= memoryLimit) {
+      new NodeSortKeys(keys, record, nodes, size, size).sort();
+      return null;
+    }
+    final int runSize = (int) Math.min(size, Math.max(SAMPLE_SIZE, memoryLimit / nodeSize));
+    return new NodeSortRuns(record, keys, nodes, size, runSize);
+  }
+
+  /**
+   * Sort the nodes in runs of <code>runSize</code> nodes. The keys of the
+   * sample, which holds the leading nodes, are reused for the first run.
+   */
+  private NodeSortRuns(NodeSortRecord record, NodeSortKeys sample, int[] nodes, int size, int runSize)
+      throws TransletException, IOException {
+    _nodes = nodes;
+    _sortOrders = record.settings.getSortOrders();
+    final int[] types = record.settings.getTypes();
+    _numeric = new boolean[types.length];
+    for (int level = 0; level < types.length; level++) {
+      _numeric[level] = types[level] == NodeSortRecord.COMPARE_NUMERIC;
+    }
+    _queue = new PriorityQueue<>((size + runSize - 1) / runSize);
+
+    _translet = record.settings.getTranslet();
+    _file = File.createTempFile("xsltc", ".sort");
+    _translet.addTemporaryResource(this);
+    boolean done = false;
+    try {
+      _raf = new RandomAccessFile(_file, "rw");
+      _channel = _raf.getChannel();
+      final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(_channel),
+          BUFFER_SIZE));
+      final int[] run = new int[runSize];
+      long start = 0;
+      for (int from = 0; from < size; from += runSize) {
+        final int length = Math.min(runSize, size - from);
+        System.arraycopy(nodes, from, run, 0, length);
+        final NodeSortKeys keys = new NodeSortKeys(from == 0 ? sample : null, record, run, length, size);
+        keys.sort();
+        keys.write(out);
+        out.flush();
+        final long end = _channel.position();
+        final Run reader = new Run(start, end);
+        if (reader.next()) {
+          _queue.add(reader);
+        }
+        start = end;
+      }
+      done = true;
+    } finally {
+      if (!done) {
+        close();
+      }
+    }
+  }
+
+  /**
+   * Returns the node at the given position of the sorted list.
+   */
+  int get(int position) {
+    try {
+      while (_filled <= position) {
+        final Run run = _queue.poll();
+        _nodes[_filled++] = run._node;
+        if (run.next()) {
+          _queue.add(run);
+        } else if (_queue.isEmpty()) {
+          close();
+        }
+      }
+    } catch (final IOException e) {
+      close();
+      BasisLibrary.runTimeError(Messages.get().sortSpillErr(e.getMessage()));
+    }
+    return _nodes[position];
+  }
+
+  /**
+   * Close and delete the temporary file. Nodes that have not been merged yet
+   * cannot be read afterwards.
+   */
+  @Override
+  public void close() {
+    _translet.removeTemporaryResource(this);
+    try {
+      if (_raf != null) {
+        _raf.close();
+      }
+    } catch (final IOException e) {
+      // Nothing left to read
+    }
+    _raf = null;
+    _channel = null;
+    if (_file != null) {
+      _file.delete();
+      _file = null;
+    }
+  }
+
+  /**
+   * Compare the current records of two runs, in the same way as
+   * NodeSortKeys compares two nodes. The bytes of CollationKeys compare like
+   * the keys themselves.
+   */
+  private int compare(Run a, Run b) {
+    for (int level = 0; level < _numeric.length; level++) {
+      final int cmp;
+      if (_numeric[level]) {
+        cmp = Double.compare(a._numericKeys[level], b._numericKeys[level]);
+      } else {
+        cmp = compareBytes(a._textKeys[level], b._textKeys[level]);
+      }
+      if (cmp != 0)
+        return _sortOrders[level] == NodeSortRecord.COMPARE_DESCENDING ? -cmp : cmp;
+    }
+    // Compare based on document order if all sort keys are equal
+    return a._node - b._node;
+  }
+
+  private static int compareBytes(byte[] a, byte[] b) {
+    final int length = Math.min(a.length, b.length);
+    for (int i = 0; i < length; i++) {
+      final int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+      if (cmp != 0)
+        return cmp;
+    }
+    return a.length - b.length;
+  }
+
+  /**
+   * Reads the records of a run from the temporary file.
+   */
+  private final class Run implements Comparable<Run> {
+    private long _position;
+    private final long _end;
+    private ByteBuffer _buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final double[] _numericKeys = new double[_numeric.length];
+    private final byte[][] _textKeys = new byte[_numeric.length][];
+    private int _node;
+
+    Run(long start, long end) {
+      _position = start;
+      _end = end;
+      _buffer.flip();
+    }
+
+    /**
+     * Read the next record. Returns false at the end of the run.
+     */
+    boolean next() throws IOException {
+      if (!ensure(4))
+        return false;
+      _node = _buffer.getInt();
+      for (int level = 0; level < _numeric.length; level++) {
+        if (_numeric[level]) {
+          require(8);
+          _numericKeys[level] = _buffer.getDouble();
+        } else {
+          require(4);
+          final byte[] bytes = new byte[_buffer.getInt()];
+          require(bytes.length);
+          _buffer.get(bytes);
+          _textKeys[level] = bytes;
+        }
+      }
+      return true;
+    }
+
+    private void require(int length) throws IOException {
+      if (!ensure(length))
+        throw new EOFException(_file.getPath());
+    }
+
+    /**
+     * Make sure that the buffer holds at least <code>length</code> bytes.
+     * Returns false if the run has fewer bytes left.
+     */
+    private boolean ensure(int length) throws IOException {
+      if (_buffer.remaining() >= length)
+        return true;
+      if (_buffer.remaining() + _end - _position < length)
+        return false;
+      if (_buffer.capacity() < length) {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(_buffer);
+        _buffer = buffer;
+      } else {
+        _buffer.compact();
+      }
+      while (_buffer.position() < length) {
+        // Never read past the end of the run
+        _buffer.limit((int) Math.min(_buffer.capacity(), _buffer.position() + _end - _position));
+        final int read = _channel.read(_buffer, _position);
+        if (read < 0)
+          throw new EOFException(_file.getPath());
+        _position += read;
+      }
+      _buffer.flip();
+      return true;
+    }
+
+    @Override
+    public int compareTo(Run other) {
+      return compare(this, other);
+    }
+  }
+}
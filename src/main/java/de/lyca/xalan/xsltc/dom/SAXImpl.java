@@ -17,8 +17,11 @@
  */
 package de.lyca.xalan.xsltc.dom;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
@@ -38,6 +41,7 @@ import de.lyca.xalan.xsltc.StripFilter;
 import de.lyca.xalan.xsltc.TransletException;
 import de.lyca.xalan.xsltc.runtime.BasisLibrary;
 import de.lyca.xalan.xsltc.runtime.Messages;
+import de.lyca.xalan.xsltc.util.IntegerArray;
 import de.lyca.xml.dtm.Axis;
 import de.lyca.xml.dtm.DTM;
 import de.lyca.xml.dtm.DTMAxisIterator;
@@ -132,9 +136,21 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
   // The DTMManager
   private XSLTCDTMManager _dtmManager;
 
+  // The DTMManagers of the transformations using this DOM, by thread. Only
+  // set if the DOM is shared between concurrent transformations.
+  private ThreadLocal<XSLTCDTMManager> _sharedManagers = null;
+
+  // The number of threads whose transformations have a DTMManager bound to
+  // this shared DOM
+  private final AtomicInteger _sharedUsers = new AtomicInteger();
+
+  // Key indexes built for this DOM, kept for transformations reusing it. See
+  // KeyIndex.
+  private volatile ConcurrentHashMap<KeyIndex.SharedIndexKey, Map<Object, IntegerArray>> _keyIndexes;
+
   // Support for access/navigation through org.w3c.dom API
-  private Node[] _nodes;
-  private NodeList[] _nodeLists;
+  private volatile Node[] _nodes;
+  private volatile NodeList[] _nodeLists;
   private final static String XML_LANG_ATTRIBUTE = "http://www.w3.org/XML/1998/namespace:@lang";
 
   /**
@@ -244,15 +260,21 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
    */
   @Override
   public Node makeNode(int index) {
-    if (_nodes == null) {
-      _nodes = new Node[_namesSize];
+    Node[] nodes = _nodes;
+    if (nodes == null) {
+      synchronized (this) {
+        if (_nodes == null) {
+          _nodes = new Node[_namesSize];
+        }
+        nodes = _nodes;
+      }
     }
 
     final int nodeID = makeNodeIdentity(index);
     if (nodeID < 0)
       return null;
-    else if (nodeID < _nodes.length)
-      return _nodes[nodeID] != null ? _nodes[nodeID] : (_nodes[nodeID] = new DTMNodeProxy(this, index));
+    else if (nodeID < nodes.length)
+      return nodes[nodeID] != null ? nodes[nodeID] : (nodes[nodeID] = new DTMNodeProxy(this, index));
     else
       return new DTMNodeProxy(this, index);
   }
@@ -270,16 +292,22 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
    */
   @Override
   public NodeList makeNodeList(int index) {
-    if (_nodeLists == null) {
-      _nodeLists = new NodeList[_namesSize];
+    NodeList[] nodeLists = _nodeLists;
+    if (nodeLists == null) {
+      synchronized (this) {
+        if (_nodeLists == null) {
+          _nodeLists = new NodeList[_namesSize];
+        }
+        nodeLists = _nodeLists;
+      }
     }
 
     final int nodeID = makeNodeIdentity(index);
     if (nodeID < 0)
       return null;
-    else if (nodeID < _nodeLists.length)
-      return _nodeLists[nodeID] != null ? _nodeLists[nodeID]
-          : (_nodeLists[nodeID] = new DTMAxisIterNodeList(this, new SingletonIterator(index)));
+    else if (nodeID < nodeLists.length)
+      return nodeLists[nodeID] != null ? nodeLists[nodeID]
+          : (nodeLists[nodeID] = new DTMAxisIterNodeList(this, new SingletonIterator(index)));
     else
       return new DTMAxisIterNodeList(this, new SingletonIterator(index));
   }
@@ -635,7 +663,7 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
     }
 
     for (i = 0; i < nsLength; i++) {
-      final int eType = getIdForNamespace(namespaces[i]);
+      final int eType = m_values.indexOf(namespaces[i]);
       final Integer type = _nsIndex.get(eType);
       if (type != null) {
         result[type.intValue()] = (short) i;
@@ -655,7 +683,7 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
     final short[] result = new short[length];
 
     for (i = 0; i < length; i++) {
-      final int eType = getIdForNamespace(namespaces[i]);
+      final int eType = m_values.indexOf(namespaces[i]);
       final Integer type = _nsIndex.get(eType);
       result[i] = type == null ? -1 : type.shortValue();
     }
@@ -712,12 +740,119 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
    */
   @Override
   public void migrateTo(DTMManager manager) {
+    if (_sharedManagers != null) {
+      // A shared DOM keeps its identity; only the manager used for the
+      // result tree fragments and documents of this thread changes.
+      final boolean bound = _sharedManagers.get() != null;
+      if (manager instanceof XSLTCDTMManager) {
+        _sharedManagers.set((XSLTCDTMManager) manager);
+        if (!bound) {
+          _sharedUsers.incrementAndGet();
+        }
+      } else {
+        _sharedManagers.remove();
+        if (bound) {
+          _sharedUsers.decrementAndGet();
+        }
+      }
+      return;
+    }
     super.migrateTo(manager);
     if (manager instanceof XSLTCDTMManager) {
       _dtmManager = (XSLTCDTMManager) manager;
     }
   }
 
+  /**
+   * Mark this DOM as shared between concurrent transformations. The DOM must
+   * be fully built. From now on it is never modified: <code>migrateTo</code>
+   * binds a DTMManager to the calling thread instead of re-registering the
+   * DOM, and result tree fragments are created by the manager bound to the
+   * calling thread.
+   */
+  public void setShared() {
+    _sharedManagers = new ThreadLocal<>();
+    m_expandedNameTable.setShared();
+    // Resolve node handles from the DTM IDs of this DOM rather than from the
+    // tables of the manager that built it, which may release the DOM while
+    // transformations still use it.
+    m_mgrDefault = null;
+  }
+
+  /**
+   * Return true if this DOM is shared between concurrent transformations.
+   */
+  public boolean isShared() {
+    return _sharedManagers != null;
+  }
+
+  /**
+   * Return true if a transformation has bound its DTMManager to this shared
+   * DOM and not detached it yet.
+   */
+  boolean isInUse() {
+    return _sharedUsers.get() > 0;
+  }
+
+  /**
+   * Returns a rough estimate of the memory in bytes used by this DOM: the
+   * node tables and the character data.
+   */
+  public long getEstimatedSize() {
+    return ((long) getNumberOfNodes() << 5) + 2L * m_chars.size();
+  }
+
+  /**
+   * Returns the DTMManager of the calling thread's transformation.
+   */
+  @Override
+  public DTMManager getManager() {
+    return getDTMManager();
+  }
+
+  private XSLTCDTMManager getDTMManager() {
+    if (_sharedManagers != null) {
+      final XSLTCDTMManager manager = _sharedManagers.get();
+      if (manager != null)
+        return manager;
+    }
+    return _dtmManager;
+  }
+
+  /**
+   * Register the ID attributes of another DOM with the corresponding elements
+   * of this DOM. Both DOMs must contain the same elements in the same order,
+   * e.g. because this DOM is a whitespace stripped copy of the other one.
+   * 
+   * @param dom The DOM the ID attributes are copied from
+   */
+  public void copyIDAttributes(SAXImpl dom) {
+    if (dom.m_idAttributes.isEmpty())
+      return;
+
+    // Number the elements of both DOMs in document order
+    final int[] ordinals = new int[dom.getNumberOfNodes()];
+    for (int i = 0, n = 0; i < ordinals.length; i++) {
+      if (dom._type2(i) == DTM.ELEMENT_NODE) {
+        ordinals[i] = n++;
+      }
+    }
+    final int[] elements = new int[getNumberOfNodes()];
+    int count = 0;
+    for (int i = 0; i < elements.length; i++) {
+      if (_type2(i) == DTM.ELEMENT_NODE) {
+        elements[count++] = i;
+      }
+    }
+
+    for (final Map.Entry<String, Integer> entry : dom.m_idAttributes.entrySet()) {
+      final int ordinal = ordinals[entry.getValue().intValue()];
+      if (ordinal < count) {
+        setIDAttribute(entry.getKey(), elements[ordinal]);
+      }
+    }
+  }
+
   /**
    * Return the node identity for a given id String
    * 
@@ -808,6 +943,8 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
    */
   @Override
   public void characters(char[] ch, int start, int length) throws SAXException {
+    if (!getShouldKeepCharacters())
+      return;
     super.characters(ch, start, length);
 
     _disableEscaping = !_escaping;
@@ -843,7 +980,7 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
       throws SAXException {
     this.startElement(uri, localName, qname, attributes);
 
-    if (m_buildIdIndex) {
+    if (m_buildIdIndex && !isProjectedOut()) {
       _node2Ids.put(node, m_parents.peek());
     }
   }
@@ -857,6 +994,9 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
 
     handleTextEscaping();
 
+    if (isProjectedOut())
+      return;
+
     if (m_wsfilter != null) {
       // Look for any xml:space attributes
       // Depending on the implementation of attributes, this
@@ -873,7 +1013,10 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
    */
   @Override
   public void endElement(String namespaceURI, String localName, String qname) throws SAXException {
+    final boolean projectedOut = isProjectedOut();
     super.endElement(namespaceURI, localName, qname);
+    if (projectedOut)
+      return;
 
     handleTextEscaping();
 
@@ -897,6 +1040,8 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
    */
   @Override
   public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+    if (!getShouldKeepCharacters())
+      return;
     super.ignorableWhitespace(ch, start, length);
     _textNodeToProcess = getNumberOfNodes();
   }
@@ -1676,27 +1821,28 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
    */
   @Override
   public DOM getResultTreeFrag(int initSize, int rtfType, boolean addToManager) {
+    final XSLTCDTMManager dtmManager = getDTMManager();
     if (rtfType == DOM.SIMPLE_RTF) {
       if (addToManager) {
-        final int dtmPos = _dtmManager.getFirstFreeDTMID();
-        final SimpleResultTreeImpl rtf = new SimpleResultTreeImpl(_dtmManager,
+        final int dtmPos = dtmManager.getFirstFreeDTMID();
+        final SimpleResultTreeImpl rtf = new SimpleResultTreeImpl(dtmManager,
             dtmPos << DTMManager.IDENT_DTM_NODE_BITS);
-        _dtmManager.addDTM(rtf, dtmPos, 0);
+        dtmManager.addDTM(rtf, dtmPos, 0);
         return rtf;
       } else
-        return new SimpleResultTreeImpl(_dtmManager, 0);
+        return new SimpleResultTreeImpl(dtmManager, 0);
     } else if (rtfType == DOM.ADAPTIVE_RTF) {
       if (addToManager) {
-        final int dtmPos = _dtmManager.getFirstFreeDTMID();
-        final AdaptiveResultTreeImpl rtf = new AdaptiveResultTreeImpl(_dtmManager,
+        final int dtmPos = dtmManager.getFirstFreeDTMID();
+        final AdaptiveResultTreeImpl rtf = new AdaptiveResultTreeImpl(dtmManager,
             dtmPos << DTMManager.IDENT_DTM_NODE_BITS, m_wsfilter, initSize, m_buildIdIndex);
-        _dtmManager.addDTM(rtf, dtmPos, 0);
+        dtmManager.addDTM(rtf, dtmPos, 0);
         return rtf;
 
       } else
-        return new AdaptiveResultTreeImpl(_dtmManager, 0, m_wsfilter, initSize, m_buildIdIndex);
+        return new AdaptiveResultTreeImpl(dtmManager, 0, m_wsfilter, initSize, m_buildIdIndex);
     } else
-      return (DOM) _dtmManager.getDTM(null, true, m_wsfilter, true, false, false, initSize, m_buildIdIndex);
+      return (DOM) dtmManager.getDTM(null, true, m_wsfilter, true, false, false, initSize, m_buildIdIndex);
   }
 
   /**
@@ -1706,8 +1852,31 @@ public final class SAXImpl extends SAX2DTM2 implements DOMEnhancedForDTM, DOMBui
   public Map<String, Integer> getElementsWithIDs() {
     if (m_idAttributes == null || m_idAttributes.isEmpty())
       return null;
-    // TODO is the copy needed?
-    return new HashMap<>(m_idAttributes);
+    return Collections.unmodifiableMap(m_idAttributes);
+  }
+
+  /**
+   * Returns the key index kept with this DOM under the given key, or
+   * <code>null</code>.
+   */
+  Map<Object, IntegerArray> getKeyIndex(KeyIndex.SharedIndexKey key) {
+    final Map<KeyIndex.SharedIndexKey, Map<Object, IntegerArray>> keyIndexes = _keyIndexes;
+    return keyIndexes != null ? keyIndexes.get(key) : null;
+  }
+
+  /**
+   * Keeps a key index with this DOM. The index must not be modified
+   * afterwards.
+   */
+  void putKeyIndex(KeyIndex.SharedIndexKey key, Map<Object, IntegerArray> index) {
+    if (_keyIndexes == null) {
+      synchronized (this) {
+        if (_keyIndexes == null) {
+          _keyIndexes = new ConcurrentHashMap<>();
+        }
+      }
+    }
+    _keyIndexes.putIfAbsent(key, index);
   }
 
   /**
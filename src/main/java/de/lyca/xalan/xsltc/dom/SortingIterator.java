@@ -17,7 +17,8 @@
  */
 package de.lyca.xalan.xsltc.dom;
 
-import de.lyca.xalan.xsltc.TransletException;
+import java.io.IOException;
+
 import de.lyca.xalan.xsltc.runtime.BasisLibrary;
 import de.lyca.xalan.xsltc.runtime.Messages;
 import de.lyca.xml.dtm.DTMAxisIterator;
@@ -34,7 +35,8 @@ public final class SortingIterator extends DTMAxisIteratorBase {
   private DTMAxisIterator _source;
   private NodeSortRecordFactory _factory;
 
-  private NodeSortRecord[] _data;
+  private int[] _data;
+  private NodeSortRuns _runs;
   private int _free = 0;
   private int _current; // index in _nodes of the next node to try
 
@@ -45,25 +47,43 @@ public final class SortingIterator extends DTMAxisIteratorBase {
 
   @Override
   public int next() {
-    return _current < _free ? _data[_current++].getNode() : END;
+    if (_current >= _free)
+      return END;
+    return _runs == null ? _data[_current++] : _runs.get(_current++);
   }
 
   @Override
   public DTMAxisIterator setStartNode(int node) {
     try {
       _source.setStartNode(_startNode = node);
-      _data = new NodeSortRecord[INIT_DATA_SIZE];
+      _data = new int[INIT_DATA_SIZE];
+      if (_runs != null) {
+        // The nodes of the last start node are not needed any more
+        _runs.close();
+        _runs = null;
+      }
       _free = 0;
 
       // gather all nodes from the source iterator
       while ((node = _source.next()) != END) {
-        addRecord(_factory.makeNodeSortRecord(node, _free));
+        addNode(node);
+      }
+      // now extract the sort keys and sort the nodes
+      if (_free > 1) {
+        final NodeSortRecord record = _factory.makeNodeSortRecord(_data[0], _free);
+        final long memoryLimit = _factory.getMemoryLimit();
+        if (memoryLimit > 0) {
+          _runs = NodeSortRuns.sort(record, _data, _free, memoryLimit);
+        } else {
+          new NodeSortKeys(record, _data, _free, _free).sort();
+        }
       }
-      // now sort the records
-      quicksort(0, _free - 1);
 
       _current = 0;
       return this;
+    } catch (final IOException e) {
+      BasisLibrary.runTimeError(Messages.get().sortSpillErr(e.getMessage()));
+      return this;
     } catch (final Exception e) {
       return this;
     }
@@ -93,7 +113,8 @@ public final class SortingIterator extends DTMAxisIteratorBase {
 
   /**
    * Clone a <code>SortingIterator</code> by cloning its source iterator and then sharing the factory and the array of
-   * <code>NodeSortRecords</code>.
+   * sorted nodes. Spilled runs are not shared: they are owned, and closed, by the iterator that created them, and the
+   * clone sorts its nodes again when it is reset.
    */
   @Override
   public DTMAxisIterator cloneIterator() {
@@ -102,6 +123,7 @@ public final class SortingIterator extends DTMAxisIteratorBase {
       clone._source = _source.cloneIterator();
       clone._factory = _factory; // shared between clones
       clone._data = _data; // shared between clones
+      clone._runs = null;
       clone._free = _free;
       clone._current = _current;
       clone.setRestartable(false);
@@ -112,40 +134,12 @@ public final class SortingIterator extends DTMAxisIteratorBase {
     }
   }
 
-  private void addRecord(NodeSortRecord record) {
+  private void addNode(int node) {
     if (_free == _data.length) {
-      final NodeSortRecord[] newArray = new NodeSortRecord[_data.length * 2];
+      final int[] newArray = new int[_data.length * 2];
       System.arraycopy(_data, 0, newArray, 0, _free);
       _data = newArray;
     }
-    _data[_free++] = record;
-  }
-
-  private void quicksort(int p, int r) throws TransletException {
-    while (p < r) {
-      final int q = partition(p, r);
-      quicksort(p, q);
-      p = q + 1;
-    }
-  }
-
-  private int partition(int p, int r) throws TransletException {
-    final NodeSortRecord x = _data[p + r >>> 1];
-    int i = p - 1;
-    int j = r + 1;
-    while (true) {
-      while (x.compareTo(_data[--j]) < 0) {
-        ;
-      }
-      while (x.compareTo(_data[++i]) > 0) {
-        ;
-      }
-      if (i < j) {
-        final NodeSortRecord t = _data[i];
-        _data[i] = _data[j];
-        _data[j] = t;
-      } else
-        return j;
-    }
+    _data[_free++] = node;
   }
 }
@@ -18,12 +18,19 @@
 package de.lyca.xalan.xsltc.dom;
 
 import de.lyca.xalan.xsltc.DOM;
+import de.lyca.xalan.xsltc.util.IntegerArray;
 import de.lyca.xml.dtm.DTMAxisIterator;
 
 /**
  * UnionIterator takes a set of NodeIterators and produces a merged NodeSet in
  * document order with duplicates removed The individual iterators are supposed
  * to generate nodes in document order
+ * <p>
+ * A union of at least {@link #WIDE_UNION} iterators collects all of their nodes
+ * upon calling setStartNode() instead of merging them through the heap. If the
+ * nodes belong to a single document, they are put into order by a
+ * {@link NodeBitmap} when they are dense, and sorted otherwise; nodes of
+ * several documents are merged through the heap.
  * 
  * @author Jacek Ambroziak
  * @author Santiago Pericas-Geertsen
@@ -35,6 +42,25 @@ public final class UnionIterator extends MultiValuedNodeHeapIterator {
    */
   final private DOM _dom;
 
+  /**
+   * Unions of fewer iterators are always merged through the heap, which
+   * returns the first nodes without reading all others.
+   */
+  static final int WIDE_UNION = 3;
+
+  private DTMAxisIterator[] _iterators = new DTMAxisIterator[WIDE_UNION];
+  private int _iteratorCount = 0;
+
+  /**
+   * The collected nodes in document order, or <code>null</code> if the nodes
+   * are merged through the heap.
+   */
+  private IntegerArray _nodes;
+  private int _current;
+  private int _lastNext = END;
+  private int _markedCurrent;
+  private int _markedLastNext = END;
+
   private final class LookAheadIterator extends MultiValuedNodeHeapIterator.HeapNode {
     public DTMAxisIterator iterator;
 
@@ -93,6 +119,118 @@ public final class UnionIterator extends MultiValuedNodeHeapIterator {
 
   public UnionIterator addIterator(DTMAxisIterator iterator) {
     addHeapNode(new LookAheadIterator(iterator));
+    if (_iteratorCount == _iterators.length) {
+      final DTMAxisIterator[] iterators = new DTMAxisIterator[_iteratorCount * 2];
+      System.arraycopy(_iterators, 0, iterators, 0, _iteratorCount);
+      _iterators = iterators;
+    }
+    _iterators[_iteratorCount++] = iterator;
     return this;
   }
+
+  @Override
+  public DTMAxisIterator setStartNode(int node) {
+    if (_isRestartable && _iteratorCount >= WIDE_UNION) {
+      if (collect(node)) {
+        _startNode = node;
+        _current = 0;
+        _lastNext = END;
+        return resetPosition();
+      }
+      _nodes = null;
+      super.setStartNode(node);
+      // The iterators have been read by collect()
+      return super.reset();
+    }
+    return super.setStartNode(node);
+  }
+
+  /**
+   * Collect the nodes of all iterators and put them into document order.
+   * Returns false if they belong to more than one document.
+   */
+  private boolean collect(int node) {
+    final IntegerArray nodes = _nodes != null ? _nodes : new IntegerArray();
+    nodes.clear();
+    int first = Integer.MAX_VALUE;
+    int last = Integer.MIN_VALUE;
+    for (int i = 0; i < _iteratorCount; i++) {
+      final DTMAxisIterator iterator = _iterators[i];
+      iterator.setStartNode(node);
+      int next;
+      while ((next = iterator.next()) != END) {
+        nodes.add(next);
+        if (next < first) {
+          first = next;
+        }
+        if (next > last) {
+          last = next;
+        }
+      }
+    }
+    if (nodes.cardinality() != 0 && _dom instanceof MultiDOM) {
+      final MultiDOM multiDOM = (MultiDOM) _dom;
+      if (multiDOM.getDTMId(first) != multiDOM.getDTMId(last))
+        return false;
+    }
+    if (NodeBitmap.isDense(nodes.cardinality(), first, last)) {
+      NodeBitmap.distinct(nodes, first, last);
+    } else {
+      // Each iterator has added an ascending run
+      nodes.sort();
+    }
+    _nodes = nodes;
+    return true;
+  }
+
+  @Override
+  public int next() {
+    if (_nodes == null)
+      return super.next();
+    while (_current < _nodes.cardinality()) {
+      final int next = _nodes.at(_current++);
+      if (next != _lastNext)
+        return returnNode(_lastNext = next);
+    }
+    return END;
+  }
+
+  @Override
+  public void setMark() {
+    if (_nodes == null) {
+      super.setMark();
+    } else {
+      _markedCurrent = _current;
+      _markedLastNext = _lastNext;
+    }
+  }
+
+  @Override
+  public void gotoMark() {
+    if (_nodes == null) {
+      super.gotoMark();
+    } else {
+      _current = _markedCurrent;
+      _lastNext = _markedLastNext;
+    }
+  }
+
+  @Override
+  public DTMAxisIterator reset() {
+    if (_nodes == null)
+      return super.reset();
+    _current = 0;
+    _lastNext = END;
+    return resetPosition();
+  }
+
+  @Override
+  public DTMAxisIterator cloneIterator() {
+    final UnionIterator clone = (UnionIterator) super.cloneIterator();
+    if (_nodes != null) {
+      clone._nodes = (IntegerArray) _nodes.clone();
+      clone.reset();
+    }
+    return clone;
+  }
 }
@@ -17,6 +17,8 @@
  */
 package de.lyca.xalan.xsltc.dom;
 
+import java.util.List;
+
 import javax.xml.transform.Source;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXSource;
@@ -32,6 +34,7 @@ import de.lyca.xalan.ObjectFactory;
 import de.lyca.xalan.xsltc.trax.DOM2SAX;
 import de.lyca.xml.dtm.DTM;
 import de.lyca.xml.dtm.DTMException;
+import de.lyca.xml.dtm.DTMProjectionFilter;
 import de.lyca.xml.dtm.DTMWSFilter;
 import de.lyca.xml.dtm.ref.DTMDefaultBase;
 import de.lyca.xml.dtm.ref.DTMManagerDefault;
@@ -55,6 +58,9 @@ public class XSLTCDTMManager extends DTMManagerDefault {
   /** Set this to true if you want basic diagnostics */
   private static final boolean DEBUG = false;
 
+  /** Filter applied to the documents built by this manager, if any */
+  private DTMProjectionFilter _projectionFilter;
+
   /**
    * Constructor DTMManagerDefault
    * 
@@ -63,6 +69,16 @@ public class XSLTCDTMManager extends DTMManagerDefault {
     super();
   }
 
+  /**
+   * Set the filter that decides which attributes are kept in the documents built by subsequent calls to
+   * <code>getDTM</code>.
+   * 
+   * @param projectionFilter The filter, or null to build full documents.
+   */
+  public void setProjectionFilter(DTMProjectionFilter projectionFilter) {
+    _projectionFilter = projectionFilter;
+  }
+
   /**
    * Obtain a new instance of a <code>DTMManager</code>. This static method creates a new factory instance. The current
    * implementation just returns a new XSLTCDTMManager instance.
@@ -199,6 +215,35 @@ public class XSLTCDTMManager extends DTMManagerDefault {
     }
 
     final int dtmPos = getFirstFreeDTMID();
+    boolean built = false;
+    try {
+      final DTM dtm = buildDTM(source, dtmPos, whiteSpaceFilter, doIndexing, hasUserReader, size, buildIdIndex,
+          newNameTable);
+      built = true;
+      return dtm;
+    } finally {
+      if (!built) {
+        abandonDTMID(dtmPos);
+      }
+    }
+  }
+
+  /**
+   * Build a DTM under a DTM ID reserved by getFirstFreeDTMID().
+   * 
+   * @param source the specification of the source object.
+   * @param dtmPos the reserved DTM ID.
+   * @param whiteSpaceFilter Enables filtering of whitespace nodes, and may be null.
+   * @param doIndexing true if the caller considers it worth it to use indexing schemes.
+   * @param hasUserReader true if <code>source</code> is a <code>SAXSource</code> object that has an
+   *        <code>XMLReader</code>, that was specified by the user.
+   * @param size Specifies initial size of tables that represent the DTM
+   * @param buildIdIndex true if the id index table should be built.
+   * @param newNameTable true if we want to use a separate ExpandedNameTable for this DTM.
+   * @return a non-null DTM reference.
+   */
+  private DTM buildDTM(Source source, int dtmPos, DTMWSFilter whiteSpaceFilter, boolean doIndexing,
+      boolean hasUserReader, int size, boolean buildIdIndex, boolean newNameTable) {
     final int documentID = dtmPos << IDENT_DTM_NODE_BITS;
 
     if (source instanceof DOMSource) {
@@ -217,6 +262,7 @@ public class XSLTCDTMManager extends DTMManagerDefault {
       }
 
       dtm.setDocumentURI(source.getSystemId());
+      dtm.setProjectionFilter(_projectionFilter);
 
       addDTM(dtm, dtmPos, 0);
 
@@ -245,20 +291,7 @@ public class XSLTCDTMManager extends DTMManagerDefault {
           hasUserReader = false; // Make sure the user didn't lie
         } else {
           reader = getXMLReader(source);
-          xmlSource = SAXSource.sourceToInputSource(source);
-
-          String urlOfSource = xmlSource.getSystemId();
-
-          if (null != urlOfSource) {
-            try {
-              urlOfSource = SystemIDResolver.getAbsoluteURI(urlOfSource);
-            } catch (final Exception e) {
-              // %REVIEW% Is there a better way to send a warning?
-              System.err.println("Can not absolutize URL: " + urlOfSource);
-            }
-
-            xmlSource.setSystemId(urlOfSource);
-          }
+          xmlSource = toInputSource(source);
         }
 
         // Create the basic SAX2DTM.
@@ -271,6 +304,8 @@ public class XSLTCDTMManager extends DTMManagerDefault {
               newNameTable);
         }
 
+        dtm.setProjectionFilter(_projectionFilter);
+
         // Go ahead and add the DTM to the lookup table. This needs to be
         // done before any parsing occurs. Note offset 0, since we've just
         // created a new DTM.
@@ -280,33 +315,7 @@ public class XSLTCDTMManager extends DTMManagerDefault {
           // Then the user will construct it themselves.
           return dtm;
 
-        reader.setContentHandler(dtm.getBuilder());
-
-        if (!hasUserReader || null == reader.getDTDHandler()) {
-          reader.setDTDHandler(dtm);
-        }
-
-        if (!hasUserReader || null == reader.getErrorHandler()) {
-          reader.setErrorHandler(dtm);
-        }
-
-        try {
-          reader.setProperty("http://xml.org/sax/properties/lexical-handler", dtm);
-        } catch (final SAXNotRecognizedException e) {
-        } catch (final SAXNotSupportedException e) {
-        }
-
-        try {
-          reader.parse(xmlSource);
-        } catch (final RuntimeException re) {
-          throw re;
-        } catch (final Exception e) {
-          throw new WrappedRuntimeException(e);
-        } finally {
-          if (!hasUserReader) {
-            releaseXMLReader(reader);
-          }
-        }
+        parse(dtm, reader, xmlSource, hasUserReader);
 
         if (DUMPTREE) {
           System.out.println("Dumping SAX2DOM");
@@ -319,4 +328,125 @@ public class XSLTCDTMManager extends DTMManagerDefault {
         throw new DTMException(Messages.get().notSupported(source));
     }
   }
+
+  /**
+   * Create a DTM for a SAXSource or StreamSource without loading its content. The content is loaded by
+   * {@link #parse(SAXImpl, Source)}, which may be called on another thread. The DTM ID is allocated here, so DTMs
+   * created one after another have increasing IDs in whatever order their content is loaded.
+   * 
+   * @param source the specification of the source object.
+   * @param whiteSpaceFilter Enables filtering of whitespace nodes, and may be null.
+   * @param buildIdIndex true if the id index table should be built.
+   * @param newNameTable true if we want to use a separate ExpandedNameTable for this DTM.
+   * 
+   * @return an empty DTM
+   */
+  public SAXImpl createDTM(Source source, DTMWSFilter whiteSpaceFilter, boolean buildIdIndex, boolean newNameTable) {
+    final int dtmPos = getFirstFreeDTMID();
+    final SAXImpl dtm = new SAXImpl(this, source, dtmPos << IDENT_DTM_NODE_BITS, whiteSpaceFilter, null, false,
+        DTMDefaultBase.DEFAULT_BLOCKSIZE, buildIdIndex, newNameTable);
+    dtm.setProjectionFilter(_projectionFilter);
+    addDTM(dtm, dtmPos, 0);
+    return dtm;
+  }
+
+  /**
+   * Bind DTMs whose content has been loaded concurrently to the DTM IDs they would have had if they had been loaded one
+   * after another. A DTM takes a further DTM ID whenever it outgrows the ones it has, so the IDs of DTMs parsed at the
+   * same time interleave in the order in which the parsers happen to need them. All IDs of the given DTMs are returned,
+   * and each DTM takes the lowest free IDs in turn.
+   * 
+   * @param dtms fully built DTMs created by {@link #createDTM(Source, DTMWSFilter, boolean, boolean)}, in the order in
+   *        which they would have been loaded
+   */
+  public synchronized void rebindDTMs(List<SAXImpl> dtms) {
+    for (final SAXImpl dtm : dtms) {
+      freeDTMIDs(dtm);
+    }
+    for (final SAXImpl dtm : dtms) {
+      dtm.migrateTo(this);
+    }
+  }
+
+  /**
+   * Replace a DTM created by {@link #createDTM(Source, DTMWSFilter, boolean, boolean)} whose content could not be
+   * loaded with an empty one under the same DTM ID, so that loading the document again keeps its place in document
+   * order. The old DTM is released, along with any further IDs it has taken.
+   * 
+   * @param dtm the DTM to be replaced
+   * @param source the specification of the source object.
+   * @param whiteSpaceFilter Enables filtering of whitespace nodes, and may be null.
+   * @param buildIdIndex true if the id index table should be built.
+   * @param newNameTable true if we want to use a separate ExpandedNameTable for this DTM.
+   * 
+   * @return an empty DTM
+   */
+  public synchronized SAXImpl recreateDTM(SAXImpl dtm, Source source, DTMWSFilter whiteSpaceFilter,
+      boolean buildIdIndex, boolean newNameTable) {
+    final int dtmPos = dtm.getDTMIDs().elementAt(0) >>> IDENT_DTM_NODE_BITS;
+    release(dtm, true);
+    final SAXImpl fresh = new SAXImpl(this, source, dtmPos << IDENT_DTM_NODE_BITS, whiteSpaceFilter, null, false,
+        DTMDefaultBase.DEFAULT_BLOCKSIZE, buildIdIndex, newNameTable);
+    fresh.setProjectionFilter(_projectionFilter);
+    addDTM(fresh, dtmPos, 0);
+    return fresh;
+  }
+
+  /**
+   * Load the content of a DTM created by {@link #createDTM(Source, DTMWSFilter, boolean, boolean)}.
+   * 
+   * @param dtm the empty DTM
+   * @param source the source the DTM has been created for
+   */
+  public void parse(SAXImpl dtm, Source source) {
+    parse(dtm, getXMLReader(source), toInputSource(source), false);
+  }
+
+  private static InputSource toInputSource(Source source) {
+    final InputSource xmlSource = SAXSource.sourceToInputSource(source);
+
+    String urlOfSource = xmlSource.getSystemId();
+
+    if (null != urlOfSource) {
+      try {
+        urlOfSource = SystemIDResolver.getAbsoluteURI(urlOfSource);
+      } catch (final Exception e) {
+        // %REVIEW% Is there a better way to send a warning?
+        System.err.println("Can not absolutize URL: " + urlOfSource);
+      }
+
+      xmlSource.setSystemId(urlOfSource);
+    }
+    return xmlSource;
+  }
+
+  private void parse(SAXImpl dtm, XMLReader reader, InputSource xmlSource, boolean hasUserReader) {
+    reader.setContentHandler(dtm.getBuilder());
+
+    if (!hasUserReader || null == reader.getDTDHandler()) {
+      reader.setDTDHandler(dtm);
+    }
+
+    if (!hasUserReader || null == reader.getErrorHandler()) {
+      reader.setErrorHandler(dtm);
+    }
+
+    try {
+      reader.setProperty("http://xml.org/sax/properties/lexical-handler", dtm);
+    } catch (final SAXNotRecognizedException e) {
+    } catch (final SAXNotSupportedException e) {
+    }
+
+    try {
+      reader.parse(xmlSource);
+    } catch (final RuntimeException re) {
+      throw re;
+    } catch (final Exception e) {
+      throw new WrappedRuntimeException(e);
+    } finally {
+      if (!hasUserReader) {
+        releaseXMLReader(reader);
+      }
+    }
+  }
 }
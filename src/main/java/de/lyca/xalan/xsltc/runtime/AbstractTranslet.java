@@ -17,16 +17,20 @@
  */
 package de.lyca.xalan.xsltc.runtime;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -42,9 +46,12 @@ import de.lyca.xalan.xsltc.Translet;
 import de.lyca.xalan.xsltc.TransletException;
 import de.lyca.xalan.xsltc.dom.DOMAdapter;
 import de.lyca.xalan.xsltc.dom.KeyIndex;
+import de.lyca.xalan.xsltc.dom.SingletonIterator;
 import de.lyca.xalan.xsltc.runtime.output.TransletOutputHandlerFactory;
 import de.lyca.xml.dtm.DTM;
 import de.lyca.xml.dtm.DTMAxisIterator;
+import de.lyca.xml.dtm.ref.sax2dtm.SAX2DTM2;
+import de.lyca.xml.serializer.OutputPropertiesFactory;
 import de.lyca.xml.serializer.SerializationHandler;
 import de.lyca.xml.utils.QName;
 
@@ -70,6 +77,7 @@ public abstract class AbstractTranslet implements Translet {
   public String _mediaType = null;
   public List<String> _cdata = null;
   public int _indentamount = -1;
+  public String _compression = null;
 
   public static final int FIRST_TRANSLET_VERSION = 100;
   public static final int VER_SPLIT_NAMES_ARRAY = 101;
@@ -94,6 +102,31 @@ public abstract class AbstractTranslet implements Translet {
   // Boolean flag to indicate whether this translet has id functions.
   protected boolean _hasIdCall = false;
 
+  // Boolean flag to indicate whether attributes that are not referenced by
+  // name in the stylesheet may be discarded from the input document.
+  protected boolean _projectable = false;
+
+  // Boolean flag to indicate whether elements that are not referenced by name
+  // in the stylesheet may be discarded from the input document, together with
+  // their subtrees.
+  protected boolean _elementProjectable = false;
+
+  // Boolean flag to indicate whether text nodes outside the kept subtrees may
+  // be discarded from the input document.
+  protected boolean _textProjectable = false;
+
+  // Indexes into the names array of the elements whose subtrees must be kept
+  // by element projection, because their string-values are used.
+  protected int[] _projectedSubtrees = null;
+
+  // Boolean flag to indicate whether the input documents should get a type
+  // index for the descendant, following and preceding steps of the stylesheet.
+  protected boolean _typeIndexed = false;
+
+  // The names of the keys that do not depend on variables or parameters.
+  // Their indexes may be kept with a cached DOM.
+  protected String[] _sharedKeys = null;
+
   // TODO - these should only be instanciated when needed
   protected StringValueHandler stringValueHandler = new StringValueHandler();
 
@@ -306,6 +339,9 @@ public abstract class AbstractTranslet implements Translet {
   public final void prepassDocument(DOM document) {
     setIndexSize(document.getSize());
     buildIDIndex(document);
+    if (_typeIndexed && document instanceof SAX2DTM2) {
+      ((SAX2DTM2) document).buildTypeIndex();
+    }
   }
 
   /**
@@ -325,26 +361,11 @@ public abstract class AbstractTranslet implements Translet {
       if (enhancedDOM.hasDOMSource()) {
         buildKeyIndex(ID_INDEX_NAME, document);
         return;
-      } else {
-        final Map<String, Integer> elementsByID = enhancedDOM.getElementsWithIDs();
-
-        if (elementsByID == null)
-          return;
-
-        // Given a Hashtable of DTM nodes indexed by ID attribute values,
-        // loop through the table copying information to a KeyIndex
-        // for the mapping from ID attribute value to DTM node
-        boolean hasIDValues = false;
-        for (final String idValue : elementsByID.keySet()) {
-          final int element = document.getNodeHandle(elementsByID.get(idValue).intValue());
-
-          buildKeyIndex(ID_INDEX_NAME, element, idValue);
-          hasIDValues = true;
-        }
-
-        if (hasIDValues) {
-          setKeyIndexDom(ID_INDEX_NAME, document);
-        }
+      } else if (enhancedDOM.getElementsWithIDs() != null) {
+        // IDs are looked up in the document's own table of ID attributes
+        final KeyIndex index = getKeyIndex(ID_INDEX_NAME);
+        index.addIdDocument(document);
+        index.setDom(document);
       }
     }
   }
@@ -404,7 +425,6 @@ public abstract class AbstractTranslet implements Translet {
 
   // Container for all indexes for xsl:key elements
   private Map<String, KeyIndex> _keyIndexes = null;
-  private KeyIndex _emptyKeyIndex = null;
   private int _indexSize = 0;
   private int _currentRootForKeys = 0;
 
@@ -436,15 +456,7 @@ public abstract class AbstractTranslet implements Translet {
    *          is the value that will look up the node in the given index
    */
   public void buildKeyIndex(String name, int node, Object value) {
-    if (_keyIndexes == null) {
-      _keyIndexes = new HashMap<>();
-    }
-
-    KeyIndex index = _keyIndexes.get(name);
-    if (index == null) {
-      _keyIndexes.put(name, index = new KeyIndex(_indexSize));
-    }
-    index.add(value, node, _currentRootForKeys);
+    getKeyIndex(name).add(value, node, _currentRootForKeys);
   }
 
   /**
@@ -456,43 +468,70 @@ public abstract class AbstractTranslet implements Translet {
    *          is the DOM
    */
   public void buildKeyIndex(String name, DOM dom) {
-    if (_keyIndexes == null) {
-      _keyIndexes = new HashMap<>();
-    }
+    getKeyIndex(name).setDom(dom);
+  }
 
-    KeyIndex index = _keyIndexes.get(name);
-    if (index == null) {
-      _keyIndexes.put(name, index = new KeyIndex(_indexSize));
+  /**
+   * Builds the index of a key for the document with the given root node. This
+   * is called by the KeyIndex on the first lookup of the key in a document.
+   * 
+   * @param name
+   *          is the name of the key
+   * @param dom
+   *          is the DOM containing the document
+   * @param root
+   *          is the root node of the document
+   */
+  public void buildKeyIndex(String name, DOM dom, int root) throws TransletException {
+    final int previousRoot = _currentRootForKeys;
+    setRootForKeys(root);
+    try {
+      buildKeys(name, dom, new SingletonIterator(root), null, root);
+    } finally {
+      setRootForKeys(previousRoot);
     }
-    index.setDom(dom);
   }
 
   /**
    * Returns the index for a given key (or id). The index implements our
-   * internal iterator interface
+   * internal iterator interface. Indexes of keys are built on first use.
    */
   public KeyIndex getKeyIndex(String name) {
-    // Return an empty key index iterator if none are defined
-    if (_keyIndexes == null)
-      return _emptyKeyIndex != null ? _emptyKeyIndex : (_emptyKeyIndex = new KeyIndex(1));
+    if (_keyIndexes == null) {
+      _keyIndexes = new HashMap<>();
+    }
 
     // Look up the requested key index
-    final KeyIndex index = _keyIndexes.get(name);
-
-    // Return an empty key index iterator if the requested index not found
-    if (index == null)
-      return _emptyKeyIndex != null ? _emptyKeyIndex : (_emptyKeyIndex = new KeyIndex(1));
-
+    KeyIndex index = _keyIndexes.get(name);
+    if (index == null) {
+      if (ID_INDEX_NAME.equals(name)) {
+        index = new KeyIndex(_indexSize);
+      } else {
+        index = new KeyIndex(this, name, isSharedKey(name));
+      }
+      _keyIndexes.put(name, index);
+    }
     return index;
   }
 
+  private boolean isSharedKey(String name) {
+    if (_sharedKeys != null) {
+      for (final String sharedKey : _sharedKeys) {
+        if (sharedKey.equals(name))
+          return true;
+      }
+    }
+    return false;
+  }
+
   private void setRootForKeys(int root) {
     _currentRootForKeys = root;
   }
 
   /**
-   * This method builds key indexes - it is overridden in the compiled translet
-   * in cases where the {@literal <xsl:key>} element is used
+   * Compiled translets no longer override this method: the index of a key is
+   * built for a document on the first lookup of the key in that document, by
+   * {@link #buildKeys(String, DOM, DTMAxisIterator, SerializationHandler, int)}.
    */
   @Override
   public void buildKeys(DOM document, DTMAxisIterator iterator, SerializationHandler handler, int root)
@@ -500,6 +539,16 @@ public abstract class AbstractTranslet implements Translet {
 
   }
 
+  /**
+   * This method builds the index of the key with the given name - it is
+   * overridden in the compiled translet in cases where the {@literal <xsl:key>}
+   * element is used
+   */
+  public void buildKeys(String name, DOM document, DTMAxisIterator iterator, SerializationHandler handler, int root)
+          throws TransletException {
+
+  }
+
   /**
    * This method builds key indexes - it is overridden in the compiled translet
    * in cases where the {@literal <xsl:key>} element is used
@@ -532,6 +581,69 @@ public abstract class AbstractTranslet implements Translet {
     return _domCache;
   }
 
+  // DOMs shared with other transformations that have been registered with
+  // the DTMManager of the current transformation
+  private List<DTM> _sharedDocuments = null;
+
+  // Resources of the current transformation that are closed when it ends
+  private Set<Closeable> _temporaryResources = null;
+
+  /**
+   * Registers a shared DOM that has been migrated to the DTMManager of the
+   * current transformation. It is detached again when the transformation is
+   * finished.
+   */
+  public void addSharedDocument(DTM document) {
+    if (_sharedDocuments == null) {
+      _sharedDocuments = new ArrayList<>();
+    }
+    _sharedDocuments.add(document);
+  }
+
+  private void releaseSharedDocuments() {
+    if (_sharedDocuments != null) {
+      for (final DTM document : _sharedDocuments) {
+        document.migrateTo(null);
+      }
+      _sharedDocuments = null;
+    }
+  }
+
+  /**
+   * Registers a resource, such as the temporary file of a sort, that is closed
+   * when the transformation is finished, even if it has been abandoned. A
+   * resource that is closed earlier should be removed again.
+   */
+  public void addTemporaryResource(Closeable resource) {
+    if (_temporaryResources == null) {
+      _temporaryResources = new HashSet<>();
+    }
+    _temporaryResources.add(resource);
+  }
+
+  /**
+   * Removes a resource registered by {@link #addTemporaryResource(Closeable)}.
+   */
+  public void removeTemporaryResource(Closeable resource) {
+    if (_temporaryResources != null) {
+      _temporaryResources.remove(resource);
+    }
+  }
+
+  private void closeTemporaryResources() {
+    if (_temporaryResources != null) {
+      final Set<Closeable> resources = _temporaryResources;
+      _temporaryResources = null;
+      for (final Closeable resource : resources) {
+        try {
+          resource.close();
+        } catch (final IOException e) {
+          // Nothing left to do with it
+        }
+      }
+    }
+  }
+
   /************************************************************************
    * Multiple output document extension. See compiler/TransletOutput for actual
    * implementation.
@@ -596,6 +708,8 @@ public abstract class AbstractTranslet implements Translet {
       transform(document, document.getIterator(), handler);
     } finally {
       _keyIndexes = null;
+      releaseSharedDocuments();
+      closeTemporaryResources();
     }
   }
 
@@ -639,6 +753,9 @@ public abstract class AbstractTranslet implements Translet {
    * Transfer the output settings to the output post-processor
    */
   protected void transferOutputSettings(SerializationHandler handler) {
+    if (_compression != null) {
+      handler.setOutputProperty(OutputPropertiesFactory.S_KEY_COMPRESSION, _compression);
+    }
     if (_method != null) {
       if (_method.equals("xml")) {
         if (_standalone != null) {
@@ -731,6 +848,26 @@ public abstract class AbstractTranslet implements Translet {
     return _hasIdCall;
   }
 
+  public boolean isProjectable() {
+    return _projectable;
+  }
+
+  public boolean isElementProjectable() {
+    return _elementProjectable;
+  }
+
+  public boolean isTextProjectable() {
+    return _textProjectable;
+  }
+
+  public int[] getProjectedSubtrees() {
+    return _projectedSubtrees;
+  }
+
+  public boolean isTypeIndexed() {
+    return _typeIndexed;
+  }
+
   public Templates getTemplates() {
     return _templates;
   }
@@ -67,4 +67,6 @@ public interface BasicLibraryErrorMessages {
 
   String unallowedExtensionElementErr(Object extensionElementName);
 
+  String sortSpillErr(Object message);
+
 }
@@ -20,8 +20,10 @@ package de.lyca.xalan.xsltc.runtime;
 import java.text.DecimalFormat;
 import java.text.FieldPosition;
 import java.text.NumberFormat;
+import java.util.HashSet;
 import java.util.Locale;
 import java.util.ResourceBundle;
+import java.util.Set;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.dom.DOMSource;
@@ -509,31 +511,84 @@ public final class BasisLibrary {
   }
 
   /**
-   * Utility function: node-set/node-set compare.
+   * Utility function: node-set/node-set compare. Each node-set is traversed
+   * once. For '=' the string values of the right node-set are put into a hash
+   * set that the left node-set is probed against; '!=' only needs to know
+   * whether the two node-sets have more than one distinct string value between
+   * them. A relational comparison holds for some pair of nodes if and only if
+   * it holds for the largest or smallest number of either side.
    */
   public static boolean compare(DTMAxisIterator left, DTMAxisIterator right, int op, DOM dom) {
-    int lnode;
-    left.reset();
-
-    while ((lnode = left.next()) != DTMAxisIterator.END) {
-      final String lvalue = dom.getStringValueX(lnode);
-
-      int rnode;
-      right.reset();
-      while ((rnode = right.next()) != DTMAxisIterator.END) {
-        // String value must be the same if both nodes are the same
-        if (lnode == rnode) {
-          if (op == Operators.EQ)
+    int node;
+    switch (op) {
+      case Operators.EQ:
+        final Set<String> values = new HashSet<>();
+        right.reset();
+        while ((node = right.next()) != DTMAxisIterator.END) {
+          values.add(dom.getStringValueX(node));
+        }
+        if (values.isEmpty())
+          return false;
+        left.reset();
+        while ((node = left.next()) != DTMAxisIterator.END) {
+          if (values.contains(dom.getStringValueX(node)))
             return true;
-          else if (op == Operators.NE) {
-            continue;
-          }
         }
-        if (compareStrings(lvalue, dom.getStringValueX(rnode), op, dom))
-          return true;
+        return false;
+
+      case Operators.NE:
+        String value = null;
+        right.reset();
+        while ((node = right.next()) != DTMAxisIterator.END) {
+          final String rvalue = dom.getStringValueX(node);
+          if (value == null) {
+            value = rvalue;
+          } else if (!value.equals(rvalue))
+            // Every left node differs from one of the two values
+            return left.reset().next() != DTMAxisIterator.END;
+        }
+        if (value == null)
+          return false;
+        left.reset();
+        while ((node = left.next()) != DTMAxisIterator.END) {
+          if (!value.equals(dom.getStringValueX(node)))
+            return true;
+        }
+        return false;
+
+      case Operators.GT:
+        return extremeNumber(left, true, dom) > extremeNumber(right, false, dom);
+
+      case Operators.GE:
+        return extremeNumber(left, true, dom) >= extremeNumber(right, false, dom);
+
+      case Operators.LT:
+        return extremeNumber(left, false, dom) < extremeNumber(right, true, dom);
+
+      case Operators.LE:
+        return extremeNumber(left, false, dom) <= extremeNumber(right, true, dom);
+
+      default:
+        runTimeError(Messages.get().runTimeInternalErr("compare()"));
+        return false;
+    }
+  }
+
+  /**
+   * Returns the largest or smallest number of the string values of a
+   * node-set, or NaN if none of them is a number.
+   */
+  private static double extremeNumber(DTMAxisIterator iterator, boolean largest, DOM dom) {
+    double extreme = Double.NaN;
+    int node;
+    iterator.reset();
+    while ((node = iterator.next()) != DTMAxisIterator.END) {
+      final double number = stringToReal(dom.getStringValueX(node));
+      if (Double.isNaN(extreme) || (largest ? number > extreme : number < extreme)) {
+        extreme = number;
       }
     }
-    return false;
+    return extreme;
   }
 
   public static boolean compare(int node, DTMAxisIterator iterator, int op, DOM dom) {
@@ -1193,8 +1248,6 @@ public final class BasisLibrary {
   /**
    * Utility function: used in xsl:copy.
    */
-  private static char[] _characterArray = new char[32];
-
   public static void copy(Object obj, SerializationHandler handler, int node, DOM dom) {
     try {
       if (obj instanceof DTMAxisIterator) {
@@ -1208,13 +1261,8 @@ public final class BasisLibrary {
         final DOM newDom = (DOM) obj;
         newDom.copy(newDom.getDocument(), handler);
       } else {
-        final String string = obj.toString(); // or call stringF()
-        final int length = string.length();
-        if (length > _characterArray.length) {
-          _characterArray = new char[length];
-        }
-        string.getChars(0, length, _characterArray, 0);
-        handler.characters(_characterArray, 0, length);
+        // The serializer copies the string into its own buffer
+        handler.characters(obj.toString()); // or call stringF()
       }
     } catch (final SAXException e) {
       runTimeError(Messages.get().runTimeCopyErr());
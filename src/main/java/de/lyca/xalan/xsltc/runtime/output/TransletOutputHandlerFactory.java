@@ -20,6 +20,8 @@ package de.lyca.xalan.xsltc.runtime.output;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
@@ -31,6 +33,7 @@ import org.xml.sax.ext.LexicalHandler;
 import de.lyca.xalan.xsltc.trax.SAX2DOM;
 import de.lyca.xml.serializer.SerializationHandler;
 import de.lyca.xml.serializer.ToHTMLStream;
+import de.lyca.xml.serializer.ToStream;
 import de.lyca.xml.serializer.ToTextStream;
 import de.lyca.xml.serializer.ToUnknownStream;
 import de.lyca.xml.serializer.ToXHTMLStream;
@@ -56,6 +59,8 @@ public class TransletOutputHandlerFactory {
   private int _indentNumber = -1;
   private ContentHandler _handler = null;
   private LexicalHandler _lexHandler = null;
+  private Map<String, SerializationHandler> _serializers = null;
+  private String _serializerKey = null;
 
   static public TransletOutputHandlerFactory newInstance() {
     return new TransletOutputHandlerFactory();
@@ -107,30 +112,63 @@ public class TransletOutputHandlerFactory {
     _indentNumber = value;
   }
 
+  /**
+   * Re-use the stream serializers kept in the given map, one per output method
+   * and encoding. A serializer is taken out of the map while it is in use and
+   * is reset before it is handed out again.
+   * 
+   * @param serializers
+   *          the serializers kept for re-use, or null to create a new
+   *          serializer every time
+   */
+  public void setSerializers(Map<String, SerializationHandler> serializers) {
+    _serializers = serializers;
+  }
+
+  /**
+   * Put a stream serializer handed out by this factory back into the map of
+   * serializers kept for re-use. The serializer drops its references to the
+   * output, but keeps the buffers of a writer it created for an output stream.
+   * A serializer of the same output method and encoding that is kept already
+   * is replaced and closed.
+   * 
+   * @param handler
+   *          the serializer to keep
+   */
+  public void releaseSerializationHandler(SerializationHandler handler) {
+    if (_serializers == null || _serializerKey == null)
+      return;
+    if (handler instanceof ToStream) {
+      ((ToStream) handler).releaseOutput();
+    } else if (handler instanceof ToUnknownStream) {
+      ((ToUnknownStream) handler).releaseOutput();
+    } else
+      return;
+    final SerializationHandler previous = _serializers.put(_serializerKey, handler);
+    if (previous != null && previous != handler) {
+      previous.close();
+    }
+    _serializerKey = null;
+  }
+
   public SerializationHandler getSerializationHandler(Transformer transformer) throws IOException,
           ParserConfigurationException {
     SerializationHandler result = null;
     switch (_outputType) {
       case STREAM:
 
-        if (_method == null) {
-          result = new ToUnknownStream();
-        } else if (_method.equalsIgnoreCase("xml")) {
-
-          result = new ToXMLStream();
-
-        } else if (_method.equalsIgnoreCase("html")) {
-
-          result = new ToHTMLStream();
-
-        } else if (_method.equalsIgnoreCase("xhtml")) {
-          
-          result = new ToXHTMLStream();
-          
-        } else if (_method.equalsIgnoreCase("text")) {
-
-          result = new ToTextStream();
+        if (_serializers != null) {
+          _serializerKey = (_method == null ? "" : _method.toLowerCase(Locale.ENGLISH)) + ' '
+              + _encoding.toUpperCase(Locale.ENGLISH);
+          result = _serializers.remove(_serializerKey);
+          if (result != null && !result.reset()) {
+            result.close();
+            result = null;
+          }
+        }
 
+        if (result == null) {
+          result = newStreamHandler();
         }
 
         result.setTransformer(transformer);
@@ -168,4 +206,18 @@ public class TransletOutputHandlerFactory {
     return null;
   }
 
+  private SerializationHandler newStreamHandler() {
+    if (_method == null)
+      return new ToUnknownStream();
+    else if (_method.equalsIgnoreCase("xml"))
+      return new ToXMLStream();
+    else if (_method.equalsIgnoreCase("html"))
+      return new ToHTMLStream();
+    else if (_method.equalsIgnoreCase("xhtml"))
+      return new ToXHTMLStream();
+    else if (_method.equalsIgnoreCase("text"))
+      return new ToTextStream();
+    return null;
+  }
+
 }
@@ -0,0 +1,126 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xalan.xsltc.trax;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+
+import javax.xml.transform.Result;
+
+import de.lyca.xalan.xsltc.compiler.util.ErrorMsg;
+import de.lyca.xalan.xsltc.compiler.util.Messages;
+
+/**
+ * An XSLTC-specific result that serializes the output of a transformation
+ * into ByteBuffers instead of a java.io stream. The output either fills
+ * buffers supplied by the caller, starting at their positions, or is written
+ * to a WritableByteChannel in blocking mode through pooled direct buffers.
+ * <p>
+ * Output written to a channel reaches it whenever the buffers of the
+ * transformation are full, with one gathering write, and the rest when the
+ * transformation ends. The channel is not closed, and a selectable channel
+ * must not be switched to non-blocking mode while the transformation runs.
+ * Output that does not fit into the buffers of the caller fails the
+ * transformation; the positions of the buffers are advanced past the bytes
+ * written in any case.
+ */
+public class ChannelResult implements Result {
+
+  /**
+   * If {@link javax.xml.transform.TransformerFactory#getFeature} returns true
+   * when passed this value as an argument, the Transformer supports Result
+   * output of this type.
+   */
+  public static final String FEATURE = "http://lyca.de/xsltc/feature/ChannelResult";
+
+  private final WritableByteChannel _channel;
+  private final ByteBuffer[] _buffers;
+  private String _systemId = null;
+
+  /**
+   * Create a result that writes to a channel
+   *
+   * @param channel
+   *          A channel in blocking mode
+   * @throws IllegalArgumentException
+   *           if the channel is a selectable channel in non-blocking mode
+   */
+  public ChannelResult(WritableByteChannel channel) {
+    if (channel == null)
+      throw new NullPointerException();
+    if (!isBlocking(channel)) {
+      final ErrorMsg err = new ErrorMsg(Messages.get().channelNotBlockingErr());
+      throw new IllegalArgumentException(err.toString());
+    }
+    _channel = channel;
+    _buffers = null;
+  }
+
+  /**
+   * Create a result that fills the given buffers one after another
+   *
+   * @param buffers
+   *          The buffers to fill
+   */
+  public ChannelResult(ByteBuffer... buffers) {
+    _channel = null;
+    _buffers = buffers.clone();
+  }
+
+  /**
+   * Returns the channel, or null if the output fills buffers of the caller
+   *
+   * @return The channel
+   */
+  public WritableByteChannel getChannel() {
+    return _channel;
+  }
+
+  /**
+   * Returns the buffers to fill, or null if the output is written to a channel
+   *
+   * @return The buffers
+   */
+  public ByteBuffer[] getBuffers() {
+    return _buffers == null ? null : _buffers.clone();
+  }
+
+  /**
+   * Tells whether writing to the channel blocks until all bytes are written,
+   * which is the case for every channel that is not a selectable channel in
+   * non-blocking mode
+   *
+   * @param channel
+   *          The channel
+   * @return true if the channel is in blocking mode
+   */
+  static boolean isBlocking(WritableByteChannel channel) {
+    return !(channel instanceof SelectableChannel) || ((SelectableChannel) channel).isBlocking();
+  }
+
+  @Override
+  public void setSystemId(String systemId) {
+    _systemId = systemId;
+  }
+
+  @Override
+  public String getSystemId() {
+    return _systemId;
+  }
+}
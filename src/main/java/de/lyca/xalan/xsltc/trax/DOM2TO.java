@@ -19,6 +19,8 @@ package de.lyca.xalan.xsltc.trax;
 
 import java.io.IOException;
 
+import javax.xml.XMLConstants;
+
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.xml.sax.ContentHandler;
@@ -32,7 +34,6 @@ import org.xml.sax.SAXNotRecognizedException;
 import org.xml.sax.SAXNotSupportedException;
 import org.xml.sax.XMLReader;
 
-import de.lyca.xml.serializer.NamespaceMappings;
 import de.lyca.xml.serializer.SerializationHandler;
 
 /**
@@ -155,7 +156,7 @@ public class DOM2TO implements XMLReader, Locator {
         }
 
         // Process all non-namespace attributes next
-        final NamespaceMappings nm = new NamespaceMappings();
+        int generated = 0;
         for (int i = 0; i < length; i++) {
           final Node attr = map.item(i);
           final String qnameAttr = attr.getNodeName();
@@ -170,12 +171,18 @@ public class DOM2TO implements XMLReader, Locator {
               // Fix for bug 26319
               // For attributes not given an prefix explictly
               // but having a namespace uri we need
-              // to explicitly generate the prefix
-              String newPrefix = nm.lookupPrefix(uriAttr);
-              if (newPrefix == null) {
-                newPrefix = nm.generateNextPrefix();
+              // to explicitly generate the prefix. Every attribute in a
+              // namespace other than the XML namespace counts towards the
+              // number of the generated prefix.
+              final boolean xmlAttr = XMLConstants.XML_NS_URI.equals(uriAttr);
+              if (colon > 0) {
+                prefix = qnameAttr.substring(0, colon);
+              } else {
+                prefix = xmlAttr ? XMLConstants.XML_NS_PREFIX : "ns" + generated;
+              }
+              if (!xmlAttr) {
+                generated++;
               }
-              prefix = colon > 0 ? qnameAttr.substring(0, colon) : newPrefix;
               _handler.namespaceAfterStartElement(prefix, uriAttr);
               _handler.addAttribute(prefix + ":" + qnameAttr, attr.getNodeValue());
             } else {
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xalan.xsltc.trax;
+
+import javax.xml.transform.Source;
+
+import org.xml.sax.SAXException;
+
+import de.lyca.xalan.xsltc.DOM;
+import de.lyca.xalan.xsltc.StripFilter;
+import de.lyca.xalan.xsltc.dom.DOMWSFilter;
+import de.lyca.xalan.xsltc.dom.SAXImpl;
+import de.lyca.xalan.xsltc.dom.XSLTCDTMManager;
+import de.lyca.xalan.xsltc.runtime.AbstractTranslet;
+import de.lyca.xml.dtm.DTMManager;
+import de.lyca.xml.dtm.ref.DTMTreeWalker;
+import de.lyca.xml.utils.SuballocatedIntVector;
+
+/**
+ * An XSLTC-specific source whose input document is parsed once and then shared,
+ * read-only, by any number of transformations running concurrently in
+ * different threads. Each transformation maps the names of its translet onto
+ * the shared tree through its own <code>DOMAdapter</code>, and creates result
+ * tree fragments and documents loaded by <code>document()</code> in its own
+ * DTMManager.
+ * <p>
+ * The shared tree keeps all whitespace. Translets that strip whitespace
+ * (<code>xsl:strip-space</code>) are given a private stripped copy built from
+ * the shared tree, so the document is still only parsed once.
+ */
+public class SharedXSLTCSource extends XSLTCSource {
+
+  private volatile SAXImpl _dom = null;
+
+  /**
+   * Create a new shared source from a system ID
+   * 
+   * @param systemId
+   *          The system ID of the input document
+   */
+  public SharedXSLTCSource(String systemId) {
+    super(systemId);
+  }
+
+  /**
+   * Create a new shared source from a JAXP Source
+   * 
+   * @param source
+   *          The input document
+   */
+  public SharedXSLTCSource(Source source) {
+    super(source);
+  }
+
+  /**
+   * Parse the input document unless this has already been done. Calling this
+   * method before the source is handed to concurrent transformations moves the
+   * parsing cost out of the first transformation.
+   * 
+   * @return The shared DOM
+   * @throws SAXException
+   *           If the input document can not be parsed
+   */
+  public SAXImpl build() throws SAXException {
+    SAXImpl dom = _dom;
+    if (dom == null) {
+      synchronized (this) {
+        dom = _dom;
+        if (dom == null) {
+          dom = (SAXImpl) XSLTCDTMManager.newInstance().getDTM(getSource(), true, null, false, false, true);
+          final String systemId = getSystemId();
+          if (systemId != null) {
+            dom.setDocumentURI(systemId);
+          }
+          dom.setShared();
+          _dom = dom;
+        }
+      }
+    }
+    return dom;
+  }
+
+  /**
+   * Returns the shared DOM registered with the DTMManager of the calling
+   * thread's transformation, or a private whitespace stripped copy of it.
+   */
+  @Override
+  protected DOM getDOM(XSLTCDTMManager dtmManager, AbstractTranslet translet) throws SAXException {
+    final SAXImpl dom = build();
+    if (dtmManager == null)
+      return dom;
+
+    if (translet instanceof StripFilter) {
+      final boolean hasIdCall = translet.hasIdCall();
+      final SAXImpl copy = (SAXImpl) dtmManager.getDTM(null, true, new DOMWSFilter(translet), false, false,
+          hasIdCall);
+      new DTMTreeWalker(copy.getBuilder(), dom).traverse(dom.getDocument());
+      if (hasIdCall) {
+        copy.copyIDAttributes(dom);
+      }
+      copy.setDocumentURI(getSystemId());
+      return copy;
+    }
+
+    // Reserve the DTM IDs of the shared DOM in the transformation's manager
+    final SuballocatedIntVector ids = dom.getDTMIDs();
+    for (int i = 0; i < ids.size(); i++) {
+      dtmManager.addDTM(dom, ids.elementAt(i) >>> DTMManager.IDENT_DTM_NODE_BITS,
+          i << DTMManager.IDENT_DTM_NODE_BITS);
+    }
+    dom.migrateTo(dtmManager);
+    return dom;
+  }
+
+  /**
+   * Detach the shared DOM from the DTMManager of the calling thread's
+   * transformation. Called when the transformation is finished.
+   */
+  protected void releaseDOM() {
+    final SAXImpl dom = _dom;
+    if (dom != null) {
+      dom.migrateTo(null);
+    }
+  }
+}
@@ -237,6 +237,7 @@ public class TemplatesHandlerImpl implements ContentHandler, TemplatesHandler, S
       if (!_parser.errorsFound() && stylesheet != null) {
         stylesheet.setMultiDocument(xsltc.isMultiDocument());
         stylesheet.setHasIdCall(xsltc.hasIdCall());
+        stylesheet.setTypeIndexed(xsltc.isTypeIndexed());
 
         // Class synchronization is needed for BCEL
         synchronized (xsltc.getClass()) {
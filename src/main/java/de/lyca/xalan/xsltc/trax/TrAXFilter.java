@@ -96,7 +96,7 @@ public class TrAXFilter extends XMLFilterImpl {
     try {
       if (getParent() == null) {
         try {
-          managedReader = XMLReaderManager.getInstance().getXMLReader();
+          managedReader = XMLReaderManager.getInstance().getXMLReader(_transformer.isSecureProcessing());
           setParent(managedReader);
         } catch (final SAXException e) {
           throw new SAXException(e.toString());
@@ -49,12 +49,15 @@ import org.xml.sax.XMLFilter;
 import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.XMLReaderFactory;
 
+import de.lyca.xalan.xsltc.DOMCache;
 import de.lyca.xalan.xsltc.compiler.SourceLoader;
 import de.lyca.xalan.xsltc.compiler.XSLTC;
 import de.lyca.xalan.xsltc.compiler.XSLTC.Out;
 import de.lyca.xalan.xsltc.compiler.util.ErrorMsg;
 import de.lyca.xalan.xsltc.compiler.util.Messages;
+import de.lyca.xalan.xsltc.dom.DocumentCache;
 import de.lyca.xalan.xsltc.dom.XSLTCDTMManager;
+import de.lyca.xml.serializer.SerializerMetrics;
 import de.lyca.xml.utils.StopParseException;
 import de.lyca.xml.utils.StylesheetPIHandler;
 
@@ -72,6 +75,10 @@ public class TransformerFactoryImpl extends SAXTransformerFactory implements Sou
   public final static String GENERATE_TRANSLET = "generate-translet";
   public final static String DEBUG = "debug";
   public final static String INDENT_NUMBER = "indent-number";
+  public final static String CHECK_STREAMABILITY = "check-streamability";
+  public final static String DOCUMENT_CACHE = "document-cache";
+  public final static String ASYNC_SERIALIZATION = "async-serialization";
+  public final static String SERIALIZER_METRICS = "serializer-metrics";
 
   /**
    * This error listener is used only for this factory and is not passed to the Templates or Transformer objects that we
@@ -113,6 +120,28 @@ public class TransformerFactoryImpl extends SAXTransformerFactory implements Sou
    */
   private boolean _generateTranslet = false;
 
+  /**
+   * Set to <code>true</code> to report all constructs that would prevent a stylesheet from being streamed. This is an
+   * analysis only; the input document is always built as a tree.
+   */
+  private boolean _checkStreamability = false;
+
+  /**
+   * The cache for documents loaded by the document() function, shared by all transformers that have no URIResolver.
+   */
+  private DOMCache _documentCache = null;
+
+  /**
+   * Set to <code>true</code> to serialize stream output on a thread of its own while the translet runs.
+   */
+  private boolean _asyncSerialization = false;
+
+  /**
+   * Set to <code>true</code> to add the serializer metrics of every transformation to stream output to the totals
+   * that are registered with the platform MBean server.
+   */
+  private boolean _serializerMetrics = false;
+
   /**
    * Number of indent spaces when indentation is turned on.
    */
@@ -180,6 +209,14 @@ public class TransformerFactoryImpl extends SAXTransformerFactory implements Sou
       return _transletName;
     else if (name.equals(GENERATE_TRANSLET))
       return _generateTranslet ? Boolean.TRUE : Boolean.FALSE;
+    else if (name.equals(CHECK_STREAMABILITY))
+      return _checkStreamability ? Boolean.TRUE : Boolean.FALSE;
+    else if (name.equals(DOCUMENT_CACHE))
+      return _documentCache;
+    else if (name.equals(ASYNC_SERIALIZATION))
+      return _asyncSerialization ? Boolean.TRUE : Boolean.FALSE;
+    else if (name.equals(SERIALIZER_METRICS))
+      return _serializerMetrics ? Boolean.TRUE : Boolean.FALSE;
 
     // Throw an exception for all other attributes
     final ErrorMsg err = new ErrorMsg(Messages.get().jaxpInvalidAttrErr(name));
@@ -219,6 +256,48 @@ public class TransformerFactoryImpl extends SAXTransformerFactory implements Sou
         _debug = ((String) value).equalsIgnoreCase("true");
         return;
       }
+    } else if (name.equals(CHECK_STREAMABILITY)) {
+      if (value instanceof Boolean) {
+        _checkStreamability = ((Boolean) value).booleanValue();
+        return;
+      } else if (value instanceof String) {
+        _checkStreamability = ((String) value).equalsIgnoreCase("true");
+        return;
+      }
+    } else if (name.equals(DOCUMENT_CACHE)) {
+      // Either a cache or the maximum number of documents of a new DocumentCache
+      if (value instanceof DOMCache) {
+        _documentCache = (DOMCache) value;
+        return;
+      }
+      try {
+        if (value instanceof Integer) {
+          _documentCache = new DocumentCache(((Integer) value).intValue());
+          return;
+        } else if (value instanceof String) {
+          _documentCache = new DocumentCache(Integer.parseInt((String) value));
+          return;
+        }
+      } catch (final NumberFormatException | SAXException e) {
+        // Falls through
+      }
+    } else if (name.equals(ASYNC_SERIALIZATION)) {
+      if (value instanceof Boolean) {
+        _asyncSerialization = ((Boolean) value).booleanValue();
+        return;
+      } else if (value instanceof String) {
+        _asyncSerialization = ((String) value).equalsIgnoreCase("true");
+        return;
+      }
+    } else if (name.equals(SERIALIZER_METRICS)) {
+      if (value instanceof Boolean || value instanceof String) {
+        _serializerMetrics = value instanceof Boolean ? ((Boolean) value).booleanValue()
+            : ((String) value).equalsIgnoreCase("true");
+        if (_serializerMetrics) {
+          SerializerMetrics.registerTotals();
+        }
+        return;
+      }
     } else if (name.equals(INDENT_NUMBER)) {
       if (value instanceof String) {
         try {
@@ -294,7 +373,7 @@ public class TransformerFactoryImpl extends SAXTransformerFactory implements Sou
     // All supported features should be listed here
     final String[] features = { DOMSource.FEATURE, DOMResult.FEATURE, SAXSource.FEATURE, SAXResult.FEATURE,
         StreamSource.FEATURE, StreamResult.FEATURE, SAXTransformerFactory.FEATURE,
-        SAXTransformerFactory.FEATURE_XMLFILTER };
+        SAXTransformerFactory.FEATURE_XMLFILTER, ChannelResult.FEATURE };
 
     // feature name cannot be null
     if (name == null) {
@@ -518,6 +597,10 @@ public class TransformerFactoryImpl extends SAXTransformerFactory implements Sou
     if (_isSecureProcessing) {
       xsltc.setSecureProcessing(true);
     }
+
+    if (_checkStreamability) {
+      xsltc.setCheckStreamability(true);
+    }
     xsltc.init();
 
     // Set a document loader (for xsl:include/import) if defined
@@ -859,4 +942,31 @@ public class TransformerFactoryImpl extends SAXTransformerFactory implements Sou
   protected Class<?> getDTMManagerClass() {
     return m_DTMManagerClass;
   }
+
+  /**
+   * Returns the cache for documents loaded by the document() function, if one has been set.
+   * 
+   * @return the DOMCache or <code>null</code>
+   */
+  protected DOMCache getDocumentCache() {
+    return _documentCache;
+  }
+
+  /**
+   * Returns true if transformers serialize stream output on a thread of their own.
+   * 
+   * @return <code>true</code> if the output of a StreamResult or ChannelResult is serialized asynchronously
+   */
+  protected boolean isAsyncSerialization() {
+    return _asyncSerialization;
+  }
+
+  /**
+   * Returns true if transformers add their serializer metrics to the totals.
+   * 
+   * @return <code>true</code> if the metrics of every transformation to stream output are added to the totals
+   */
+  protected boolean isSerializerMetrics() {
+    return _serializerMetrics;
+  }
 }
@@ -251,6 +251,14 @@ public class TransformerHandlerImpl implements TransformerHandler, DeclHandler {
     if (_isIdentity && _result instanceof DOMResult) {
       ((DOMResult) _result).setNode(_transformer.getTransletOutputHandlerFactory().getNode());
     }
+    if (_isIdentity && _result instanceof ChannelResult) {
+      // Write what is left of the output to the channel
+      try {
+        _transformer.closeOutputStream(true);
+      } catch (final TransformerException e) {
+        throw new SAXException(e);
+      }
+    }
   }
 
   /**
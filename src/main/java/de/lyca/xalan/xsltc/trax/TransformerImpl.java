@@ -71,14 +71,19 @@ import de.lyca.xalan.xsltc.Translet;
 import de.lyca.xalan.xsltc.TransletException;
 import de.lyca.xalan.xsltc.compiler.util.ErrorMsg;
 import de.lyca.xalan.xsltc.compiler.util.Messages;
+import de.lyca.xalan.xsltc.dom.DOMProjectionFilter;
 import de.lyca.xalan.xsltc.dom.DOMWSFilter;
 import de.lyca.xalan.xsltc.dom.SAXImpl;
 import de.lyca.xalan.xsltc.dom.XSLTCDTMManager;
 import de.lyca.xalan.xsltc.runtime.AbstractTranslet;
 import de.lyca.xalan.xsltc.runtime.output.TransletOutputHandlerFactory;
 import de.lyca.xml.dtm.DTMWSFilter;
+import de.lyca.xml.serializer.AsyncSerializationHandler;
+import de.lyca.xml.serializer.ByteBufferOutputStream;
+import de.lyca.xml.serializer.OutputPropertiesFactory;
 import de.lyca.xml.serializer.OutputPropertiesMapFactory;
 import de.lyca.xml.serializer.SerializationHandler;
+import de.lyca.xml.serializer.SerializerMetrics;
 import de.lyca.xml.utils.SystemIDResolver;
 import de.lyca.xml.utils.XMLReaderManager;
 
@@ -138,6 +143,12 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
    */
   private TransletOutputHandlerFactory _tohFactory = null;
 
+  /**
+   * The stream serializers of previous transformations, one per output method
+   * and encoding, kept for re-use.
+   */
+  private final Map<String, SerializationHandler> _serializers = new HashMap<>();
+
   /**
    * A reference to a internal DOM represenation of the input.
    */
@@ -193,6 +204,11 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
    */
   private Map<String, Object> _parameters = null;
 
+  /**
+   * The metrics of the serializer of the last transformation to stream output.
+   */
+  private SerializerMetrics _serializerMetrics = null;
+
   /**
    * This class wraps an ErrorListener into a MessageHandler in order to capture
    * messages reported via xsl:message.
@@ -291,14 +307,28 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
       transferOutputProperties(_translet);
     }
 
-    final SerializationHandler toHandler = getOutputHandler(result);
+    SerializationHandler toHandler = getOutputHandler(result, true);
+    final TransletOutputHandlerFactory tohFactory = _tohFactory;
     if (toHandler == null) {
       final ErrorMsg err = new ErrorMsg(Messages.get().jaxpNoHandlerErr());
       throw new TransformerException(err.toString());
     }
 
-    if (_uriResolver != null && !_isIdentity) {
-      _translet.setDOMCache(this);
+    final SerializationHandler serializer = toHandler;
+    final boolean stream = result instanceof StreamResult || result instanceof ChannelResult;
+    _serializerMetrics = null;
+
+    // Serialize stream output on a thread of its own if so is wanted
+    if (stream && _tfactory != null && _tfactory.isAsyncSerialization()) {
+      toHandler = new AsyncSerializationHandler(toHandler);
+    }
+
+    if (!_isIdentity) {
+      if (_uriResolver != null) {
+        _translet.setDOMCache(this);
+      } else if (_tfactory != null && _tfactory.getDocumentCache() != null) {
+        _translet.setDOMCache(_tfactory.getDocumentCache());
+      }
     }
 
     // Pass output properties to handler if identity
@@ -306,13 +336,36 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
       transferOutputProperties(toHandler);
     }
 
-    transform(source, toHandler, _encoding);
+    try {
+      transform(source, toHandler, _encoding);
+    } finally {
+      if (stream) {
+        _serializerMetrics = serializer.getMetrics();
+        if (_serializerMetrics != null && _tfactory != null && _tfactory.isSerializerMetrics()) {
+          _serializerMetrics.addToTotals();
+        }
+      }
+      tohFactory.releaseSerializationHandler(serializer);
+    }
 
     if (result instanceof DOMResult) {
       ((DOMResult) result).setNode(_tohFactory.getNode());
     }
   }
 
+  /**
+   * Returns the counters of the work the serializer did in the last
+   * transformation to a StreamResult or ChannelResult: the elements,
+   * attributes and characters it wrote, the characters it escaped, and the
+   * bytes it wrote to an output stream.
+   * 
+   * @return the metrics of the last transformation, or <code>null</code> if the
+   *         output of the last transformation was not serialized
+   */
+  public SerializerMetrics getSerializerMetrics() {
+    return _serializerMetrics;
+  }
+
   /**
    * Create an output handler for the transformation output based on the type
    * and contents of the TrAX Result object passed to the transform() method.
@@ -324,6 +377,14 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
    *           TODO
    */
   public SerializationHandler getOutputHandler(Result result) throws TransformerException {
+    return getOutputHandler(result, false);
+  }
+
+  /**
+   * Create an output handler for the transformation output, or re-use a
+   * stream serializer of a previous transformation.
+   */
+  private SerializationHandler getOutputHandler(Result result, boolean reuse) throws TransformerException {
     // Get output method using getLayeredOutputProperty() to ignore defaults
     _method = getLayeredOutputProperty(OutputKeys.METHOD, userProperties, stylesheetProperties);
 
@@ -332,6 +393,9 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
 
     _tohFactory = TransletOutputHandlerFactory.newInstance();
     _tohFactory.setEncoding(_encoding);
+    if (reuse) {
+      _tohFactory.setSerializers(_serializers);
+    }
     if (_method != null) {
       _tohFactory.setOutputMethod(_method);
     }
@@ -367,6 +431,24 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
         _tohFactory.setNextSibling(((DOMResult) result).getNextSibling());
         _tohFactory.setOutputType(TransletOutputHandlerFactory.DOM);
         return _tohFactory.getSerializationHandler(this);
+      } else if (result instanceof ChannelResult) {
+        // The stream serializers write into ByteBuffers. The stream is closed
+        // after the transformation, which writes what is left to the channel.
+        final ChannelResult target = (ChannelResult) result;
+        _tohFactory.setOutputType(TransletOutputHandlerFactory.STREAM);
+        if (target.getChannel() != null) {
+          // The channel may have been switched to non-blocking mode since the
+          // result was created
+          if (!ChannelResult.isBlocking(target.getChannel())) {
+            final ErrorMsg err = new ErrorMsg(Messages.get().channelNotBlockingErr());
+            throw new TransformerException(err.toString());
+          }
+          _ostream = new ByteBufferOutputStream(target.getChannel());
+        } else {
+          _ostream = new ByteBufferOutputStream(target.getBuffers());
+        }
+        _tohFactory.setOutputStream(_ostream);
+        return _tohFactory.getSerializationHandler(this);
       } else if (result instanceof StreamResult) {
         // Get StreamResult
         final StreamResult target = (StreamResult) result;
@@ -455,15 +537,26 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
     try {
       DOM dom = null;
 
-      if (source != null) {
+      if (source != null && _dtmManager == null) {
+        _dtmManager = (XSLTCDTMManager) _tfactory.getDTMManagerClass().newInstance();
+      }
+
+      if (source instanceof XSLTCSource) {
+        dom = ((XSLTCSource) source).getDOM(_dtmManager, _translet);
+      } else if (source != null) {
         DTMWSFilter wsfilter = _translet instanceof StripFilter ? new DOMWSFilter(_translet) : null;
 
         final boolean hasIdCall = _translet != null && _translet.hasIdCall();
 
-        if (_dtmManager == null) {
-          _dtmManager = (XSLTCDTMManager) _tfactory.getDTMManagerClass().newInstance();
+        // Discard attributes the translet can not reach while building
+        if (_translet != null && _translet.isProjectable()) {
+          _dtmManager.setProjectionFilter(new DOMProjectionFilter(_translet));
+        }
+        try {
+          dom = (DOM) _dtmManager.getDTM(source, false, wsfilter, true, false, false, 0, hasIdCall);
+        } finally {
+          _dtmManager.setProjectionFilter(null);
         }
-        dom = (DOM) _dtmManager.getDTM(source, false, wsfilter, true, false, false, 0, hasIdCall);
       } else if (_dom != null) {
         dom = _dom;
         _dom = null; // use only once, so reset to 'null'
@@ -517,7 +610,7 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
       final StreamSource stream = (StreamSource) source;
       final InputStream streamInput = stream.getInputStream();
       final Reader streamReader = stream.getReader();
-      final XMLReader reader = _readerManager.getXMLReader();
+      final XMLReader reader = _readerManager.getXMLReader(_isSecureProcessing);
 
       try {
         // Hook up reader and output handler
@@ -557,7 +650,7 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
       try {
         // Create a reader if not set by user
         if (reader == null) {
-          reader = _readerManager.getXMLReader();
+          reader = _readerManager.getXMLReader(_isSecureProcessing);
           userReader = false;
         }
 
@@ -596,6 +689,7 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
    * @throws TransformerException TODO
    */
   private void transform(Source source, SerializationHandler handler, String encoding) throws TransformerException {
+    boolean done = false;
     try {
       /*
        * According to JAXP1.2, new SAXSource()/StreamSource() should create an
@@ -625,6 +719,7 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
       } else {
         _translet.transform(getDOM(source), handler);
       }
+      done = true;
     } catch (final TransletException e) {
       if (_errorListener != null) {
         postErrorToListener(e.getMessage());
@@ -641,17 +736,49 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
       }
       throw new TransformerException(e);
     } finally {
+      if (source instanceof SharedXSLTCSource) {
+        ((SharedXSLTCSource) source).releaseDOM();
+      }
       _dtmManager = null;
+
+      // The serializer thread must be done with the output before it is closed
+      SAXException error = null;
+      if (handler instanceof AsyncSerializationHandler) {
+        error = ((AsyncSerializationHandler) handler).stop();
+      }
+
+      // If we create an output stream for the Result, we need to close it after
+      // the transformation.
+      closeOutputStream(done);
+
+      if (done && error != null) {
+        if (_errorListener != null) {
+          postErrorToListener(error.getMessage());
+        }
+        throw new TransformerException(error);
+      }
     }
+  }
 
-    // If we create an output stream for the Result, we need to close it after
-    // the transformation.
+  /**
+   * Close the output stream that was created for the Result, if any.
+   * 
+   * @param done
+   *          true if the output is complete. A ChannelResult whose remaining
+   *          output cannot be written then fails the transformation.
+   * @throws TransformerException
+   *           if the end of the output has not reached the channel
+   */
+  void closeOutputStream(boolean done) throws TransformerException {
     if (_ostream != null) {
+      final OutputStream ostream = _ostream;
+      _ostream = null;
       try {
-        _ostream.close();
+        ostream.close();
       } catch (final IOException e) {
+        if (done && ostream instanceof ByteBufferOutputStream)
+          throw new TransformerException(e);
       }
-      _ostream = null;
     }
   }
 
@@ -881,6 +1008,12 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
       translet._indent = YES.equalsIgnoreCase(indent);
     }
 
+    final String compression = getLayeredOutputProperty(OutputPropertiesFactory.S_KEY_COMPRESSION, userProperties,
+        stylesheetProperties);
+    if (compression != null) {
+      translet._compression = compression;
+    }
+
     final String cdata = getLayeredOutputProperty(OutputKeys.CDATA_SECTION_ELEMENTS, userProperties,
         stylesheetProperties);
     if (cdata != null) {
@@ -934,6 +1067,12 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
       handler.setIndent(YES.equalsIgnoreCase(indent));
     }
 
+    final String compression = getLayeredOutputProperty(OutputPropertiesFactory.S_KEY_COMPRESSION, userProperties,
+        stylesheetProperties);
+    if (compression != null) {
+      handler.setOutputProperty(OutputPropertiesFactory.S_KEY_COMPRESSION, compression);
+    }
+
     final String cdata = getLayeredOutputProperty(OutputKeys.CDATA_SECTION_ELEMENTS, userProperties,
         stylesheetProperties);
     if (cdata != null) {
@@ -1229,6 +1368,7 @@ public final class TransformerImpl extends Transformer implements DOMCache, Erro
     _dom = null;
     _parameters = null;
     _indentNumber = 0;
+    _serializerMetrics = null;
     setOutputProperties(null);
 
   }
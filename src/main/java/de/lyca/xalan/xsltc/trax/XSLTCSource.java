@@ -34,7 +34,7 @@ import de.lyca.xalan.xsltc.runtime.AbstractTranslet;
 /**
  * @author Morten Jorgensen
  */
-public final class XSLTCSource implements Source {
+public class XSLTCSource implements Source {
 
   private String _systemId = null;
   private Source _source = null;
@@ -92,6 +92,22 @@ public final class XSLTCSource implements Source {
       return _systemId;
   }
 
+  /**
+   * Returns the JAXP Source the DOM is built from.
+   * 
+   * @return The wrapped Source, or a StreamSource for the system ID
+   * @throws SAXException
+   *           If neither a Source nor a system ID was given
+   */
+  protected Source getSource() throws SAXException {
+    if (_source != null)
+      return _source;
+    if (_systemId != null && _systemId.length() > 0)
+      return new StreamSource(_systemId);
+    final ErrorMsg err = new ErrorMsg(Messages.get().xsltcSourceErr());
+    throw new SAXException(err.toString());
+  }
+
   /**
    * Internal interface which returns a DOM for a given DTMManager and translet.
    * 
@@ -111,15 +127,7 @@ public final class XSLTCSource implements Source {
         idom.migrateTo(dtmManager);
       }
     } else {
-      Source source = _source;
-      if (source == null) {
-        if (_systemId != null && _systemId.length() > 0) {
-          source = new StreamSource(_systemId);
-        } else {
-          final ErrorMsg err = new ErrorMsg(Messages.get().xsltcSourceErr());
-          throw new SAXException(err.toString());
-        }
-      }
+      final Source source = getSource();
 
       DOMWSFilter wsfilter = null;
       if (translet != null && translet instanceof StripFilter) {
@@ -184,6 +184,15 @@ public final class IntegerArray implements Cloneable {
     return _free;
   }
 
+  /**
+   * Releases the unused capacity of the array.
+   */
+  public void trimToSize() {
+    if (_free < _size && _free > 0) {
+      _array = Arrays.copyOf(_array, _size = _free);
+    }
+  }
+
   public void print(java.io.PrintStream out) {
     if (_free > 0) {
       for (int i = 0; i < _free - 1; i++) {
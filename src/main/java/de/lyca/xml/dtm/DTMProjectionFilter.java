@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xml.dtm;
+
+/**
+ * This interface is meant to be implemented by a client of the DTM, and allows attributes, elements and text nodes that
+ * the client will never access to be discarded while the DTM is built. A discarded element is discarded together with
+ * its subtree. The document element is never discarded.
+ */
+public interface DTMProjectionFilter {
+
+  /**
+   * Test whether an attribute is visible in the logical view of <code>DTM</code>. Normally, this function will be
+   * called by the implementation of <code>DTM</code>; it is not normally called directly from user code. Namespace
+   * declarations are never passed to this method.
+   * 
+   * @param uri The namespace URI of the attribute, or the empty string if it has none.
+   * @param localName The local name of the attribute.
+   * @return true if the attribute must be added to the DTM, false if it can be discarded.
+   */
+  boolean getShouldKeepAttribute(String uri, String localName);
+
+  /**
+   * Test whether an element, other than the document element, is visible in the logical view of <code>DTM</code>. It
+   * is not called for the descendants of a discarded element, nor inside a subtree kept by
+   * {@link #getShouldKeepSubtree(String, String)}.
+   * 
+   * @param uri The namespace URI of the element, or the empty string if it has none.
+   * @param localName The local name of the element.
+   * @return true if the element must be added to the DTM, false if it can be discarded with its subtree.
+   */
+  default boolean getShouldKeepElement(String uri, String localName) {
+    return true;
+  }
+
+  /**
+   * Test whether all the descendants of a kept element are visible in the logical view of <code>DTM</code>.
+   * 
+   * @param uri The namespace URI of the element, or the empty string if it has none.
+   * @param localName The local name of the element.
+   * @return true if the subtree of the element must be added to the DTM in full.
+   */
+  default boolean getShouldKeepSubtree(String uri, String localName) {
+    return false;
+  }
+
+  /**
+   * Test whether text nodes outside the subtrees kept in full are visible in the logical view of <code>DTM</code>.
+   * 
+   * @return true if text nodes must be added to the DTM, false if they can be discarded.
+   */
+  default boolean getShouldKeepText() {
+    return true;
+  }
+
+}
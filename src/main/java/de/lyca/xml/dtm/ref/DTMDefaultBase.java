@@ -874,13 +874,20 @@ public abstract class DTMDefaultBase implements DTM {
       // someone is apparently asking DTMs whether they contain nodes
       // which really don't belong to them. That's probably a bug
       // which should be fixed, but until it is:
+      // The table is read without a lock; m_dtms must be read before
+      // m_dtm_offsets, which is published first.
       if (m_mgrDefault.m_dtms[whichDTMindex] != this)
         return NULL;
       else
         return m_mgrDefault.m_dtm_offsets[whichDTMindex] | nodeHandle & DTMManager.IDENT_NODE_DEFAULT;
     }
 
-    final int whichDTMid = m_dtmIdent.indexOf(nodeHandle & DTMManager.IDENT_DTM_DEFAULT);
+    // Most DTMs have a single DTM ID
+    final int dtmIdent = nodeHandle & DTMManager.IDENT_DTM_DEFAULT;
+    if (m_dtmIdent.elementAt(0) == dtmIdent)
+      return nodeHandle & DTMManager.IDENT_NODE_DEFAULT;
+
+    final int whichDTMid = m_dtmIdent.indexOf(dtmIdent);
     return whichDTMid == NULL ? NULL
         : (whichDTMid << DTMManager.IDENT_DTM_NODE_BITS) + (nodeHandle & DTMManager.IDENT_NODE_DEFAULT);
   }
@@ -17,6 +17,8 @@
  */
 package de.lyca.xml.dtm.ref;
 
+import java.util.BitSet;
+
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Source;
@@ -55,14 +57,12 @@ import de.lyca.xml.utils.XMLStringFactory;
 /**
  * The default implementation for the DTMManager.
  * 
- * %REVIEW% There is currently a reentrancy issue, since the finalizer for XRTreeFrag (which runs in the GC thread)
- * wants to call DTMManager.release(), and may do so at the same time that the main transformation thread is accessing
- * the manager. Our current solution is to make most of the manager's methods <code>synchronized</code>. Early tests
- * suggest that doing so is not causing a significant performance hit in Xalan. However, it should be noted that there
- * is a possible alternative solution: rewrite release() so it merely posts a request for release onto a threadsafe
- * queue, and explicitly process that queue on an infrequent basis during main-thread activity (eg, when getDTM() is
- * invoked). The downside of that solution would be a greater delay before the DTM's storage is actually released for
- * reuse.
+ * The manager may be accessed by more than one thread, e.g. by the finalizer for XRTreeFrag (which runs in the GC
+ * thread and calls DTMManager.release()) or by the parsing thread of an incremental build. Only the methods that change
+ * the DTM table - addDTM(), getFirstFreeDTMID() and release() - synchronize on the manager. They write to the table and
+ * then republish it through the volatile m_dtms and m_dtm_offsets fields, so that the lookups used in node addressing
+ * read it without taking a lock. DTM IDs are handed out from a free list: getFirstFreeDTMID() reserves the ID it
+ * returns, and release() returns the IDs of a DTM to the list. Documents are parsed outside of any lock.
  */
 public class DTMManagerDefault extends DTMManager {
   // static final boolean JKESS_XNI_EXPERIMENT=true;
@@ -78,31 +78,39 @@ public class DTMManagerDefault extends DTMManager {
    * if extended node indexing is in use; in that case, m_dtm_offsets[] will used to control which prefix maps to which
    * section of the DTM.
    * 
-   * This array grows as necessary; see addDTM().
-   * 
    * This array grows as necessary; see addDTM(). Growth is uncommon... but access needs to be blindingly fast since
-   * it's used in node addressing.
+   * it's used in node addressing. Readers must read the field once and use that reference; writers hold the lock on the
+   * manager and assign the field after each change to publish it.
    */
-  protected DTM m_dtms[] = new DTM[256];
+  protected volatile DTM m_dtms[] = new DTM[256];
 
   /**
    * Map from DTM identifier numbers to offsets. For small DTMs with a single identifier, this will always be 0. In
    * overflow addressing, where additional identifiers are allocated to access nodes beyond the range of a single Node
    * Handle, this table is used to map the handle's node field into the actual node identifier.
    * 
-   * This array grows as necessary; see addDTM().
-   * 
    * This array grows as necessary; see addDTM(). Growth is uncommon... but access needs to be blindingly fast since
    * it's used in node addressing. (And at the moment, that includes accessing it from DTMDefaultBase, which is why this
-   * is not Protected or Private.)
+   * is not Protected or Private.) It is always published before m_dtms, so a reader that finds a DTM in m_dtms also
+   * finds its offset here.
+   */
+  volatile int m_dtm_offsets[] = new int[256];
+
+  /**
+   * DTM IDs below m_nextDTMID that are free for reuse.
+   */
+  private final BitSet m_freeDTMIDs = new BitSet();
+
+  /**
+   * The lowest DTM ID that has never been handed out. ID 0 is never used.
    */
-  int m_dtm_offsets[] = new int[256];
+  private int m_nextDTMID = 1;
 
   /**
    * The cache for XMLReader objects to be used if the user did not supply an XMLReader for a SAXSource or supplied a
    * StreamSource.
    */
-  protected XMLReaderManager m_readerManager = null;
+  protected volatile XMLReaderManager m_readerManager = null;
 
   /**
    * The default implementation of ContentHandler, DTDHandler and ErrorHandler.
@@ -140,7 +148,9 @@ public class DTMManagerDefault extends DTMManager {
     // to allocate that much space unless needed. We could use one of our
     // handy-dandy Fast*Vectors, but this will do for now.
     // %REVIEW%
-    final int oldlen = m_dtms.length;
+    DTM dtms[] = m_dtms;
+    int offsets[] = m_dtm_offsets;
+    final int oldlen = dtms.length;
     if (oldlen <= id) {
       // Various growth strategies are possible. I think we don't want
       // to over-allocate excessively, and I'm willing to reallocate
@@ -150,32 +160,79 @@ public class DTMManagerDefault extends DTMManager {
       final int newlen = Math.min(id + 256, IDENT_MAX_DTMS);
 
       final DTM new_m_dtms[] = new DTM[newlen];
-      System.arraycopy(m_dtms, 0, new_m_dtms, 0, oldlen);
-      m_dtms = new_m_dtms;
+      System.arraycopy(dtms, 0, new_m_dtms, 0, oldlen);
+      dtms = new_m_dtms;
       final int new_m_dtm_offsets[] = new int[newlen];
-      System.arraycopy(m_dtm_offsets, 0, new_m_dtm_offsets, 0, oldlen);
-      m_dtm_offsets = new_m_dtm_offsets;
+      System.arraycopy(offsets, 0, new_m_dtm_offsets, 0, oldlen);
+      offsets = new_m_dtm_offsets;
     }
 
-    m_dtms[id] = dtm;
-    m_dtm_offsets[id] = offset;
+    offsets[id] = offset;
+    dtms[id] = dtm;
+    m_dtm_offsets = offsets;
+    m_dtms = dtms;
+
+    // The ID is in use now, whether it was reserved by getFirstFreeDTMID()
+    // or chosen by the caller.
+    if (id >= m_nextDTMID) {
+      m_freeDTMIDs.set(m_nextDTMID, id);
+      m_nextDTMID = id + 1;
+    } else {
+      m_freeDTMIDs.clear(id);
+    }
     dtm.documentRegistration();
     // The DTM should have been told who its manager was when we created it.
     // Do we need to allow for adopting DTMs _not_ created by this manager?
   }
 
   /**
-   * Get the first free DTM ID available. %OPT% Linear search is inefficient!
+   * Reserve the first free DTM ID available. The ID is not handed out again until it has been bound to a DTM by
+   * addDTM() and that DTM has been released, so concurrent callers never get the same ID.
    * 
-   * @return TODO
+   * @return the lowest free DTM ID
    */
   synchronized public int getFirstFreeDTMID() {
-    final int n = m_dtms.length;
-    for (int i = 1; i < n; i++) {
-      if (null == m_dtms[i])
-        return i;
+    final int id = m_freeDTMIDs.nextSetBit(1);
+    if (id >= 0) {
+      m_freeDTMIDs.clear(id);
+      return id;
     }
-    return n; // count on addDTM() to throw exception if out of range
+    // count on addDTM() to throw exception if out of range
+    return m_nextDTMID < IDENT_MAX_DTMS ? m_nextDTMID++ : m_nextDTMID;
+  }
+
+  /**
+   * Never hand out DTM IDs below the given one. A manager that builds DTMs to be shared with other managers uses this
+   * to keep its IDs clear of the ones those managers allocate for themselves.
+   * 
+   * @param id the lowest DTM ID to be handed out from now on
+   */
+  synchronized public void setFirstFreeDTMID(int id) {
+    if (id > m_nextDTMID) {
+      m_nextDTMID = id;
+    }
+    m_freeDTMIDs.clear(0, id);
+  }
+
+  /**
+   * Bind a DTM built by another manager under the DTM IDs it already has, if all of them are free in this manager. This
+   * is used to share a read-only DTM between transformations.
+   * 
+   * @param dtm the DTM to be added
+   * @return true if the DTM has been added, false if one of its IDs is bound to another DTM or reserved
+   */
+  synchronized public boolean addSharedDTM(DTMDefaultBase dtm) {
+    final SuballocatedIntVector ids = dtm.getDTMIDs();
+    final DTM dtms[] = m_dtms;
+    for (int i = 0; i < ids.size(); i++) {
+      final int id = ids.elementAt(i) >>> IDENT_DTM_NODE_BITS;
+      if (id < m_nextDTMID && !m_freeDTMIDs.get(id) && !(id < dtms.length && dtms[id] == dtm))
+        return false;
+    }
+    for (int i = 0; i < ids.size(); i++) {
+      addDTM(dtm, ids.elementAt(i) >>> IDENT_DTM_NODE_BITS, i << IDENT_DTM_NODE_BITS);
+    }
+    return true;
   }
 
   /**
@@ -210,15 +267,40 @@ public class DTMManagerDefault extends DTMManager {
    * @return a non-null DTM reference.
    */
   @Override
-  synchronized public DTM getDTM(Source source, boolean unique, DTMWSFilter whiteSpaceFilter, boolean incremental,
+  public DTM getDTM(Source source, boolean unique, DTMWSFilter whiteSpaceFilter, boolean incremental,
       boolean doIndexing) {
 
     if (DEBUG && null != source) {
       System.out.println("Starting " + (unique ? "UNIQUE" : "shared") + " source: " + source.getSystemId());
     }
 
-    final XMLStringFactory xstringFactory = m_xsf;
     final int dtmPos = getFirstFreeDTMID();
+    boolean built = false;
+    try {
+      final DTM dtm = buildDTM(source, dtmPos, whiteSpaceFilter, incremental, doIndexing, unique);
+      built = true;
+      return dtm;
+    } finally {
+      if (!built) {
+        abandonDTMID(dtmPos);
+      }
+    }
+  }
+
+  /**
+   * Build a DTM under a DTM ID reserved by getFirstFreeDTMID().
+   * 
+   * @param source the specification of the source object.
+   * @param dtmPos the reserved DTM ID.
+   * @param whiteSpaceFilter Enables filtering of whitespace nodes, and may be null.
+   * @param incremental true if the DTM should be built incrementally, if possible.
+   * @param doIndexing true if the caller considers it worth it to use indexing schemes.
+   * @param unique true if the returned DTM must be unique.
+   * @return a non-null DTM reference.
+   */
+  private DTM buildDTM(Source source, int dtmPos, DTMWSFilter whiteSpaceFilter, boolean incremental,
+      boolean doIndexing, boolean unique) {
+    final XMLStringFactory xstringFactory = m_xsf;
     final int documentID = dtmPos << IDENT_DTM_NODE_BITS;
 
     if (null != source && source instanceof DOMSource) {
@@ -430,7 +512,7 @@ public class DTMManagerDefault extends DTMManager {
    * @return a valid DTM handle.
    */
   @Override
-  synchronized public int getDTMHandleFromNode(Node node) {
+  public int getDTMHandleFromNode(Node node) {
     if (null == node)
       // "node must be non-null for getDTMHandleFromNode!");
       throw new IllegalArgumentException(Messages.get().nodeNonNull());
@@ -460,9 +542,10 @@ public class DTMManagerDefault extends DTMManager {
       // POSSIBLE SOLUTIONS:
       // Generate a list of _unique_ DTM objects?
       // Have each DTM cache last DOM node search?
-      final int max = m_dtms.length;
+      final DTM dtms[] = m_dtms;
+      final int max = dtms.length;
       for (int i = 0; i < max; i++) {
-        final DTM thisDTM = m_dtms[i];
+        final DTM thisDTM = dtms[i];
         if (null != thisDTM && thisDTM instanceof DOM2DTM) {
           final int handle = ((DOM2DTM) thisDTM).getHandleOfNode(node);
           if (handle != DTM.NULL)
@@ -529,7 +612,7 @@ public class DTMManagerDefault extends DTMManager {
    * 
    * @return non-null XMLReader reference ready to parse.
    */
-  synchronized public XMLReader getXMLReader(Source inputSource) {
+  public XMLReader getXMLReader(Source inputSource) {
 
     try {
       XMLReader reader = inputSource instanceof SAXSource ? ((SAXSource) inputSource).getXMLReader() : null;
@@ -559,7 +642,7 @@ public class DTMManagerDefault extends DTMManager {
    * 
    * @param reader The XMLReader to be released.
    */
-  synchronized public void releaseXMLReader(XMLReader reader) {
+  public void releaseXMLReader(XMLReader reader) {
     if (m_readerManager != null) {
       m_readerManager.releaseXMLReader(reader);
     }
@@ -573,7 +656,7 @@ public class DTMManagerDefault extends DTMManager {
    * @return a reference to the DTM object containing this node.
    */
   @Override
-  synchronized public DTM getDTM(int nodeHandle) {
+  public DTM getDTM(int nodeHandle) {
     try {
       // Performance critical function.
       return m_dtms[nodeHandle >>> IDENT_DTM_NODE_BITS];
@@ -595,7 +678,7 @@ public class DTMManagerDefault extends DTMManager {
    *         to this manager.
    */
   @Override
-  synchronized public int getDTMIdentity(DTM dtm) {
+  public int getDTMIdentity(DTM dtm) {
     // Shortcut using DTMDefaultBase's extension hooks
     // %REVIEW% Should the lookup be part of the basic DTM API?
     if (dtm instanceof DTMDefaultBase) {
@@ -606,12 +689,14 @@ public class DTMManagerDefault extends DTMManager {
         return -1;
     }
 
-    final int n = m_dtms.length;
+    final DTM dtms[] = m_dtms;
+    final int offsets[] = m_dtm_offsets;
+    final int n = dtms.length;
 
     for (int i = 0; i < n; i++) {
-      final DTM tdtm = m_dtms[i];
+      final DTM tdtm = dtms[i];
 
-      if (tdtm == dtm && m_dtm_offsets[i] == 0)
+      if (tdtm == dtm && offsets[i] == 0)
         return i << IDENT_DTM_NODE_BITS;
     }
 
@@ -654,19 +739,77 @@ public class DTMManagerDefault extends DTMManager {
     if (dtm instanceof DTMDefaultBase) {
       final SuballocatedIntVector ids = ((DTMDefaultBase) dtm).getDTMIDs();
       for (int i = ids.size() - 1; i >= 0; --i) {
-        m_dtms[ids.elementAt(i) >>> DTMManager.IDENT_DTM_NODE_BITS] = null;
+        freeDTMID(dtm, ids.elementAt(i) >>> DTMManager.IDENT_DTM_NODE_BITS);
       }
     } else {
       final int i = getDTMIdentity(dtm);
       if (i >= 0) {
-        m_dtms[i >>> DTMManager.IDENT_DTM_NODE_BITS] = null;
+        freeDTMID(dtm, i >>> DTMManager.IDENT_DTM_NODE_BITS);
       }
     }
+    publishDTMs();
 
     dtm.documentRelease();
     return true;
   }
 
+  /**
+   * Return all DTM IDs of a DTM to the free list without releasing the DTM, so that it can be bound again under other
+   * IDs by migrateTo(). The DTM must not be in use while it has no IDs.
+   * 
+   * @param dtm the DTM whose IDs are returned
+   */
+  protected synchronized void freeDTMIDs(DTMDefaultBase dtm) {
+    final SuballocatedIntVector ids = dtm.getDTMIDs();
+    for (int i = ids.size() - 1; i >= 0; --i) {
+      freeDTMID(dtm, ids.elementAt(i) >>> DTMManager.IDENT_DTM_NODE_BITS);
+    }
+    publishDTMs();
+  }
+
+  /**
+   * Return a DTM ID reserved by getFirstFreeDTMID() after building the DTM for it failed. If the DTM had already been
+   * added, for instance because the parse threw, it is released along with any other IDs it holds.
+   * 
+   * @param id the reserved DTM ID.
+   */
+  protected synchronized void abandonDTMID(int id) {
+    final DTM dtms[] = m_dtms;
+    final DTM dtm = id < dtms.length ? dtms[id] : null;
+    if (dtm != null) {
+      release(dtm, true);
+    } else if (id < m_nextDTMID) {
+      m_freeDTMIDs.set(id);
+    }
+  }
+
+  /**
+   * Make slot writes to the current m_dtms array visible to the lookups that read the table without a lock. Storing
+   * into an element of a volatile array field is not a volatile write; only assigning the field is. So after nulling
+   * slots in place the field has to be assigned again, even though it gets the same array. The caller must hold the
+   * lock on the manager.
+   */
+  private void publishDTMs() {
+    final DTM dtms[] = m_dtms;
+    // Volatile write of the field: publishes the preceding slot writes
+    m_dtms = dtms;
+  }
+
+  /**
+   * Unbind a DTM ID from the given DTM and return it to the free list. IDs that have been bound to another DTM in the
+   * meantime are left alone. The caller must hold the lock on the manager and call publishDTMs() afterwards.
+   * 
+   * @param dtm the DTM being released.
+   * @param id the DTM ID to be freed.
+   */
+  private void freeDTMID(DTM dtm, int id) {
+    final DTM dtms[] = m_dtms;
+    if (id < dtms.length && dtms[id] == dtm) {
+      dtms[id] = null;
+      m_freeDTMIDs.set(id);
+    }
+  }
+
   /**
    * Method createDocumentFragment
    * 
@@ -674,7 +817,7 @@ public class DTMManagerDefault extends DTMManager {
    * NEEDSDOC (createDocumentFragment) @return
    */
   @Override
-  synchronized public DTM createDocumentFragment() {
+  public DTM createDocumentFragment() {
 
     try {
       final DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
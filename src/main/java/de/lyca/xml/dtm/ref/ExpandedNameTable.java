@@ -64,6 +64,12 @@ public class ExpandedNameTable {
    * */
   ExtendedType hashET = new ExtendedType(-1, "", "");
 
+  /**
+   * True if the table belongs to a DOM that is read by several threads, in
+   * which case lookups are synchronized.
+   */
+  private boolean m_shared;
+
   /** The array to store the default extended types. */
   private static ExtendedType[] m_defaultExtendedTypes;
 
@@ -161,6 +167,9 @@ public class ExpandedNameTable {
    * If searchOnly is true, we will return -1 if the name is not found in the
    * table, otherwise the name is added to the table and the expanded name id of
    * the new entry is returned.
+   * <p>
+   * Lookups use the hashET workspace, so they are synchronized once the table
+   * has been {@link #setShared() shared}.
    * 
    * @param namespace
    *          The namespace
@@ -175,6 +184,24 @@ public class ExpandedNameTable {
    * @return the expanded-name id of the node.
    */
   public int getExpandedTypeID(String namespace, String localName, int type, boolean searchOnly) {
+    if (m_shared) {
+      synchronized (this) {
+        return lookup(namespace, localName, type, searchOnly);
+      }
+    }
+    return lookup(namespace, localName, type, searchOnly);
+  }
+
+  /**
+   * Mark the table as read by several threads. Lookups are synchronized from
+   * now on. The table must be published to the other threads after this call,
+   * for example through a volatile field.
+   */
+  public void setShared() {
+    m_shared = true;
+  }
+
+  private int lookup(String namespace, String localName, int type, boolean searchOnly) {
     if (null == namespace) {
       namespace = "";
     }
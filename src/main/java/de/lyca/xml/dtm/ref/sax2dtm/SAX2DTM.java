@@ -877,13 +877,13 @@ public class SAX2DTM extends DTMDefaultBaseIterators
 
     // We have to reset the information in m_dtmIdent and
     // register the DTM with the new manager.
+    // The free IDs of the new manager need not be consecutive.
     final int numDTMs = m_dtmIdent.size();
-    int dtmId = m_mgrDefault.getFirstFreeDTMID();
     int nodeIndex = 0;
     for (int i = 0; i < numDTMs; i++) {
+      final int dtmId = m_mgrDefault.getFirstFreeDTMID();
       m_dtmIdent.setElementAt(dtmId << DTMManager.IDENT_DTM_NODE_BITS, i);
       m_mgrDefault.addDTM(this, dtmId, nodeIndex);
-      dtmId++;
       nodeIndex += 1 << DTMManager.IDENT_DTM_NODE_BITS;
     }
   }
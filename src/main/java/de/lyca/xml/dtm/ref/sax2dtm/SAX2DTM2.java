@@ -18,6 +18,7 @@
 package de.lyca.xml.dtm.ref.sax2dtm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.xml.transform.Source;
@@ -30,6 +31,7 @@ import de.lyca.xml.dtm.DTM;
 import de.lyca.xml.dtm.DTMAxisIterator;
 import de.lyca.xml.dtm.DTMException;
 import de.lyca.xml.dtm.DTMManager;
+import de.lyca.xml.dtm.DTMProjectionFilter;
 import de.lyca.xml.dtm.DTMWSFilter;
 import de.lyca.xml.dtm.DTMWSFilter.Mode;
 import de.lyca.xml.dtm.ref.DTMDefaultBase;
@@ -876,6 +878,7 @@ public class SAX2DTM2 extends SAX2DTM {
     public DTMAxisIterator reset() {
 
       _sp = _oldsp;
+      _currentNode = _stack[_oldsp];
 
       return resetPosition();
     }
@@ -913,6 +916,45 @@ public class SAX2DTM2 extends SAX2DTM {
       _nodeType = type;
     }
 
+    /**
+     * The nodes of the requested type from the type index, or null if the
+     * preceding nodes are scanned. The candidates are those before _end; the
+     * ancestors among them are skipped.
+     */
+    private int[] _indexed;
+    private int _next, _end, _markedNext;
+
+    @Override
+    public DTMAxisIterator setStartNode(int node) {
+      if (_isRestartable) {
+        super.setStartNode(node);
+        _indexed = _nodeType >= DTM.NTYPES ? getIndexedNodes(_nodeType) : null;
+        if (_indexed != null) {
+          _next = 0;
+          _end = lowerBound(_indexed, _stack[0]);
+        }
+      }
+      return this;
+    }
+
+    @Override
+    public DTMAxisIterator reset() {
+      _next = 0;
+      return super.reset();
+    }
+
+    @Override
+    public void setMark() {
+      super.setMark();
+      _markedNext = _next;
+    }
+
+    @Override
+    public void gotoMark() {
+      super.gotoMark();
+      _next = _markedNext;
+    }
+
     /**
      * Get the next node in the iteration.
      * 
@@ -920,6 +962,19 @@ public class SAX2DTM2 extends SAX2DTM {
      */
     @Override
     public int next() {
+      if (_indexed != null) {
+        while (_next < _end) {
+          final int node = _indexed[_next++];
+          // The ancestors on the stack are in reverse document order
+          while (_sp > 0 && _stack[_sp] < node) {
+            _sp--;
+          }
+          if (_sp <= 0 || _stack[_sp] != node)
+            return returnNode(makeNodeHandle(node));
+        }
+        return NULL;
+      }
+
       int node = _currentNode;
       final int nodeType = _nodeType;
 
@@ -1085,6 +1140,43 @@ public class SAX2DTM2 extends SAX2DTM {
       _nodeType = type;
     }
 
+    /**
+     * The nodes of the requested type from the type index, or null if the
+     * following nodes are scanned.
+     */
+    private int[] _indexed;
+    private int _first, _next, _markedNext;
+
+    @Override
+    public DTMAxisIterator setStartNode(int node) {
+      if (_isRestartable) {
+        super.setStartNode(node);
+        _indexed = _nodeType >= DTM.NTYPES ? getIndexedNodes(_nodeType) : null;
+        if (_indexed != null) {
+          final int first = makeNodeIdentity(_currentNode);
+          _next = _first = first == NULL ? _indexed.length : lowerBound(_indexed, first);
+        }
+      }
+      return this;
+    }
+
+    @Override
+    public int getLast() {
+      return _indexed != null ? _indexed.length - _first : super.getLast();
+    }
+
+    @Override
+    public void setMark() {
+      super.setMark();
+      _markedNext = _next;
+    }
+
+    @Override
+    public void gotoMark() {
+      super.gotoMark();
+      _next = _markedNext;
+    }
+
     /**
      * Get the next node in the iteration.
      * 
@@ -1092,6 +1184,9 @@ public class SAX2DTM2 extends SAX2DTM {
      */
     @Override
     public int next() {
+      if (_indexed != null)
+        return _next < _indexed.length ? returnNode(makeNodeHandle(_indexed[_next++])) : END;
+
       int current;
       int node;
       int type;
@@ -1539,6 +1634,49 @@ public class SAX2DTM2 extends SAX2DTM {
       _nodeType = nodeType;
     }
 
+    /**
+     * The nodes of the requested type from the type index, or null if the
+     * subtree is scanned. The descendants are those from _first to _end.
+     */
+    private int[] _indexed;
+    private int _first, _next, _end, _markedNext;
+
+    @Override
+    public DTMAxisIterator setStartNode(int node) {
+      if (_isRestartable) {
+        super.setStartNode(node);
+        _indexed = _nodeType != DTM.ELEMENT_NODE && _startNode != NULL ? getIndexedNodes(_nodeType) : null;
+        if (_indexed != null) {
+          final int type = _type2(_startNode);
+          if (type == DTM.ATTRIBUTE_NODE || type == DTM.NAMESPACE_NODE) {
+            _first = _end = 0;
+          } else {
+            _first = lowerBound(_indexed, _includeSelf ? _startNode : _startNode + 1);
+            _end = lowerBound(_indexed, subtreeEnd(_startNode));
+          }
+          _next = _first;
+        }
+      }
+      return this;
+    }
+
+    @Override
+    public int getLast() {
+      return _indexed != null ? _end - _first : super.getLast();
+    }
+
+    @Override
+    public void setMark() {
+      super.setMark();
+      _markedNext = _next;
+    }
+
+    @Override
+    public void gotoMark() {
+      super.gotoMark();
+      _next = _markedNext;
+    }
+
     /**
      * Get the next node in the iteration.
      * 
@@ -1550,6 +1688,9 @@ public class SAX2DTM2 extends SAX2DTM {
       if (_startNode == NULL)
         return NULL;
 
+      if (_indexed != null)
+        return _next < _end ? returnNode(makeNodeHandle(_indexed[_next++])) : END;
+
       int node = _currentNode;
 
       int expType;
@@ -1703,9 +1844,33 @@ public class SAX2DTM2 extends SAX2DTM {
   // True if we want to build the ID index table.
   protected boolean m_buildIdIndex = true;
 
+  // Discards nodes the client will never access, or null to keep all.
+  protected DTMProjectionFilter m_projectionFilter;
+
+  // The depth inside an element discarded by the projection filter, or 0.
+  private int m_projectedDepth = 0;
+
+  // The depth inside a subtree kept in full by the projection filter, or 0.
+  private int m_keptSubtreeDepth = 0;
+
+  // The identities of the nodes of every expanded type in document order,
+  // or null if the type index has not been built. See buildTypeIndex().
+  private volatile int[][] m_typeIndex;
+
+  // The cache of the string-values of element and document nodes, created
+  // when the first one is requested after the document has been built.
+  private volatile StringValueCache m_stringValueCache;
+
+  // The maximum number of entries of the string-value cache, a power of two;
+  // 0 disables it.
+  int m_stringValueCacheSize = StringValueCache.SIZE;
+
   // Constant for empty String
   private static final String EMPTY_STR = "";
 
+  // Constant for an expanded type without nodes
+  private static final int[] EMPTY_NODES = new int[0];
+
   // Constant for empty XMLString
   private static final XMLString EMPTY_XML_STR = new XMLStringDefault("");
 
@@ -1900,6 +2065,52 @@ public class SAX2DTM2 extends SAX2DTM {
       return index;
   }
 
+  /**
+   * Set the filter deciding which elements, text nodes and attributes are added to this DTM. The document element is
+   * always added. Must be called before the document is built.
+   * 
+   * @param projectionFilter The filter, or null to keep all nodes.
+   */
+  public void setProjectionFilter(DTMProjectionFilter projectionFilter) {
+    m_projectionFilter = projectionFilter;
+  }
+
+  /**
+   * Returns true while the SAX events of an element discarded by the projection filter, or of its content, are
+   * received.
+   * 
+   * @return true if the current SAX event is not added to this DTM.
+   */
+  protected final boolean isProjectedOut() {
+    return m_projectedDepth > 0;
+  }
+
+  /**
+   * Returns true if character data received now is added to this DTM.
+   * 
+   * @return false if the character data is discarded by the projection filter.
+   */
+  protected final boolean getShouldKeepCharacters() {
+    return m_projectedDepth == 0
+        && (null == m_projectionFilter || m_keptSubtreeDepth > 0 || m_projectionFilter.getShouldKeepText());
+  }
+
+  /**
+   * Override SAX2DTM.characters() to discard the character data the projection filter does not keep.
+   * 
+   * @param ch The characters.
+   * @param start The start position in the character array.
+   * @param length The number of characters to use from the character array.
+   * @throws SAXException Any SAX exception, possibly wrapping another exception.
+   * @see org.xml.sax.ContentHandler#characters
+   */
+  @Override
+  public void characters(char ch[], int start, int length) throws SAXException {
+    if (getShouldKeepCharacters()) {
+      super.characters(ch, start, length);
+    }
+  }
+
   /**
    * Override SAX2DTM.startElement()
    * 
@@ -1923,8 +2134,28 @@ public class SAX2DTM2 extends SAX2DTM {
   @Override
   public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
 
+    if (m_projectedDepth > 0) {
+      m_projectedDepth++;
+      m_contextIndexes.push(m_prefixMappings.size());
+      return;
+    }
+
     charactersFlush();
 
+    if (m_keptSubtreeDepth > 0) {
+      m_keptSubtreeDepth++;
+    } else if (null != m_projectionFilter) {
+      if (m_pastFirstElement && !m_projectionFilter.getShouldKeepElement(uri, localName)) {
+        // The element and its subtree are not reachable from the stylesheet.
+        m_projectedDepth = 1;
+        m_contextIndexes.push(m_prefixMappings.size());
+        return;
+      }
+      if (m_projectionFilter.getShouldKeepSubtree(uri, localName)) {
+        m_keptSubtreeDepth = 1;
+      }
+    }
+
     int exName = m_expandedNameTable.getExpandedTypeID(uri, localName, DTM.ELEMENT_NODE);
 
     int prefixIndex = qName.length() != localName.length() ? m_valuesOrPrefixes.stringToIndex(qName) : 0;
@@ -1993,6 +2224,10 @@ public class SAX2DTM2 extends SAX2DTM {
         if (m_buildIdIndex && attributes.getType(i).equalsIgnoreCase("ID")) {
           setIDAttribute(valString, elemNode);
         }
+
+        if (null != m_projectionFilter && !m_projectionFilter.getShouldKeepAttribute(attrUri, attrLocalName)) {
+          continue; // the attribute is not reachable from the stylesheet.
+        }
       }
 
       // Bit of a hack... if somehow valString is null, stringToIndex will
@@ -2050,8 +2285,29 @@ public class SAX2DTM2 extends SAX2DTM {
    */
   @Override
   public void endElement(String uri, String localName, String qName) throws SAXException {
+    if (m_projectedDepth > 0) {
+      m_projectedDepth--;
+      popPrefixMappings();
+      return;
+    }
+
     charactersFlush();
 
+    popPrefixMappings();
+
+    m_previous = m_parents.pop();
+
+    popShouldStripWhitespace();
+
+    if (m_keptSubtreeDepth > 0) {
+      m_keptSubtreeDepth--;
+    }
+  }
+
+  /**
+   * Drop the prefix mappings declared by the element that ends.
+   */
+  private void popPrefixMappings() {
     // If no one noticed, startPrefixMapping is a drag.
     // Pop the context for the last child (the one pushed by startElement)
     m_contextIndexes.quickPop(1);
@@ -2062,10 +2318,6 @@ public class SAX2DTM2 extends SAX2DTM {
       m_prefixMappings = new ArrayList<>(m_prefixMappings.subList(0, topContextIndex));
       // TODO m_prefixMappings.setSize(topContextIndex);
     }
-
-    m_previous = m_parents.pop();
-
-    popShouldStripWhitespace();
   }
 
   /**
@@ -2084,7 +2336,8 @@ public class SAX2DTM2 extends SAX2DTM {
   @Override
   public void comment(char ch[], int start, int length) throws SAXException {
 
-    if (m_insideDTD) // ignore comments if we're inside the DTD
+    // ignore comments if we're inside the DTD or a discarded element
+    if (m_insideDTD || m_projectedDepth > 0)
       return;
 
     charactersFlush();
@@ -2139,6 +2392,79 @@ public class SAX2DTM2 extends SAX2DTM {
     m_parent_map = m_parent.getMap();
   }
 
+  /**
+   * Build the type index of this document: the identities of the nodes of
+   * every expanded type in document order. The typed descendant, following
+   * and preceding iterators then find the nodes of their type by binary search
+   * instead of testing every node of their range. Attribute and namespace
+   * nodes are not indexed. The index takes an int per node and must be built
+   * after the document; threads that share the document may build it at the
+   * same time.
+   */
+  public final void buildTypeIndex() {
+    if (m_typeIndex != null || m_extendedTypes == null)
+      return;
+    final int types = m_expandedNameTable.getSize();
+    final int size = m_size;
+    final int[] counts = new int[types];
+    for (int identity = 0; identity < size; identity++) {
+      counts[_exptype2(identity)]++;
+    }
+    final int[][] index = new int[types][];
+    for (int type = 0; type < types; type++) {
+      final int nodeType = m_expandedNameTable.getType(type);
+      if (nodeType != DTM.ATTRIBUTE_NODE && nodeType != DTM.NAMESPACE_NODE) {
+        index[type] = counts[type] == 0 ? EMPTY_NODES : new int[counts[type]];
+      }
+      counts[type] = 0;
+    }
+    for (int identity = 0; identity < size; identity++) {
+      final int type = _exptype2(identity);
+      final int[] nodes = index[type];
+      if (nodes != null) {
+        nodes[counts[type]++] = identity;
+      }
+    }
+    m_typeIndex = index;
+  }
+
+  /**
+   * Returns the identities of the nodes of an expanded type in document order,
+   * or null if the type index has not been built or does not hold the type.
+   */
+  private int[] getIndexedNodes(int expType) {
+    final int[][] index = m_typeIndex;
+    if (index == null || expType < 0)
+      return null;
+    if (expType < index.length)
+      return index[expType];
+    // Expanded types added after the index was built have no nodes
+    final int nodeType = m_expandedNameTable.getType(expType);
+    return nodeType != DTM.ATTRIBUTE_NODE && nodeType != DTM.NAMESPACE_NODE ? EMPTY_NODES : null;
+  }
+
+  /**
+   * Returns the position of the first node in <code>nodes</code> that is not
+   * before <code>identity</code>.
+   */
+  private static int lowerBound(int[] nodes, int identity) {
+    final int position = Arrays.binarySearch(nodes, identity);
+    return position >= 0 ? position : -position - 1;
+  }
+
+  /**
+   * Returns the identity of the first node after the subtree of a node, or
+   * the number of nodes if it ends with the document.
+   */
+  private int subtreeEnd(int identity) {
+    for (int node = identity; node != NULL; node = _parent2(node)) {
+      final int next = _nextsib2(node);
+      if (next != NULL)
+        return next;
+    }
+    return m_size;
+  }
+
   /**
    * Construct the node map from the node.
    * 
@@ -2262,6 +2588,9 @@ public class SAX2DTM2 extends SAX2DTM {
   @Override
   public void processingInstruction(String target, String data) throws SAXException {
 
+    if (m_projectedDepth > 0)
+      return;
+
     charactersFlush();
 
     final int dataIndex = m_data.size();
@@ -2635,6 +2964,12 @@ public class SAX2DTM2 extends SAX2DTM {
 
     if (type == DTM.ELEMENT_NODE || type == DTM.DOCUMENT_NODE) {
       final int startNode = identity;
+      final StringValueCache cache = getStringValueCache();
+      if (cache != null) {
+        final String value = cache.get(startNode, m_chars);
+        if (value != null)
+          return value;
+      }
       identity = _firstch2(identity);
       if (DTM.NULL != identity) {
         int offset = -1;
@@ -2663,10 +2998,11 @@ public class SAX2DTM2 extends SAX2DTM {
           identity++;
         } while (_parent2(identity) >= startNode);
 
-        if (length > 0)
-          return m_chars.getString(offset, length);
-        else
-          return EMPTY_STR;
+        final String value = length > 0 ? m_chars.getString(offset, length) : EMPTY_STR;
+        if (cache != null) {
+          cache.put(startNode, offset, length, value);
+        }
+        return value;
       } else
         return EMPTY_STR;
     } else if (DTM.TEXT_NODE == type || DTM.CDATA_SECTION_NODE == type) {
@@ -2687,6 +3023,41 @@ public class SAX2DTM2 extends SAX2DTM {
     }
   }
 
+  /**
+   * Returns the string-value cache of this document, or null if it is
+   * disabled or the document has not been built yet.
+   */
+  private StringValueCache getStringValueCache() {
+    StringValueCache cache = m_stringValueCache;
+    if (cache == null && m_stringValueCacheSize > 0 && m_endDocumentOccured) {
+      synchronized (this) {
+        cache = m_stringValueCache;
+        if (cache == null) {
+          m_stringValueCache = cache = new StringValueCache(m_size, m_stringValueCacheSize);
+        }
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * Returns the number of string-values of element and document nodes that
+   * getStringValueX() has found in the cache of this document.
+   */
+  public final long getStringValueCacheHits() {
+    final StringValueCache cache = m_stringValueCache;
+    return cache != null ? cache.getHits() : 0;
+  }
+
+  /**
+   * Returns the number of string-values of element and document nodes that
+   * getStringValueX() has not found in the cache of this document.
+   */
+  public final long getStringValueCacheMisses() {
+    final StringValueCache cache = m_stringValueCache;
+    return cache != null ? cache.getMisses() : 0;
+  }
+
   /**
    * Returns the string value of the entire tree
    */
@@ -2766,7 +3137,7 @@ public class SAX2DTM2 extends SAX2DTM {
           if (normalize) {
             m_chars.sendNormalizedSAXcharacters(ch, offset, length);
           } else {
-            m_chars.sendSAXcharacters(ch, offset, length);
+            sendCharacters(ch, offset, length);
           }
         }
       }
@@ -2777,13 +3148,13 @@ public class SAX2DTM2 extends SAX2DTM {
         if (normalize) {
           m_chars.sendNormalizedSAXcharacters(ch, dataIndex >>> TEXT_LENGTH_BITS, dataIndex & TEXT_LENGTH_MAX);
         } else {
-          m_chars.sendSAXcharacters(ch, dataIndex >>> TEXT_LENGTH_BITS, dataIndex & TEXT_LENGTH_MAX);
+          sendCharacters(ch, dataIndex >>> TEXT_LENGTH_BITS, dataIndex & TEXT_LENGTH_MAX);
         }
       } else {
         if (normalize) {
           m_chars.sendNormalizedSAXcharacters(ch, m_data.elementAt(-dataIndex), m_data.elementAt(-dataIndex + 1));
         } else {
-          m_chars.sendSAXcharacters(ch, m_data.elementAt(-dataIndex), m_data.elementAt(-dataIndex + 1));
+          sendCharacters(ch, m_data.elementAt(-dataIndex), m_data.elementAt(-dataIndex + 1));
         }
       }
     } else {
@@ -2798,12 +3169,26 @@ public class SAX2DTM2 extends SAX2DTM {
 
       if (normalize) {
         FastStringBuffer.sendNormalizedSAXcharacters(str.toCharArray(), 0, str.length(), ch);
+      } else if (ch instanceof SerializationHandler) {
+        ((SerializationHandler) ch).characters(str);
       } else {
         ch.characters(str.toCharArray(), 0, str.length());
       }
     }
   }
 
+  /**
+   * Send a range of the character pool to a ContentHandler. A serializer gets the chunks of the pool as the pieces of
+   * a single text, a plain ContentHandler gets them as SAX characters events.
+   */
+  private void sendCharacters(ContentHandler ch, int offset, int length) throws SAXException {
+    if (ch instanceof SerializationHandler) {
+      m_chars.sendCharacters((SerializationHandler) ch, offset, length);
+    } else {
+      m_chars.sendSAXcharacters(ch, offset, length);
+    }
+  }
+
   /**
    * Given a node handle, return its node value. This is mostly as defined by the DOM, but may ignore some conveniences.
    * <p>
@@ -2844,9 +3229,9 @@ public class SAX2DTM2 extends SAX2DTM {
     if (nodeID != DTM.NULL) {
       final int dataIndex = m_dataOrQName.elementAt(nodeID);
       if (dataIndex >= 0) {
-        m_chars.sendSAXcharacters(handler, dataIndex >>> TEXT_LENGTH_BITS, dataIndex & TEXT_LENGTH_MAX);
+        m_chars.sendCharacters(handler, dataIndex >>> TEXT_LENGTH_BITS, dataIndex & TEXT_LENGTH_MAX);
       } else {
-        m_chars.sendSAXcharacters(handler, m_data.elementAt(-dataIndex), m_data.elementAt(-dataIndex + 1));
+        m_chars.sendCharacters(handler, m_data.elementAt(-dataIndex), m_data.elementAt(-dataIndex + 1));
       }
     }
   }
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xml.dtm.ref.sax2dtm;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import de.lyca.xml.utils.FastStringBuffer;
+
+/**
+ * A bounded cache from the identity of an element or document node to its
+ * string-value, used by {@link SAX2DTM2#getStringValueX(int)}. The text of a
+ * node is one contiguous run in the character buffer of the document, so an
+ * entry holds its offset and length; values up to {@link #MAX_STRING_LENGTH}
+ * characters are kept as a String as well. The cache is direct mapped: an
+ * entry replaces the entry of another node with the same slot. Entries are
+ * immutable, so the cache of a document that is shared by several
+ * transformations can be read and written without locking.
+ */
+final class StringValueCache {
+
+  /**
+   * The name of the system property holding the maximum number of entries
+   * of the cache of a document. It is rounded down to a power of two; 0
+   * disables the cache. Smaller documents get at most one entry per node.
+   */
+  static final String SIZE_PROPERTY = "de.lyca.xml.dtm.STRING_VALUE_CACHE_SIZE";
+
+  static final int SIZE = Integer.highestOneBit(Math.max(0, Integer.getInteger(SIZE_PROPERTY, 1 << 16)));
+
+  /**
+   * Longer values are created from the character buffer on every hit.
+   */
+  static final int MAX_STRING_LENGTH = 64;
+
+  private final Entry[] _entries;
+  private final int _mask;
+  private final LongAdder _hits = new LongAdder();
+  private final LongAdder _misses = new LongAdder();
+
+  /**
+   * Create a cache for a document with the given number of nodes, with at
+   * most <code>maxSize</code> entries, a power of two.
+   */
+  StringValueCache(int nodes, int maxSize) {
+    final int size = Math.min(maxSize, Math.max(16, Integer.highestOneBit(nodes)));
+    _entries = new Entry[size];
+    _mask = size - 1;
+  }
+
+  /**
+   * Returns the cached string-value of a node, or null if it is not cached.
+   */
+  String get(int identity, FastStringBuffer chars) {
+    final Entry entry = _entries[identity & _mask];
+    if (entry == null || entry._identity != identity) {
+      _misses.increment();
+      return null;
+    }
+    _hits.increment();
+    return entry._value != null ? entry._value : chars.getString(entry._offset, entry._length);
+  }
+
+  /**
+   * Cache the string-value of a node, which starts at <code>offset</code> in
+   * the character buffer.
+   */
+  void put(int identity, int offset, int length, String value) {
+    _entries[identity & _mask] = new Entry(identity, offset, length, length <= MAX_STRING_LENGTH ? value : null);
+  }
+
+  long getHits() {
+    return _hits.sum();
+  }
+
+  long getMisses() {
+    return _misses.sum();
+  }
+
+  private static final class Entry {
+    final int _identity;
+    final int _offset;
+    final int _length;
+    final String _value;
+
+    Entry(int identity, int offset, int length, String value) {
+      _identity = identity;
+      _offset = offset;
+      _length = length;
+      _value = value;
+    }
+  }
+}
@@ -0,0 +1,1188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xml.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.xml.transform.SourceLocator;
+import javax.xml.transform.Transformer;
+
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * This class wraps a stream serializer and serializes on a thread of its own,
+ * so that the transformation and the escaping, encoding and writing of its
+ * output overlap.
+ * <p>
+ * The output events are recorded into a bounded ring of compact records - an
+ * operation code, up to five references and an int per event - that a single
+ * consumer thread replays into the wrapped serializer. Character arrays are
+ * copied, since the caller may reuse them. The ring is lock-free: the producer
+ * and the consumer only share their positions, and either one parks when the
+ * ring is full or empty until the other one unparks it. A transformation that
+ * outruns the serializer is thereby held up once {@link #DEFAULT_CAPACITY}
+ * events are waiting.
+ * <p>
+ * Calls that return state of the serializer or change its configuration wait
+ * until the consumer has replayed all events, and then go to the serializer
+ * on the calling thread. The end of the document waits in the same way, so
+ * the output is complete when endDocument() returns. An exception thrown by
+ * the serializer is thrown again from the next call that may throw a
+ * SAXException; the events recorded after it are discarded. The consumer
+ * thread must be released with {@link #stop()} when the output is done with.
+ * <p>
+ * The consumers run on a shared pool of daemon threads, one per processor at
+ * most. If all of them are busy, the events are replayed on the calling thread
+ * whenever they are passed on, which is how the serializer would have run
+ * without this class.
+ * <p>
+ * This class is not a public API, it is public because it is used within
+ * Xalan.
+ */
+public final class AsyncSerializationHandler implements SerializationHandler {
+
+  /**
+   * The number of events the ring holds, unless another capacity is given.
+   */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /**
+   * The number of references an event record has.
+   */
+  private static final int ARGS = 5;
+
+  /**
+   * The number of events recorded or replayed before the position is passed to
+   * the other thread, unless that thread is waiting.
+   */
+  private static final int BATCH = 64;
+
+  /**
+   * The number of times a thread yields before it parks.
+   */
+  private static final int SPINS = 32;
+
+  private static final int START_DOCUMENT = 0;
+  private static final int END_DOCUMENT = 1;
+  private static final int START_ELEMENT1 = 2;
+  private static final int START_ELEMENT3 = 3;
+  private static final int START_ELEMENT4 = 4;
+  private static final int END_ELEMENT1 = 5;
+  private static final int END_ELEMENT3 = 6;
+  private static final int CHARACTERS = 7;
+  private static final int CHARACTERS_STRING = 8;
+  private static final int IGNORABLE_WHITESPACE = 9;
+  private static final int COMMENT = 10;
+  private static final int COMMENT_STRING = 11;
+  private static final int PROCESSING_INSTRUCTION = 12;
+  private static final int ADD_ATTRIBUTE2 = 13;
+  private static final int ADD_ATTRIBUTE5 = 14;
+  private static final int ADD_ATTRIBUTE6 = 15;
+  private static final int ADD_ATTRIBUTES = 16;
+  private static final int ADD_UNIQUE_ATTRIBUTE = 17;
+  private static final int ADD_XSL_ATTRIBUTE = 18;
+  private static final int NAMESPACE_AFTER_START_ELEMENT = 19;
+  private static final int START_PREFIX_MAPPING2 = 20;
+  private static final int END_PREFIX_MAPPING = 21;
+  private static final int ENTITY_REFERENCE = 22;
+  private static final int START_ENTITY = 23;
+  private static final int END_ENTITY = 24;
+  private static final int START_CDATA = 25;
+  private static final int END_CDATA = 26;
+  private static final int START_DTD = 27;
+  private static final int END_DTD = 28;
+  private static final int SKIPPED_ENTITY = 29;
+  private static final int SET_ESCAPING = 30;
+  private static final int FLUSH_PENDING = 31;
+  private static final int CHARACTERS_MORE = 32;
+  private static final int CHARACTERS_LAST = 33;
+
+  private static volatile ExecutorService s_executor;
+
+  /**
+   * The wrapped serializer.
+   */
+  private final SerializationHandler m_handler;
+
+  private final int m_mask;
+
+  private final byte[] m_ops;
+
+  private final Object[] m_args;
+
+  private final int[] m_ints;
+
+  /**
+   * The position of the next event the consumer replays, written by the
+   * consumer.
+   */
+  private volatile long m_head;
+
+  /**
+   * The position up to which events have been passed to the consumer, written
+   * by the producer.
+   */
+  private volatile long m_tail;
+
+  /**
+   * The position of the next event the producer records.
+   */
+  private long m_next;
+
+  /**
+   * The last position of the consumer the producer has seen.
+   */
+  private long m_headSeen;
+
+  private volatile boolean m_producerWaiting;
+
+  private volatile boolean m_consumerWaiting;
+
+  private volatile Thread m_producer;
+
+  private volatile Thread m_consumer;
+
+  private volatile boolean m_stopped;
+
+  /**
+   * The first exception thrown by the serializer.
+   */
+  private volatile Throwable m_error;
+
+  private boolean m_errorThrown;
+
+  private CountDownLatch m_finished;
+
+  /**
+   * Whether the events are replayed on the calling thread, because there was
+   * no thread left in the pool.
+   */
+  private boolean m_inline;
+
+  /**
+   * The escaping setting of the serializer once the recorded events are
+   * replayed.
+   */
+  private boolean m_escaping = true;
+
+  /**
+   * Wrap a serializer with a ring of the default capacity.
+   *
+   * @param handler
+   *          the stream serializer to replay the events into
+   */
+  public AsyncSerializationHandler(SerializationHandler handler) {
+    this(handler, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Wrap a serializer.
+   *
+   * @param handler
+   *          the stream serializer to replay the events into
+   * @param capacity
+   *          the number of events the ring holds, rounded up to a power of two
+   */
+  public AsyncSerializationHandler(SerializationHandler handler, int capacity) {
+    m_handler = handler;
+    final int size = Integer.highestOneBit(Math.max(capacity, BATCH) - 1) << 1;
+    m_mask = size - 1;
+    m_ops = new byte[size];
+    m_args = new Object[size * ARGS];
+    m_ints = new int[size];
+  }
+
+  /**
+   * Returns the wrapped serializer. It may only be used once the consumer has
+   * been stopped.
+   *
+   * @return the wrapped serializer
+   */
+  public SerializationHandler getHandler() {
+    return m_handler;
+  }
+
+  /**
+   * Replay the events that are left, and release the consumer thread. This
+   * method waits until the consumer is done, so the serializer and its output
+   * may be used afterwards.
+   *
+   * @return the exception thrown by the serializer, if it has not been thrown
+   *         to a caller yet, or null
+   */
+  public SAXException stop() {
+    publish(m_next);
+    m_stopped = true;
+    final Thread consumer = m_consumer;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+    if (m_finished != null) {
+      boolean interrupted = false;
+      for (;;) {
+        try {
+          m_finished.await();
+          break;
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (m_error == null || m_errorThrown)
+      return null;
+    m_errorThrown = true;
+    return toSAXException(m_error);
+  }
+
+  // Recording
+
+  /**
+   * Returns the index of a free record, waiting for the consumer if the ring
+   * is full.
+   */
+  private int claim() {
+    final long next = m_next;
+    if (next - m_headSeen > m_mask) {
+      m_headSeen = m_head;
+      if (next - m_headSeen > m_mask) {
+        publish(next);
+        awaitHead(next - m_mask);
+        m_headSeen = m_head;
+      }
+    }
+    return (int) next & m_mask;
+  }
+
+  private void record(int op) {
+    final int i = claim();
+    m_ops[i] = (byte) op;
+    commit();
+  }
+
+  private void record(int op, Object a) {
+    final int i = claim();
+    m_ops[i] = (byte) op;
+    m_args[i * ARGS] = a;
+    commit();
+  }
+
+  private void record(int op, Object a, Object b) {
+    final int i = claim();
+    m_ops[i] = (byte) op;
+    m_args[i * ARGS] = a;
+    m_args[i * ARGS + 1] = b;
+    commit();
+  }
+
+  private void record(int op, Object a, Object b, Object c) {
+    final int i = claim();
+    m_ops[i] = (byte) op;
+    m_args[i * ARGS] = a;
+    m_args[i * ARGS + 1] = b;
+    m_args[i * ARGS + 2] = c;
+    commit();
+  }
+
+  private void record(int op, Object a, Object b, Object c, Object d, Object e, int n) {
+    final int i = claim();
+    m_ops[i] = (byte) op;
+    final int j = i * ARGS;
+    m_args[j] = a;
+    m_args[j + 1] = b;
+    m_args[j + 2] = c;
+    m_args[j + 3] = d;
+    m_args[j + 4] = e;
+    m_ints[i] = n;
+    commit();
+  }
+
+  private void record(int op, Object a, Object b, int n) {
+    final int i = claim();
+    m_ops[i] = (byte) op;
+    m_args[i * ARGS] = a;
+    m_args[i * ARGS + 1] = b;
+    m_ints[i] = n;
+    commit();
+  }
+
+  /**
+   * Pass the recorded events to the consumer every {@link #BATCH} events, or
+   * at once if it waits for them.
+   */
+  private void commit() {
+    final long next = ++m_next;
+    if (next - m_tail >= BATCH || m_consumerWaiting) {
+      publish(next);
+    }
+  }
+
+  private void publish(long next) {
+    if (next == m_tail)
+      return;
+    if (m_finished == null) {
+      start();
+    }
+    m_tail = next;
+    if (m_inline) {
+      replay(m_head, next);
+    } else if (m_consumerWaiting) {
+      LockSupport.unpark(m_consumer);
+    }
+  }
+
+  /**
+   * Wait until the consumer has replayed all recorded events.
+   */
+  private void sync() {
+    final long next = m_next;
+    if (next == m_headSeen)
+      return;
+    publish(next);
+    awaitHead(next);
+    m_headSeen = next;
+  }
+
+  /**
+   * Wait until the consumer has replayed all recorded events, and throw the
+   * exception of the serializer, if any.
+   */
+  private void syncAndCheck() throws SAXException {
+    sync();
+    check();
+  }
+
+  private void check() throws SAXException {
+    final Throwable e = m_error;
+    if (e != null) {
+      m_errorThrown = true;
+      if (e instanceof Error)
+        throw (Error) e;
+      throw toSAXException(e);
+    }
+  }
+
+  private static SAXException toSAXException(Throwable e) {
+    if (e instanceof SAXException)
+      return (SAXException) e;
+    return new SAXException((Exception) e);
+  }
+
+  private void awaitHead(long position) {
+    int spins = SPINS;
+    while (m_head < position) {
+      if (spins > 0) {
+        spins--;
+        Thread.yield();
+        continue;
+      }
+      m_producer = Thread.currentThread();
+      m_producerWaiting = true;
+      if (m_head < position) {
+        LockSupport.park(this);
+      }
+      m_producerWaiting = false;
+    }
+  }
+
+  private void start() {
+    m_finished = new CountDownLatch(1);
+    try {
+      getExecutor().execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            consume();
+          } finally {
+            m_finished.countDown();
+          }
+        }
+      });
+    } catch (final RejectedExecutionException e) {
+      // All threads of the pool serialize other output
+      m_inline = true;
+      m_finished.countDown();
+    }
+  }
+
+  // Replay
+
+  private void consume() {
+    m_consumer = Thread.currentThread();
+    long head = m_head;
+    int spins = SPINS;
+    for (;;) {
+      final long tail = m_tail;
+      if (head == tail) {
+        if (m_stopped) {
+          if (head == m_tail)
+            break;
+          continue;
+        }
+        if (spins > 0) {
+          spins--;
+          Thread.yield();
+          continue;
+        }
+        m_consumerWaiting = true;
+        if (head == m_tail && !m_stopped) {
+          LockSupport.park(this);
+        }
+        m_consumerWaiting = false;
+        continue;
+      }
+      spins = SPINS;
+      head = replay(head, tail);
+    }
+    m_consumer = null;
+  }
+
+  /**
+   * Replay the events from head up to tail, and pass the new position to the
+   * producer.
+   *
+   * @return the new position
+   */
+  private long replay(long head, long tail) {
+    while (head != tail) {
+      final int i = (int) head & m_mask;
+      if (m_error == null) {
+        try {
+          replay(i);
+        } catch (final Exception | Error e) {
+          m_error = e;
+        }
+      }
+      Arrays.fill(m_args, i * ARGS, i * ARGS + ARGS, null);
+      head++;
+      if ((head & BATCH - 1) == 0) {
+        release(head);
+      }
+    }
+    release(head);
+    return head;
+  }
+
+  private void release(long head) {
+    m_head = head;
+    if (m_producerWaiting) {
+      LockSupport.unpark(m_producer);
+    }
+  }
+
+  private void replay(int i) throws SAXException {
+    final SerializationHandler handler = m_handler;
+    final Object[] args = m_args;
+    final int j = i * ARGS;
+    switch (m_ops[i]) {
+      case START_DOCUMENT:
+        handler.startDocument();
+        break;
+      case END_DOCUMENT:
+        handler.endDocument();
+        break;
+      case START_ELEMENT1:
+        handler.startElement((String) args[j]);
+        break;
+      case START_ELEMENT3:
+        handler.startElement((String) args[j], (String) args[j + 1], (String) args[j + 2]);
+        break;
+      case START_ELEMENT4:
+        handler.startElement((String) args[j], (String) args[j + 1], (String) args[j + 2], (Attributes) args[j + 3]);
+        break;
+      case END_ELEMENT1:
+        handler.endElement((String) args[j]);
+        break;
+      case END_ELEMENT3:
+        handler.endElement((String) args[j], (String) args[j + 1], (String) args[j + 2]);
+        break;
+      case CHARACTERS:
+        handler.characters((char[]) args[j], 0, m_ints[i]);
+        break;
+      case CHARACTERS_STRING:
+        handler.characters((String) args[j]);
+        break;
+      case CHARACTERS_MORE:
+        handler.characters((char[]) args[j], 0, m_ints[i], true);
+        break;
+      case CHARACTERS_LAST:
+        handler.characters((char[]) args[j], 0, m_ints[i], false);
+        break;
+      case IGNORABLE_WHITESPACE:
+        handler.ignorableWhitespace((char[]) args[j], 0, m_ints[i]);
+        break;
+      case COMMENT:
+        handler.comment((char[]) args[j], 0, m_ints[i]);
+        break;
+      case COMMENT_STRING:
+        handler.comment((String) args[j]);
+        break;
+      case PROCESSING_INSTRUCTION:
+        handler.processingInstruction((String) args[j], (String) args[j + 1]);
+        break;
+      case ADD_ATTRIBUTE2:
+        handler.addAttribute((String) args[j], (String) args[j + 1]);
+        break;
+      case ADD_ATTRIBUTE5:
+        handler.addAttribute((String) args[j], (String) args[j + 1], (String) args[j + 2], (String) args[j + 3],
+            (String) args[j + 4]);
+        break;
+      case ADD_ATTRIBUTE6:
+        handler.addAttribute((String) args[j], (String) args[j + 1], (String) args[j + 2], (String) args[j + 3],
+            (String) args[j + 4], m_ints[i] != 0);
+        break;
+      case ADD_ATTRIBUTES:
+        handler.addAttributes((Attributes) args[j]);
+        break;
+      case ADD_UNIQUE_ATTRIBUTE:
+        handler.addUniqueAttribute((String) args[j], (String) args[j + 1], m_ints[i]);
+        break;
+      case ADD_XSL_ATTRIBUTE:
+        handler.addXSLAttribute((String) args[j], (String) args[j + 1], (String) args[j + 2]);
+        break;
+      case NAMESPACE_AFTER_START_ELEMENT:
+        handler.namespaceAfterStartElement((String) args[j], (String) args[j + 1]);
+        break;
+      case START_PREFIX_MAPPING2:
+        handler.startPrefixMapping((String) args[j], (String) args[j + 1]);
+        break;
+      case END_PREFIX_MAPPING:
+        handler.endPrefixMapping((String) args[j]);
+        break;
+      case ENTITY_REFERENCE:
+        handler.entityReference((String) args[j]);
+        break;
+      case START_ENTITY:
+        handler.startEntity((String) args[j]);
+        break;
+      case END_ENTITY:
+        handler.endEntity((String) args[j]);
+        break;
+      case START_CDATA:
+        handler.startCDATA();
+        break;
+      case END_CDATA:
+        handler.endCDATA();
+        break;
+      case START_DTD:
+        handler.startDTD((String) args[j], (String) args[j + 1], (String) args[j + 2]);
+        break;
+      case END_DTD:
+        handler.endDTD();
+        break;
+      case SKIPPED_ENTITY:
+        handler.skippedEntity((String) args[j]);
+        break;
+      case SET_ESCAPING:
+        handler.setEscaping(m_ints[i] != 0);
+        break;
+      case FLUSH_PENDING:
+        handler.flushPending();
+        break;
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  private static ExecutorService getExecutor() {
+    ExecutorService executor = s_executor;
+    if (executor == null) {
+      synchronized (AsyncSerializationHandler.class) {
+        executor = s_executor;
+        if (executor == null) {
+          // Without a queue, so that a consumer never waits for a thread
+          s_executor = executor = new ThreadPoolExecutor(0, Runtime.getRuntime().availableProcessors(), 30,
+              TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                  final Thread thread = new Thread(r, "serializer");
+                  thread.setDaemon(true);
+                  return thread;
+                }
+              });
+        }
+      }
+    }
+    return executor;
+  }
+
+  // Output events
+
+  @Override
+  public void startDocument() throws SAXException {
+    record(START_DOCUMENT);
+  }
+
+  /**
+   * Records the end of the document, and waits until the serializer has
+   * written it.
+   */
+  @Override
+  public void endDocument() throws SAXException {
+    record(END_DOCUMENT);
+    syncAndCheck();
+  }
+
+  @Override
+  public void startElement(String qName) throws SAXException {
+    record(START_ELEMENT1, qName);
+    check();
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName) throws SAXException {
+    record(START_ELEMENT3, uri, localName, qName);
+    check();
+  }
+
+  @Override
+  public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+    record(START_ELEMENT4, uri, localName, qName, atts == null ? null : new AttributesImpl(atts), null, 0);
+    check();
+  }
+
+  @Override
+  public void endElement(String elemName) throws SAXException {
+    record(END_ELEMENT1, elemName);
+  }
+
+  @Override
+  public void endElement(String uri, String localName, String qName) throws SAXException {
+    record(END_ELEMENT3, uri, localName, qName);
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length) throws SAXException {
+    record(CHARACTERS, Arrays.copyOfRange(ch, start, start + length), null, length);
+  }
+
+  @Override
+  public void characters(String chars) throws SAXException {
+    record(CHARACTERS_STRING, chars);
+  }
+
+  @Override
+  public void characters(char[] ch, int start, int length, boolean more) throws SAXException {
+    record(more ? CHARACTERS_MORE : CHARACTERS_LAST, Arrays.copyOfRange(ch, start, start + length), null, length);
+  }
+
+  @Override
+  public void characters(Node node) throws SAXException {
+    syncAndCheck();
+    m_handler.characters(node);
+  }
+
+  @Override
+  public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+    record(IGNORABLE_WHITESPACE, Arrays.copyOfRange(ch, start, start + length), null, length);
+  }
+
+  @Override
+  public void comment(char[] ch, int start, int length) throws SAXException {
+    record(COMMENT, Arrays.copyOfRange(ch, start, start + length), null, length);
+  }
+
+  @Override
+  public void comment(String comment) throws SAXException {
+    record(COMMENT_STRING, comment);
+  }
+
+  @Override
+  public void processingInstruction(String target, String data) throws SAXException {
+    record(PROCESSING_INSTRUCTION, target, data);
+  }
+
+  @Override
+  public void addAttribute(String qName, String value) {
+    record(ADD_ATTRIBUTE2, qName, value);
+  }
+
+  @Override
+  public void addAttribute(String uri, String localName, String rawName, String type, String value)
+      throws SAXException {
+    record(ADD_ATTRIBUTE5, uri, localName, rawName, type, value, 0);
+  }
+
+  @Override
+  public void addAttribute(String uri, String localName, String rawName, String type, String value,
+      boolean XSLAttribute) throws SAXException {
+    record(ADD_ATTRIBUTE6, uri, localName, rawName, type, value, XSLAttribute ? 1 : 0);
+  }
+
+  @Override
+  public void addAttributes(Attributes atts) throws SAXException {
+    record(ADD_ATTRIBUTES, new AttributesImpl(atts));
+  }
+
+  @Override
+  public void addUniqueAttribute(String qName, String value, int flags) throws SAXException {
+    record(ADD_UNIQUE_ATTRIBUTE, qName, value, flags);
+  }
+
+  @Override
+  public void addXSLAttribute(String qName, String value, String uri) {
+    record(ADD_XSL_ATTRIBUTE, qName, value, uri);
+  }
+
+  @Override
+  public void namespaceAfterStartElement(String uri, String prefix) throws SAXException {
+    record(NAMESPACE_AFTER_START_ELEMENT, uri, prefix);
+  }
+
+  @Override
+  public void startPrefixMapping(String prefix, String uri) throws SAXException {
+    record(START_PREFIX_MAPPING2, prefix, uri);
+  }
+
+  /**
+   * Whether the serializer pushes the mapping depends on the events before it,
+   * so this waits until they are replayed and then asks the serializer.
+   */
+  @Override
+  public boolean startPrefixMapping(String prefix, String uri, boolean shouldFlush) throws SAXException {
+    syncAndCheck();
+    return m_handler.startPrefixMapping(prefix, uri, shouldFlush);
+  }
+
+  @Override
+  public void endPrefixMapping(String prefix) throws SAXException {
+    record(END_PREFIX_MAPPING, prefix);
+  }
+
+  @Override
+  public void entityReference(String entityName) throws SAXException {
+    record(ENTITY_REFERENCE, entityName);
+  }
+
+  @Override
+  public void startEntity(String name) throws SAXException {
+    record(START_ENTITY, name);
+  }
+
+  @Override
+  public void endEntity(String name) throws SAXException {
+    record(END_ENTITY, name);
+  }
+
+  @Override
+  public void startCDATA() throws SAXException {
+    record(START_CDATA);
+  }
+
+  @Override
+  public void endCDATA() throws SAXException {
+    record(END_CDATA);
+  }
+
+  @Override
+  public void startDTD(String name, String publicId, String systemId) throws SAXException {
+    record(START_DTD, name, publicId, systemId);
+  }
+
+  @Override
+  public void endDTD() throws SAXException {
+    record(END_DTD);
+  }
+
+  @Override
+  public void skippedEntity(String name) throws SAXException {
+    record(SKIPPED_ENTITY, name);
+  }
+
+  /**
+   * Records the setting, and returns the setting the serializer will have
+   * before it is replayed.
+   */
+  @Override
+  public boolean setEscaping(boolean escape) throws SAXException {
+    final boolean escaping = m_escaping;
+    m_escaping = escape;
+    record(SET_ESCAPING, null, null, escape ? 1 : 0);
+    return escaping;
+  }
+
+  @Override
+  public void flushPending() throws SAXException {
+    record(FLUSH_PENDING);
+  }
+
+  // Calls that wait for the serializer
+
+  @Override
+  public void setDocumentLocator(Locator locator) {
+    sync();
+    m_handler.setDocumentLocator(locator);
+  }
+
+  @Override
+  public void setSourceLocator(SourceLocator locator) {
+    sync();
+    m_handler.setSourceLocator(locator);
+  }
+
+  @Override
+  public NamespaceMappings getNamespaceMappings() {
+    sync();
+    return m_handler.getNamespaceMappings();
+  }
+
+  @Override
+  public String getPrefix(String uri) {
+    sync();
+    return m_handler.getPrefix(uri);
+  }
+
+  @Override
+  public String getNamespaceURI(String name, boolean isElement) {
+    sync();
+    return m_handler.getNamespaceURI(name, isElement);
+  }
+
+  @Override
+  public String getNamespaceURIFromPrefix(String prefix) {
+    sync();
+    return m_handler.getNamespaceURIFromPrefix(prefix);
+  }
+
+  @Override
+  public void elementDecl(String name, String model) throws SAXException {
+    syncAndCheck();
+    m_handler.elementDecl(name, model);
+  }
+
+  @Override
+  public void attributeDecl(String eName, String aName, String type, String mode, String value) throws SAXException {
+    syncAndCheck();
+    m_handler.attributeDecl(eName, aName, type, mode, value);
+  }
+
+  @Override
+  public void internalEntityDecl(String name, String value) throws SAXException {
+    syncAndCheck();
+    m_handler.internalEntityDecl(name, value);
+  }
+
+  @Override
+  public void externalEntityDecl(String name, String publicId, String systemId) throws SAXException {
+    syncAndCheck();
+    m_handler.externalEntityDecl(name, publicId, systemId);
+  }
+
+  @Override
+  public void notationDecl(String name, String publicId, String systemId) throws SAXException {
+    syncAndCheck();
+    m_handler.notationDecl(name, publicId, systemId);
+  }
+
+  @Override
+  public void unparsedEntityDecl(String name, String publicId, String systemId, String notationName)
+      throws SAXException {
+    syncAndCheck();
+    m_handler.unparsedEntityDecl(name, publicId, systemId, notationName);
+  }
+
+  @Override
+  public void warning(SAXParseException exception) throws SAXException {
+    syncAndCheck();
+    m_handler.warning(exception);
+  }
+
+  @Override
+  public void error(SAXParseException exception) throws SAXException {
+    syncAndCheck();
+    m_handler.error(exception);
+  }
+
+  @Override
+  public void fatalError(SAXParseException exception) throws SAXException {
+    syncAndCheck();
+    m_handler.fatalError(exception);
+  }
+
+  @Override
+  public void serialize(Node node) throws IOException {
+    sync();
+    m_handler.serialize(node);
+  }
+
+  @Override
+  public void setContentHandler(ContentHandler ch) {
+    sync();
+    m_handler.setContentHandler(ch);
+  }
+
+  @Override
+  public void close() {
+    sync();
+    m_handler.close();
+  }
+
+  @Override
+  public void setIndentAmount(int spaces) {
+    sync();
+    m_handler.setIndentAmount(spaces);
+  }
+
+  @Override
+  public void setTransformer(Transformer transformer) {
+    sync();
+    m_handler.setTransformer(transformer);
+  }
+
+  @Override
+  public Transformer getTransformer() {
+    sync();
+    return m_handler.getTransformer();
+  }
+
+  @Override
+  public void setNamespaceMappings(NamespaceMappings mappings) {
+    sync();
+    m_handler.setNamespaceMappings(mappings);
+  }
+
+  @Override
+  public void setDTDEntityExpansion(boolean expand) {
+    sync();
+    m_handler.setDTDEntityExpansion(expand);
+  }
+
+  @Override
+  public SerializerMetrics getMetrics() {
+    sync();
+    return m_handler.getMetrics();
+  }
+
+  @Override
+  public String getDoctypePublic() {
+    sync();
+    return m_handler.getDoctypePublic();
+  }
+
+  @Override
+  public String getDoctypeSystem() {
+    sync();
+    return m_handler.getDoctypeSystem();
+  }
+
+  @Override
+  public String getEncoding() {
+    sync();
+    return m_handler.getEncoding();
+  }
+
+  @Override
+  public boolean getIndent() {
+    sync();
+    return m_handler.getIndent();
+  }
+
+  @Override
+  public int getIndentAmount() {
+    sync();
+    return m_handler.getIndentAmount();
+  }
+
+  @Override
+  public String getMediaType() {
+    sync();
+    return m_handler.getMediaType();
+  }
+
+  @Override
+  public boolean getOmitXMLDeclaration() {
+    sync();
+    return m_handler.getOmitXMLDeclaration();
+  }
+
+  @Override
+  public String getStandalone() {
+    sync();
+    return m_handler.getStandalone();
+  }
+
+  @Override
+  public String getVersion() {
+    sync();
+    return m_handler.getVersion();
+  }
+
+  @Override
+  public void setCdataSectionElements(List<String> URI_and_localNames) {
+    sync();
+    m_handler.setCdataSectionElements(URI_and_localNames);
+  }
+
+  @Override
+  public void setDoctype(String system, String pub) {
+    sync();
+    m_handler.setDoctype(system, pub);
+  }
+
+  @Override
+  public void setDoctypePublic(String doctype) {
+    sync();
+    m_handler.setDoctypePublic(doctype);
+  }
+
+  @Override
+  public void setDoctypeSystem(String doctype) {
+    sync();
+    m_handler.setDoctypeSystem(doctype);
+  }
+
+  @Override
+  public void setEncoding(String encoding) {
+    sync();
+    m_handler.setEncoding(encoding);
+  }
+
+  @Override
+  public void setIndent(boolean indent) {
+    sync();
+    m_handler.setIndent(indent);
+  }
+
+  @Override
+  public void setMediaType(String mediatype) {
+    sync();
+    m_handler.setMediaType(mediatype);
+  }
+
+  @Override
+  public void setOmitXMLDeclaration(boolean b) {
+    sync();
+    m_handler.setOmitXMLDeclaration(b);
+  }
+
+  @Override
+  public void setStandalone(String standalone) {
+    sync();
+    m_handler.setStandalone(standalone);
+  }
+
+  @Override
+  public void setVersion(String version) {
+    sync();
+    m_handler.setVersion(version);
+  }
+
+  @Override
+  public String getOutputProperty(String name) {
+    sync();
+    return m_handler.getOutputProperty(name);
+  }
+
+  @Override
+  public String getOutputPropertyDefault(String name) {
+    sync();
+    return m_handler.getOutputPropertyDefault(name);
+  }
+
+  @Override
+  public void setOutputProperty(String name, String val) {
+    sync();
+    m_handler.setOutputProperty(name, val);
+  }
+
+  @Override
+  public void setOutputPropertyDefault(String name, String val) {
+    sync();
+    m_handler.setOutputPropertyDefault(name, val);
+  }
+
+  @Override
+  public void setOutputStream(OutputStream output) {
+    sync();
+    m_handler.setOutputStream(output);
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    sync();
+    return m_handler.getOutputStream();
+  }
+
+  @Override
+  public void setWriter(Writer writer) {
+    sync();
+    m_handler.setWriter(writer);
+  }
+
+  @Override
+  public Writer getWriter() {
+    sync();
+    return m_handler.getWriter();
+  }
+
+  @Override
+  public void setOutputFormat(Properties format) {
+    sync();
+    m_handler.setOutputFormat(format);
+  }
+
+  @Override
+  public Properties getOutputFormat() {
+    sync();
+    return m_handler.getOutputFormat();
+  }
+
+  @Override
+  public ContentHandler asContentHandler() throws IOException {
+    return this;
+  }
+
+  @Override
+  public DOMSerializer asDOMSerializer() throws IOException {
+    return this;
+  }
+
+  @Override
+  public Object asDOM3Serializer() throws IOException {
+    sync();
+    return m_handler.asDOM3Serializer();
+  }
+
+  @Override
+  public boolean reset() {
+    sync();
+    m_escaping = true;
+    return m_handler.reset();
+  }
+}
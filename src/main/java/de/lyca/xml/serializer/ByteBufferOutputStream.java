@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xml.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.lyca.xml.serializer.utils.MsgKey;
+import de.lyca.xml.serializer.utils.Utils;
+
+/**
+ * An output stream for the stream serializers that writes into ByteBuffers
+ * instead of a java.io stream. It either fills buffers supplied by the caller,
+ * or writes to a WritableByteChannel through direct buffers taken from a pool
+ * shared by all streams.
+ * <p>
+ * Bytes only reach the channel at buffer boundaries: when all buffers of the
+ * stream are full they are written with one gathering write, and the rest is
+ * written when the stream is closed. Flushing the stream does nothing, so the
+ * serializer flushing its writer does not turn into small writes. The channel
+ * must be in blocking mode, and it is not closed by this stream. A write to a
+ * selectable channel that has been switched to non-blocking mode fails instead
+ * of waiting for the channel to take the bytes.
+ * <p>
+ * This class is not a public API.
+ */
+public final class ByteBufferOutputStream extends OutputStream {
+
+  /**
+   * The size of a pooled buffer.
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The number of pooled buffers a stream fills before it writes them to the
+   * channel.
+   */
+  private static final int GATHER = 4;
+
+  /**
+   * The maximum number of buffers kept in the pool.
+   */
+  private static final int MAX_POOLED = 64;
+
+  private static final ConcurrentLinkedQueue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+
+  private static final AtomicInteger POOLED = new AtomicInteger();
+
+  /**
+   * The channel, or null if the output goes into buffers of the caller.
+   */
+  private final WritableByteChannel m_channel;
+
+  /**
+   * The buffers being filled. Pooled buffers are taken when they are first
+   * needed.
+   */
+  private final ByteBuffer[] m_buffers;
+
+  /**
+   * The index of the buffer being filled.
+   */
+  private int m_current;
+
+  /**
+   * The number of bytes that fit into the buffers of the caller.
+   */
+  private final long m_capacity;
+
+  private boolean m_closed;
+
+  /**
+   * Create a stream that writes to a channel.
+   *
+   * @param channel
+   *          a channel in blocking mode
+   * @throws IllegalArgumentException
+   *           if the channel is a selectable channel in non-blocking mode
+   */
+  public ByteBufferOutputStream(WritableByteChannel channel) {
+    if (isNonBlocking(channel))
+      throw new IllegalArgumentException(Utils.messages.createMessage(MsgKey.ER_CHANNEL_NOT_BLOCKING, null));
+    m_channel = channel;
+    m_buffers = new ByteBuffer[GATHER];
+    m_capacity = -1;
+  }
+
+  /**
+   * Create a stream that fills the given buffers one after another, starting
+   * at their positions. The positions are advanced past the bytes written.
+   * Writing more bytes than the buffers have room for fails with an
+   * IOException.
+   *
+   * @param buffers
+   *          the buffers to fill
+   */
+  public ByteBufferOutputStream(ByteBuffer... buffers) {
+    m_channel = null;
+    m_buffers = buffers.clone();
+    long capacity = 0;
+    for (final ByteBuffer buffer : m_buffers) {
+      capacity += buffer.remaining();
+    }
+    m_capacity = capacity;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    current().put((byte) b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      final ByteBuffer buffer = current();
+      final int n = Math.min(len, buffer.remaining());
+      buffer.put(b, off, n);
+      off += n;
+      len -= n;
+    }
+  }
+
+  /**
+   * Does nothing, the bytes are written to the channel when the buffers are
+   * full or when the stream is closed.
+   */
+  @Override
+  public void flush() {
+  }
+
+  /**
+   * Write the bytes that are left to the channel and return the buffers to the
+   * pool. The channel stays open.
+   */
+  @Override
+  public void close() throws IOException {
+    if (m_closed)
+      return;
+    m_closed = true;
+    if (m_channel != null) {
+      try {
+        drain();
+      } finally {
+        for (int i = 0; i < m_buffers.length; i++) {
+          release(m_buffers[i]);
+          m_buffers[i] = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a buffer with room for at least one byte.
+   */
+  private ByteBuffer current() throws IOException {
+    if (m_closed)
+      throw new IOException(Utils.messages.createMessage(MsgKey.ER_OIERROR, null));
+    for (;;) {
+      if (m_current < m_buffers.length) {
+        ByteBuffer buffer = m_buffers[m_current];
+        if (buffer == null) {
+          buffer = m_buffers[m_current] = acquire();
+        }
+        if (buffer.hasRemaining())
+          return buffer;
+        m_current++;
+      } else if (m_channel != null) {
+        drain();
+      } else {
+        throw new IOException(Utils.messages.createMessage(MsgKey.ER_BUFFERS_OVERFLOW,
+            new Object[] { Long.toString(m_capacity) }));
+      }
+    }
+  }
+
+  /**
+   * Write the filled buffers to the channel with one gathering write, and
+   * start filling them again.
+   */
+  private void drain() throws IOException {
+    int count = 0;
+    long remaining = 0;
+    while (count < m_buffers.length && m_buffers[count] != null) {
+      m_buffers[count].flip();
+      remaining += m_buffers[count].remaining();
+      count++;
+    }
+    if (m_channel instanceof GatheringByteChannel) {
+      final GatheringByteChannel channel = (GatheringByteChannel) m_channel;
+      while (remaining > 0) {
+        final long written = channel.write(m_buffers, 0, count);
+        checkWritten(written);
+        remaining -= written;
+      }
+    } else {
+      for (int i = 0; i < count; i++) {
+        while (m_buffers[i].hasRemaining()) {
+          checkWritten(m_channel.write(m_buffers[i]));
+        }
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      m_buffers[i].clear();
+    }
+    m_current = 0;
+  }
+
+  /**
+   * A blocking channel writes at least one byte of a non-empty buffer. If the
+   * channel took no bytes because it is in non-blocking mode, this fails rather
+   * than trying again until the channel is ready.
+   */
+  private void checkWritten(long written) throws IOException {
+    if (written == 0 && isNonBlocking(m_channel))
+      throw new IOException(Utils.messages.createMessage(MsgKey.ER_CHANNEL_NOT_BLOCKING, null));
+  }
+
+  private static boolean isNonBlocking(WritableByteChannel channel) {
+    return channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking();
+  }
+
+  private static ByteBuffer acquire() {
+    final ByteBuffer buffer = POOL.poll();
+    if (buffer == null)
+      return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    POOLED.decrementAndGet();
+    return buffer;
+  }
+
+  private static void release(ByteBuffer buffer) {
+    if (buffer == null)
+      return;
+    if (POOLED.incrementAndGet() <= MAX_POOLED) {
+      buffer.clear();
+      POOL.offer(buffer);
+    } else {
+      POOLED.decrementAndGet();
+    }
+  }
+}
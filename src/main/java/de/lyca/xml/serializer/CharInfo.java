@@ -102,6 +102,28 @@ final class CharInfo {
    */
   private final boolean[] shouldMapTextChar_ASCII;
 
+  /**
+   * The Strings that the ASCII characters are mapped to, or null for the
+   * characters without a mapping. It is looked up before m_charToString, and
+   * unlike the lookup in the map it does not share a key object between
+   * threads.
+   */
+  private final String[] outputString_ASCII;
+
+  /**
+   * The ASCII characters that are written out as they are in a text node: the
+   * printable characters and the tab, unless they are mapped to a String.
+   * Serializers skip over runs of these characters with one lookup per
+   * character and copy each run to the output in one piece.
+   */
+  private final boolean[] cleanTextChar_ASCII;
+
+  /**
+   * The ASCII characters that are written out as they are in an attribute
+   * value: the printable characters that are not mapped to a String.
+   */
+  private final boolean[] cleanAttrChar_ASCII;
+
   /**
    * An array of bits to record if the character is in the set. Although
    * information in this array is complete, the isSpecialAttrASCII array is used
@@ -148,6 +170,9 @@ final class CharInfo {
     firstWordNotUsed = 0;
     shouldMapAttrChar_ASCII = new boolean[ASCII_MAX];
     shouldMapTextChar_ASCII = new boolean[ASCII_MAX];
+    outputString_ASCII = new String[ASCII_MAX];
+    cleanTextChar_ASCII = new boolean[ASCII_MAX];
+    cleanAttrChar_ASCII = new boolean[ASCII_MAX];
     m_charKey = new CharKey();
 
     // Not set here, but in a constructor that uses this one
@@ -322,6 +347,12 @@ final class CharInfo {
       // We choose not to escape the quotation mark as &quot; in text nodes.
       shouldMapTextChar_ASCII[S_QUOTE] = false;
     }
+
+    for (int ch = 0; ch < ASCII_MAX; ch++) {
+      final boolean printable = S_SPACE <= ch && ch < 0x7F;
+      cleanTextChar_ASCII[ch] = (printable || ch == S_HORIZONAL_TAB) && !shouldMapTextChar_ASCII[ch];
+      cleanAttrChar_ASCII[ch] = printable && !shouldMapAttrChar_ASCII[ch];
+    }
   }
 
 /**
@@ -380,6 +411,9 @@ final class CharInfo {
    * @return The String that the character is mapped to, or null if not found.
    */
   String getOutputStringForChar(char value) {
+    if (value < ASCII_MAX)
+      return outputString_ASCII[value];
+
     // CharKey m_charKey = new CharKey(); //Alternative to synchronized
     m_charKey.setChar(value);
     return m_charToString.get(m_charKey);
@@ -427,6 +461,22 @@ final class CharInfo {
     return get(value);
   }
 
+  /**
+   * Returns the ASCII characters that are written out as they are in a text
+   * node, indexed by character. The array must not be modified.
+   */
+  final boolean[] getCleanTextChars() {
+    return cleanTextChar_ASCII;
+  }
+
+  /**
+   * Returns the ASCII characters that are written out as they are in an
+   * attribute value, indexed by character. The array must not be modified.
+   */
+  final boolean[] getCleanAttrChars() {
+    return cleanAttrChar_ASCII;
+  }
+
   private static CharInfo getCharInfoBasedOnPrivilege(final String entitiesFileName, final String method,
           final boolean internal) {
     return AccessController.doPrivileged(new PrivilegedAction<CharInfo>() {
@@ -516,6 +566,10 @@ final class CharInfo {
     max = charInfo.shouldMapTextChar_ASCII.length;
     System.arraycopy(charInfo.shouldMapTextChar_ASCII, 0, copy.shouldMapTextChar_ASCII, 0, max);
 
+    System.arraycopy(charInfo.outputString_ASCII, 0, copy.outputString_ASCII, 0, ASCII_MAX);
+    System.arraycopy(charInfo.cleanTextChar_ASCII, 0, copy.cleanTextChar_ASCII, 0, ASCII_MAX);
+    System.arraycopy(charInfo.cleanAttrChar_ASCII, 0, copy.cleanAttrChar_ASCII, 0, ASCII_MAX);
+
     // utility field copy.m_charKey is already created in the default
     // constructor
 
@@ -692,6 +746,11 @@ final class CharInfo {
     final CharKey character = new CharKey(inputChar);
     m_charToString.put(character, outputString);
     set(inputChar); // mark the character has having a mapping to a String
+    if (inputChar < ASCII_MAX) {
+      outputString_ASCII[inputChar] = outputString;
+      cleanTextChar_ASCII[inputChar] = false;
+      cleanAttrChar_ASCII[inputChar] = false;
+    }
 
     final boolean extraMapping = extraEntity(outputString, inputChar);
     return extraMapping;
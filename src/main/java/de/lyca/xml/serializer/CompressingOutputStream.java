@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xml.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import de.lyca.xml.serializer.utils.MsgKey;
+import de.lyca.xml.serializer.utils.Utils;
+
+/**
+ * An output stream for the stream serializers that compresses the bytes of
+ * the serialized document in the gzip (RFC 1952) or the zlib (RFC 1950)
+ * format. The deflater reads straight from the byte buffer of the writer, and
+ * the compressed bytes are collected in a buffer of this stream before they
+ * are written to the underlying stream in large blocks.
+ * <p>
+ * A stream is re-used for the documents of a serializer: the deflater is reset
+ * when the stream is given the next output stream, rather than created and
+ * ended for every document. Flushing the stream does nothing, so the
+ * serializer flushing its writer neither turns into small writes nor makes the
+ * compression worse. The compressed output is complete once
+ * {@link #finish()} has been called, which does not close the underlying
+ * stream. The deflater is ended by {@link #end()} once the serializer no
+ * longer needs this stream.
+ * <p>
+ * This class is not a public API.
+ */
+final class CompressingOutputStream extends OutputStream {
+
+  /**
+   * The value of the compression output property for the gzip format.
+   */
+  static final String GZIP = "gzip";
+
+  /**
+   * The value of the compression output property for the zlib format, as
+   * used by the "deflate" content coding of HTTP.
+   */
+  static final String DEFLATE = "deflate";
+
+  /**
+   * The value of the compression output property for uncompressed output.
+   */
+  static final String NONE = "none";
+
+  /**
+   * The compression level. The serializer produces output faster than zlib
+   * compresses it at its default level, so the fastest level is used, which
+   * compresses typical markup to a size only slightly larger.
+   */
+  private static final int LEVEL = Deflater.BEST_SPEED;
+
+  /**
+   * The size of the buffer for the compressed bytes.
+   */
+  private static final int BUFFER_SIZE = 32 * 1024;
+
+  /**
+   * The gzip header: magic number, deflate method, no flags, no modification
+   * time, no extra flags, unknown operating system.
+   */
+  private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+  private final Deflater m_deflater;
+
+  /**
+   * The checksum of the uncompressed bytes, or null for the zlib format,
+   * where the deflater computes it.
+   */
+  private final CRC32 m_crc;
+
+  private final byte[] m_buffer = new byte[BUFFER_SIZE];
+
+  /**
+   * The number of compressed bytes in the buffer.
+   */
+  private int m_count;
+
+  private final byte[] m_single = new byte[1];
+
+  private OutputStream m_os;
+
+  private boolean m_finished;
+
+  /**
+   * Create a compressing stream.
+   *
+   * @param gzip
+   *          true for the gzip format, false for the zlib format
+   */
+  CompressingOutputStream(boolean gzip) {
+    m_deflater = new Deflater(LEVEL, gzip);
+    m_crc = gzip ? new CRC32() : null;
+  }
+
+  /**
+   * Returns true if this stream writes the gzip format.
+   */
+  boolean isGzip() {
+    return m_crc != null;
+  }
+
+  /**
+   * Start compressing the next document into another output stream. Bytes of
+   * the previous document that have not been written are discarded.
+   *
+   * @param out
+   *          the output stream, or null to release the previous one
+   */
+  void setOutputStream(OutputStream out) {
+    m_os = out;
+    m_deflater.reset();
+    m_finished = false;
+    m_count = 0;
+    if (m_crc != null) {
+      m_crc.reset();
+      System.arraycopy(GZIP_HEADER, 0, m_buffer, 0, GZIP_HEADER.length);
+      m_count = GZIP_HEADER.length;
+    }
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    m_single[0] = (byte) b;
+    write(m_single, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    if (m_finished)
+      throw new IOException(Utils.messages.createMessage(MsgKey.ER_OIERROR, null));
+    if (len == 0)
+      return;
+    if (m_crc != null) {
+      m_crc.update(b, off, len);
+    }
+    m_deflater.setInput(b, off, len);
+    while (!m_deflater.needsInput()) {
+      deflate();
+    }
+  }
+
+  /**
+   * Does nothing, the compressed bytes are written when the buffer of this
+   * stream is full or when the output is finished.
+   */
+  @Override
+  public void flush() {
+  }
+
+  /**
+   * Write the rest of the compressed output, followed by the gzip trailer,
+   * to the underlying stream. The underlying stream is neither flushed nor
+   * closed.
+   *
+   * @throws IOException
+   *           If an I/O error occurs
+   */
+  void finish() throws IOException {
+    if (m_finished)
+      return;
+    m_finished = true;
+    m_deflater.finish();
+    while (!m_deflater.finished()) {
+      deflate();
+    }
+    if (m_crc != null) {
+      if (m_buffer.length - m_count < 8) {
+        writeBuffer();
+      }
+      writeInt((int) m_crc.getValue());
+      writeInt((int) m_deflater.getBytesRead());
+    }
+    writeBuffer();
+  }
+
+  /**
+   * Release the native memory of the deflater. This stream cannot be used
+   * afterwards.
+   */
+  void end() {
+    m_deflater.end();
+    m_os = null;
+  }
+
+  /**
+   * Closes the underlying stream after the output is finished.
+   */
+  @Override
+  public void close() throws IOException {
+    finish();
+    m_os.close();
+  }
+
+  private void deflate() throws IOException {
+    m_count += m_deflater.deflate(m_buffer, m_count, m_buffer.length - m_count);
+    if (m_count == m_buffer.length) {
+      writeBuffer();
+    }
+  }
+
+  private void writeBuffer() throws IOException {
+    if (m_count > 0) {
+      m_os.write(m_buffer, 0, m_count);
+      m_count = 0;
+    }
+  }
+
+  /**
+   * Append an int to the buffer, least significant byte first.
+   */
+  private void writeInt(int i) {
+    m_buffer[m_count++] = (byte) i;
+    m_buffer[m_count++] = (byte) (i >> 8);
+    m_buffer[m_count++] = (byte) (i >> 16);
+    m_buffer[m_count++] = (byte) (i >> 24);
+  }
+}
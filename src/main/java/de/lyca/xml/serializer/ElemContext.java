@@ -136,6 +136,28 @@ final class ElemContext {
     m_currentElemDepth = previous.m_currentElemDepth + 1;
   }
 
+  /**
+   * Returns the root of the element contexts, cleared for a new document. The
+   * deeper stack frames stay attached, to be re-used as the new document is
+   * serialized.
+   * 
+   * @return the root "stack frame"
+   */
+  final ElemContext reset() {
+    ElemContext root = this;
+    while (root.m_prev != root) {
+      root = root.m_prev;
+    }
+    root.m_elementDesc = null;
+    root.m_elementLocalName = null;
+    root.m_elementName = null;
+    root.m_elementURI = null;
+    root.m_isCdataSection = false;
+    root.m_isRaw = false;
+    root.m_startTagOpen = false;
+    return root;
+  }
+
   /**
    * Pop the current "stack frame".
    * 
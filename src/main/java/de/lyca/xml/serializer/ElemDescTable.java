@@ -0,0 +1,428 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xml.serializer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable table of the descriptions of the HTML elements, shared by all
+ * HTML and XHTML serializers. Element names are looked up ignoring the case of
+ * ASCII letters, in an open addressing hash table that is filled once when the
+ * class is loaded, so a lookup neither allocates nor changes any state and may
+ * be done by any number of threads at the same time.
+ * <p>
+ * This class is not a public API.
+ */
+final class ElemDescTable {
+
+  /**
+   * The descriptions of the elements of HTML 4.0 and of a few elements that
+   * browsers support beyond it.
+   */
+  static final ElemDescTable HTML = new ElemDescTable(htmlElements());
+
+  /** The element names in lower case, or null for a free slot. */
+  private final String[] m_names;
+
+  /** The descriptions of the elements in m_names. */
+  private final ElemDesc[] m_descs;
+
+  /** The number of slots less one, the number of slots being a power of two. */
+  private final int m_mask;
+
+  /**
+   * Create a table of the given element descriptions.
+   * 
+   * @param descs
+   *          the descriptions by element name
+   */
+  private ElemDescTable(Map<String, ElemDesc> descs) {
+    int size = 16;
+    while (size < descs.size() * 4) {
+      size <<= 1;
+    }
+    m_names = new String[size];
+    m_descs = new ElemDesc[size];
+    m_mask = size - 1;
+    for (final Map.Entry<String, ElemDesc> entry : descs.entrySet()) {
+      final String name = entry.getKey();
+      int i = hash(name) & m_mask;
+      while (m_names[i] != null) {
+        i = i + 1 & m_mask;
+      }
+      m_names[i] = toLowerCase(name);
+      m_descs[i] = entry.getValue();
+    }
+  }
+
+  /**
+   * Get the description of an element.
+   * 
+   * @param name
+   *          the non-null element name, the case of ASCII letters is ignored
+   * @return the description, or null if the table does not describe the
+   *         element
+   */
+  ElemDesc get(String name) {
+    for (int i = hash(name) & m_mask;; i = i + 1 & m_mask) {
+      final String candidate = m_names[i];
+      if (candidate == null)
+        return null;
+      if (matches(candidate, name))
+        return m_descs[i];
+    }
+  }
+
+  /**
+   * Returns true if the name equals the lower case name, ignoring the case of
+   * ASCII letters.
+   */
+  private static boolean matches(String lowerCaseName, String name) {
+    final int len = name.length();
+    if (lowerCaseName.length() != len)
+      return false;
+    for (int i = 0; i < len; i++) {
+      if (lowerCaseName.charAt(i) != toLowerCase(name.charAt(i)))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * A hash code of the name that ignores the case of ASCII letters.
+   */
+  private static int hash(String name) {
+    int h = 0;
+    for (int i = 0, len = name.length(); i < len; i++) {
+      h = 31 * h + toLowerCase(name.charAt(i));
+    }
+    return h ^ h >>> 7;
+  }
+
+  private static char toLowerCase(char ch) {
+    return ch >= 'A' && ch <= 'Z' ? (char) (ch | 0x20) : ch;
+  }
+
+  private static String toLowerCase(String name) {
+    final char[] chars = name.toCharArray();
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = toLowerCase(chars[i]);
+    }
+    return new String(chars);
+  }
+
+  private static Map<String, ElemDesc> htmlElements() {
+    final Map<String, ElemDesc> descs = new HashMap<>();
+
+    // HTML 4.0 loose DTD
+    descs.put("BASEFONT", new ElemDesc(0 | ElemDesc.EMPTY));
+    descs.put("FRAME", new ElemDesc(0 | ElemDesc.EMPTY | ElemDesc.BLOCK));
+    descs.put("FRAMESET", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("NOFRAMES", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("ISINDEX", new ElemDesc(0 | ElemDesc.EMPTY | ElemDesc.BLOCK));
+    descs.put("APPLET", new ElemDesc(0 | ElemDesc.WHITESPACESENSITIVE));
+    descs.put("CENTER", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("DIR", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("MENU", new ElemDesc(0 | ElemDesc.BLOCK));
+
+    // HTML 4.0 strict DTD
+    descs.put("TT", new ElemDesc(0 | ElemDesc.FONTSTYLE));
+    descs.put("I", new ElemDesc(0 | ElemDesc.FONTSTYLE));
+    descs.put("B", new ElemDesc(0 | ElemDesc.FONTSTYLE));
+    descs.put("BIG", new ElemDesc(0 | ElemDesc.FONTSTYLE));
+    descs.put("SMALL", new ElemDesc(0 | ElemDesc.FONTSTYLE));
+    descs.put("EM", new ElemDesc(0 | ElemDesc.PHRASE));
+    descs.put("STRONG", new ElemDesc(0 | ElemDesc.PHRASE));
+    descs.put("DFN", new ElemDesc(0 | ElemDesc.PHRASE));
+    descs.put("CODE", new ElemDesc(0 | ElemDesc.PHRASE));
+    descs.put("SAMP", new ElemDesc(0 | ElemDesc.PHRASE));
+    descs.put("KBD", new ElemDesc(0 | ElemDesc.PHRASE));
+    descs.put("VAR", new ElemDesc(0 | ElemDesc.PHRASE));
+    descs.put("CITE", new ElemDesc(0 | ElemDesc.PHRASE));
+    descs.put("ABBR", new ElemDesc(0 | ElemDesc.PHRASE));
+    descs.put("ACRONYM", new ElemDesc(0 | ElemDesc.PHRASE));
+    descs.put("SUP", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL));
+    descs.put("SUB", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL));
+    descs.put("SPAN", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL));
+    descs.put("BDO", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL));
+    descs.put("BR", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL | ElemDesc.EMPTY | ElemDesc.BLOCK));
+    descs.put("BODY", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("ADDRESS", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
+    descs.put("DIV", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
+    descs.put("A", new ElemDesc(0 | ElemDesc.SPECIAL));
+    descs.put("MAP", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL | ElemDesc.BLOCK));
+    descs.put("AREA", new ElemDesc(0 | ElemDesc.EMPTY | ElemDesc.BLOCK));
+    descs.put("LINK", new ElemDesc(0 | ElemDesc.HEADMISC | ElemDesc.EMPTY | ElemDesc.BLOCK));
+    descs.put("IMG", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL | ElemDesc.EMPTY
+            | ElemDesc.WHITESPACESENSITIVE));
+    descs.put("OBJECT", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL | ElemDesc.HEADMISC
+            | ElemDesc.WHITESPACESENSITIVE));
+    descs.put("PARAM", new ElemDesc(0 | ElemDesc.EMPTY));
+    descs.put("HR", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET
+            | ElemDesc.EMPTY));
+    descs.put("P", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
+    descs.put("H1", new ElemDesc(0 | ElemDesc.HEAD | ElemDesc.BLOCK));
+    descs.put("H2", new ElemDesc(0 | ElemDesc.HEAD | ElemDesc.BLOCK));
+    descs.put("H3", new ElemDesc(0 | ElemDesc.HEAD | ElemDesc.BLOCK));
+    descs.put("H4", new ElemDesc(0 | ElemDesc.HEAD | ElemDesc.BLOCK));
+    descs.put("H5", new ElemDesc(0 | ElemDesc.HEAD | ElemDesc.BLOCK));
+    descs.put("H6", new ElemDesc(0 | ElemDesc.HEAD | ElemDesc.BLOCK));
+    descs.put("PRE", new ElemDesc(0 | ElemDesc.PREFORMATTED | ElemDesc.BLOCK));
+    descs.put("Q", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL));
+    descs.put("BLOCKQUOTE", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
+    descs.put("INS", new ElemDesc(0));
+    descs.put("DEL", new ElemDesc(0));
+    descs.put("DL", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
+    descs.put("DT", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("DD", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("OL", new ElemDesc(0 | ElemDesc.LIST | ElemDesc.BLOCK));
+    descs.put("UL", new ElemDesc(0 | ElemDesc.LIST | ElemDesc.BLOCK));
+    descs.put("LI", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("FORM", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("LABEL", new ElemDesc(0 | ElemDesc.FORMCTRL));
+    descs.put("INPUT", new ElemDesc(0 | ElemDesc.FORMCTRL | ElemDesc.INLINELABEL | ElemDesc.EMPTY));
+    descs.put("SELECT", new ElemDesc(0 | ElemDesc.FORMCTRL | ElemDesc.INLINELABEL));
+    descs.put("OPTGROUP", new ElemDesc(0));
+    descs.put("OPTION", new ElemDesc(0));
+    descs.put("TEXTAREA", new ElemDesc(0 | ElemDesc.FORMCTRL | ElemDesc.INLINELABEL));
+    descs.put("FIELDSET", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM));
+    descs.put("LEGEND", new ElemDesc(0));
+    descs.put("BUTTON", new ElemDesc(0 | ElemDesc.FORMCTRL | ElemDesc.INLINELABEL));
+    descs.put("TABLE", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
+    descs.put("CAPTION", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("THEAD", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("TFOOT", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("TBODY", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("COLGROUP", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("COL", new ElemDesc(0 | ElemDesc.EMPTY | ElemDesc.BLOCK));
+    descs.put("TR", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("TH", new ElemDesc(0));
+    descs.put("TD", new ElemDesc(0));
+    descs.put("HEAD", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.HEADELEM));
+    descs.put("TITLE", new ElemDesc(0 | ElemDesc.BLOCK));
+    descs.put("BASE", new ElemDesc(0 | ElemDesc.EMPTY | ElemDesc.BLOCK));
+    descs.put("META", new ElemDesc(0 | ElemDesc.HEADMISC | ElemDesc.EMPTY | ElemDesc.BLOCK));
+    descs.put("STYLE", new ElemDesc(0 | ElemDesc.HEADMISC | ElemDesc.RAW | ElemDesc.BLOCK));
+    descs.put("SCRIPT", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL | ElemDesc.HEADMISC
+            | ElemDesc.RAW));
+    descs.put("NOSCRIPT", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
+    descs.put("HTML", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.HTMLELEM));
+
+    // From "John Ky" <hand@syd.speednet.com.au
+    // Transitional Document Type Definition ()
+    // file:///C:/Documents%20and%20Settings/sboag.BOAG600E/My%20Documents/html/sgml/loosedtd.html#basefont
+    descs.put("FONT", new ElemDesc(0 | ElemDesc.FONTSTYLE));
+
+    // file:///C:/Documents%20and%20Settings/sboag.BOAG600E/My%20Documents/html/present/graphics.html#edef-STRIKE
+    descs.put("S", new ElemDesc(0 | ElemDesc.FONTSTYLE));
+    descs.put("STRIKE", new ElemDesc(0 | ElemDesc.FONTSTYLE));
+
+    // file:///C:/Documents%20and%20Settings/sboag.BOAG600E/My%20Documents/html/present/graphics.html#edef-U
+    descs.put("U", new ElemDesc(0 | ElemDesc.FONTSTYLE));
+
+    // From "John Ky" <hand@syd.speednet.com.au
+    descs.put("NOBR", new ElemDesc(0 | ElemDesc.FONTSTYLE));
+
+    // HTML 4.0, section 16.5
+    descs.put("IFRAME", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
+
+    // Netscape 4 extension
+    descs.put("LAYER", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
+    // Netscape 4 extension
+    descs.put("ILAYER", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
+
+    // NOW FOR ATTRIBUTE INFORMATION . . .
+    ElemDesc elemDesc;
+
+    // ----------------------------------------------
+    elemDesc = descs.get("A");
+    elemDesc.setAttr("HREF", ElemDesc.ATTRURL);
+    elemDesc.setAttr("NAME", ElemDesc.ATTRURL);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("AREA");
+
+    elemDesc.setAttr("HREF", ElemDesc.ATTRURL);
+    elemDesc.setAttr("NOHREF", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("BASE");
+
+    elemDesc.setAttr("HREF", ElemDesc.ATTRURL);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("BUTTON");
+    elemDesc.setAttr("DISABLED", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("BLOCKQUOTE");
+
+    elemDesc.setAttr("CITE", ElemDesc.ATTRURL);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("DEL");
+    elemDesc.setAttr("CITE", ElemDesc.ATTRURL);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("DIR");
+    elemDesc.setAttr("COMPACT", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+
+    elemDesc = descs.get("DIV");
+    elemDesc.setAttr("SRC", ElemDesc.ATTRURL); // Netscape 4 extension
+    elemDesc.setAttr("NOWRAP", ElemDesc.ATTREMPTY); // Internet-Explorer
+                                                    // extension
+
+    // ----------------------------------------------
+    elemDesc = descs.get("DL");
+    elemDesc.setAttr("COMPACT", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("FORM");
+    elemDesc.setAttr("ACTION", ElemDesc.ATTRURL);
+
+    // ----------------------------------------------
+    // Attribution to: "Voytenko, Dimitry" <DVoytenko@SECTORBASE.COM>
+    elemDesc = descs.get("FRAME");
+    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
+    elemDesc.setAttr("LONGDESC", ElemDesc.ATTRURL);
+    elemDesc.setAttr("NORESIZE", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("HEAD");
+    elemDesc.setAttr("PROFILE", ElemDesc.ATTRURL);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("HR");
+    elemDesc.setAttr("NOSHADE", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    // HTML 4.0, section 16.5
+    elemDesc = descs.get("IFRAME");
+    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
+    elemDesc.setAttr("LONGDESC", ElemDesc.ATTRURL);
+
+    // ----------------------------------------------
+    // Netscape 4 extension
+    elemDesc = descs.get("ILAYER");
+    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("IMG");
+    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
+    elemDesc.setAttr("LONGDESC", ElemDesc.ATTRURL);
+    elemDesc.setAttr("USEMAP", ElemDesc.ATTRURL);
+    elemDesc.setAttr("ISMAP", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("INPUT");
+
+    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
+    elemDesc.setAttr("USEMAP", ElemDesc.ATTRURL);
+    elemDesc.setAttr("CHECKED", ElemDesc.ATTREMPTY);
+    elemDesc.setAttr("DISABLED", ElemDesc.ATTREMPTY);
+    elemDesc.setAttr("ISMAP", ElemDesc.ATTREMPTY);
+    elemDesc.setAttr("READONLY", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("INS");
+    elemDesc.setAttr("CITE", ElemDesc.ATTRURL);
+
+    // ----------------------------------------------
+    // Netscape 4 extension
+    elemDesc = descs.get("LAYER");
+    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("LINK");
+    elemDesc.setAttr("HREF", ElemDesc.ATTRURL);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("MENU");
+    elemDesc.setAttr("COMPACT", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("OBJECT");
+
+    elemDesc.setAttr("CLASSID", ElemDesc.ATTRURL);
+    elemDesc.setAttr("CODEBASE", ElemDesc.ATTRURL);
+    elemDesc.setAttr("DATA", ElemDesc.ATTRURL);
+    elemDesc.setAttr("ARCHIVE", ElemDesc.ATTRURL);
+    elemDesc.setAttr("USEMAP", ElemDesc.ATTRURL);
+    elemDesc.setAttr("DECLARE", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("OL");
+    elemDesc.setAttr("COMPACT", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("OPTGROUP");
+    elemDesc.setAttr("DISABLED", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("OPTION");
+    elemDesc.setAttr("SELECTED", ElemDesc.ATTREMPTY);
+    elemDesc.setAttr("DISABLED", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("Q");
+    elemDesc.setAttr("CITE", ElemDesc.ATTRURL);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("SCRIPT");
+    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
+    elemDesc.setAttr("FOR", ElemDesc.ATTRURL);
+    elemDesc.setAttr("DEFER", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("SELECT");
+    elemDesc.setAttr("DISABLED", ElemDesc.ATTREMPTY);
+    elemDesc.setAttr("MULTIPLE", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("TABLE");
+    elemDesc.setAttr("NOWRAP", ElemDesc.ATTREMPTY); // Internet-Explorer
+                                                    // extension
+
+    // ----------------------------------------------
+    elemDesc = descs.get("TD");
+    elemDesc.setAttr("NOWRAP", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("TEXTAREA");
+    elemDesc.setAttr("DISABLED", ElemDesc.ATTREMPTY);
+    elemDesc.setAttr("READONLY", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("TH");
+    elemDesc.setAttr("NOWRAP", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    // The nowrap attribute of a tr element is both
+    // a Netscape and Internet-Explorer extension
+    elemDesc = descs.get("TR");
+    elemDesc.setAttr("NOWRAP", ElemDesc.ATTREMPTY);
+
+    // ----------------------------------------------
+    elemDesc = descs.get("UL");
+    elemDesc.setAttr("COMPACT", ElemDesc.ATTREMPTY);
+    return descs;
+  }
+}
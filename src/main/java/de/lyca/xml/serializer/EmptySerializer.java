@@ -269,6 +269,17 @@ public class EmptySerializer implements SerializationHandler {
     couldThrowSAXException();
   }
 
+  /**
+   * Passes the piece on to characters(char[],int,int), which a subclass may
+   * override to collect the characters.
+   * 
+   * @see ExtendedContentHandler#characters(char[], int, int, boolean)
+   */
+  @Override
+  public void characters(char[] chars, int start, int length, boolean more) throws SAXException {
+    characters(chars, start, length);
+  }
+
   /**
    * @see ExtendedContentHandler#endElement(java.lang.String)
    */
@@ -800,6 +811,15 @@ public class EmptySerializer implements SerializationHandler {
 
   }
 
+  /**
+   * @see SerializationHandler#getMetrics()
+   */
+  @Override
+  public SerializerMetrics getMetrics() {
+    aMethodIsCalled();
+    return null;
+  }
+
   @Override
   public String getOutputProperty(String name) {
     aMethodIsCalled();
@@ -17,6 +17,12 @@
  */
 package de.lyca.xml.serializer;
 
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * Holds information about a given encoding, which is the Java name for the
  * encoding, the equivalent ISO name.
@@ -36,21 +42,13 @@ package de.lyca.xml.serializer;
  * 
  * which can be called if the two characters from a high/low surrogate pair.
  * <p>
- * An EncodingInfo object is a node in a binary search tree. Such a node will
- * answer if a character is in the encoding, and do so for a given range of
- * unicode values (<code>m_first</code> to <code>m_last</code>). It will handle
- * a certain range of values explicitly (<code>m_explFirst</code> to
- * <code>m_explLast</code>). If the unicode point is before that explicit range,
- * that is it is in the range <code>{@literal m_first <= value < m_explFirst}</code>, then
- * it will delegate to another EncodingInfo object for The root of such a tree,
- * m_before. Likewise for values in the range
- * <code>{@literal m_explLast < value <= m_last}</code>, but delgating to
- * <code>m_after</code>
- * <p>
- * Actually figuring out if a code point is in the encoding is expensive. So the
- * purpose of this tree is to cache such determinations, and not to build the
- * entire tree of information at the start, but only build up as much of the
- * tree as is used during the transformation.
+ * Whether a char of the Basic Multilingual Plane is in the encoding is looked
+ * up in a bitmap with one bit per char. The bitmap is built with a
+ * CharsetEncoder the first time it is needed, and is shared by all
+ * EncodingInfo objects of the same charset for the lifetime of the JVM, so
+ * serializers on different threads look up the same immutable bitmap.
+ * Surrogate pairs are rare, and are asked of a CharsetEncoder that each thread
+ * keeps for the EncodingInfo.
  * <p>
  * This Class is not a public API, and should only be used internally within the
  * serializer.
@@ -84,10 +82,59 @@ public final class EncodingInfo {
   final String javaName;
 
   /**
-   * A helper object that we can ask if a single char, or a surrogate UTF-16
-   * pair of chars that form a single character, is in this encoding.
+   * The chars that are in the encoding, one bit per char, or null until they
+   * are first asked for.
+   */
+  private volatile long[] m_chars;
+
+  /**
+   * The number of longs in a bitmap of all chars.
+   */
+  private static final int BITMAP_LENGTH = 0x10000 >>> 6;
+
+  /**
+   * The bitmap of an EncodingInfo without an encoding, in which every char is
+   * in the encoding.
+   */
+  private static final long[] ALL_CHARS = new long[BITMAP_LENGTH];
+
+  /**
+   * The bitmap of an encoding that is not supported by the JRE, but whose Java
+   * name is that of a Unicode, ASCII or ISO 8859 encoding. Only the ASCII chars
+   * '\u0001' to '\u007E' are in the encoding.
+   */
+  private static final long[] ASCII_CHARS = new long[BITMAP_LENGTH];
+
+  /**
+   * The bitmap of any other encoding that is not supported by the JRE, in
+   * which no char is in the encoding.
+   */
+  private static final long[] NO_CHARS = new long[BITMAP_LENGTH];
+
+  static {
+    Arrays.fill(ALL_CHARS, -1L);
+    for (int ch = 1; ch < 0x7F; ch++) {
+      ASCII_CHARS[ch >>> 6] |= 1L << ch;
+    }
+  }
+
+  /**
+   * The bitmaps built so far, keyed by the canonical name of their charset.
+   */
+  private static final ConcurrentHashMap<String, long[]> CHARSET_CHARS = new ConcurrentHashMap<>();
+
+  /**
+   * The encoder of each thread that asks whether a surrogate pair is in the
+   * encoding, with a buffer for the pair. The encoder is null if the JRE does
+   * not support the encoding.
    */
-  private InEncoding m_encoding;
+  private final ThreadLocal<PairEncoder> m_pairEncoder = new ThreadLocal<PairEncoder>() {
+    @Override
+    protected PairEncoder initialValue() {
+      final Charset charset = getCharset();
+      return new PairEncoder(charset == null || !charset.canEncode() ? null : charset.newEncoder());
+    }
+  };
 
   /**
    * This is not a public API. It returns true if the char in question is in the
@@ -99,15 +146,11 @@ public final class EncodingInfo {
    *          This method is not a public API.
    */
   public boolean isInEncoding(char ch) {
-    if (m_encoding == null) {
-      m_encoding = new EncodingImpl();
-
-      // One could put alternate logic in here to
-      // instantiate another object that implements the
-      // InEncoding interface. For example if the JRE is 1.4 or up
-      // we could have an object that uses JRE 1.4 methods
+    long[] chars = m_chars;
+    if (chars == null) {
+      m_chars = chars = getChars(javaName, getCharset());
     }
-    return m_encoding.isInEncoding(ch);
+    return (chars[ch >>> 6] & 1L << ch) != 0;
   }
 
   /**
@@ -122,15 +165,37 @@ public final class EncodingInfo {
    *          This method is not a public API.
    */
   public boolean isInEncoding(char high, char low) {
-    if (m_encoding == null) {
-      m_encoding = new EncodingImpl();
+    // Without a Java name there is no encoder to ask, and no pair is in the
+    // encoding, unlike single chars
+    if (javaName == null)
+      return false;
+    return m_pairEncoder.get().canEncode(high, low);
+  }
+
+  /**
+   * A CharsetEncoder that is only used by one thread, with the buffer that it
+   * reads a surrogate pair from.
+   */
+  private static final class PairEncoder {
+
+    private final CharsetEncoder m_encoder;
+
+    private final char[] m_pair = new char[2];
+
+    private final CharBuffer m_buffer = CharBuffer.wrap(m_pair);
+
+    PairEncoder(CharsetEncoder encoder) {
+      m_encoder = encoder;
+    }
 
-      // One could put alternate logic in here to
-      // instantiate another object that implements the
-      // InEncoding interface. For example if the JRE is 1.4 or up
-      // we could have an object that uses JRE 1.4 methods
+    boolean canEncode(char high, char low) {
+      if (m_encoder == null)
+        return false;
+      m_pair[0] = high;
+      m_pair[1] = low;
+      m_buffer.clear();
+      return m_encoder.canEncode(m_buffer);
     }
-    return m_encoding.isInEncoding(high, low);
   }
 
   /**
@@ -156,345 +221,80 @@ public final class EncodingInfo {
   }
 
   /**
-   * A simple interface to isolate the implementation. We could also use some
-   * new JRE 1.4 methods in another implementation provided we use reflection
-   * with them.
-   * <p>
-   * This interface is not a public API, and should only be used internally
-   * within the serializer.
+   * Returns the bitmap of the chars in the given encoding, building it if this
+   * is the first time that it is asked for.
+   * 
+   * @param encoding
+   *          the Java name of the encoding, or null if any char is in the
+   *          encoding
+   * @param charset
+   *          the charset of the encoding, or null if the JRE does not support
+   *          it
    */
-  private interface InEncoding {
-    /**
-     * Returns true if the char is in the encoding
-     */
-    public boolean isInEncoding(char ch);
-
-    /**
-     * Returns true if the high/low surrogate pair forms a character that is in
-     * the encoding.
-     */
-    public boolean isInEncoding(char high, char low);
+  private static long[] getChars(String encoding, Charset charset) {
+    if (encoding == null)
+      return ALL_CHARS;
+    if (charset == null || !charset.canEncode())
+      return isAsciiCompatible(encoding) ? ASCII_CHARS : NO_CHARS;
+    long[] chars = CHARSET_CHARS.get(charset.name());
+    if (chars == null) {
+      chars = buildChars(charset.newEncoder());
+      final long[] other = CHARSET_CHARS.putIfAbsent(charset.name(), chars);
+      if (other != null) {
+        chars = other;
+      }
+    }
+    return chars;
   }
 
   /**
-   * This class implements the
+   * Build the bitmap of the chars that the encoder can encode. '\u0000' is
+   * never in the encoding, and neither are lone surrogates.
    */
-  private class EncodingImpl implements InEncoding {
-
-    @Override
-    public boolean isInEncoding(char ch1) {
-      final boolean ret;
-      final int codePoint = Encodings.toCodePoint(ch1);
-      if (codePoint < m_explFirst) {
-        // The unicode value is before the range
-        // that we explictly manage, so we delegate the answer.
-
-        // If we don't have an m_before object to delegate to, make one.
-        if (m_before == null) {
-          m_before = new EncodingImpl(m_encoding, m_first, m_explFirst - 1, codePoint);
-        }
-        ret = m_before.isInEncoding(ch1);
-      } else if (m_explLast < codePoint) {
-        // The unicode value is after the range
-        // that we explictly manage, so we delegate the answer.
-
-        // If we don't have an m_after object to delegate to, make one.
-        if (m_after == null) {
-          m_after = new EncodingImpl(m_encoding, m_explLast + 1, m_last, codePoint);
-        }
-        ret = m_after.isInEncoding(ch1);
-      } else {
-        // The unicode value is in the range we explitly handle
-        final int idx = codePoint - m_explFirst;
-
-        // If we already know the answer, just return it.
-        if (m_alreadyKnown[idx]) {
-          ret = m_isInEncoding[idx];
-        } else {
-          // We don't know the answer, so find out,
-          // which may be expensive, then cache the answer
-          ret = inEncoding(ch1, m_encoding);
-          m_alreadyKnown[idx] = true;
-          m_isInEncoding[idx] = ret;
-        }
-      }
-      return ret;
-    }
-
-    @Override
-    public boolean isInEncoding(char high, char low) {
-      final boolean ret;
-      final int codePoint = Encodings.toCodePoint(high, low);
-      if (codePoint < m_explFirst) {
-        // The unicode value is before the range
-        // that we explictly manage, so we delegate the answer.
-
-        // If we don't have an m_before object to delegate to, make one.
-        if (m_before == null) {
-          m_before = new EncodingImpl(m_encoding, m_first, m_explFirst - 1, codePoint);
-        }
-        ret = m_before.isInEncoding(high, low);
-      } else if (m_explLast < codePoint) {
-        // The unicode value is after the range
-        // that we explictly manage, so we delegate the answer.
-
-        // If we don't have an m_after object to delegate to, make one.
-        if (m_after == null) {
-          m_after = new EncodingImpl(m_encoding, m_explLast + 1, m_last, codePoint);
-        }
-        ret = m_after.isInEncoding(high, low);
-      } else {
-        // The unicode value is in the range we explitly handle
-        final int idx = codePoint - m_explFirst;
-
-        // If we already know the answer, just return it.
-        if (m_alreadyKnown[idx]) {
-          ret = m_isInEncoding[idx];
-        } else {
-          // We don't know the answer, so find out,
-          // which may be expensive, then cache the answer
-          ret = inEncoding(high, low, m_encoding);
-          m_alreadyKnown[idx] = true;
-          m_isInEncoding[idx] = ret;
-        }
-      }
-      return ret;
-    }
-
-    /**
-     * The encoding.
-     */
-    final private String m_encoding;
-    /**
-     * m_first through m_last is the range of unicode values that this object
-     * will return an answer on. It may delegate to a similar object with a
-     * different range
-     */
-    final private int m_first;
-
-    /**
-     * m_explFirst through m_explLast is the range of unicode value that this
-     * object handles explicitly and does not delegate to a similar object.
-     */
-    final private int m_explFirst;
-    final private int m_explLast;
-    final private int m_last;
-
-    /**
-     * The object, of the same type as this one, that handles unicode values in
-     * a range before the range explictly handled by this object, and to which
-     * this object may delegate.
-     */
-    private InEncoding m_before;
-    /**
-     * The object, of the same type as this one, that handles unicode values in
-     * a range after the range explictly handled by this object, and to which
-     * this object may delegate.
-     */
-    private InEncoding m_after;
-
-    /**
-     * The number of unicode values explicitly handled by a single EncodingInfo
-     * object. This value is tuneable, but is set to 128 because that covers the
-     * entire low range of ASCII type chars within a single object.
-     */
-    private static final int RANGE = 128;
-
-    /**
-     * A flag to record if we already know the answer for the given unicode
-     * value.
-     */
-    final private boolean m_alreadyKnown[] = new boolean[RANGE];
-    /**
-     * A table holding the answer on whether the given unicode value is in the
-     * encoding.
-     */
-    final private boolean m_isInEncoding[] = new boolean[RANGE];
-
-    private EncodingImpl() {
-      // This object will answer whether any unicode value
-      // is in the encoding, it handles values 0 through Integer.MAX_VALUE
-      this(javaName, 0, Integer.MAX_VALUE, (char) 0);
-    }
-
-    private EncodingImpl(String encoding, int first, int last, int codePoint) {
-      // Set the range of unicode values that this object manages
-      // either explicitly or implicitly.
-      m_first = first;
-      m_last = last;
-
-      // Set the range of unicode values that this object
-      // explicitly manages
-      m_explFirst = codePoint;
-      m_explLast = codePoint + RANGE - 1;
-
-      m_encoding = encoding;
-
-      if (javaName != null) {
-        // Some optimization.
-        if (0 <= m_explFirst && m_explFirst <= 127) {
-          // This particular EncodingImpl explicitly handles
-          // characters in the low range.
-          if ("UTF8".equals(javaName) || "UTF-16".equals(javaName) || "ASCII".equals(javaName)
-                  || "US-ASCII".equals(javaName) || "Unicode".equals(javaName) || "UNICODE".equals(javaName)
-                  || javaName.startsWith("ISO8859")) {
-
-            // Not only does this EncodingImpl object explicitly
-            // handle chracters in the low range, it is
-            // also one that we know something about, without
-            // needing to call inEncoding(char ch, String encoding)
-            // for this low range
-            //
-            // By initializing the table ahead of time
-            // for these low values, we prevent the expensive
-            // inEncoding(char ch, String encoding)
-            // from being called, at least for these common
-            // encodings.
-            for (int unicode = 1; unicode < 127; unicode++) {
-              final int idx = unicode - m_explFirst;
-              if (0 <= idx && idx < RANGE) {
-                m_alreadyKnown[idx] = true;
-                m_isInEncoding[idx] = true;
-              }
-            }
-          }
-        }
-
-        /*
-         * A little bit more than optimization.
-         * 
-         * We will say that any character is in the encoding if we don't have an
-         * encoding. This is meaningful when the serializer is being used in
-         * temporary output state, where we are not writing to the final output
-         * tree. It is when writing to the final output tree that we need to
-         * worry about the output encoding
-         */
-        if (javaName == null) {
-          for (int idx = 0; idx < m_alreadyKnown.length; idx++) {
-            m_alreadyKnown[idx] = true;
-            m_isInEncoding[idx] = true;
-          }
-        }
+  private static long[] buildChars(CharsetEncoder encoder) {
+    final long[] chars = new long[BITMAP_LENGTH];
+    for (int ch = 1; ch < 0x10000; ch++) {
+      if (encoder.canEncode((char) ch)) {
+        chars[ch >>> 6] |= 1L << ch;
       }
     }
+    return chars;
   }
 
   /**
-   * This is heart of the code that determines if a given character is in the
-   * given encoding. This method is probably expensive, and the answer should be
-   * cached.
-   * <p>
-   * This method is not a public API, and should only be used internally within
-   * the serializer.
-   * 
-   * @param ch
-   *          the char in question, that is not a high char of a high/low
-   *          surrogate pair.
-   * @param encoding
-   *          the Java name of the enocding.
-   * 
+   * Tells whether the chars '\u0001' to '\u007E' are in the given encoding
+   * even if the JRE does not support it, which is the case for the Unicode,
+   * ASCII and ISO 8859 encodings.
    */
-  private static boolean inEncoding(char ch, String encoding) {
-    boolean isInEncoding;
-    try {
-      final char cArray[] = new char[1];
-      cArray[0] = ch;
-      // Construct a String from the char
-      final String s = new String(cArray);
-      // Encode the String into a sequence of bytes
-      // using the given, named charset.
-      final byte[] bArray = s.getBytes(encoding);
-      isInEncoding = inEncoding(ch, bArray);
-
-    } catch (final Exception e) {
-      isInEncoding = false;
-
-      // If for some reason the encoding is null, e.g.
-      // for a temporary result tree, we should just
-      // say that every character is in the encoding.
-      if (encoding == null) {
-        isInEncoding = true;
-      }
-    }
-    return isInEncoding;
+  private static boolean isAsciiCompatible(String encoding) {
+    return "UTF8".equals(encoding) || "UTF-16".equals(encoding) || "ASCII".equals(encoding)
+        || "US-ASCII".equals(encoding) || "Unicode".equals(encoding) || "UNICODE".equals(encoding)
+        || encoding.startsWith("ISO8859");
   }
 
   /**
-   * This is heart of the code that determines if a given high/low surrogate
-   * pair forms a character that is in the given encoding. This method is
-   * probably expensive, and the answer should be cached.
-   * <p>
-   * This method is not a public API, and should only be used internally within
-   * the serializer.
-   * 
-   * @param high
-   *          the high char of a high/low surrogate pair.
-   * @param low
-   *          the low char of a high/low surrogate pair.
-   * @param encoding
-   *          the Java name of the encoding.
-   * 
+   * Returns the charset of this encoding, or null if the JRE does not support
+   * it. Some of the Java names in Encodings.properties, such as 8859-1, are not
+   * known to the JRE, so the ISO name is tried as well.
    */
-  private static boolean inEncoding(char high, char low, String encoding) {
-    boolean isInEncoding;
-    try {
-      final char cArray[] = new char[2];
-      cArray[0] = high;
-      cArray[1] = low;
-      // Construct a String from the char
-      final String s = new String(cArray);
-      // Encode the String into a sequence of bytes
-      // using the given, named charset.
-      final byte[] bArray = s.getBytes(encoding);
-      isInEncoding = inEncoding(high, bArray);
-    } catch (final Exception e) {
-      isInEncoding = false;
-    }
-
-    return isInEncoding;
+  private Charset getCharset() {
+    if (javaName == null)
+      return null;
+    final Charset charset = forName(javaName);
+    return charset != null || name == null ? charset : forName(name);
   }
 
   /**
-   * This method is the core of determining if character is in the encoding. The
-   * method is not foolproof, because s.getBytes(encoding) has specified
-   * behavior only if the characters are in the specified encoding. However this
-   * method tries it's best.
-   * 
-   * @param ch
-   *          the char that was converted using getBytes, or the first char of a
-   *          high/low pair that was converted.
-   * @param data
-   *          the bytes written out by the call to s.getBytes(encoding);
-   * @return true if the character is in the encoding.
+   * Returns the charset of the given Java encoding name, or null if the JRE
+   * does not support it.
    */
-  private static boolean inEncoding(char ch, byte[] data) {
-    final boolean isInEncoding;
-    // If the string written out as data is not in the encoding,
-    // the output is not specified according to the documentation
-    // on the String.getBytes(encoding) method,
-    // but we do our best here.
-    if (data == null || data.length == 0) {
-      isInEncoding = false;
-    } else {
-      if (data[0] == 0) {
-        isInEncoding = false;
-      } else if (data[0] == '?' && ch != '?') {
-        isInEncoding = false;
-        /*
-         * else if (isJapanese) { // isJapanese is really // (
-         * "EUC-JP".equals(javaName) // || "EUC_JP".equals(javaName) // ||
-         * "SJIS".equals(javaName) )
-         * 
-         * // Work around some bugs in JRE for Japanese if(data[0] == 0x21)
-         * isInEncoding = false; else if (ch == 0xA5) isInEncoding = false; else
-         * isInEncoding = true; }
-         */
-      } else {
-        // We don't know for sure, but it looks like it is in the encoding
-        isInEncoding = true;
-      }
+  private static Charset forName(String encoding) {
+    try {
+      return Charset.forName(encoding);
+    } catch (final IllegalArgumentException e) {
+      // An illegal or unsupported charset name
+      return null;
     }
-    return isInEncoding;
   }
 
   /**
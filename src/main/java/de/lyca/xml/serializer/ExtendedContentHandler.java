@@ -99,6 +99,27 @@ public interface ExtendedContentHandler extends ContentHandler {
    */
   void characters(String chars) throws SAXException;
 
+  /**
+   * This method is used to notify of a character event whose data is passed
+   * in several pieces, such as the chunks of a chunked string buffer, without
+   * copying them into a single array or String first. Every piece but the last
+   * one is passed with <code>more</code> set to true, and no other event may
+   * come between the pieces. The pieces are serialized as if they had been passed in a single
+   * call to {@link org.xml.sax.ContentHandler#characters(char[], int, int)},
+   * so a surrogate pair may be split between two pieces.
+   *
+   * @param chars
+   *          the characters of this piece
+   * @param start
+   *          the start position in the array
+   * @param length
+   *          the number of characters to read from the array
+   * @param more
+   *          true if the next character event continues this text
+   * @throws SAXException
+   */
+  void characters(char[] chars, int start, int length, boolean more) throws SAXException;
+
   /**
    * This method is used to notify of a character event, but passing the data as
    * a DOM Node rather than the standard character array.
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xml.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream between the writer of a stream serializer and the output
+ * stream it was given, which counts the bytes written and the time spent in
+ * the writes and flushes of the output stream into the metrics of the
+ * serializer. The writers of the serializer write in large blocks, so reading
+ * the clock around every call costs little.
+ * <p>
+ * This class is not a public API.
+ */
+final class MeteredOutputStream extends OutputStream {
+
+  private final SerializerMetrics m_metrics;
+
+  private OutputStream m_os;
+
+  /**
+   * Create a stream that counts into the given metrics.
+   *
+   * @param metrics
+   *          the metrics of the serializer
+   */
+  MeteredOutputStream(SerializerMetrics metrics) {
+    m_metrics = metrics;
+  }
+
+  /**
+   * Write to another output stream.
+   *
+   * @param out
+   *          the output stream, or null to release the previous one
+   */
+  void setOutputStream(OutputStream out) {
+    m_os = out;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    final long start = System.nanoTime();
+    m_os.write(b);
+    m_metrics.m_blockedNanos += System.nanoTime() - start;
+    m_metrics.m_bytes++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    final long start = System.nanoTime();
+    m_os.write(b, off, len);
+    m_metrics.m_blockedNanos += System.nanoTime() - start;
+    m_metrics.m_bytes += len;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    final long start = System.nanoTime();
+    m_os.flush();
+    m_metrics.m_blockedNanos += System.nanoTime() - start;
+  }
+
+  @Override
+  public void close() throws IOException {
+    m_os.close();
+  }
+}
@@ -69,6 +69,10 @@ import de.lyca.xml.serializer.utils.WrappedRuntimeException;
  * <li><b>S_OMIT_META_TAG </b> - This non-standard property key is used to set a
  * value of "yes" if the META tag should be omitted where it would otherwise be
  * supplied.
+ * 
+ * <li><b>S_KEY_COMPRESSION </b> - This non-standard property key is used to
+ * compress the bytes written to an output stream, with a value of "gzip" or
+ * "deflate". The default value is "none".
  * </ul>
  * 
  * @see SerializerFactory
@@ -141,6 +145,14 @@ public final class OutputPropertiesFactory {
    */
   public static final String S_OMIT_META_TAG = S_BUILTIN_EXTENSIONS_UNIVERSAL + "omit-meta-tag";
 
+  /**
+   * This non-standard property key is used to set the compression of the
+   * bytes that are serialized to an output stream: "gzip" for the gzip format,
+   * "deflate" for the zlib format, or "none". Output to a writer is never
+   * compressed.
+   */
+  public static final String S_KEY_COMPRESSION = S_BUILTIN_EXTENSIONS_UNIVERSAL + "compression";
+
   /**
    * The old built-in extension namespace, this is not a public API.
    */
@@ -134,4 +134,15 @@ public interface SerializationHandler extends ExtendedContentHandler, ExtendedLe
    */
   void setDTDEntityExpansion(boolean expand);
 
+  /**
+   * Returns a copy of the metrics of the document serialized since the last
+   * reset of this handler. The default implementation returns null, for
+   * handlers that do not count them.
+   * 
+   * @return the metrics, or null if this handler does not count them
+   */
+  default SerializerMetrics getMetrics() {
+    return null;
+  }
+
 }
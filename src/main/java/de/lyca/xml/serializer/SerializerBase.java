@@ -221,6 +221,11 @@ public abstract class SerializerBase implements SerializationHandler {
    */
   protected char[] m_charsBuff = new char[60];
 
+  /**
+   * The counters of the document being serialized, cleared when the serializer is reset.
+   */
+  protected final SerializerMetrics m_metrics = new SerializerMetrics();
+
   /**
    * A utility buffer for converting Strings passed to attribute methods to character arrays. Reusing this buffer means
    * not creating a new character array everytime and it runs faster.
@@ -876,6 +881,26 @@ public abstract class SerializerBase implements SerializationHandler {
     }
   }
 
+  /**
+   * @see SerializationHandler#getMetrics()
+   */
+  @Override
+  public SerializerMetrics getMetrics() {
+    return new SerializerMetrics(m_metrics);
+  }
+
+  /**
+   * Passes the piece on to the SAX method characters(char[],int,int). A SAX
+   * content handler has to expect a surrogate pair that is split between two
+   * calls, so the pieces need no special care here.
+   * 
+   * @see ExtendedContentHandler#characters(char[], int, int, boolean)
+   */
+  @Override
+  public void characters(char[] chars, int start, int length, boolean more) throws SAXException {
+    characters(chars, start, length);
+  }
+
   /**
    * @see org.xml.sax.ErrorHandler#error(SAXParseException)
    */
@@ -1136,19 +1161,20 @@ public abstract class SerializerBase implements SerializationHandler {
    */
   private void resetSerializerBase() {
     m_attributes.clear();
+    m_metrics.clear();
     m_CdataElems = null;
     m_cdataTagOpen = false;
     m_docIsEmpty = true;
     m_doctypePublic = null;
     m_doctypeSystem = null;
     m_doIndent = false;
-    m_elemContext = new ElemContext();
+    m_elemContext = m_elemContext.reset();
     m_indentAmount = 0;
     m_inEntityRef = false;
     m_inExternalDTD = false;
     m_mediatype = null;
     m_needToCallStartDocument = true;
-    m_needToOutputDocTypeDecl = false;
+    m_needToOutputDocTypeDecl = true;
     if (m_OutputProps != null) {
       m_OutputProps.clear();
     }
@@ -0,0 +1,374 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xml.serializer;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the work a stream serializer has done for a document: the
+ * elements, attributes, characters and namespace declarations it wrote, the
+ * characters it had to escape, how often its output was flushed, and the bytes
+ * it wrote to an output stream together with the time it was blocked in the
+ * writes and flushes of that stream.
+ * <p>
+ * A serializer counts into its own instance with plain field increments, and
+ * hands out copies through {@link SerializationHandler#getMetrics()}. The
+ * counters of all documents whose metrics were {@link #addToTotals() added to
+ * the totals} can be read through JMX once {@link #registerTotals()} has been
+ * called, under the name {@value #OBJECT_NAME}.
+ * <p>
+ * Bytes and blocked time are only counted for output to an OutputStream, not
+ * for output to a Writer.
+ */
+public final class SerializerMetrics {
+
+  /**
+   * The name under which the totals are registered with the platform MBean
+   * server.
+   */
+  public static final String OBJECT_NAME = "de.lyca.xml.serializer:type=SerializerMetrics";
+
+  private static final SerializerMetrics s_totals = new SerializerMetrics();
+
+  private static long s_documents;
+
+  long m_elements;
+  long m_attributes;
+  long m_characters;
+  long m_escapedCharacters;
+  long m_namespaceDeclarations;
+  long m_flushes;
+  long m_bytes;
+  long m_blockedNanos;
+
+  /**
+   * Create metrics with all counters at zero.
+   */
+  public SerializerMetrics() {
+  }
+
+  /**
+   * Create a copy of other metrics.
+   *
+   * @param metrics
+   *          the metrics to copy
+   */
+  public SerializerMetrics(SerializerMetrics metrics) {
+    add(metrics);
+  }
+
+  /**
+   * Returns the number of elements written.
+   *
+   * @return the number of elements
+   */
+  public long getElementCount() {
+    return m_elements;
+  }
+
+  /**
+   * Returns the number of attributes written, namespace declarations
+   * included.
+   *
+   * @return the number of attributes
+   */
+  public long getAttributeCount() {
+    return m_attributes;
+  }
+
+  /**
+   * Returns the number of characters of text written.
+   *
+   * @return the number of characters
+   */
+  public long getCharacterCount() {
+    return m_characters;
+  }
+
+  /**
+   * Returns the number of characters of text and attribute values that were
+   * written as entity or character references.
+   *
+   * @return the number of escaped characters
+   */
+  public long getEscapedCharacterCount() {
+    return m_escapedCharacters;
+  }
+
+  /**
+   * Returns the number of namespace declarations written.
+   *
+   * @return the number of namespace declarations
+   */
+  public long getNamespaceDeclarationCount() {
+    return m_namespaceDeclarations;
+  }
+
+  /**
+   * Returns the number of times the output was flushed.
+   *
+   * @return the number of flushes
+   */
+  public long getFlushCount() {
+    return m_flushes;
+  }
+
+  /**
+   * Returns the number of bytes written to the output stream, after
+   * compression if the output is compressed.
+   *
+   * @return the number of bytes
+   */
+  public long getBytesWritten() {
+    return m_bytes;
+  }
+
+  /**
+   * Returns the time in nanoseconds spent in writing to and flushing the
+   * output stream.
+   *
+   * @return the time in nanoseconds
+   */
+  public long getBlockedNanos() {
+    return m_blockedNanos;
+  }
+
+  /**
+   * Add the counters of other metrics to these.
+   *
+   * @param metrics
+   *          the metrics to add
+   */
+  public void add(SerializerMetrics metrics) {
+    m_elements += metrics.m_elements;
+    m_attributes += metrics.m_attributes;
+    m_characters += metrics.m_characters;
+    m_escapedCharacters += metrics.m_escapedCharacters;
+    m_namespaceDeclarations += metrics.m_namespaceDeclarations;
+    m_flushes += metrics.m_flushes;
+    m_bytes += metrics.m_bytes;
+    m_blockedNanos += metrics.m_blockedNanos;
+  }
+
+  /**
+   * Set all counters to zero.
+   */
+  void clear() {
+    m_elements = 0;
+    m_attributes = 0;
+    m_characters = 0;
+    m_escapedCharacters = 0;
+    m_namespaceDeclarations = 0;
+    m_flushes = 0;
+    m_bytes = 0;
+    m_blockedNanos = 0;
+  }
+
+  /**
+   * Add these metrics, of a single document, to the totals of all documents.
+   */
+  public void addToTotals() {
+    synchronized (s_totals) {
+      s_totals.add(this);
+      s_documents++;
+    }
+  }
+
+  /**
+   * Register the totals of all documents with the platform MBean server, if
+   * they are not registered yet.
+   *
+   * @return false if the totals could not be registered
+   */
+  public static boolean registerTotals() {
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(OBJECT_NAME);
+      synchronized (s_totals) {
+        if (!server.isRegistered(name)) {
+          server.registerMBean(new Totals(), name);
+        }
+      }
+      return true;
+    } catch (final JMException | SecurityException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "elements=" + m_elements + ", attributes=" + m_attributes + ", characters=" + m_characters
+        + ", escapedCharacters=" + m_escapedCharacters + ", namespaceDeclarations=" + m_namespaceDeclarations
+        + ", flushes=" + m_flushes + ", bytes=" + m_bytes + ", blockedNanos=" + m_blockedNanos;
+  }
+
+  /**
+   * The management interface of the totals of all documents.
+   */
+  public interface TotalsMXBean {
+
+    /**
+     * Returns the number of documents whose metrics were added.
+     *
+     * @return the number of documents
+     */
+    long getDocumentCount();
+
+    /**
+     * Returns the number of elements written in all documents.
+     *
+     * @return the number of elements
+     */
+    long getElementCount();
+
+    /**
+     * Returns the number of attributes written in all documents, namespace
+     * declarations included.
+     *
+     * @return the number of attributes
+     */
+    long getAttributeCount();
+
+    /**
+     * Returns the number of characters of text written in all documents.
+     *
+     * @return the number of characters
+     */
+    long getCharacterCount();
+
+    /**
+     * Returns the number of characters written as entity or character references
+     * in all documents.
+     *
+     * @return the number of escaped characters
+     */
+    long getEscapedCharacterCount();
+
+    /**
+     * Returns the number of namespace declarations written in all documents.
+     *
+     * @return the number of namespace declarations
+     */
+    long getNamespaceDeclarationCount();
+
+    /**
+     * Returns the number of times the output of all documents was flushed.
+     *
+     * @return the number of flushes
+     */
+    long getFlushCount();
+
+    /**
+     * Returns the number of bytes written for all documents.
+     *
+     * @return the number of bytes
+     */
+    long getBytesWritten();
+
+    /**
+     * Returns the time in nanoseconds spent in writing the output of all
+     * documents.
+     *
+     * @return the time in nanoseconds
+     */
+    long getBlockedNanos();
+
+    /**
+     * Set the totals back to zero.
+     */
+    void reset();
+  }
+
+  private static final class Totals implements TotalsMXBean {
+
+    @Override
+    public long getDocumentCount() {
+      synchronized (s_totals) {
+        return s_documents;
+      }
+    }
+
+    @Override
+    public long getElementCount() {
+      synchronized (s_totals) {
+        return s_totals.m_elements;
+      }
+    }
+
+    @Override
+    public long getAttributeCount() {
+      synchronized (s_totals) {
+        return s_totals.m_attributes;
+      }
+    }
+
+    @Override
+    public long getCharacterCount() {
+      synchronized (s_totals) {
+        return s_totals.m_characters;
+      }
+    }
+
+    @Override
+    public long getEscapedCharacterCount() {
+      synchronized (s_totals) {
+        return s_totals.m_escapedCharacters;
+      }
+    }
+
+    @Override
+    public long getNamespaceDeclarationCount() {
+      synchronized (s_totals) {
+        return s_totals.m_namespaceDeclarations;
+      }
+    }
+
+    @Override
+    public long getFlushCount() {
+      synchronized (s_totals) {
+        return s_totals.m_flushes;
+      }
+    }
+
+    @Override
+    public long getBytesWritten() {
+      synchronized (s_totals) {
+        return s_totals.m_bytes;
+      }
+    }
+
+    @Override
+    public long getBlockedNanos() {
+      synchronized (s_totals) {
+        return s_totals.m_blockedNanos;
+      }
+    }
+
+    @Override
+    public void reset() {
+      synchronized (s_totals) {
+        s_totals.clear();
+        s_documents = 0;
+      }
+    }
+  }
+}
@@ -55,314 +55,6 @@ public class ToHTMLStream extends ToStream {
   // new CharInfo(CharInfo.HTML_ENTITIES_RESOURCE);
   CharInfo.getCharInfo(CharInfo.HTML_ENTITIES_RESOURCE, Method.HTML);
 
-  /**
-   * A digital search trie for fast, case insensitive lookup of ElemDesc
-   * objects.
-   */
-  static final Trie m_elementFlags = new Trie();
-
-  static {
-    initTagReference(m_elementFlags);
-  }
-
-  static void initTagReference(Trie m_elementFlags) {
-
-    // HTML 4.0 loose DTD
-    m_elementFlags.put("BASEFONT", new ElemDesc(0 | ElemDesc.EMPTY));
-    m_elementFlags.put("FRAME", new ElemDesc(0 | ElemDesc.EMPTY | ElemDesc.BLOCK));
-    m_elementFlags.put("FRAMESET", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("NOFRAMES", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("ISINDEX", new ElemDesc(0 | ElemDesc.EMPTY | ElemDesc.BLOCK));
-    m_elementFlags.put("APPLET", new ElemDesc(0 | ElemDesc.WHITESPACESENSITIVE));
-    m_elementFlags.put("CENTER", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("DIR", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("MENU", new ElemDesc(0 | ElemDesc.BLOCK));
-
-    // HTML 4.0 strict DTD
-    m_elementFlags.put("TT", new ElemDesc(0 | ElemDesc.FONTSTYLE));
-    m_elementFlags.put("I", new ElemDesc(0 | ElemDesc.FONTSTYLE));
-    m_elementFlags.put("B", new ElemDesc(0 | ElemDesc.FONTSTYLE));
-    m_elementFlags.put("BIG", new ElemDesc(0 | ElemDesc.FONTSTYLE));
-    m_elementFlags.put("SMALL", new ElemDesc(0 | ElemDesc.FONTSTYLE));
-    m_elementFlags.put("EM", new ElemDesc(0 | ElemDesc.PHRASE));
-    m_elementFlags.put("STRONG", new ElemDesc(0 | ElemDesc.PHRASE));
-    m_elementFlags.put("DFN", new ElemDesc(0 | ElemDesc.PHRASE));
-    m_elementFlags.put("CODE", new ElemDesc(0 | ElemDesc.PHRASE));
-    m_elementFlags.put("SAMP", new ElemDesc(0 | ElemDesc.PHRASE));
-    m_elementFlags.put("KBD", new ElemDesc(0 | ElemDesc.PHRASE));
-    m_elementFlags.put("VAR", new ElemDesc(0 | ElemDesc.PHRASE));
-    m_elementFlags.put("CITE", new ElemDesc(0 | ElemDesc.PHRASE));
-    m_elementFlags.put("ABBR", new ElemDesc(0 | ElemDesc.PHRASE));
-    m_elementFlags.put("ACRONYM", new ElemDesc(0 | ElemDesc.PHRASE));
-    m_elementFlags.put("SUP", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL));
-    m_elementFlags.put("SUB", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL));
-    m_elementFlags.put("SPAN", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL));
-    m_elementFlags.put("BDO", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL));
-    m_elementFlags.put("BR", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL | ElemDesc.EMPTY | ElemDesc.BLOCK));
-    m_elementFlags.put("BODY", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("ADDRESS", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
-    m_elementFlags.put("DIV", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
-    m_elementFlags.put("A", new ElemDesc(0 | ElemDesc.SPECIAL));
-    m_elementFlags.put("MAP", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL | ElemDesc.BLOCK));
-    m_elementFlags.put("AREA", new ElemDesc(0 | ElemDesc.EMPTY | ElemDesc.BLOCK));
-    m_elementFlags.put("LINK", new ElemDesc(0 | ElemDesc.HEADMISC | ElemDesc.EMPTY | ElemDesc.BLOCK));
-    m_elementFlags.put("IMG", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL | ElemDesc.EMPTY
-            | ElemDesc.WHITESPACESENSITIVE));
-    m_elementFlags.put("OBJECT", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL | ElemDesc.HEADMISC
-            | ElemDesc.WHITESPACESENSITIVE));
-    m_elementFlags.put("PARAM", new ElemDesc(0 | ElemDesc.EMPTY));
-    m_elementFlags.put("HR", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET
-            | ElemDesc.EMPTY));
-    m_elementFlags.put("P", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
-    m_elementFlags.put("H1", new ElemDesc(0 | ElemDesc.HEAD | ElemDesc.BLOCK));
-    m_elementFlags.put("H2", new ElemDesc(0 | ElemDesc.HEAD | ElemDesc.BLOCK));
-    m_elementFlags.put("H3", new ElemDesc(0 | ElemDesc.HEAD | ElemDesc.BLOCK));
-    m_elementFlags.put("H4", new ElemDesc(0 | ElemDesc.HEAD | ElemDesc.BLOCK));
-    m_elementFlags.put("H5", new ElemDesc(0 | ElemDesc.HEAD | ElemDesc.BLOCK));
-    m_elementFlags.put("H6", new ElemDesc(0 | ElemDesc.HEAD | ElemDesc.BLOCK));
-    m_elementFlags.put("PRE", new ElemDesc(0 | ElemDesc.PREFORMATTED | ElemDesc.BLOCK));
-    m_elementFlags.put("Q", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL));
-    m_elementFlags
-            .put("BLOCKQUOTE", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
-    m_elementFlags.put("INS", new ElemDesc(0));
-    m_elementFlags.put("DEL", new ElemDesc(0));
-    m_elementFlags.put("DL", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
-    m_elementFlags.put("DT", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("DD", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("OL", new ElemDesc(0 | ElemDesc.LIST | ElemDesc.BLOCK));
-    m_elementFlags.put("UL", new ElemDesc(0 | ElemDesc.LIST | ElemDesc.BLOCK));
-    m_elementFlags.put("LI", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("FORM", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("LABEL", new ElemDesc(0 | ElemDesc.FORMCTRL));
-    m_elementFlags.put("INPUT", new ElemDesc(0 | ElemDesc.FORMCTRL | ElemDesc.INLINELABEL | ElemDesc.EMPTY));
-    m_elementFlags.put("SELECT", new ElemDesc(0 | ElemDesc.FORMCTRL | ElemDesc.INLINELABEL));
-    m_elementFlags.put("OPTGROUP", new ElemDesc(0));
-    m_elementFlags.put("OPTION", new ElemDesc(0));
-    m_elementFlags.put("TEXTAREA", new ElemDesc(0 | ElemDesc.FORMCTRL | ElemDesc.INLINELABEL));
-    m_elementFlags.put("FIELDSET", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM));
-    m_elementFlags.put("LEGEND", new ElemDesc(0));
-    m_elementFlags.put("BUTTON", new ElemDesc(0 | ElemDesc.FORMCTRL | ElemDesc.INLINELABEL));
-    m_elementFlags.put("TABLE", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
-    m_elementFlags.put("CAPTION", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("THEAD", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("TFOOT", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("TBODY", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("COLGROUP", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("COL", new ElemDesc(0 | ElemDesc.EMPTY | ElemDesc.BLOCK));
-    m_elementFlags.put("TR", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("TH", new ElemDesc(0));
-    m_elementFlags.put("TD", new ElemDesc(0));
-    m_elementFlags.put("HEAD", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.HEADELEM));
-    m_elementFlags.put("TITLE", new ElemDesc(0 | ElemDesc.BLOCK));
-    m_elementFlags.put("BASE", new ElemDesc(0 | ElemDesc.EMPTY | ElemDesc.BLOCK));
-    m_elementFlags.put("META", new ElemDesc(0 | ElemDesc.HEADMISC | ElemDesc.EMPTY | ElemDesc.BLOCK));
-    m_elementFlags.put("STYLE", new ElemDesc(0 | ElemDesc.HEADMISC | ElemDesc.RAW | ElemDesc.BLOCK));
-    m_elementFlags.put("SCRIPT", new ElemDesc(0 | ElemDesc.SPECIAL | ElemDesc.ASPECIAL | ElemDesc.HEADMISC
-            | ElemDesc.RAW));
-    m_elementFlags.put("NOSCRIPT", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
-    m_elementFlags.put("HTML", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.HTMLELEM));
-
-    // From "John Ky" <hand@syd.speednet.com.au
-    // Transitional Document Type Definition ()
-    // file:///C:/Documents%20and%20Settings/sboag.BOAG600E/My%20Documents/html/sgml/loosedtd.html#basefont
-    m_elementFlags.put("FONT", new ElemDesc(0 | ElemDesc.FONTSTYLE));
-
-    // file:///C:/Documents%20and%20Settings/sboag.BOAG600E/My%20Documents/html/present/graphics.html#edef-STRIKE
-    m_elementFlags.put("S", new ElemDesc(0 | ElemDesc.FONTSTYLE));
-    m_elementFlags.put("STRIKE", new ElemDesc(0 | ElemDesc.FONTSTYLE));
-
-    // file:///C:/Documents%20and%20Settings/sboag.BOAG600E/My%20Documents/html/present/graphics.html#edef-U
-    m_elementFlags.put("U", new ElemDesc(0 | ElemDesc.FONTSTYLE));
-
-    // From "John Ky" <hand@syd.speednet.com.au
-    m_elementFlags.put("NOBR", new ElemDesc(0 | ElemDesc.FONTSTYLE));
-
-    // HTML 4.0, section 16.5
-    m_elementFlags.put("IFRAME", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
-
-    // Netscape 4 extension
-    m_elementFlags.put("LAYER", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
-    // Netscape 4 extension
-    m_elementFlags.put("ILAYER", new ElemDesc(0 | ElemDesc.BLOCK | ElemDesc.BLOCKFORM | ElemDesc.BLOCKFORMFIELDSET));
-
-    // NOW FOR ATTRIBUTE INFORMATION . . .
-    ElemDesc elemDesc;
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("a");
-    elemDesc.setAttr("HREF", ElemDesc.ATTRURL);
-    elemDesc.setAttr("NAME", ElemDesc.ATTRURL);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("area");
-
-    elemDesc.setAttr("HREF", ElemDesc.ATTRURL);
-    elemDesc.setAttr("NOHREF", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("base");
-
-    elemDesc.setAttr("HREF", ElemDesc.ATTRURL);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("button");
-    elemDesc.setAttr("DISABLED", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("blockquote");
-
-    elemDesc.setAttr("CITE", ElemDesc.ATTRURL);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("del");
-    elemDesc.setAttr("CITE", ElemDesc.ATTRURL);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("dir");
-    elemDesc.setAttr("COMPACT", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-
-    elemDesc = (ElemDesc) m_elementFlags.get("div");
-    elemDesc.setAttr("SRC", ElemDesc.ATTRURL); // Netscape 4 extension
-    elemDesc.setAttr("NOWRAP", ElemDesc.ATTREMPTY); // Internet-Explorer
-                                                    // extension
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("dl");
-    elemDesc.setAttr("COMPACT", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("form");
-    elemDesc.setAttr("ACTION", ElemDesc.ATTRURL);
-
-    // ----------------------------------------------
-    // Attribution to: "Voytenko, Dimitry" <DVoytenko@SECTORBASE.COM>
-    elemDesc = (ElemDesc) m_elementFlags.get("frame");
-    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
-    elemDesc.setAttr("LONGDESC", ElemDesc.ATTRURL);
-    elemDesc.setAttr("NORESIZE", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("head");
-    elemDesc.setAttr("PROFILE", ElemDesc.ATTRURL);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("hr");
-    elemDesc.setAttr("NOSHADE", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    // HTML 4.0, section 16.5
-    elemDesc = (ElemDesc) m_elementFlags.get("iframe");
-    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
-    elemDesc.setAttr("LONGDESC", ElemDesc.ATTRURL);
-
-    // ----------------------------------------------
-    // Netscape 4 extension
-    elemDesc = (ElemDesc) m_elementFlags.get("ilayer");
-    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("img");
-    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
-    elemDesc.setAttr("LONGDESC", ElemDesc.ATTRURL);
-    elemDesc.setAttr("USEMAP", ElemDesc.ATTRURL);
-    elemDesc.setAttr("ISMAP", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("input");
-
-    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
-    elemDesc.setAttr("USEMAP", ElemDesc.ATTRURL);
-    elemDesc.setAttr("CHECKED", ElemDesc.ATTREMPTY);
-    elemDesc.setAttr("DISABLED", ElemDesc.ATTREMPTY);
-    elemDesc.setAttr("ISMAP", ElemDesc.ATTREMPTY);
-    elemDesc.setAttr("READONLY", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("ins");
-    elemDesc.setAttr("CITE", ElemDesc.ATTRURL);
-
-    // ----------------------------------------------
-    // Netscape 4 extension
-    elemDesc = (ElemDesc) m_elementFlags.get("layer");
-    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("link");
-    elemDesc.setAttr("HREF", ElemDesc.ATTRURL);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("menu");
-    elemDesc.setAttr("COMPACT", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("object");
-
-    elemDesc.setAttr("CLASSID", ElemDesc.ATTRURL);
-    elemDesc.setAttr("CODEBASE", ElemDesc.ATTRURL);
-    elemDesc.setAttr("DATA", ElemDesc.ATTRURL);
-    elemDesc.setAttr("ARCHIVE", ElemDesc.ATTRURL);
-    elemDesc.setAttr("USEMAP", ElemDesc.ATTRURL);
-    elemDesc.setAttr("DECLARE", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("ol");
-    elemDesc.setAttr("COMPACT", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("optgroup");
-    elemDesc.setAttr("DISABLED", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("option");
-    elemDesc.setAttr("SELECTED", ElemDesc.ATTREMPTY);
-    elemDesc.setAttr("DISABLED", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("q");
-    elemDesc.setAttr("CITE", ElemDesc.ATTRURL);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("script");
-    elemDesc.setAttr("SRC", ElemDesc.ATTRURL);
-    elemDesc.setAttr("FOR", ElemDesc.ATTRURL);
-    elemDesc.setAttr("DEFER", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("select");
-    elemDesc.setAttr("DISABLED", ElemDesc.ATTREMPTY);
-    elemDesc.setAttr("MULTIPLE", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("table");
-    elemDesc.setAttr("NOWRAP", ElemDesc.ATTREMPTY); // Internet-Explorer
-                                                    // extension
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("td");
-    elemDesc.setAttr("NOWRAP", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("textarea");
-    elemDesc.setAttr("DISABLED", ElemDesc.ATTREMPTY);
-    elemDesc.setAttr("READONLY", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("th");
-    elemDesc.setAttr("NOWRAP", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    // The nowrap attribute of a tr element is both
-    // a Netscape and Internet-Explorer extension
-    elemDesc = (ElemDesc) m_elementFlags.get("tr");
-    elemDesc.setAttr("NOWRAP", ElemDesc.ATTREMPTY);
-
-    // ----------------------------------------------
-    elemDesc = (ElemDesc) m_elementFlags.get("ul");
-    elemDesc.setAttr("COMPACT", ElemDesc.ATTREMPTY);
-  }
-
   /**
    * Dummy element for elements not found.
    */
@@ -447,22 +139,7 @@ public class ToHTMLStream extends ToStream {
      * this method used to return m_dummy when name was null but now it doesn't
      * check and and requires non-null name.
      */
-    final ElemDesc obj = m_elementFlags.get(name);
-    return obj == null ? m_dummy : obj;
-  }
-
-  /**
-   * A Trie that is just a copy of the "static" one. We need this one to be able
-   * to use the faster, but not thread-safe method Trie.get2(name)
-   */
-  private final Trie m_htmlInfo = new Trie(m_elementFlags);
-
-  /**
-   * Calls to this method could be replaced with calls to getElemDesc(name), but
-   * this one should be faster.
-   */
-  private ElemDesc getElemDesc2(String name) {
-    final ElemDesc obj = m_htmlInfo.get2(name);
+    final ElemDesc obj = ElemDescTable.HTML.get(name);
     return obj == null ? m_dummy : obj;
   }
 
@@ -564,6 +241,7 @@ public class ToHTMLStream extends ToStream {
     }
 
     flushWriter();
+    finishOutput();
     if (m_tracer != null) {
       super.fireEndDoc();
     }
@@ -620,8 +298,7 @@ public class ToHTMLStream extends ToStream {
     }
 
     try {
-      // getElemDesc2(name) is faster than getElemDesc(name)
-      final ElemDesc elemDesc = getElemDesc2(name);
+      final ElemDesc elemDesc = getElemDesc(name);
       final int elemFlags = elemDesc.getFlags();
 
       // deal with indentation issues first
@@ -662,6 +339,7 @@ public class ToHTMLStream extends ToStream {
         // an optimization for elements which are expected
         // to be empty.
         m_elemContext = elemContext.push();
+        m_metrics.m_elements++;
         /*
          * XSLTC sometimes calls namespaceAfterStartElement() so we need to
          * remember the name
@@ -672,6 +350,7 @@ public class ToHTMLStream extends ToStream {
       } else {
         elemContext = elemContext.push(namespaceURI, localName, name);
         m_elemContext = elemContext;
+        m_metrics.m_elements++;
         elemContext.m_elementDesc = elemDesc;
         elemContext.m_isRaw = (elemFlags & ElemDesc.RAW) != 0;
       }
@@ -1115,15 +794,14 @@ public class ToHTMLStream extends ToStream {
     int cleanStart = 0;
     int cleanLength = 0;
 
+    final boolean[] cleanChars = m_charInfo.getCleanAttrChars();
     char ch = 0;
     for (int i = 0; i < end; i++) {
       ch = chars[i];
 
-      // System.out.println("SPECIALSSIZE: "+SPECIALSSIZE);
-      // System.out.println("ch: "+(int)ch);
-      // System.out.println("m_maxCharacter: "+(int)m_maxCharacter);
-      // System.out.println("m_attrCharsMap[ch]: "+(int)m_attrCharsMap[ch]);
-      if (escapingNotNeeded(ch) && !m_charInfo.shouldMapAttrChar(ch)) {
+      if (ch < CharInfo.ASCII_MAX && cleanChars[ch]) {
+        cleanLength++;
+      } else if (escapingNotNeeded(ch) && !m_charInfo.shouldMapAttrChar(ch)) {
         cleanLength++;
       } else if ('<' == ch || '>' == ch) {
         cleanLength++; // no escaping in this case, as specified in 15.2
@@ -1137,6 +815,7 @@ public class ToHTMLStream extends ToStream {
         final int pos = accumDefaultEntity(writer, ch, i, chars, end, false, true);
 
         if (i != pos) {
+          m_metrics.m_escapedCharacters++;
           i = pos - 1;
         } else {
           if (Encodings.isHighUTF16Surrogate(ch)) {
@@ -1156,10 +835,12 @@ public class ToHTMLStream extends ToStream {
            */
           final String outputStringForChar = m_charInfo.getOutputStringForChar(ch);
           if (null != outputStringForChar) {
+            m_metrics.m_escapedCharacters++;
             writer.write(outputStringForChar);
           } else if (escapingNotNeeded(ch)) {
             writer.write(ch); // no escaping in this case
           } else {
+            m_metrics.m_escapedCharacters++;
             writer.write("&#");
             writer.write(Integer.toString(ch));
             writer.write(';');
@@ -1232,6 +913,7 @@ public class ToHTMLStream extends ToStream {
         }
 
         m_ispreserve = true;
+        m_metrics.m_characters += length;
 
         writeNormalizedChars(chars, start, length, false, m_lineSepUse);
 
@@ -1437,6 +1119,7 @@ public class ToHTMLStream extends ToStream {
     /*
      * process the collected attributes
      */
+    m_metrics.m_attributes += nAttrs;
     for (int i = 0; i < nAttrs; i++) {
       processAttribute(writer, m_attributes.getQName(i), m_attributes.getValue(i), m_elemContext.m_elementDesc);
     }
@@ -1657,293 +1340,11 @@ public class ToHTMLStream extends ToStream {
 
   private void resetToHTMLStream() {
     // m_htmlcharInfo remains unchanged
-    // m_htmlInfo = null; // Don't reset
+    m_charInfo = m_htmlcharInfo;
+    m_doIndent = true;
     m_inBlockElem = false;
     m_inDTD = false;
     m_omitMetaTag = false;
     m_specialEscapeURLs = true;
   }
-
-  static class Trie {
-    /**
-     * A digital search trie for 7-bit ASCII text The API is a subset of
-     * java.util.Hashtable The key must be a 7-bit ASCII string The value may be
-     * any Java Object One can get an object stored in a trie from its key, but
-     * the search is either case sensitive or case insensitive to the characters
-     * in the key, and this choice of sensitivity or insensitivity is made when
-     * the Trie is created, before any objects are put in it.
-     * 
-     * This class is a copy of the one in de.lyca.xml.utils. It exists to cut
-     * the serializers dependancy on that package.
-     */
-
-    /** Size of the m_nextChar array. */
-    public static final int ALPHA_SIZE = 128;
-
-    /** The root node of the tree. */
-    final Node m_Root;
-
-    /** helper buffer to convert Strings to char arrays */
-    private char[] m_charBuffer = new char[0];
-
-    /** true if the search for an object is lower case only with the key */
-    private final boolean m_lowerCaseOnly;
-
-    /**
-     * Construct the trie that has a case insensitive search.
-     */
-    public Trie() {
-      m_Root = new Node();
-      m_lowerCaseOnly = false;
-    }
-
-    /**
-     * Construct the trie given the desired case sensitivity with the key.
-     * 
-     * @param lowerCaseOnly
-     *          true if the search keys are to be loser case only, not case
-     *          insensitive.
-     */
-    public Trie(boolean lowerCaseOnly) {
-      m_Root = new Node();
-      m_lowerCaseOnly = lowerCaseOnly;
-    }
-
-    /**
-     * Put an object into the trie for lookup.
-     * 
-     * @param key
-     *          must be a 7-bit ASCII string
-     * @param value
-     *          any java object.
-     * 
-     * @return The old object that matched key, or null.
-     */
-    public ElemDesc put(String key, ElemDesc value) {
-
-      final int len = key.length();
-      if (len > m_charBuffer.length) {
-        // make the biggest buffer ever needed in get(String)
-        m_charBuffer = new char[len];
-      }
-
-      Node node = m_Root;
-
-      for (int i = 0; i < len; i++) {
-        final Node nextNode = node.m_nextChar[Character.toLowerCase(key.charAt(i))];
-
-        if (nextNode != null) {
-          node = nextNode;
-        } else {
-          for (; i < len; i++) {
-            final Node newNode = new Node();
-            if (m_lowerCaseOnly) {
-              // put this value into the tree only with a lower case key
-              node.m_nextChar[Character.toLowerCase(key.charAt(i))] = newNode;
-            } else {
-              // put this value into the tree with a case insensitive key
-              node.m_nextChar[Character.toUpperCase(key.charAt(i))] = newNode;
-              node.m_nextChar[Character.toLowerCase(key.charAt(i))] = newNode;
-            }
-            node = newNode;
-          }
-          break;
-        }
-      }
-
-      final ElemDesc ret = node.m_Value;
-
-      node.m_Value = value;
-
-      return ret;
-    }
-
-    /**
-     * Get an object that matches the key.
-     * 
-     * @param key
-     *          must be a 7-bit ASCII string
-     * 
-     * @return The object that matches the key, or null.
-     */
-    public ElemDesc get(final String key) {
-
-      final int len = key.length();
-
-      /*
-       * If the name is too long, we won't find it, this also keeps us from
-       * overflowing m_charBuffer
-       */
-      if (m_charBuffer.length < len)
-        return null;
-
-      Node node = m_Root;
-      switch (len) // optimize the look up based on the number of chars
-      {
-      // case 0 looks silly, but the generated bytecode runs
-      // faster for lookup of elements of length 2 with this in
-      // and a fair bit faster. Don't know why.
-        case 0: {
-          return null;
-        }
-
-        case 1: {
-          final char ch = key.charAt(0);
-          if (ch < ALPHA_SIZE) {
-            node = node.m_nextChar[ch];
-            if (node != null)
-              return node.m_Value;
-          }
-          return null;
-        }
-        // comment out case 2 because the default is faster
-        // case 2 :
-        // {
-        // final char ch0 = key.charAt(0);
-        // final char ch1 = key.charAt(1);
-        // if (ch0 < ALPHA_SIZE && ch1 < ALPHA_SIZE)
-        // {
-        // node = node.m_nextChar[ch0];
-        // if (node != null)
-        // {
-        //
-        // if (ch1 < ALPHA_SIZE)
-        // {
-        // node = node.m_nextChar[ch1];
-        // if (node != null)
-        // return node.m_Value;
-        // }
-        // }
-        // }
-        // return null;
-        // }
-        default: {
-          for (int i = 0; i < len; i++) {
-            // A thread-safe way to loop over the characters
-            final char ch = key.charAt(i);
-            if (ALPHA_SIZE <= ch)
-              // the key is not 7-bit ASCII so we won't find it here
-              return null;
-
-            node = node.m_nextChar[ch];
-            if (node == null)
-              return null;
-          }
-
-          return node.m_Value;
-        }
-      }
-    }
-
-    /**
-     * The node representation for the trie.
-     */
-    private static class Node {
-
-      /**
-       * Constructor, creates a Node[ALPHA_SIZE].
-       */
-      Node() {
-        m_nextChar = new Node[ALPHA_SIZE];
-        m_Value = null;
-      }
-
-      /** The next nodes. */
-      final Node m_nextChar[];
-
-      /** The value. */
-      ElemDesc m_Value;
-    }
-
-    /**
-     * Construct the trie from another Trie. Both the existing Trie and this new
-     * one share the same table for lookup, and it is assumed that the table is
-     * fully populated and not changing anymore.
-     * 
-     * @param existingTrie
-     *          the Trie that this one is a copy of.
-     */
-    public Trie(Trie existingTrie) {
-      // copy some fields from the existing Trie into this one.
-      m_Root = existingTrie.m_Root;
-      m_lowerCaseOnly = existingTrie.m_lowerCaseOnly;
-
-      // get a buffer just big enough to hold the longest key in the table.
-      final int max = existingTrie.getLongestKeyLength();
-      m_charBuffer = new char[max];
-    }
-
-    /**
-     * Get an object that matches the key. This method is faster than get(), but
-     * is not thread-safe.
-     * 
-     * @param key
-     *          must be a 7-bit ASCII string
-     * 
-     * @return The object that matches the key, or null.
-     */
-    public ElemDesc get2(final String key) {
-
-      final int len = key.length();
-
-      /*
-       * If the name is too long, we won't find it, this also keeps us from
-       * overflowing m_charBuffer
-       */
-      if (m_charBuffer.length < len)
-        return null;
-
-      Node node = m_Root;
-      switch (len) // optimize the look up based on the number of chars
-      {
-      // case 0 looks silly, but the generated bytecode runs
-      // faster for lookup of elements of length 2 with this in
-      // and a fair bit faster. Don't know why.
-        case 0: {
-          return null;
-        }
-
-        case 1: {
-          final char ch = key.charAt(0);
-          if (ch < ALPHA_SIZE) {
-            node = node.m_nextChar[ch];
-            if (node != null)
-              return node.m_Value;
-          }
-          return null;
-        }
-        default: {
-          /*
-           * Copy string into array. This is not thread-safe because it modifies
-           * the contents of m_charBuffer. If multiple threads were to use this
-           * Trie they all would be using this same array (not good). So this
-           * method is not thread-safe, but it is faster because converting to a
-           * char[] and looping over elements of the array is faster than a
-           * String's charAt(i).
-           */
-          key.getChars(0, len, m_charBuffer, 0);
-
-          for (int i = 0; i < len; i++) {
-            final char ch = m_charBuffer[i];
-            if (ALPHA_SIZE <= ch)
-              // the key is not 7-bit ASCII so we won't find it here
-              return null;
-
-            node = node.m_nextChar[ch];
-            if (node == null)
-              return null;
-          }
-
-          return node.m_Value;
-        }
-      }
-    }
-
-    /**
-     * Get the length of the longest key used in the table.
-     */
-    public int getLongestKeyLength() {
-      return m_charBuffer.length;
-    }
-  }
 }
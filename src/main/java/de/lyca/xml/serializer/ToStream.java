@@ -83,6 +83,19 @@ abstract public class ToStream extends SerializerBase {
    */
   protected boolean m_ispreserve = false;
 
+  /**
+   * A high surrogate that ended a piece of text that is continued by the next
+   * call to {@link #characters(char[], int, int, boolean)}, followed by room
+   * for the character it is joined with.
+   */
+  private final char[] m_splitPair = new char[2];
+
+  /**
+   * True if {@link #m_splitPair} holds a high surrogate that has not been
+   * written yet.
+   */
+  private boolean m_hasSplitPair;
+
   /**
    * State flag that tells if the previous node processed was text, so we can tell if we should preserve whitespace.
    * 
@@ -199,13 +212,16 @@ abstract public class ToStream extends SerializerBase {
   protected boolean m_escaping = true;
 
   /**
-   * Flush the formatter's result stream.
+   * Flush the formatter's result stream. Compressed output is not finished, so
+   * this may be called in the middle of a document.
    * 
-   * @throws SAXException TODO
+   * @throws SAXException
+   *           If the writer could not be flushed
    */
   protected final void flushWriter() throws SAXException {
     final java.io.Writer writer = m_writer;
     if (null != writer) {
+      m_metrics.m_flushes++;
       try {
         if (writer instanceof WriterToUTF8Buffered) {
           if (m_shouldFlush) {
@@ -230,8 +246,48 @@ abstract public class ToStream extends SerializerBase {
     }
   }
 
+  /**
+   * Write the end of the compressed output to the output stream, if the
+   * output is compressed. This is done when the document ends, after the
+   * writer has been flushed.
+   * 
+   * @throws SAXException
+   *           If the end of the compressed output could not be written
+   */
+  final void finishOutput() throws SAXException {
+    if (m_compress) {
+      m_compress = false;
+      try {
+        m_compressor.finish();
+        if (m_shouldFlush) {
+          m_outputStream.flush();
+        }
+      } catch (final IOException ioe) {
+        throw new SAXException(ioe);
+      }
+    }
+  }
+
   OutputStream m_outputStream;
 
+  /**
+   * Compresses the output stream if the compression output property is set.
+   * It is kept for the next output stream that is compressed in the same
+   * format.
+   */
+  private CompressingOutputStream m_compressor;
+
+  /**
+   * True if the writer writes to the compressor.
+   */
+  private boolean m_compress;
+
+  /**
+   * Counts the bytes written to the output stream into the metrics. It is kept
+   * for the next output stream.
+   */
+  private MeteredOutputStream m_meter;
+
   /**
    * Get the output stream where the events will be serialized to.
    * 
@@ -343,6 +399,19 @@ abstract public class ToStream extends SerializerBase {
           if (OutputKeys.CDATA_SECTION_ELEMENTS.equals(name)) {
             final String cdataSectionNames = val;
             addCdataSectionElements(cdataSectionNames);
+          } else if (OutputPropertiesFactory.S_KEY_COMPRESSION.equals(name)) {
+            if (!CompressingOutputStream.GZIP.equals(val) && !CompressingOutputStream.DEFLATE.equals(val)
+                && !CompressingOutputStream.NONE.equals(val))
+              throw new IllegalArgumentException(Utils.messages.createMessage(MsgKey.ER_COMPRESSION_NOT_SUPPORTED,
+                  new Object[] { val }));
+            final String oldCompression = getOutputProperty(name);
+            super.setProp(name, val, defaultVal);
+            // A writer for an output stream is created again if it has to
+            // write to another kind of compression
+            final OutputStream os = getOutputStream();
+            if (os != null && !m_writer_set_by_user && !getOutputProperty(name).equals(oldCompression)) {
+              setOutputStreamInternal(os, false);
+            }
           }
           break;
         case 'd':
@@ -569,6 +638,7 @@ abstract public class ToStream extends SerializerBase {
    */
   @Override
   public void setWriter(Writer writer) {
+    m_compress = false;
     setWriterInternal(writer, true);
   }
 
@@ -627,12 +697,24 @@ abstract public class ToStream extends SerializerBase {
 
   private void setOutputStreamInternal(OutputStream output, boolean setByUser) {
     m_outputStream = output;
+    output = compressedOutputStream(meteredOutputStream(output));
     String encoding = getOutputProperty(OutputKeys.ENCODING);
+    // A buffered writer created for the previous output stream is re-used
+    final Writer previous = m_writer_set_by_user ? null : m_writer;
     if (Encodings.DEFAULT_MIME_ENCODING.equalsIgnoreCase(encoding)) {
       // We wrap the OutputStream with a writer, but
       // not one set by the user
-      setWriterInternal(new WriterToUTF8Buffered(output), false);
-    } else if ("WINDOWS-1250".equals(encoding) || "US-ASCII".equals(encoding) || "ASCII".equals(encoding)) {
+      if (previous instanceof WriterToUTF8Buffered) {
+        ((WriterToUTF8Buffered) previous).setOutputStream(output);
+        setWriterInternal(previous, false);
+      } else {
+        setWriterInternal(new WriterToUTF8Buffered(output), false);
+      }
+    } else if ("ISO-8859-1".equalsIgnoreCase(encoding)) {
+      setWriterInternal(latin1Writer(previous, output, '\u00FF'), false);
+    } else if ("US-ASCII".equalsIgnoreCase(encoding) || "ASCII".equalsIgnoreCase(encoding)) {
+      setWriterInternal(latin1Writer(previous, output, '\u007F'), false);
+    } else if ("WINDOWS-1250".equals(encoding)) {
       setWriterInternal(new WriterToASCI(output), false);
     } else if (encoding != null) {
       Writer osw = null;
@@ -664,6 +746,91 @@ abstract public class ToStream extends SerializerBase {
     }
   }
 
+  /**
+   * Returns the stream that the writer writes to, which compresses the output
+   * stream if the compression output property is set. The compressor of the
+   * previous output stream is re-used if it writes the same format.
+   */
+  private OutputStream compressedOutputStream(OutputStream output) {
+    final String compression = getOutputProperty(OutputPropertiesFactory.S_KEY_COMPRESSION);
+    final boolean gzip = CompressingOutputStream.GZIP.equals(compression);
+    m_compress = gzip || CompressingOutputStream.DEFLATE.equals(compression);
+    if (!m_compress)
+      return output;
+    if (m_compressor == null || m_compressor.isGzip() != gzip) {
+      if (m_compressor != null) {
+        m_compressor.end();
+      }
+      m_compressor = new CompressingOutputStream(gzip);
+    }
+    m_compressor.setOutputStream(output);
+    return m_compressor;
+  }
+
+  /**
+   * Returns the stream that counts the bytes written to the output stream and
+   * the time spent in writing them into the metrics of this serializer.
+   */
+  private OutputStream meteredOutputStream(OutputStream output) {
+    if (m_meter == null) {
+      m_meter = new MeteredOutputStream(m_metrics);
+    }
+    m_meter.setOutputStream(output);
+    return m_meter;
+  }
+
+  /**
+   * Returns a single byte writer for the output stream, re-using the previous
+   * writer if it writes the same encoding.
+   */
+  private static Writer latin1Writer(Writer previous, OutputStream output, char highChar) {
+    if (previous instanceof WriterToLatin1Buffered && ((WriterToLatin1Buffered) previous).getHighChar() == highChar) {
+      ((WriterToLatin1Buffered) previous).setOutputStream(output);
+      return previous;
+    }
+    return new WriterToLatin1Buffered(output, highChar);
+  }
+
+  /**
+   * Drops the references to the output stream or writer of the last document,
+   * so that a serializer that is kept for re-use does not keep them reachable.
+   * A buffered writer that this serializer created for an output stream is
+   * kept, and writes to the next output stream with the same buffers, and so are
+   * the compressor and the meter.
+   */
+  public void releaseOutput() {
+    m_outputStream = null;
+    m_compress = false;
+    if (m_compressor != null) {
+      m_compressor.setOutputStream(null);
+    }
+    if (m_meter != null) {
+      m_meter.setOutputStream(null);
+    }
+    if (m_writer_set_by_user) {
+      m_writer = null;
+    } else if (m_writer instanceof WriterToUTF8Buffered) {
+      ((WriterToUTF8Buffered) m_writer).setOutputStream(null);
+    } else if (m_writer instanceof WriterToLatin1Buffered) {
+      ((WriterToLatin1Buffered) m_writer).setOutputStream(null);
+    } else {
+      m_writer = null;
+    }
+  }
+
+  /**
+   * Releases the native memory of the compressor. The serializer creates
+   * another compressor if it is used again for compressed output.
+   */
+  @Override
+  public void close() {
+    if (m_compressor != null) {
+      m_compressor.end();
+      m_compressor = null;
+    }
+    m_compress = false;
+  }
+
   /**
    * @see SerializationHandler#setEscaping(boolean)
    */
@@ -1200,6 +1367,7 @@ abstract public class ToStream extends SerializerBase {
     // is created if string is empty.
     if (length == 0 || m_inEntityRef && !m_expandDTDEntities)
       return;
+    m_metrics.m_characters += length;
 
     m_docIsEmpty = false;
 
@@ -1264,6 +1432,7 @@ abstract public class ToStream extends SerializerBase {
           // so far
           // then the String.
           writeOutCleanChars(chars, i, lastDirtyCharProcessed);
+          m_metrics.m_escapedCharacters++;
           final String outputStringForChar = m_charInfo.getOutputStringForChar(ch1);
           writer.write(outputStringForChar);
           // We can't say that everything we are writing out is
@@ -1286,6 +1455,7 @@ abstract public class ToStream extends SerializerBase {
               break;
             case CharInfo.S_CARRIAGERETURN:
               writeOutCleanChars(chars, i, lastDirtyCharProcessed);
+              m_metrics.m_escapedCharacters++;
               writer.write("&#13;");
               lastDirtyCharProcessed = i;
               i++;
@@ -1312,14 +1482,22 @@ abstract public class ToStream extends SerializerBase {
         m_ispreserve = true;
       }
 
+      final boolean[] cleanChars = m_charInfo.getCleanTextChars();
       for (; i < end; i++) {
         final char ch = chars[i];
 
+        if (ch < CharInfo.ASCII_MAX && cleanChars[ch]) {
+          // The common case, a character that is added to the run of clean
+          // characters with a single table lookup
+          continue;
+        }
+
         if (m_charInfo.shouldMapTextChar(ch)) {
           // The character is supposed to be replaced by a String
           // e.g. '&' --> "&amp;"
           // e.g. '<' --> "&lt;"
           writeOutCleanChars(chars, i, lastDirtyCharProcessed);
+          m_metrics.m_escapedCharacters++;
           final String outputStringForChar = m_charInfo.getOutputStringForChar(ch);
           writer.write(outputStringForChar);
           lastDirtyCharProcessed = i;
@@ -1350,12 +1528,14 @@ abstract public class ToStream extends SerializerBase {
                 break;
               case CharInfo.S_CARRIAGERETURN:
                 writeOutCleanChars(chars, i, lastDirtyCharProcessed);
+                m_metrics.m_escapedCharacters++;
                 writer.write("&#13;");
                 lastDirtyCharProcessed = i;
                 // Leave whitespace carriage return as a real character
                 break;
               default:
                 writeOutCleanChars(chars, i, lastDirtyCharProcessed);
+                m_metrics.m_escapedCharacters++;
                 writer.write("&#");
                 writer.write(Integer.toString(ch));
                 writer.write(';');
@@ -1372,6 +1552,7 @@ abstract public class ToStream extends SerializerBase {
             // Range 0x7F through 0x9F inclusive
             // More control characters, including NEL (0x85)
             writeOutCleanChars(chars, i, lastDirtyCharProcessed);
+            m_metrics.m_escapedCharacters++;
             writer.write("&#");
             writer.write(Integer.toString(ch));
             writer.write(';');
@@ -1379,6 +1560,7 @@ abstract public class ToStream extends SerializerBase {
           } else if (ch == CharInfo.S_LINE_SEPARATOR) {
             // LINE SEPARATOR
             writeOutCleanChars(chars, i, lastDirtyCharProcessed);
+            m_metrics.m_escapedCharacters++;
             writer.write("&#8232;");
             lastDirtyCharProcessed = i;
           } else if (m_encodingInfo.isInEncoding(ch)) {
@@ -1390,6 +1572,7 @@ abstract public class ToStream extends SerializerBase {
             if (!m_encodingInfo.isInEncoding(ch, chars[i + 1])) {
               int codepoint = Encodings.toCodePoint(ch, chars[i + 1]);
               writeOutCleanChars(chars, i, lastDirtyCharProcessed);
+              m_metrics.m_escapedCharacters++;
               writer.write("&#");
               writer.write(Integer.toString(codepoint));
               writer.write(';');
@@ -1402,6 +1585,7 @@ abstract public class ToStream extends SerializerBase {
             // (i.e. isn't in the encoding, etc.) then what
             // should we do? We choose to write out an entity
             writeOutCleanChars(chars, i, lastDirtyCharProcessed);
+            m_metrics.m_escapedCharacters++;
             writer.write("&#");
             writer.write(Integer.toString(ch));
             writer.write(';');
@@ -1498,6 +1682,39 @@ abstract public class ToStream extends SerializerBase {
     characters(m_charsBuff, 0, length);
   }
 
+  /**
+   * Receive notification of a piece of character data that may be continued
+   * by the next call. A high surrogate at the end of a piece that is continued
+   * is held back and written together with the first character of the next
+   * piece, so that a surrogate pair that is split between the pieces is
+   * written as a single character.
+   * 
+   * @see ExtendedContentHandler#characters(char[], int, int, boolean)
+   */
+  @Override
+  public void characters(final char[] chars, int start, int length, boolean more) throws SAXException {
+    if (m_hasSplitPair) {
+      if (length == 0) {
+        if (!more) {
+          m_hasSplitPair = false;
+          characters(m_splitPair, 0, 1);
+        }
+        return;
+      }
+      m_hasSplitPair = false;
+      m_splitPair[1] = chars[start];
+      characters(m_splitPair, 0, 2);
+      start++;
+      length--;
+    }
+    if (more && length > 0 && Encodings.isHighUTF16Surrogate(chars[start + length - 1])) {
+      length--;
+      m_splitPair[0] = chars[start + length];
+      m_hasSplitPair = true;
+    }
+    characters(chars, start, length);
+  }
+
   /**
    * Escape and writer.write a character.
    * 
@@ -1642,6 +1859,7 @@ abstract public class ToStream extends SerializerBase {
     }
 
     m_elemContext = m_elemContext.push(namespaceURI, localName, name);
+    m_metrics.m_elements++;
     m_isprevtext = false;
 
     if (m_tracer != null) {
@@ -1738,6 +1956,7 @@ abstract public class ToStream extends SerializerBase {
      * attribute(name,value)
      */
 
+    m_metrics.m_attributes += nAttrs;
     final String encoding = getEncoding();
     for (int i = 0; i < nAttrs; i++) {
       // elementAt is JDK 1.1.8
@@ -1767,15 +1986,28 @@ abstract public class ToStream extends SerializerBase {
     }
     string.getChars(0, len, m_attrBuff, 0);
     final char[] stringChars = m_attrBuff;
+    final boolean[] cleanChars = m_charInfo.getCleanAttrChars();
 
+    int cleanStart = 0;
     for (int i = 0; i < len; i++) {
       final char ch = stringChars[i];
 
+      if (ch < CharInfo.ASCII_MAX && cleanChars[ch]) {
+        // Added to the run of clean characters, which is written out in one
+        // piece
+        continue;
+      }
+      if (cleanStart < i) {
+        writer.write(stringChars, cleanStart, i - cleanStart);
+      }
+      cleanStart = i + 1;
+
       if (m_charInfo.shouldMapAttrChar(ch)) {
         // The character is supposed to be replaced by a String
         // e.g. '&' --> "&amp;"
         // e.g. '<' --> "&lt;"
         accumDefaultEscape(writer, ch, i, stringChars, len, false, true);
+        m_metrics.m_escapedCharacters++;
       } else {
         if (0x0 <= ch && ch <= 0x1F) {
           // Range 0x00 through 0x1F inclusive
@@ -1792,6 +2024,7 @@ abstract public class ToStream extends SerializerBase {
           // The default will handle this just fine, but this
           // is a little performance boost to handle the more
           // common TAB, NEW-LINE, CARRIAGE-RETURN
+          m_metrics.m_escapedCharacters++;
           switch (ch) {
 
             case CharInfo.S_HORIZONAL_TAB:
@@ -1817,11 +2050,13 @@ abstract public class ToStream extends SerializerBase {
         } else if (ch <= 0x9F) {
           // Range 0x7F through 0x9F inclusive
           // More control characters
+          m_metrics.m_escapedCharacters++;
           writer.write("&#");
           writer.write(Integer.toString(ch));
           writer.write(';');
         } else if (ch == CharInfo.S_LINE_SEPARATOR) {
           // LINE SEPARATOR
+          m_metrics.m_escapedCharacters++;
           writer.write("&#8232;");
         } else if (m_encodingInfo.isInEncoding(ch)) {
           // If the character is in the encoding, and
@@ -1833,6 +2068,7 @@ abstract public class ToStream extends SerializerBase {
           // but if the character wasn't previously handled
           // (i.e. isn't in the encoding, etc.) then what
           // should we do? We choose to write out a character ref
+          m_metrics.m_escapedCharacters++;
           writer.write("&#");
           writer.write(Integer.toString(ch));
           writer.write(';');
@@ -1840,6 +2076,9 @@ abstract public class ToStream extends SerializerBase {
 
       }
     }
+    if (cleanStart < len) {
+      writer.write(stringChars, cleanStart, len - cleanStart);
+    }
   }
 
   /**
@@ -1980,6 +2219,7 @@ abstract public class ToStream extends SerializerBase {
     pushed = m_prefixMap.pushNamespace(prefix, uri, pushDepth);
 
     if (pushed) {
+      m_metrics.m_namespaceDeclarations++;
       /*
        * Brian M.: don't know if we really needto do this. The callers of this object should have injected both
        * startPrefixMapping and the attributes. We are just covering our butt here.
@@ -2688,6 +2928,7 @@ abstract public class ToStream extends SerializerBase {
     // Leave m_format alone for now - Brian M.
     // this.m_format = null;
     m_expandDTDEntities = true;
+    m_hasSplitPair = false;
     m_inDoctype = false;
     m_ispreserve = false;
     m_isprevtext = false;
@@ -76,6 +76,7 @@ public class ToTextStream extends ToStream {
   public void endDocument() throws SAXException {
     flushPending();
     flushWriter();
+    finishOutput();
     if (m_tracer != null) {
       super.fireEndDoc();
     }
@@ -198,6 +199,7 @@ public class ToTextStream extends ToStream {
   public void characters(char ch[], int start, int length) throws SAXException {
 
     flushPending();
+    m_metrics.m_characters += length;
 
     try {
       if (inTemporaryOutputState()) {
@@ -615,4 +617,13 @@ public class ToTextStream extends ToStream {
       m_needToCallStartDocument = false;
     }
   }
+
+  @Override
+  public boolean reset() {
+    if (!super.reset())
+      return false;
+    // Text output has no entities, unless the output properties set some
+    m_charInfo = null;
+    return true;
+  }
 }
@@ -52,6 +52,16 @@ public final class ToUnknownStream extends SerializerBase {
    */
   private SerializationHandler m_handler;
 
+  /**
+   * The XML handler this object wraps initially
+   */
+  private final SerializationHandler m_xmlHandler;
+
+  /**
+   * The HTML handler of a previous document, kept for re-use
+   */
+  private SerializationHandler m_htmlHandler;
+
   /**
    * true if the underlying handler (XML or HTML) is fully initialized
    */
@@ -116,7 +126,7 @@ public final class ToUnknownStream extends SerializerBase {
    * later to an HTML Stream object.
    */
   public ToUnknownStream() {
-    m_handler = new ToXMLStream();
+    m_handler = m_xmlHandler = new ToXMLStream();
   }
 
   /**
@@ -138,6 +148,9 @@ public final class ToUnknownStream extends SerializerBase {
   @Override
   public void close() {
     m_handler.close();
+    if (m_handler != m_xmlHandler) {
+      m_xmlHandler.close();
+    }
   }
 
   /**
@@ -149,6 +162,22 @@ public final class ToUnknownStream extends SerializerBase {
     return m_handler.getOutputFormat();
   }
 
+  /**
+   * Returns the metrics of the underlying handler. An HTML handler writes
+   * through the writer of the XML handler, so the bytes it wrote are counted
+   * by the XML handler and are added to the metrics of the HTML handler.
+   * 
+   * @see SerializationHandler#getMetrics()
+   */
+  @Override
+  public SerializerMetrics getMetrics() {
+    final SerializerMetrics metrics = m_xmlHandler.getMetrics();
+    if (m_handler != m_xmlHandler) {
+      metrics.add(m_handler.getMetrics());
+    }
+    return metrics;
+  }
+
   /**
    * @see Serializer#getOutputStream()
    * @return the OutputStream of the underlying XML or HTML handler
@@ -168,14 +197,55 @@ public final class ToUnknownStream extends SerializerBase {
   }
 
   /**
-   * passes the call on to the underlying HTML or XML handler
+   * Resets this object and the XML handler it wraps initially, so that it can
+   * be re-used for a document that may be XML or HTML. An HTML handler that
+   * was switched to is kept, to be reset and re-used for the next HTML
+   * document.
    * 
    * @see Serializer#reset()
-   * @return ???
+   * @return true if the class was successfuly reset.
    */
   @Override
   public boolean reset() {
-    return m_handler.reset();
+    if (m_handler != m_xmlHandler) {
+      m_htmlHandler = m_handler;
+      m_handler = m_xmlHandler;
+    }
+    if (!m_handler.reset())
+      return false;
+    // The attributes of the first element are dropped once it is emitted
+    if (m_attributes == null) {
+      m_attributes = new AttributesImplSerializer();
+    }
+    super.reset();
+    m_wrapped_handler_not_initialized = false;
+    m_firstElementPrefix = null;
+    m_firstElementName = null;
+    m_firstElementURI = null;
+    m_firstElementLocalName = null;
+    m_firstTagNotEmitted = true;
+    m_namespaceURI = null;
+    m_namespacePrefix = null;
+    m_needToCallStartDocument = false;
+    m_setVersion_called = false;
+    m_setDoctypeSystem_called = false;
+    m_setDoctypePublic_called = false;
+    m_setMediaType_called = false;
+    return true;
+  }
+
+  /**
+   * Drops the references to the output stream or writer of the last document.
+   * 
+   * @see ToStream#releaseOutput()
+   */
+  public void releaseOutput() {
+    if (m_xmlHandler instanceof ToStream) {
+      ((ToStream) m_xmlHandler).releaseOutput();
+    }
+    if (m_handler != m_xmlHandler && m_handler instanceof ToStream) {
+      ((ToStream) m_handler).releaseOutput();
+    }
   }
 
   /**
@@ -212,6 +282,36 @@ public final class ToUnknownStream extends SerializerBase {
     m_handler.setOutputFormat(format);
   }
 
+  /**
+   * Pass the call on to the underlying handler
+   * 
+   * @see XSLOutputAttributes#setOutputProperty(String, String)
+   */
+  @Override
+  public void setOutputProperty(String name, String val) {
+    m_handler.setOutputProperty(name, val);
+  }
+
+  /**
+   * Pass the call on to the underlying handler
+   * 
+   * @see XSLOutputAttributes#setOutputPropertyDefault(String, String)
+   */
+  @Override
+  public void setOutputPropertyDefault(String name, String val) {
+    m_handler.setOutputPropertyDefault(name, val);
+  }
+
+  /**
+   * Pass the call on to the underlying handler
+   * 
+   * @see XSLOutputAttributes#getOutputProperty(String)
+   */
+  @Override
+  public String getOutputProperty(String name) {
+    return m_handler.getOutputProperty(name);
+  }
+
   /**
    * Sets the output stream to write to
    * 
@@ -297,6 +397,20 @@ public final class ToUnknownStream extends SerializerBase {
     this.characters(m_charsBuff, 0, length);
   }
 
+  /**
+   * Pass the call on to the underlying handler
+   * 
+   * @see ExtendedContentHandler#characters(char[], int, int, boolean)
+   */
+  @Override
+  public void characters(char[] chars, int start, int length, boolean more) throws SAXException {
+    if (m_firstTagNotEmitted) {
+      flush();
+    }
+
+    m_handler.characters(chars, start, length, more);
+  }
+
   /**
    * Pass the call on to the underlying handler
    * 
@@ -749,7 +863,11 @@ public final class ToUnknownStream extends SerializerBase {
     }
 
     m_handler.endDocument();
-
+    // An HTML handler writes through the writer of the XML handler, which
+    // compresses the output if so is wanted
+    if (m_handler != m_xmlHandler) {
+      ((ToStream) m_xmlHandler).finishOutput();
+    }
   }
 
   /**
@@ -931,14 +1049,20 @@ public final class ToUnknownStream extends SerializerBase {
        */
 
       final Properties htmlProperties = OutputPropertiesFactory.getDefaultMethodProperties(Method.HTML);
-      final Serializer serializer = SerializerFactory.getSerializer(htmlProperties);
-
-      // The factory should be returning a ToStream
-      // Don't know what to do if it doesn't
-      // i.e. the user has over-ridden the content-handler property
-      // for html
-      m_handler = (SerializationHandler) serializer;
-      // m_handler = new ToHTMLStream();
+      if (m_htmlHandler != null && m_htmlHandler.reset()) {
+        // the HTML handler of a previous document is re-used
+        m_htmlHandler.setOutputFormat(htmlProperties);
+        m_handler = m_htmlHandler;
+      } else {
+        final Serializer serializer = SerializerFactory.getSerializer(htmlProperties);
+
+        // The factory should be returning a ToStream
+        // Don't know what to do if it doesn't
+        // i.e. the user has over-ridden the content-handler property
+        // for html
+        m_handler = (SerializationHandler) serializer;
+        // m_handler = new ToHTMLStream();
+      }
 
       final Writer writer = oldHandler.getWriter();
 
@@ -173,6 +173,7 @@ public class ToXMLStream extends ToStream {
     }
 
     flushWriter();
+    finishOutput();
 
     if (m_tracer != null) {
       super.fireEndDoc();
@@ -513,9 +514,7 @@ public class ToXMLStream extends ToStream {
   public boolean reset() {
     boolean wasReset = false;
     if (super.reset()) {
-      // Make this call when resetToXMLStream does
-      // something.
-      // resetToXMLStream();
+      resetToXMLStream();
       wasReset = true;
     }
     return wasReset;
@@ -526,10 +525,8 @@ public class ToXMLStream extends ToStream {
    * 
    */
   private void resetToXMLStream() {
-    // This is an empty method, but is kept for future use
-    // as a place holder for a location to reset fields
-    // defined within this class
-    return;
+    // The output properties may have set the entities of another file
+    m_charInfo = m_xmlcharInfo;
   }
 
   /**
@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the  "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.lyca.xml.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * This class writes unicode characters to a byte stream (java.io.OutputStream)
+ * in ISO-8859-1 or US-ASCII, where every character is a single byte. It
+ * buffers the output in an internal buffer like {@link WriterToUTF8Buffered},
+ * and characters that are not in the encoding are written as '?', just as an
+ * OutputStreamWriter would, with one '?' for a surrogate pair. The serializer
+ * writes such characters as character references, so they only reach this
+ * writer in output that is not escaped.
+ *
+ * This class is only used internally within Xalan.
+ */
+final class WriterToLatin1Buffered extends Writer implements WriterChain {
+
+  /**
+   * number of bytes that the byte buffer can hold.
+   */
+  private static final int BYTES_MAX = 16 * 1024;
+
+  /**
+   * The byte stream to write to. It changes when the writer is re-used for
+   * another output stream.
+   */
+  private OutputStream m_os;
+
+  /**
+   * The highest character of the encoding, 0xFF for ISO-8859-1 and 0x7F for
+   * US-ASCII.
+   */
+  private final char m_highChar;
+
+  /**
+   * The internal buffer where data is stored.
+   */
+  private final byte m_outputBytes[];
+
+  /**
+   * The number of valid bytes in the buffer.
+   */
+  private int count;
+
+  /**
+   * Whether the last character written was a high surrogate, whose low
+   * surrogate is not written again.
+   */
+  private boolean m_afterHighSurrogate;
+
+  /**
+   * Create a buffered single byte writer.
+   *
+   * @param out
+   *          the underlying output stream.
+   * @param highChar
+   *          the highest character of the encoding
+   */
+  public WriterToLatin1Buffered(OutputStream out, char highChar) {
+    m_os = out;
+    m_highChar = highChar;
+    m_outputBytes = new byte[BYTES_MAX];
+    count = 0;
+  }
+
+  /**
+   * Write a single character.
+   *
+   * @param c
+   *          int specifying a character to be written.
+   * @throws IOException
+   *              If an I/O error occurs
+   */
+  @Override
+  public void write(final int c) throws IOException {
+    if (count >= BYTES_MAX) {
+      flushBuffer();
+    }
+    final char ch = (char) c;
+    if (ch <= m_highChar) {
+      m_outputBytes[count++] = (byte) ch;
+      m_afterHighSurrogate = false;
+    } else {
+      if (!m_afterHighSurrogate || !Character.isLowSurrogate(ch)) {
+        m_outputBytes[count++] = (byte) '?';
+      }
+      m_afterHighSurrogate = Character.isHighSurrogate(ch);
+    }
+  }
+
+  /**
+   * Write a portion of an array of characters. The characters are copied into
+   * the buffer in pieces that fit into the remaining space.
+   *
+   * @param chars
+   *          Array of characters
+   * @param start
+   *          Offset from which to start writing characters
+   * @param length
+   *          Number of characters to write
+   *
+   * @throws IOException
+   *              If an I/O error occurs
+   */
+  @Override
+  public void write(final char chars[], int start, int length) throws IOException {
+    final byte[] buf_loc = m_outputBytes; // local reference for faster access
+    final char highChar = m_highChar;
+    boolean afterHighSurrogate = m_afterHighSurrogate;
+    while (length > 0) {
+      if (count >= BYTES_MAX) {
+        flushBuffer();
+      }
+      int count_loc = count; // local integer for faster access
+      final int n = start + Math.min(length, BYTES_MAX - count_loc);
+      for (int i = start; i < n; i++) {
+        final char c = chars[i];
+        if (c <= highChar) {
+          buf_loc[count_loc++] = (byte) c;
+          afterHighSurrogate = false;
+        } else {
+          if (!afterHighSurrogate || !Character.isLowSurrogate(c)) {
+            buf_loc[count_loc++] = (byte) '?';
+          }
+          afterHighSurrogate = Character.isHighSurrogate(c);
+        }
+      }
+      length -= n - start;
+      start = n;
+      count = count_loc;
+    }
+    m_afterHighSurrogate = afterHighSurrogate;
+  }
+
+  /**
+   * Write a string.
+   *
+   * @param s
+   *          String to be written
+   *
+   * @throws IOException
+   *              If an I/O error occurs
+   */
+  @Override
+  public void write(final String s) throws IOException {
+    write(s, 0, s.length());
+  }
+
+  /**
+   * Write a portion of a string.
+   *
+   * @param s
+   *          String to be written
+   * @param start
+   *          Offset from which to start writing characters
+   * @param length
+   *          Number of characters to write
+   *
+   * @throws IOException
+   *              If an I/O error occurs
+   */
+  @Override
+  public void write(final String s, int start, int length) throws IOException {
+    final byte[] buf_loc = m_outputBytes; // local reference for faster access
+    final char highChar = m_highChar;
+    boolean afterHighSurrogate = m_afterHighSurrogate;
+    while (length > 0) {
+      if (count >= BYTES_MAX) {
+        flushBuffer();
+      }
+      int count_loc = count; // local integer for faster access
+      final int n = start + Math.min(length, BYTES_MAX - count_loc);
+      for (int i = start; i < n; i++) {
+        final char c = s.charAt(i);
+        if (c <= highChar) {
+          buf_loc[count_loc++] = (byte) c;
+          afterHighSurrogate = false;
+        } else {
+          if (!afterHighSurrogate || !Character.isLowSurrogate(c)) {
+            buf_loc[count_loc++] = (byte) '?';
+          }
+          afterHighSurrogate = Character.isHighSurrogate(c);
+        }
+      }
+      length -= n - start;
+      start = n;
+      count = count_loc;
+    }
+    m_afterHighSurrogate = afterHighSurrogate;
+  }
+
+  /**
+   * Returns the highest character of the encoding.
+   * 
+   * @return 0xFF for ISO-8859-1 and 0x7F for US-ASCII
+   */
+  char getHighChar() {
+    return m_highChar;
+  }
+
+  /**
+   * Write to another output stream, re-using the buffer of this writer. Bytes
+   * that have not been written to the previous output stream are discarded.
+   * 
+   * @param out
+   *          the new output stream, or null to release the previous one
+   */
+  void setOutputStream(OutputStream out) {
+    m_os = out;
+    count = 0;
+    m_afterHighSurrogate = false;
+  }
+
+  /**
+   * Flush the internal buffer
+   *
+   * @throws IOException
+   */
+  public void flushBuffer() throws IOException {
+    if (count > 0) {
+      m_os.write(m_outputBytes, 0, count);
+      count = 0;
+    }
+  }
+
+  /**
+   * Flush the stream, writing the internal buffer first.
+   *
+   * @throws IOException
+   *              If an I/O error occurs
+   */
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    m_os.flush();
+  }
+
+  /**
+   * Close the stream, flushing it first.
+   *
+   * @throws IOException
+   *              If an I/O error occurs
+   */
+  @Override
+  public void close() throws IOException {
+    flushBuffer();
+    m_os.close();
+  }
+
+  /**
+   * Get the output stream where the events will be serialized to.
+   *
+   * @return reference to the result stream, or null of only a writer was set.
+   */
+  @Override
+  public OutputStream getOutputStream() {
+    return m_os;
+  }
+
+  @Override
+  public Writer getWriter() {
+    // This type of writer wraps an OutputStream, not a Writer.
+    return null;
+  }
+}
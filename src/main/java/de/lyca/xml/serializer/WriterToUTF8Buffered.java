@@ -47,9 +47,10 @@ final class WriterToUTF8Buffered extends Writer implements WriterChain {
   // private static final int
 
   /**
-   * The byte stream to write to. (sc & sb remove final to compile in JDK 1.1.8)
+   * The byte stream to write to. It changes when the writer is re-used for
+   * another output stream.
    */
-  private final OutputStream m_os;
+  private OutputStream m_os;
 
   /**
    * The internal buffer where data is stored. (sc & sb remove final to compile
@@ -417,6 +418,18 @@ final class WriterToUTF8Buffered extends Writer implements WriterChain {
 
   }
 
+  /**
+   * Write to another output stream, re-using the buffers of this writer. Bytes
+   * that have not been written to the previous output stream are discarded.
+   * 
+   * @param out
+   *          the new output stream, or null to release the previous one
+   */
+  void setOutputStream(OutputStream out) {
+    m_os = out;
+    count = 0;
+  }
+
   /**
    * Flush the internal buffer
    * 
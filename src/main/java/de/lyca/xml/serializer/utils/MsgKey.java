@@ -103,5 +103,8 @@ public class MsgKey {
   public static final String ER_NULL_LOCAL_ELEMENT_NAME = "ER_NULL_LOCAL_ELEMENT_NAME";
   public static final String ER_NULL_LOCAL_ATTR_NAME = "ER_NULL_LOCAL_ATTR_NAME";
   public static final String ER_WRITING_INTERNAL_SUBSET = "ER_WRITING_INTERNAL_SUBSET";
+  public static final String ER_BUFFERS_OVERFLOW = "ER_BUFFERS_OVERFLOW";
+  public static final String ER_COMPRESSION_NOT_SUPPORTED = "ER_COMPRESSION_NOT_SUPPORTED";
+  public static final String ER_CHANNEL_NOT_BLOCKING = "ER_CHANNEL_NOT_BLOCKING";
 
 }
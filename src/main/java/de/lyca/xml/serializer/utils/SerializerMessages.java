@@ -222,7 +222,14 @@ public class SerializerMessages extends ListResourceBundle {
             { MsgKey.ER_ATTR_UNBOUND_PREFIX_IN_ENTREF,
                     "The replacement text of the entity node \"{0}\" contains an attribute node \"{1}\" with an unbound prefix \"{2}\"." },
 
-            { MsgKey.ER_WRITING_INTERNAL_SUBSET, "An error occured while writing the internal subset." }, };
+            { MsgKey.ER_WRITING_INTERNAL_SUBSET, "An error occured while writing the internal subset." },
+
+            { MsgKey.ER_BUFFERS_OVERFLOW, "The output does not fit into the {0} bytes of the given buffers." },
+
+            { MsgKey.ER_COMPRESSION_NOT_SUPPORTED,
+                    "The compression \"{0}\" is not supported, use \"gzip\", \"deflate\" or \"none\"." },
+
+            { MsgKey.ER_CHANNEL_NOT_BLOCKING, "The channel to write the output to is not in blocking mode." }, };
 
     return contents;
   }
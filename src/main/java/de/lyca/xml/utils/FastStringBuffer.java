@@ -21,6 +21,8 @@ import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
 import org.xml.sax.ext.LexicalHandler;
 
+import de.lyca.xml.serializer.ExtendedContentHandler;
+
 /**
  * Bare-bones, unsafe, fast string buffer. No thread-safety, no parameter range checking, exposed fields. Note that in
  * typical applications, thread-safety of a StringBuffer is a somewhat dubious concept in any case.
@@ -893,6 +895,56 @@ public class FastStringBuffer {
     }
   }
 
+  /**
+   * Sends the specified range of characters to a serializer straight from the chunks of this buffer, as one or more
+   * pieces of a single text. Unlike {@link #sendSAXcharacters(ContentHandler, int, int)}, the serializer is told which
+   * pieces are continued, so it can join a surrogate pair that is split between two chunks. The same warning about
+   * editing the buffer applies.
+   * 
+   * @param ch serializer to receive the pieces.
+   * @param start Offset of first character in the range.
+   * @param length Number of characters to send.
+   * @throws SAXException may be thrown by the serializer's characters() method.
+   */
+  public void sendCharacters(ExtendedContentHandler ch, int start, int length) throws SAXException {
+    sendCharacters(ch, start, length, false);
+  }
+
+  /**
+   * Sends the specified range of characters to a serializer, passing <code>more</code> with the last piece.
+   */
+  private void sendCharacters(ExtendedContentHandler ch, int start, int length, boolean more) throws SAXException {
+    final int startChunk = start >>> m_chunkBits;
+    int startColumn = start & m_chunkMask;
+    if (startColumn + length < m_chunkMask && m_innerFSB == null) {
+      ch.characters(m_array[startChunk], startColumn, length, more);
+      return;
+    }
+
+    final int stop = start + length;
+    final int stopChunk = stop >>> m_chunkBits;
+    final int stopColumn = stop & m_chunkMask;
+
+    for (int i = startChunk; i < stopChunk; ++i) {
+      // The text goes on unless it ends with this chunk
+      final boolean next = more || i + 1 < stopChunk || stopColumn > 0;
+      if (i == 0 && m_innerFSB != null) {
+        m_innerFSB.sendCharacters(ch, startColumn, m_chunkSize - startColumn, next);
+      } else {
+        ch.characters(m_array[i], startColumn, m_chunkSize - startColumn, next);
+      }
+
+      startColumn = 0; // after first chunk
+    }
+
+    // Last, or only, chunk
+    if (stopChunk == 0 && m_innerFSB != null) {
+      m_innerFSB.sendCharacters(ch, startColumn, stopColumn - startColumn, more);
+    } else if (stopColumn > startColumn) {
+      ch.characters(m_array[stopChunk], startColumn, stopColumn - startColumn, more);
+    }
+  }
+
   /**
    * Sends the specified range of characters as one or more SAX characters() events, normalizing the characters
    * according to XSLT rules.
@@ -17,41 +17,80 @@
  */
 package de.lyca.xml.utils;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.FactoryConfigurationError;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.SAXException;
 import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 import org.xml.sax.helpers.XMLReaderFactory;
 
 /**
  * Creates XMLReader objects and caches them for re-use. This class follows the
  * singleton pattern.
+ * <p>
+ * Idle readers are kept in a fixed number of slots that are taken and refilled
+ * with atomic operations, so neither acquiring nor releasing a reader blocks.
+ * A thread starts looking for a reader at a slot derived from its id, so a
+ * thread that parses repeatedly usually gets back the reader it released.
+ * Nothing is bound to the thread itself, which keeps the pool usable from
+ * short-lived threads. Readers are configured once when they are created and
+ * only have their handlers reset when they are released. Readers for secure
+ * processing are created by a parser factory with that feature set, and are
+ * pooled separately. If all slots are taken, a released reader is dropped.
  */
 public class XMLReaderManager {
 
   private static final String NAMESPACES_FEATURE = "http://xml.org/sax/features/namespaces";
   private static final String NAMESPACE_PREFIXES_FEATURE = "http://xml.org/sax/features/namespace-prefixes";
-  private static final XMLReaderManager m_singletonManager = new XMLReaderManager();
+  private static final String LEXICAL_HANDLER_PROPERTY = "http://xml.org/sax/properties/lexical-handler";
+
+  /**
+   * Number of idle readers kept per configuration: the smallest power of two
+   * not less than twice the number of processors, and at least 8.
+   */
+  static final int POOL_SIZE = Integer.highestOneBit(Math.max(8,
+      Runtime.getRuntime().availableProcessors() * 2) - 1) << 1;
+
+  /**
+   * Handler installed on idle readers that do not accept null handlers, so
+   * that they do not keep the handlers of their last use alive.
+   */
+  private static final DefaultHandler DEFAULT_HANDLER = new DefaultHandler();
 
   /**
    * Parser factory to be used to construct XMLReader objects
    */
-  private static SAXParserFactory m_parserFactory;
+  private static volatile SAXParserFactory m_parserFactory;
+
+  /**
+   * Parser factory to be used to construct XMLReader objects that enforce the
+   * limits of secure processing
+   */
+  private static volatile SAXParserFactory m_secureParserFactory;
+
+  private static final XMLReaderManager m_singletonManager = new XMLReaderManager();
+
+  /**
+   * Idle readers
+   */
+  private final AtomicReferenceArray<XMLReader> m_readers = new AtomicReferenceArray<>(POOL_SIZE);
 
   /**
-   * Cache of XMLReader objects
+   * Idle readers configured for secure processing
    */
-  private ThreadLocal<XMLReader> m_readers;
+  private final AtomicReferenceArray<XMLReader> m_secureReaders = new AtomicReferenceArray<>(POOL_SIZE);
 
   /**
-   * Keeps track of whether an XMLReader object is in use.
+   * Readers created by this manager that are currently in use, mapped to the
+   * pool they are returned to.
    */
-  private Map<XMLReader, Boolean> m_inUse;
+  private final ConcurrentHashMap<XMLReader, AtomicReferenceArray<XMLReader>> m_inUse = new ConcurrentHashMap<>();
 
   /**
    * Hidden constructor
@@ -67,29 +106,85 @@ public class XMLReaderManager {
   }
 
   /**
-   * Retrieves a cached XMLReader for this thread, or creates a new XMLReader,
-   * if the existing reader is in use. When the caller no longer needs the
-   * reader, it must release it with a call to {@link #releaseXMLReader}.
+   * Retrieves a cached XMLReader, or creates a new XMLReader if no cached
+   * reader is available. When the caller no longer needs the reader, it must
+   * release it with a call to {@link #releaseXMLReader}.
    */
-  public synchronized XMLReader getXMLReader() throws SAXException {
-    XMLReader reader;
+  public XMLReader getXMLReader() throws SAXException {
+    return getXMLReader(false);
+  }
 
-    if (m_readers == null) {
-      // When the m_readers.get() method is called for the first time
-      // on a thread, a new XMLReader will automatically be created.
-      m_readers = new ThreadLocal<XMLReader>();
+  /**
+   * Retrieves a cached XMLReader, or creates a new XMLReader if no cached
+   * reader is available. When the caller no longer needs the reader, it must
+   * release it with a call to {@link #releaseXMLReader}.
+   * 
+   * @param secureProcessing
+   *          true if the reader must enforce the limits of secure processing
+   */
+  public XMLReader getXMLReader(boolean secureProcessing) throws SAXException {
+    final AtomicReferenceArray<XMLReader> pool = secureProcessing ? m_secureReaders : m_readers;
+    final int start = (int) Thread.currentThread().getId();
+    XMLReader reader = null;
+    for (int i = 0; i < POOL_SIZE && reader == null; i++) {
+      final int slot = start + i & POOL_SIZE - 1;
+      if (pool.get(slot) != null) {
+        reader = pool.getAndSet(slot, null);
+      }
+    }
+    if (reader == null) {
+      reader = createXMLReader(secureProcessing);
     }
+    m_inUse.put(reader, pool);
+    return reader;
+  }
 
-    if (m_inUse == null) {
-      m_inUse = new HashMap<>();
+  /**
+   * Mark the XMLReader as available. If the reader was not created by this
+   * manager, do nothing.
+   * 
+   * @param reader
+   *          The XMLReader that's being released.
+   */
+  public void releaseXMLReader(XMLReader reader) {
+    if (reader == null)
+      return;
+    final AtomicReferenceArray<XMLReader> pool = m_inUse.remove(reader);
+    if (pool == null)
+      return;
+
+    // Put the handlers back into the state of a new reader, so that callers
+    // checking for a missing handler behave alike on new and reused readers.
+    try {
+      reader.setContentHandler(null);
+      reader.setDTDHandler(null);
+      reader.setErrorHandler(null);
+      reader.setEntityResolver(null);
+    } catch (final NullPointerException e) {
+      // The reader does not accept null handlers
+      reader.setContentHandler(DEFAULT_HANDLER);
+      reader.setDTDHandler(DEFAULT_HANDLER);
+      reader.setErrorHandler(DEFAULT_HANDLER);
+      reader.setEntityResolver(DEFAULT_HANDLER);
+    }
+    try {
+      reader.setProperty(LEXICAL_HANDLER_PROPERTY, null);
+    } catch (final SAXException e) {
+      // The reader does not support lexical handlers
     }
 
-    // If the cached reader for this thread is in use, construct a new
-    // one; otherwise, return the cached reader.
-    reader = m_readers.get();
-    final boolean threadHasReader = reader != null;
-    if (!threadHasReader || m_inUse.get(reader) == Boolean.TRUE) {
-      try {
+    final int start = (int) Thread.currentThread().getId();
+    for (int i = 0; i < POOL_SIZE; i++) {
+      final int slot = start + i & POOL_SIZE - 1;
+      if (pool.get(slot) == null && pool.compareAndSet(slot, null, reader))
+        return;
+    }
+  }
+
+  private static XMLReader createXMLReader(boolean secureProcessing) throws SAXException {
+    XMLReader reader = null;
+    try {
+      if (!secureProcessing) {
         try {
           // According to JAXP 1.2 specification, if a SAXSource
           // is created using a SAX InputSource the Transformer or
@@ -97,59 +192,48 @@ public class XMLReaderManager {
           // XMLReaderFactory if setXMLReader is not used
           reader = XMLReaderFactory.createXMLReader();
         } catch (final Exception e) {
-          try {
-            // If unable to create an instance, let's try to use
-            // the XMLReader from JAXP
-            if (m_parserFactory == null) {
-              m_parserFactory = SAXParserFactory.newInstance();
-              m_parserFactory.setNamespaceAware(true);
-            }
-
-            reader = m_parserFactory.newSAXParser().getXMLReader();
-          } catch (final ParserConfigurationException pce) {
-            throw pce; // pass along pce
-          }
+          // If unable to create an instance, let's try to use
+          // the XMLReader from JAXP
         }
-        try {
-          reader.setFeature(NAMESPACES_FEATURE, true);
-          reader.setFeature(NAMESPACE_PREFIXES_FEATURE, false);
-        } catch (final SAXException se) {
-          // Try to carry on if we've got a parser that
-          // doesn't know about namespace prefixes.
+      }
+      if (reader == null) {
+        final SAXParserFactory factory = getParserFactory(secureProcessing);
+        synchronized (factory) {
+          reader = factory.newSAXParser().getXMLReader();
         }
-      } catch (final ParserConfigurationException ex) {
-        throw new SAXException(ex);
-      } catch (final FactoryConfigurationError ex1) {
-        throw new SAXException(ex1.toString());
-      } catch (final NoSuchMethodError ex2) {
-      } catch (final AbstractMethodError ame) {
       }
-
-      // Cache the XMLReader if this is the first time we've created
-      // a reader for this thread.
-      if (!threadHasReader) {
-        m_readers.set(reader);
-        m_inUse.put(reader, Boolean.TRUE);
+      try {
+        reader.setFeature(NAMESPACES_FEATURE, true);
+        reader.setFeature(NAMESPACE_PREFIXES_FEATURE, false);
+      } catch (final SAXException se) {
+        // Try to carry on if we've got a parser that
+        // doesn't know about namespace prefixes.
       }
-    } else {
-      m_inUse.put(reader, Boolean.TRUE);
+    } catch (final ParserConfigurationException ex) {
+      throw new SAXException(ex);
+    } catch (final FactoryConfigurationError ex1) {
+      throw new SAXException(ex1.toString());
+    } catch (final NoSuchMethodError ex2) {
+    } catch (final AbstractMethodError ame) {
     }
-
     return reader;
   }
 
-  /**
-   * Mark the cached XMLReader as available. If the reader was not actually in
-   * the cache, do nothing.
-   * 
-   * @param reader
-   *          The XMLReader that's being released.
-   */
-  public synchronized void releaseXMLReader(XMLReader reader) {
-    // If the reader that's being released is the cached reader
-    // for this thread, remove it from the m_isUse list.
-    if (m_readers.get() == reader && reader != null) {
-      m_inUse.remove(reader);
+  private static SAXParserFactory getParserFactory(boolean secureProcessing) {
+    SAXParserFactory factory = secureProcessing ? m_secureParserFactory : m_parserFactory;
+    if (factory == null) {
+      factory = SAXParserFactory.newInstance();
+      factory.setNamespaceAware(true);
+      if (secureProcessing) {
+        try {
+          factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (final Exception e) {
+        }
+        m_secureParserFactory = factory;
+      } else {
+        m_parserFactory = factory;
+      }
     }
+    return factory;
   }
 }
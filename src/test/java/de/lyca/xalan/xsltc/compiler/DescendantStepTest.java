@@ -0,0 +1,80 @@
+package de.lyca.xalan.xsltc.compiler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import de.lyca.xalan.xsltc.trax.TransformerFactoryImpl;
+
+/**
+ * Checks that '//E/rlp' is parsed as '/descendant::E/rlp' if E is a child step
+ * without predicates, and that the rewritten paths select the same nodes.
+ */
+public class DescendantStepTest {
+
+  private static final Pattern STEP = Pattern.compile("step\\(\"([a-z-]+)\"");
+
+  @Test
+  public void childStepBecomesDescendantStep() {
+    assertEquals("[descendant]", axes("//a"));
+    assertEquals("[descendant, child]", axes("//a/b"));
+    assertEquals("[descendant, attribute]", axes("//a/@x"));
+    assertEquals("[descendant, child, descendant]", axes("//a/b//c"));
+    assertEquals("[child, descendant]", axes("x//a"));
+  }
+
+  @Test
+  public void otherStepsAreKept() {
+    assertEquals("[descendant-or-self, child]", axes("//a[1]"));
+    assertEquals("[descendant-or-self, attribute]", axes("//@x"));
+    assertEquals("[descendant-or-self, parent]", axes("//.."));
+  }
+
+  @Test
+  public void rewrittenPathsSelectSameNodes() throws Exception {
+    final String input = "<r><a x='1'><a><b/></a><b><c/></b></a><a><b/></a></r>";
+    assertEquals("3", evaluate("count(//a)", input));
+    assertEquals("3", evaluate("count(//a/b)", input));
+    assertEquals("1", evaluate("count(//a/@x)", input));
+    assertEquals("1", evaluate("count(//a/b//c)", input));
+    assertEquals("2", evaluate("count(//a[1])", input));
+    assertEquals("3", evaluate("count(//a/b[1])", input));
+  }
+
+  /**
+   * Returns the axes of the steps of a parsed path.
+   */
+  private static String axes(String path) {
+    final XSLTC xsltc = new XSLTC();
+    xsltc.init();
+    final Matcher matcher = STEP.matcher(xsltc.getParser().parseExpression(null, path).toString());
+    final List<String> axes = new ArrayList<>();
+    while (matcher.find()) {
+      axes.add(matcher.group(1));
+    }
+    return axes.toString();
+  }
+
+  private static String evaluate(String expression, String input) throws Exception {
+    final String stylesheet = "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+        + "<xsl:template match='/'><xsl:value-of select='" + expression + "'/></xsl:template></xsl:stylesheet>";
+    final Transformer transformer = new TransformerFactoryImpl().newTransformer(new StreamSource(new StringReader(
+        stylesheet)));
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    final StringWriter out = new StringWriter();
+    transformer.transform(new StreamSource(new StringReader(input)), new StreamResult(out));
+    return out.toString();
+  }
+}
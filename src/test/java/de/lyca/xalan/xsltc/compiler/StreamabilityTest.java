@@ -0,0 +1,125 @@
+package de.lyca.xalan.xsltc.compiler;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import de.lyca.xalan.xsltc.compiler.util.Messages;
+import de.lyca.xalan.xsltc.trax.TransformerFactoryImpl;
+import de.lyca.xslt.RecordingErrorListener;
+
+/**
+ * Checks the verdicts of the streamability analysis, as reported through the
+ * warnings of the check-streamability TransformerFactory attribute.
+ */
+public class StreamabilityTest {
+
+  private static final String STYLESHEET_ID = "file:/streamability.xsl";
+
+  private static final String NOT_STREAMABLE = Messages.get().streamingStylesheetErr();
+
+  @Test
+  public void downwardTemplatesAreStreamable() throws Exception {
+    final List<String> warnings = compile("<xsl:template match='/'><out><xsl:apply-templates/></out></xsl:template>"
+        + "<xsl:template match='a'><xsl:value-of select='@x'/><xsl:if test='ancestor::b'>b</xsl:if>"
+        + "<xsl:apply-templates select='descendant::c'/></xsl:template>");
+    assertFalse(warnings.toString(), contains(warnings, NOT_STREAMABLE));
+  }
+
+  @Test
+  public void siblingAxisIsNotStreamable() throws Exception {
+    final List<String> warnings = compile(
+        "<xsl:template match='a'><xsl:apply-templates select='following-sibling::b'/></xsl:template>");
+    assertTrue(warnings.toString(), contains(warnings, Messages.get().streamingAxisErr("following-sibling")));
+    assertTrue(warnings.toString(), contains(warnings, Messages.get().streamingModeErr("#default")));
+    assertTrue(warnings.toString(), contains(warnings, NOT_STREAMABLE));
+  }
+
+  @Test
+  public void sortIsNotStreamable() throws Exception {
+    final List<String> warnings = compile(
+        "<xsl:template match='a'><xsl:apply-templates><xsl:sort select='@k'/></xsl:apply-templates></xsl:template>");
+    assertTrue(warnings.toString(), contains(warnings, Messages.get().streamingSortErr()));
+  }
+
+  @Test
+  public void lastAndKeyAreNotStreamable() throws Exception {
+    final List<String> warnings = compile("<xsl:key name='k' match='a' use='@id'/>"
+        + "<xsl:template match='a'><xsl:value-of select='last()'/><xsl:value-of select='count(key(\"k\", @ref))'/>"
+        + "</xsl:template>");
+    assertTrue(warnings.toString(), contains(warnings, Messages.get().streamingFunctionErr("last")));
+    assertTrue(warnings.toString(), contains(warnings, Messages.get().streamingFunctionErr("key")));
+  }
+
+  @Test
+  public void consumingTwiceIsNotStreamable() throws Exception {
+    final List<String> warnings = compile(
+        "<xsl:template match='a'><xsl:value-of select='.'/><xsl:apply-templates/></xsl:template>");
+    assertTrue(warnings.toString(), contains(warnings, Messages.get().streamingMultiConsumeErr()));
+  }
+
+  @Test
+  public void nodeVariableIsNotStreamable() throws Exception {
+    final List<String> warnings = compile(
+        "<xsl:template match='a'><xsl:variable name='v' select='child::b'/><xsl:copy-of select='$v'/></xsl:template>");
+    assertTrue(warnings.toString(), contains(warnings, Messages.get().streamingVariableErr()));
+  }
+
+  @Test
+  public void violationsAreReportedPerMode() throws Exception {
+    final List<String> warnings = compile("<xsl:template match='/'><xsl:apply-templates mode='m'/></xsl:template>"
+        + "<xsl:template match='a' mode='m'><xsl:apply-templates select='preceding::b'/></xsl:template>");
+    assertTrue(warnings.toString(), contains(warnings, Messages.get().streamingModeErr("m")));
+    assertFalse(warnings.toString(), contains(warnings, Messages.get().streamingModeErr("#default")));
+  }
+
+  @Test
+  public void absolutePathsAreNotStreamable() throws Exception {
+    final List<String> warnings = compile(
+        "<xsl:template match='a'><xsl:value-of select='count(//b)'/><xsl:apply-templates select='/c'/></xsl:template>");
+    assertTrue(warnings.toString(), contains(warnings, Messages.get().streamingAbsolutePathErr()));
+    assertTrue(warnings.toString(), contains(warnings, NOT_STREAMABLE));
+  }
+
+  @Test
+  public void documentIsNotStreamable() throws Exception {
+    final List<String> warnings = compile(
+        "<xsl:template match='/'><xsl:copy-of select='document(\"other.xml\")'/></xsl:template>");
+    assertTrue(warnings.toString(), contains(warnings, Messages.get().streamingFunctionErr("document")));
+    assertTrue(warnings.toString(), contains(warnings, NOT_STREAMABLE));
+  }
+
+  private static List<String> compile(String templates) throws TransformerException {
+    final TransformerFactoryImpl factory = new TransformerFactoryImpl();
+    factory.setAttribute(TransformerFactoryImpl.CHECK_STREAMABILITY, Boolean.TRUE);
+    final RecordingErrorListener listener = new RecordingErrorListener();
+    factory.setErrorListener(listener);
+    final Templates compiled = factory.newTemplates(new StreamSource(new StringReader(
+        "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>" + templates
+            + "</xsl:stylesheet>"), STYLESHEET_ID));
+    assertNotNull(listener.getErrors().toString(), compiled);
+    final List<String> warnings = new ArrayList<>();
+    for (final TransformerException warning : listener.getWarnings()) {
+      warnings.add(warning.getMessage());
+    }
+    return warnings;
+  }
+
+  private static boolean contains(List<String> warnings, String message) {
+    for (final String warning : warnings) {
+      if (warning.contains(message))
+        return true;
+    }
+    return false;
+  }
+}
@@ -0,0 +1,143 @@
+package de.lyca.xalan.xsltc.dom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.lyca.xalan.xsltc.DOM;
+
+/**
+ * Checks that the DocumentCache loads every document once, evicts the least
+ * recently used documents, replaces modified documents and keeps evicted
+ * documents registered while transformations use them.
+ */
+public class DocumentCacheTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private XSLTCDTMManager manager;
+
+  @Before
+  public void createManager() {
+    manager = XSLTCDTMManager.newInstance();
+  }
+
+  @Test
+  public void concurrentRequestsLoadOnce() throws Exception {
+    final DocumentCache cache = new DocumentCache(4, Long.MAX_VALUE, manager, new DirectExecutor());
+    final String uri = document("a.xml", "<a>a</a>");
+    final int threads = 8;
+    final CountDownLatch start = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<DOM>> results = new ArrayList<>();
+      for (int i = 0; i < threads; ++i) {
+        results.add(executor.submit(new Callable<DOM>() {
+          @Override
+          public DOM call() throws Exception {
+            start.await();
+            return cache.retrieveDocument(null, uri, null);
+          }
+        }));
+      }
+      start.countDown();
+      final DOM dom = results.get(0).get();
+      for (final Future<DOM> result : results) {
+        assertSame(dom, result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    final DocumentCache.Statistics statistics = cache.getStatistics();
+    assertEquals(1, statistics.getLoadCount());
+    assertEquals(1, statistics.getMissCount());
+    assertEquals(threads - 1, statistics.getHitCount());
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() throws Exception {
+    final DocumentCache cache = new DocumentCache(2, Long.MAX_VALUE, manager, new DirectExecutor());
+    final String a = document("a.xml", "<a/>");
+    final String b = document("b.xml", "<b/>");
+    final String c = document("c.xml", "<c/>");
+    cache.retrieveDocument(null, a, null);
+    cache.retrieveDocument(null, b, null);
+    cache.retrieveDocument(null, a, null);
+    cache.retrieveDocument(null, c, null);
+
+    final DocumentCache.Statistics statistics = cache.getStatistics();
+    assertEquals(1, statistics.getEvictionCount());
+    final List<DocumentCache.CachedDocument> documents = statistics.getDocuments();
+    assertEquals(2, documents.size());
+    assertEquals(c, documents.get(0).getURI());
+    assertEquals(a, documents.get(1).getURI());
+  }
+
+  @Test
+  public void reloadsModifiedDocument() throws Exception {
+    final DocumentCache cache = new DocumentCache(4, Long.MAX_VALUE, manager, new DirectExecutor());
+    final String uri = document("a.xml", "<a>old</a>");
+    final DOM old = cache.retrieveDocument(null, uri, null);
+    assertEquals("old", old.getStringValue());
+
+    final File file = new File(folder.getRoot(), "a.xml");
+    final long lastModified = file.lastModified();
+    Files.write(file.toPath(), "<a>new</a>".getBytes(StandardCharsets.UTF_8));
+    file.setLastModified(lastModified + 10000);
+    cache.getStatistics().getDocuments().get(0).setLastChecked(0);
+
+    // The access that finds the entry stale still gets the cached document
+    // unless the revalidation runs on the calling thread, as it does here
+    cache.retrieveDocument(null, uri, null);
+    final DOM fresh = cache.retrieveDocument(null, uri, null);
+    assertNotSame(old, fresh);
+    assertEquals("new", fresh.getStringValue());
+    assertEquals(1, cache.getStatistics().getReloadCount());
+  }
+
+  @Test
+  public void keepsEvictedDocumentInUse() throws Exception {
+    final DocumentCache cache = new DocumentCache(1, Long.MAX_VALUE, manager, new DirectExecutor());
+    final SAXImpl a = (SAXImpl) cache.retrieveDocument(null, document("a.xml", "<a/>"), null);
+    a.migrateTo(XSLTCDTMManager.newInstance());
+
+    cache.retrieveDocument(null, document("b.xml", "<b/>"), null);
+    assertEquals(1, cache.getStatistics().getEvictionCount());
+    assertSame(a, manager.getDTM(a.getDocument()));
+
+    a.migrateTo(null);
+    cache.retrieveDocument(null, document("c.xml", "<c/>"), null);
+    assertNotSame(a, manager.getDTM(a.getDocument()));
+  }
+
+  private String document(String name, String content) throws Exception {
+    final File file = folder.newFile(name);
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return file.toURI().toString();
+  }
+
+  private static final class DirectExecutor implements Executor {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package de.lyca.xalan.xsltc.dom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.lyca.xalan.xsltc.trax.TransformerFactoryImpl;
+
+/**
+ * Checks that the documents loaded concurrently by document() keep the order
+ * of their URIs, also when a document needs more than one DTM ID, has to be
+ * loaded again or the transformation is interrupted.
+ */
+public class DocumentPrefetchTest {
+
+  private static final String STYLESHEET = "<xsl:stylesheet version='1.0' "
+      + "xmlns:xsl='http://www.w3.org/1999/XSL/Transform'><xsl:template match='/'>"
+      + "<xsl:for-each select='document(//f/@href)'><xsl:value-of select='name(*)'/></xsl:for-each>"
+      + "</xsl:template></xsl:stylesheet>";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void keepsOrderOfURIs() throws Exception {
+    assertEquals("ecadb", transform(files("e", "c", "a", "d", "b")));
+  }
+
+  @Test
+  public void largeDocumentsKeepDocumentOrder() throws Exception {
+    // a and c need three DTM IDs each, which they take while being parsed
+    final String input = "<files><f href='" + file("a", 140000) + "'/><f href='" + file("b", 1)
+        + "'/><f href='" + file("c", 140000) + "'/></files>";
+    final Transformer transformer = new TransformerFactoryImpl().newTransformer(new StreamSource(new StringReader(
+        "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+            + "<xsl:template match='/'><xsl:for-each select='document(//f/@href)/*/*[last()]'>"
+            + "<xsl:value-of select='name(..)'/></xsl:for-each></xsl:template></xsl:stylesheet>"),
+        new File(folder.getRoot(), "files.xsl").toURI().toString()));
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    for (int i = 0; i < 3; i++) {
+      assertEquals("abc", transform(transformer, input));
+    }
+  }
+
+  @Test
+  public void reloadsFailedDocumentInPlace() throws Exception {
+    final AtomicInteger requests = new AtomicInteger();
+    final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        // The first request fails
+        if (requests.getAndIncrement() == 0) {
+          exchange.sendResponseHeaders(404, -1);
+        } else {
+          final byte[] content = "<x/>".getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, content.length);
+          try (OutputStream out = exchange.getResponseBody()) {
+            out.write(content);
+          }
+        }
+        exchange.close();
+      }
+    });
+    server.start();
+    try {
+      final String flaky = "http://127.0.0.1:" + server.getAddress().getPort() + "/x.xml";
+      final String input = files("c", "a").replace("</files>", "<f href='" + flaky + "'/></files>")
+          .replace("<files>", "<files><f href='" + file("b") + "'/>");
+      assertEquals("bcax", transform(input));
+      assertEquals(2, requests.get());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void reportsMissingDocument() throws Exception {
+    final String input = files("a", "b").replace("</files>", "<f href='"
+        + new File(folder.getRoot(), "missing.xml").toURI() + "'/></files>");
+    try {
+      transform(input);
+      fail();
+    } catch (final TransformerException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void loadsAfterInterrupt() throws Exception {
+    final String input = files("c", "a", "b");
+    final Transformer transformer = newTransformer();
+    Thread.currentThread().interrupt();
+    try {
+      assertEquals("cab", transform(transformer, input));
+    } finally {
+      assertTrue(Thread.interrupted());
+    }
+  }
+
+  /**
+   * Returns an input document referring to a document for each name, whose
+   * root element has that name.
+   */
+  private String files(String... names) throws Exception {
+    final StringBuilder input = new StringBuilder("<files>");
+    for (final String name : names) {
+      input.append("<f href='").append(file(name)).append("'/>");
+    }
+    return input.append("</files>").toString();
+  }
+
+  private String file(String name) throws Exception {
+    // Documents of different sizes finish parsing in a different order
+    return file(name, (name.charAt(0) - 'a') * 1000);
+  }
+
+  private String file(String name, int children) throws Exception {
+    final File file = folder.newFile(name + ".xml");
+    final StringBuilder content = new StringBuilder("<").append(name).append('>');
+    for (int i = 0; i < children; i++) {
+      content.append("<i/>");
+    }
+    Files.write(file.toPath(), content.append("</").append(name).append('>').toString()
+        .getBytes(StandardCharsets.UTF_8));
+    return file.toURI().toString();
+  }
+
+  private String transform(String input) throws Exception {
+    return transform(newTransformer(), input);
+  }
+
+  private Transformer newTransformer() throws Exception {
+    final Transformer transformer = new TransformerFactoryImpl().newTransformer(new StreamSource(new StringReader(
+        STYLESHEET), new File(folder.getRoot(), "files.xsl").toURI().toString()));
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    return transformer;
+  }
+
+  private static String transform(Transformer transformer, String input) throws Exception {
+    final StringWriter out = new StringWriter();
+    transformer.transform(new StreamSource(new StringReader(input)), new StreamResult(out));
+    return out.toString();
+  }
+}
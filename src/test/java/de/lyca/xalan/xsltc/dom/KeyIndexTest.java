@@ -0,0 +1,106 @@
+package de.lyca.xalan.xsltc.dom;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.lyca.xalan.xsltc.trax.SharedXSLTCSource;
+import de.lyca.xalan.xsltc.trax.TransformerFactoryImpl;
+
+/**
+ * Checks that the index of a key is built for a document on the first lookup
+ * of the key in that document, and that the index of a shared document is
+ * reused by later transformations. The key values are computed by an
+ * extension function that counts its calls.
+ */
+public class KeyIndexTest {
+
+  private static final AtomicInteger USES = new AtomicInteger();
+
+  private static final String INPUT = "<doc><item id='i1'>a</item><item id='i2'>b</item><item id='i3'>c</item></doc>";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * The use expression of the key.
+   */
+  public static String use(String id) {
+    USES.incrementAndGet();
+    return id;
+  }
+
+  @Before
+  public void resetUses() {
+    USES.set(0);
+  }
+
+  @Test
+  public void unusedKeyIsNotIndexed() throws Exception {
+    final Templates templates = templates("<xsl:value-of select='count(//item)'/>");
+    assertEquals("3", transform(templates, new StreamSource(new StringReader(INPUT))));
+    assertEquals(0, USES.get());
+  }
+
+  @Test
+  public void indexPerDocument() throws Exception {
+    final File other = folder.newFile("other.xml");
+    Files.write(other.toPath(), "<doc><item id='j1'>x</item><item id='j2'>y</item></doc>"
+        .getBytes(StandardCharsets.UTF_8));
+    final Templates templates = templates("<xsl:value-of select='key(\"k\", \"i2\")'/>"
+        + "<xsl:for-each select='document(\"other.xml\")'>"
+        + "<xsl:value-of select='key(\"k\", \"j2\")'/><xsl:value-of select='count(key(\"k\", \"i2\"))'/>"
+        + "</xsl:for-each><xsl:value-of select='count(key(\"k\", \"j2\"))'/>");
+    assertEquals("by00", transform(templates, new StreamSource(new StringReader(INPUT))));
+    assertEquals(5, USES.get());
+  }
+
+  @Test
+  public void sharedDocumentKeepsIndex() throws Exception {
+    final Templates templates = templates("<xsl:value-of select='key(\"k\", \"i3\")'/>");
+    final SharedXSLTCSource shared = new SharedXSLTCSource(new StreamSource(new StringReader(INPUT)));
+    assertEquals("c", transform(templates, shared));
+    assertEquals(3, USES.get());
+    assertEquals("c", transform(templates, shared));
+    assertEquals(3, USES.get());
+  }
+
+  /**
+   * Compiles a stylesheet in the temporary folder, so that documents in that
+   * folder can be loaded by relative URIs.
+   */
+  private Templates templates(String body) throws Exception {
+    final String stylesheet = "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform' "
+        + "xmlns:java='http://xml.apache.org/xslt/java'>"
+        + "<xsl:key name='k' match='item' use='java:de.lyca.xalan.xsltc.dom.KeyIndexTest.use(string(@id))'/>"
+        + "<xsl:template match='/'>" + body + "</xsl:template></xsl:stylesheet>";
+    return new TransformerFactoryImpl().newTemplates(new StreamSource(new StringReader(stylesheet), new File(
+        folder.getRoot(), "keys.xsl").toURI().toString()));
+  }
+
+  private static String transform(Templates templates, Source source) throws Exception {
+    final Transformer transformer = templates.newTransformer();
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    final StringWriter out = new StringWriter();
+    transformer.transform(source, new StreamResult(out));
+    return out.toString();
+  }
+
+}
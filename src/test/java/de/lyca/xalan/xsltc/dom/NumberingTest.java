@@ -0,0 +1,105 @@
+package de.lyca.xalan.xsltc.dom;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import de.lyca.xalan.xsltc.trax.TransformerFactoryImpl;
+
+/**
+ * Checks that xsl:number gives the same numbers when the nodes are numbered
+ * in document order, where the counters continue from the last node, and in
+ * reverse document order, where every number is counted from scratch as the
+ * counters always did before.
+ */
+public class NumberingTest {
+
+  private static final String INPUT = input();
+
+  @Test
+  public void levelAny() throws Exception {
+    assertEquals("3=1;5=2;7=3;8=1;9=4;", number("//a | //b", "<xsl:number level='any'/>").substring(0, 20));
+    assertSameNumbers("//a | //b", "<xsl:number level='any'/>");
+    assertSameNumbers("//*", "<xsl:number level='any'/>");
+  }
+
+  @Test
+  public void levelAnyWithPatterns() throws Exception {
+    assertSameNumbers("//a | //b", "<xsl:number level='any' count='a|b'/>");
+    assertSameNumbers("//a", "<xsl:number level='any' count='a' from='sec'/>");
+    assertSameNumbers("//*", "<xsl:number level='any' count='a' from='sec[@id mod 2 = 0]'/>");
+  }
+
+  @Test
+  public void levelMultiple() throws Exception {
+    assertEquals("3=1.1;5=1.2.1;7=1.2.2.1;", number("//a", "<xsl:number level='multiple' count='sec|a'/>")
+        .substring(0, 24));
+    assertSameNumbers("//a", "<xsl:number level='multiple'/>");
+    assertSameNumbers("//*", "<xsl:number level='multiple'/>");
+    assertSameNumbers("//a | //b", "<xsl:number level='multiple' count='sec|a'/>");
+    assertSameNumbers("//*", "<xsl:number level='multiple' count='sec|a|b' from='sec[2]' format='1.a'/>");
+  }
+
+  /**
+   * Builds nested sections of a and b elements, each with a unique id in
+   * document order.
+   */
+  private static String input() {
+    final StringBuilder input = new StringBuilder();
+    final int[] id = { 1 };
+    input.append("<doc id='").append(id[0]++).append("'>");
+    section(input, id, 3);
+    return input.append("</doc>").toString();
+  }
+
+  private static void section(StringBuilder input, int[] id, int depth) {
+    for (int i = 0; i < 3; i++) {
+      input.append("<sec id='").append(id[0]++).append("'>");
+      input.append("<a id='").append(id[0]++).append("'/>");
+      if (depth > 1) {
+        section(input, id, depth - 1);
+      }
+      input.append("<b id='").append(id[0]++).append("'/><a id='").append(id[0]++).append("'/>");
+      input.append("</sec>");
+    }
+  }
+
+  private static void assertSameNumbers(String select, String number) throws Exception {
+    final String[] forward = number(select, number).split(";");
+    final String[] backward = number(select, number, "<xsl:sort select='@id' data-type='number' "
+        + "order='descending'/>").split(";");
+    Arrays.sort(forward);
+    Arrays.sort(backward);
+    assertEquals(Arrays.toString(backward), Arrays.toString(forward));
+  }
+
+  private static String number(String select, String number) throws Exception {
+    return number(select, number, "");
+  }
+
+  /**
+   * Numbers the selected nodes in the order of the given sort and returns
+   * the id and number of each node.
+   */
+  private static String number(String select, String number, String sort) throws Exception {
+    final String stylesheet = "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+        + "<xsl:template match='/'><xsl:for-each select='" + select + "'>" + sort
+        + "<xsl:value-of select='@id'/>=" + number + ";</xsl:for-each></xsl:template></xsl:stylesheet>";
+    final Transformer transformer = new TransformerFactoryImpl().newTransformer(new StreamSource(new StringReader(
+        stylesheet)));
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    final StringWriter out = new StringWriter();
+    transformer.transform(new StreamSource(new StringReader(INPUT)), new StreamResult(out));
+    return out.toString();
+  }
+
+}
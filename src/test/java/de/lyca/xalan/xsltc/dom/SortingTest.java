@@ -0,0 +1,176 @@
+package de.lyca.xalan.xsltc.dom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import de.lyca.xalan.xsltc.trax.TransformerFactoryImpl;
+
+/**
+ * Checks xsl:sort with several keys, descending order and case-order, for
+ * lists that are sorted sequentially, in parallel and in runs spilled to a
+ * temporary file.
+ */
+public class SortingTest {
+
+  private static final String INPUT = "<doc><e g='b' n='10'/><e g='a' n='2'/><e g='B' n='x'/><e g='b' n='1'/>"
+      + "<e g='A' n='2'/><e g='a' n='1'/></doc>";
+
+  @Test
+  public void numericAscendingAndDescending() throws Exception {
+    assertEquals("x,1,1,2,2,10,", sort(INPUT, "<xsl:sort select='@n' data-type='number'/>"));
+    assertEquals("10,2,2,1,1,x,", sort(INPUT, "<xsl:sort select='@n' data-type='number' order='descending'/>"));
+  }
+
+  @Test
+  public void multipleKeys() throws Exception {
+    assertEquals("a1,a2,A2,Bx,b1,b10,", sort(INPUT, "<xsl:sort select='translate(@g, \"AB\", \"ab\")'/>"
+        + "<xsl:sort select='@n' data-type='number'/>", "concat(@g, @n)"));
+    assertEquals("b10,b1,Bx,a2,A2,a1,", sort(INPUT, "<xsl:sort select='translate(@g, \"AB\", \"ab\")' "
+        + "order='descending'/><xsl:sort select='@n' data-type='number' order='descending'/>", "concat(@g, @n)"));
+  }
+
+  @Test
+  public void caseOrder() throws Exception {
+    assertEquals("A2,a2,a1,Bx,b10,b1,", sort(INPUT, "<xsl:sort select='@g' case-order='upper-first'/>",
+        "concat(@g, @n)"));
+    assertEquals("a2,a1,A2,b10,b1,Bx,", sort(INPUT, "<xsl:sort select='@g' case-order='lower-first'/>",
+        "concat(@g, @n)"));
+    assertEquals("A2,a1,a2,Bx,b1,b10,", sort(INPUT, "<xsl:sort select='@g' case-order='upper-first' "
+        + "lang='en'/><xsl:sort select='@n' data-type='number'/>", "concat(@g, @n)"));
+  }
+
+  @Test
+  public void parallelSortKeepsOrder() throws Exception {
+    final int size = NodeSortKeys.PARALLEL_THRESHOLD + 1000;
+    final StringBuilder input = new StringBuilder("<doc>");
+    final List<int[]> expected = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      final int g = i * 7 % 13;
+      final int n = i * 31 % 101;
+      input.append("<e g='").append((char) ('a' + g)).append("' n='").append(n).append("'/>");
+      expected.add(new int[] { g, n, i });
+    }
+    input.append("</doc>");
+    Collections.sort(expected, new Comparator<int[]>() {
+      @Override
+      public int compare(int[] a, int[] b) {
+        if (a[0] != b[0])
+          return b[0] - a[0];
+        if (a[1] != b[1])
+          return a[1] - b[1];
+        return a[2] - b[2];
+      }
+    });
+    final StringBuilder result = new StringBuilder();
+    for (final int[] e : expected) {
+      result.append((char) ('a' + e[0])).append(e[1]).append(',');
+    }
+    assertEquals(result.toString(), sort(input.toString(), "<xsl:sort select='@g' order='descending'/>"
+        + "<xsl:sort select='@n' data-type='number'/>", "concat(@g, @n)"));
+  }
+
+  @Test
+  public void spilledSortKeepsOrder() throws Exception {
+    final String input = largeInput();
+    final String sorts = "<xsl:sort select='@g'/><xsl:sort select='@n' data-type='number' order='descending'/>";
+    final String expected = sort(input, sorts, "concat(@g, @n)");
+    System.setProperty(NodeSortRuns.MEMORY_LIMIT_PROPERTY, "100000");
+    try {
+      assertEquals(expected, sort(input, sorts, "concat(@g, @n)"));
+    } finally {
+      System.clearProperty(NodeSortRuns.MEMORY_LIMIT_PROPERTY);
+    }
+  }
+
+  @Test
+  public void abandonedSpillIsDeleted() throws Exception {
+    final String stylesheet = "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+        + "<xsl:template match='/doc'><xsl:for-each select='e'><xsl:sort select='@g'/>"
+        + "<xsl:if test='position() = 2'><xsl:message terminate='yes'>stop</xsl:message></xsl:if>"
+        + "</xsl:for-each></xsl:template></xsl:stylesheet>";
+    final Transformer transformer = new TransformerFactoryImpl().newTransformer(new StreamSource(new StringReader(
+        stylesheet)));
+    final List<File> spills = new ArrayList<>();
+    transformer.setErrorListener(new ErrorListener() {
+      @Override
+      public void warning(TransformerException exception) {
+        // The sorted nodes are being read while the message is shown
+        Collections.addAll(spills, new File(System.getProperty("java.io.tmpdir")).listFiles(new FilenameFilter() {
+          @Override
+          public boolean accept(File dir, String name) {
+            return name.startsWith("xsltc") && name.endsWith(".sort");
+          }
+        }));
+      }
+
+      @Override
+      public void error(TransformerException exception) {
+      }
+
+      @Override
+      public void fatalError(TransformerException exception) {
+      }
+    });
+    System.setProperty(NodeSortRuns.MEMORY_LIMIT_PROPERTY, "100000");
+    try {
+      transformer.transform(new StreamSource(new StringReader(largeInput())), new StreamResult(new StringWriter()));
+      fail("Transformation not terminated");
+    } catch (final TransformerException e) {
+      // expected
+    } finally {
+      System.clearProperty(NodeSortRuns.MEMORY_LIMIT_PROPERTY);
+    }
+    assertFalse(spills.isEmpty());
+    for (final File spill : spills) {
+      assertFalse(spill.getPath(), spill.exists());
+    }
+  }
+
+  private static String largeInput() {
+    final StringBuilder input = new StringBuilder("<doc>");
+    for (int i = 0; i < 20000; i++) {
+      input.append("<e g='g").append(i * 7 % 1009).append("' n='").append(i * 31 % 101).append("'/>");
+    }
+    return input.append("</doc>").toString();
+  }
+
+  private static String sort(String input, String sorts) throws Exception {
+    return sort(input, sorts, "@n");
+  }
+
+  /**
+   * Sorts the elements of the input and returns the given value of each
+   * element in sorted order, separated by commas.
+   */
+  private static String sort(String input, String sorts, String value) throws Exception {
+    final String stylesheet = "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+        + "<xsl:template match='/doc'><xsl:for-each select='e'>" + sorts + "<xsl:value-of select='" + value
+        + "'/>,</xsl:for-each></xsl:template></xsl:stylesheet>";
+    final Transformer transformer = new TransformerFactoryImpl().newTransformer(new StreamSource(new StringReader(
+        stylesheet)));
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    final StringWriter out = new StringWriter();
+    transformer.transform(new StreamSource(new StringReader(input)), new StreamResult(out));
+    return out.toString();
+  }
+
+}
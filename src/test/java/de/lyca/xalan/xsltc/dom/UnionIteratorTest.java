@@ -0,0 +1,189 @@
+package de.lyca.xalan.xsltc.dom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import de.lyca.xalan.xsltc.DOM;
+import de.lyca.xalan.xsltc.util.IntegerArray;
+import de.lyca.xml.dtm.DTMAxisIterator;
+
+/**
+ * Checks that unions and duplicate filters put dense and sparse node-sets into
+ * document order without duplicates, and that mark, reset and clone work on
+ * the collected nodes.
+ */
+public class UnionIteratorTest {
+
+  private static final DOM DOM = (SAXImpl) XSLTCDTMManager.newInstance().getDTM(
+      new StreamSource(new StringReader("<doc/>")), false, null, true, false);
+
+  private final Random random = new Random(4711);
+
+  @Test
+  public void unionsOfDenseNodeSets() {
+    for (int count = 2; count <= 5; count++) {
+      checkUnion(randomNodeSets(count, 2000, 3));
+    }
+  }
+
+  @Test
+  public void unionsOfSparseNodeSets() {
+    for (int count = 2; count <= 5; count++) {
+      checkUnion(randomNodeSets(count, 1 << 20, 5000));
+    }
+  }
+
+  @Test
+  public void unionOfIdenticalNodeSets() {
+    final int[] nodes = randomNodeSets(1, 1000, 2)[0];
+    checkUnion(new int[][] { nodes, nodes, nodes, nodes });
+  }
+
+  @Test
+  public void unionOfEmptyNodeSets() {
+    checkUnion(new int[][] { {}, {}, {} });
+    checkUnion(new int[][] { {}, { 7, 9 }, {} });
+  }
+
+  @Test
+  public void markResetAndCloneOfWideUnion() {
+    final int[][] nodeSets = randomNodeSets(4, 2000, 3);
+    final int[] expected = distinct(nodeSets);
+    assertTrue(NodeBitmap.isDense(expected.length, expected[0], expected[expected.length - 1]));
+    final DTMAxisIterator union = union(nodeSets);
+    union.setStartNode(0);
+    checkMarkResetAndClone(union, expected);
+  }
+
+  @Test
+  public void duplicateFilter() {
+    final int[] dense = shuffledWithDuplicates(randomNodeSets(1, 2000, 3)[0]);
+    final int[] sparse = shuffledWithDuplicates(randomNodeSets(1, 1 << 20, 5000)[0]);
+    for (final int[] nodes : new int[][] { dense, sparse }) {
+      final DTMAxisIterator filter = new DupFilterIterator(new ArrayNodeListIterator(nodes));
+      filter.setStartNode(0);
+      checkMarkResetAndClone(filter, distinct(new int[][] { nodes }));
+    }
+  }
+
+  @Test
+  public void drainClearsBits() {
+    final BitArray bits = new BitArray(200);
+    final int[] set = { 0, 31, 32, 33, 95, 150, 199 };
+    for (final int bit : set) {
+      bits.setBit(bit);
+    }
+    final IntegerArray positions = new IntegerArray();
+    bits.drainTo(positions, 1000);
+    final int[] expected = new int[set.length];
+    for (int i = 0; i < set.length; i++) {
+      expected[i] = set[i] + 1000;
+    }
+    assertArrayEquals(expected, positions.toIntArray());
+
+    positions.clear();
+    bits.drainTo(positions, 0);
+    assertEquals(0, positions.cardinality());
+    bits.setBit(64);
+    bits.drainTo(positions, 0);
+    assertArrayEquals(new int[] { 64 }, positions.toIntArray());
+  }
+
+  private static void checkUnion(int[][] nodeSets) {
+    final DTMAxisIterator union = union(nodeSets);
+    union.setStartNode(0);
+    assertArrayEquals(distinct(nodeSets), read(union));
+  }
+
+  /**
+   * Reads part of an iterator, marks it, and checks that the rest can be read
+   * again after gotoMark(), the whole node-set after reset(), and from a clone.
+   */
+  private static void checkMarkResetAndClone(DTMAxisIterator iterator, int[] expected) {
+    final int marked = expected.length / 3;
+    for (int i = 0; i < marked; i++) {
+      assertEquals(expected[i], iterator.next());
+    }
+    iterator.setMark();
+    final int[] rest = Arrays.copyOfRange(expected, marked, expected.length);
+    assertArrayEquals(rest, read(iterator));
+    iterator.gotoMark();
+    assertArrayEquals(rest, read(iterator));
+
+    iterator.reset();
+    assertEquals(expected[0], iterator.next());
+    final DTMAxisIterator clone = iterator.cloneIterator();
+    assertArrayEquals(expected, read(clone));
+    assertArrayEquals(Arrays.copyOfRange(expected, 1, expected.length), read(iterator));
+  }
+
+  private static DTMAxisIterator union(int[][] nodeSets) {
+    final UnionIterator union = new UnionIterator(DOM);
+    for (final int[] nodes : nodeSets) {
+      union.addIterator(new ArrayNodeListIterator(nodes));
+    }
+    return union;
+  }
+
+  /**
+   * Returns node-sets in document order, each holding about one node in
+   * <code>spacing</code> of the given range.
+   */
+  private int[][] randomNodeSets(int count, int range, int spacing) {
+    final int[][] nodeSets = new int[count][];
+    for (int i = 0; i < count; i++) {
+      final IntegerArray nodes = new IntegerArray();
+      for (int node = random.nextInt(spacing); node < range; node += 1 + random.nextInt(2 * spacing)) {
+        nodes.add(node);
+      }
+      nodeSets[i] = nodes.toIntArray();
+    }
+    return nodeSets;
+  }
+
+  private int[] shuffledWithDuplicates(int[] nodes) {
+    final int[] shuffled = Arrays.copyOf(nodes, nodes.length * 2);
+    System.arraycopy(nodes, 0, shuffled, nodes.length, nodes.length);
+    for (int i = shuffled.length - 1; i > 0; i--) {
+      final int j = random.nextInt(i + 1);
+      final int node = shuffled[i];
+      shuffled[i] = shuffled[j];
+      shuffled[j] = node;
+    }
+    return shuffled;
+  }
+
+  private static int[] distinct(int[][] nodeSets) {
+    final TreeSet<Integer> nodes = new TreeSet<>();
+    for (final int[] nodeSet : nodeSets) {
+      for (final int node : nodeSet) {
+        nodes.add(node);
+      }
+    }
+    final int[] result = new int[nodes.size()];
+    int i = 0;
+    for (final int node : nodes) {
+      result[i++] = node;
+    }
+    return result;
+  }
+
+  private static int[] read(DTMAxisIterator iterator) {
+    final IntegerArray nodes = new IntegerArray();
+    int node;
+    while ((node = iterator.next()) != DTMAxisIterator.END) {
+      nodes.add(node);
+    }
+    return nodes.toIntArray();
+  }
+}
@@ -0,0 +1,70 @@
+package de.lyca.xalan.xsltc.runtime;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import de.lyca.xalan.xsltc.trax.TransformerFactoryImpl;
+
+/**
+ * Checks comparisons between node-sets, and between a node-set and a number,
+ * against the results XPath 1.0 defines for them.
+ */
+public class NodeSetComparisonTest {
+
+  private static final String INPUT = "<doc><a>1</a><a>2</a><a>3</a><b>3</b><b>4</b><c>5</c><c>5</c>"
+      + "<d>x</d><d>2</d></doc>";
+
+  @Test
+  public void nodeSetEquality() throws Exception {
+    assertResults("a = b", true, "a = c", false, "d = a", true, "a = none", false, "a != b", true,
+        "c != c", false, "c != b", true, "a != none", false, "none != none", false);
+  }
+
+  @Test
+  public void nodeSetRelations() throws Exception {
+    assertResults("a < b", true, "b < a", false, "b <= a", true, "a > c", false, "c > a", true,
+        "a >= b", true, "d < a", true, "d > a", true, "d >= c", false, "none < a", false, "a > none", false);
+  }
+
+  @Test
+  public void nodeSetAndNumber() throws Exception {
+    assertResults("a = 2", true, "c = 4", false, "a != 2", true, "c != 5", false, "a < 1", false,
+        "a <= 1", true, "a > 3", false, "a >= 3", true, "2 > a", true, "4 < a", false, "d = 2", true,
+        "d > 1", true, "d < 3", true, "d > 2", false, "none = 0", false, "none != 0", false);
+  }
+
+  /**
+   * Evaluates each expression in the context of the document element and
+   * compares the result with the boolean that follows it.
+   */
+  private static void assertResults(Object... expressionsAndResults) throws Exception {
+    final StringBuilder stylesheet = new StringBuilder();
+    final StringBuilder expected = new StringBuilder();
+    stylesheet.append("<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>")
+        .append("<xsl:template match='/doc'>");
+    for (int i = 0; i < expressionsAndResults.length; i += 2) {
+      final String expression = (String) expressionsAndResults[i];
+      stylesheet.append(expression.replace("<", "&lt;")).append(":<xsl:value-of select='")
+          .append(expression.replace("<", "&lt;")).append("'/>;");
+      expected.append(expression).append(':').append(expressionsAndResults[i + 1]).append(';');
+    }
+    stylesheet.append("</xsl:template></xsl:stylesheet>");
+
+    final Transformer transformer = new TransformerFactoryImpl().newTransformer(new StreamSource(new StringReader(
+        stylesheet.toString())));
+    transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    final StringWriter out = new StringWriter();
+    transformer.transform(new StreamSource(new StringReader(INPUT)), new StreamResult(out));
+    assertEquals(expected.toString(), out.toString().replace("&lt;", "<").replace("&gt;", ">"));
+  }
+
+}
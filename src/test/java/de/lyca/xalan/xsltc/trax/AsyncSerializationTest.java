@@ -0,0 +1,148 @@
+package de.lyca.xalan.xsltc.trax;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+/**
+ * Checks that serializing on a thread of its own gives the same output as
+ * serializing on the transforming thread, and that the exceptions of the
+ * serializer fail the transformation.
+ */
+public class AsyncSerializationTest {
+
+  private static final String STYLESHEET = "<xsl:stylesheet version='1.0' "
+      + "xmlns:xsl='http://www.w3.org/1999/XSL/Transform' xmlns:p='urn:p'>"
+      + "<xsl:output cdata-section-elements='c' indent='yes'/>"
+      + "<xsl:template match='/'><p:out xmlns:q='urn:q'><xsl:apply-templates select='//i'/></p:out></xsl:template>"
+      + "<xsl:template match='i'><item n='{.}' q:a='&lt;&quot;' xmlns:q='urn:q2'>"
+      + "<xsl:comment> <xsl:value-of select='.'/> </xsl:comment><?pi data?>"
+      + "<c>cdata &amp; <xsl:value-of select='.'/></c>caf\u00E9 &amp; \u4E2D \uD83D\uDE00 "
+      + "<xsl:value-of select='\"&lt;raw/&gt;\"' disable-output-escaping='yes'/>"
+      + "<xsl:copy-of select='.'/></item></xsl:template></xsl:stylesheet>";
+
+  @Test
+  public void sameBytesAsDirectSerialization() throws Exception {
+    for (final String method : new String[] { "xml", "html", "text" }) {
+      for (final String encoding : new String[] { "UTF-8", "ISO-8859-1", "US-ASCII" }) {
+        // The text method reports each character that is not in the encoding
+        // on System.err, so it gets only a few items
+        final int items = "text".equals(method) ? 3 : 5000;
+        final ByteArrayOutputStream direct = new ByteArrayOutputStream();
+        transform(templates(false), method, encoding, input(items), new StreamResult(direct));
+        final ByteArrayOutputStream async = new ByteArrayOutputStream();
+        transform(templates(true), method, encoding, input(items), new StreamResult(async));
+        assertArrayEquals(method + " " + encoding, direct.toByteArray(), async.toByteArray());
+      }
+    }
+  }
+
+  @Test
+  public void outputStreamExceptionFailsTransformation() throws Exception {
+    final Transformer transformer = templates(true).newTransformer();
+    try {
+      transformer.transform(input(), new StreamResult(new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          throw new IOException("disk full");
+        }
+      }));
+      fail();
+    } catch (final TransformerException e) {
+      assertTrue(messages(e), messages(e).contains("disk full"));
+    }
+    // The serializer thread has been stopped after the failure, and the
+    // transformer can be used again
+    final StringWriter out = new StringWriter();
+    transformer.transform(input(), new StreamResult(out));
+    assertTrue(out.toString().endsWith("</p:out>" + System.getProperty("line.separator")));
+  }
+
+  @Test
+  public void writerExceptionFailsTransformation() throws Exception {
+    final Templates templates = templates(true);
+    // More failures than the pool has threads
+    for (int i = 0; i < Runtime.getRuntime().availableProcessors() + 2; i++) {
+      try {
+        templates.newTransformer().transform(input(), new StreamResult(new Writer() {
+          @Override
+          public void write(char[] cbuf, int off, int len) throws IOException {
+            throw new IOException("closed");
+          }
+
+          @Override
+          public void flush() {
+          }
+
+          @Override
+          public void close() {
+          }
+        }));
+        fail();
+      } catch (final TransformerException e) {
+        assertTrue(messages(e), messages(e).contains("closed"));
+      }
+    }
+    final ByteArrayOutputStream direct = new ByteArrayOutputStream();
+    transform(templates(false), "xml", "UTF-8", input(), new StreamResult(direct));
+    final ByteArrayOutputStream async = new ByteArrayOutputStream();
+    transform(templates, "xml", "UTF-8", input(), new StreamResult(async));
+    assertEquals(direct.toString("UTF-8"), async.toString("UTF-8"));
+  }
+
+  private static Templates templates(boolean async) throws TransformerException {
+    final TransformerFactoryImpl factory = new TransformerFactoryImpl();
+    factory.setAttribute(TransformerFactoryImpl.ASYNC_SERIALIZATION, async);
+    return factory.newTemplates(new StreamSource(new StringReader(STYLESHEET)));
+  }
+
+  private static void transform(Templates templates, String method, String encoding, Source input, Result result)
+      throws TransformerException {
+    final Transformer transformer = templates.newTransformer();
+    transformer.setOutputProperty(OutputKeys.METHOD, method);
+    transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
+    transformer.transform(input, result);
+  }
+
+  private static StreamSource input() {
+    return input(5000);
+  }
+
+  private static StreamSource input(int items) {
+    final StringBuilder input = new StringBuilder("<doc>");
+    for (int i = 0; i < items; i++) {
+      input.append("<i>").append(i).append("</i>");
+    }
+    return new StreamSource(new StringReader(input.append("</doc>").toString()));
+  }
+
+  /**
+   * Returns the messages of an exception and of its causes.
+   */
+  private static String messages(Throwable e) {
+    final StringBuilder messages = new StringBuilder();
+    for (; e != null; e = e.getCause() == e ? null : e.getCause()) {
+      messages.append(e.getMessage()).append('\n');
+    }
+    return messages.toString();
+  }
+}
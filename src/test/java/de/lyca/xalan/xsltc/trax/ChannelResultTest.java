@@ -0,0 +1,118 @@
+package de.lyca.xalan.xsltc.trax;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.Arrays;
+
+import javax.xml.transform.Result;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+/**
+ * Checks that a ChannelResult gets the same output as a StreamResult, and that
+ * channels in non-blocking mode are refused.
+ */
+public class ChannelResultTest {
+
+  private static final String STYLESHEET = "<xsl:stylesheet version='1.0' "
+      + "xmlns:xsl='http://www.w3.org/1999/XSL/Transform'><xsl:template match='/'>"
+      + "<out><xsl:for-each select='//i'><item n='{.}'>caf\u00E9 &amp; \u4E2D</item></xsl:for-each></out>"
+      + "</xsl:template></xsl:stylesheet>";
+
+  private static final Templates TEMPLATES = templates();
+
+  @Test
+  public void channelGetsStreamOutput() throws Exception {
+    final ByteArrayOutputStream target = new ByteArrayOutputStream();
+    transform(new ChannelResult(Channels.newChannel(target)));
+    assertArrayEquals(streamOutput(), target.toByteArray());
+  }
+
+  @Test
+  public void buffersGetStreamOutput() throws Exception {
+    final byte[] expected = streamOutput();
+    final ByteBuffer first = ByteBuffer.allocate(1000);
+    final ByteBuffer second = ByteBuffer.allocate(expected.length);
+    transform(new ChannelResult(first, second));
+    final byte[] actual = Arrays.copyOf(first.array(), expected.length);
+    System.arraycopy(second.array(), 0, actual, 1000, expected.length - 1000);
+    assertArrayEquals(expected, actual);
+    assertEquals(expected.length - 1000, second.position());
+  }
+
+  @Test
+  public void bufferOverflowFailsTransformation() throws Exception {
+    try {
+      transform(new ChannelResult(ByteBuffer.allocate(100)));
+      fail();
+    } catch (final TransformerException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void refusesNonBlockingChannel() throws IOException {
+    final Pipe pipe = Pipe.open();
+    try {
+      pipe.sink().configureBlocking(false);
+      new ChannelResult(pipe.sink());
+      fail();
+    } catch (final IllegalArgumentException e) {
+      // expected
+    } finally {
+      pipe.sink().close();
+      pipe.source().close();
+    }
+  }
+
+  @Test
+  public void refusesChannelSwitchedToNonBlocking() throws Exception {
+    final Pipe pipe = Pipe.open();
+    try {
+      final ChannelResult result = new ChannelResult(pipe.sink());
+      pipe.sink().configureBlocking(false);
+      transform(result);
+      fail();
+    } catch (final TransformerException e) {
+      // expected
+    } finally {
+      pipe.sink().close();
+      pipe.source().close();
+    }
+  }
+
+  private static byte[] streamOutput() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    transform(new StreamResult(out));
+    return out.toByteArray();
+  }
+
+  private static void transform(Result result) throws TransformerException {
+    final StringBuilder input = new StringBuilder("<doc>");
+    for (int i = 0; i < 20000; i++) {
+      input.append("<i>").append(i).append("</i>");
+    }
+    TEMPLATES.newTransformer().transform(new StreamSource(new StringReader(input.append("</doc>").toString())),
+        result);
+  }
+
+  private static Templates templates() {
+    try {
+      return new TransformerFactoryImpl().newTemplates(new StreamSource(new StringReader(STYLESHEET)));
+    } catch (final TransformerException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package de.lyca.xalan.xsltc.trax;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+/**
+ * Checks that the output of a stylesheet with the xalan:compression attribute
+ * of xsl:output inflates to the output without it, for every run of a
+ * re-used Transformer.
+ */
+public class CompressedOutputTest {
+
+  @Test
+  public void gzipRoundTrip() throws Exception {
+    roundTrip("gzip", "xml");
+    roundTrip("gzip", "html");
+  }
+
+  @Test
+  public void deflateRoundTrip() throws Exception {
+    roundTrip("deflate", "xml");
+    roundTrip("deflate", "html");
+  }
+
+  private static void roundTrip(String compression, String method) throws Exception {
+    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    templates("none", method).newTransformer().transform(input(), new StreamResult(expected));
+    final Transformer transformer = templates(compression, method).newTransformer();
+    for (int i = 0; i < 2; i++) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      transformer.transform(input(), new StreamResult(out));
+      final InputStream in = new ByteArrayInputStream(out.toByteArray());
+      final byte[] inflated = readAll("gzip".equals(compression) ? new GZIPInputStream(in)
+          : new InflaterInputStream(in));
+      assertEquals(compression + ' ' + method, expected.toString("UTF-8"), new String(inflated, "UTF-8"));
+    }
+  }
+
+  private static Templates templates(String compression, String method) throws TransformerException {
+    final String stylesheet = "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform' "
+        + "xmlns:xalan='http://xml.apache.org/xalan'>"
+        + "<xsl:output method='" + method + "' encoding='UTF-8' xalan:compression='" + compression + "'/>"
+        + "<xsl:template match='/'><html><body><xsl:for-each select='//i'>"
+        + "<p title='{.}'>caf\u00E9 &amp; \u4E2D <xsl:value-of select='.'/></p>"
+        + "</xsl:for-each></body></html></xsl:template></xsl:stylesheet>";
+    return new TransformerFactoryImpl().newTemplates(new StreamSource(new StringReader(stylesheet)));
+  }
+
+  private static StreamSource input() {
+    final StringBuilder input = new StringBuilder("<doc>");
+    for (int i = 0; i < 10000; i++) {
+      input.append("<i>").append(i).append("</i>");
+    }
+    return new StreamSource(new StringReader(input.append("</doc>").toString()));
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+    for (int n; (n = in.read(buffer)) > 0;) {
+      out.write(buffer, 0, n);
+    }
+    in.close();
+    return out.toByteArray();
+  }
+}
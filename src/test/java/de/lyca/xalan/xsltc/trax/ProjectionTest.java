@@ -0,0 +1,186 @@
+package de.lyca.xalan.xsltc.trax;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import de.lyca.xalan.xsltc.dom.DOMProjectionFilter;
+import de.lyca.xalan.xsltc.dom.XSLTCDTMManager;
+import de.lyca.xalan.xsltc.runtime.AbstractTranslet;
+import de.lyca.xml.dtm.DTM;
+
+/**
+ * Checks that input documents are projected onto the attributes and elements a
+ * stylesheet names, and that stylesheets which can reach other nodes see all of
+ * them.
+ */
+public class ProjectionTest {
+
+  private static final String INPUT = "<doc><e a='1' b='2' xml:lang='en'/></doc>";
+
+  private static final String ITEMS = "<doc><header><title>T</title></header>text<items>"
+      + "<item><name>a<b>x</b></name><note>n</note></item><item><name>c</name></item></items></doc>";
+
+  @Test
+  public void unusedAttributeIsProjectedOut() throws Exception {
+    final TransformerImpl transformer = newTransformer("<xsl:template match='e'><xsl:value-of select='@a'/>"
+        + "</xsl:template>");
+    final AbstractTranslet translet = transformer.getTranslet();
+    assertTrue(translet.isProjectable());
+
+    final DOMProjectionFilter filter = new DOMProjectionFilter(translet);
+    assertTrue(filter.getShouldKeepAttribute("", "a"));
+    assertFalse(filter.getShouldKeepAttribute("", "b"));
+    assertTrue(filter.getShouldKeepAttribute("http://www.w3.org/XML/1998/namespace", "lang"));
+
+    final XSLTCDTMManager manager = XSLTCDTMManager.newInstance();
+    manager.setProjectionFilter(filter);
+    final DTM dtm = manager.getDTM(new StreamSource(new StringReader(INPUT)), false, null, true, false);
+    final int e = dtm.getFirstChild(dtm.getFirstChild(dtm.getDocument()));
+    final List<String> names = new ArrayList<>();
+    for (int attr = dtm.getFirstAttribute(e); attr != DTM.NULL; attr = dtm.getNextAttribute(attr)) {
+      names.add(dtm.getNodeName(attr));
+    }
+    assertEquals("[a, xml:lang]", names.toString());
+
+    assertEquals("1", transform(transformer));
+  }
+
+  @Test
+  public void attributeWildcardKeepsAllAttributes() throws Exception {
+    final TransformerImpl transformer = newTransformer("<xsl:template match='e'><xsl:for-each select='@*'>"
+        + "<xsl:value-of select='.'/></xsl:for-each></xsl:template>");
+    assertFalse(transformer.getTranslet().isProjectable());
+    assertEquals("12en", transform(transformer));
+  }
+
+  @Test
+  public void nodesetKeepsAllAttributes() throws Exception {
+    final TransformerImpl transformer = newTransformer("<xsl:template match='e'><xsl:variable name='v'>"
+        + "<xsl:copy><xsl:attribute name='c'>3</xsl:attribute></xsl:copy></xsl:variable>"
+        + "<xsl:value-of select='exsl:node-set($v)/e/@c'/><xsl:value-of select='@b'/></xsl:template>");
+    assertFalse(transformer.getTranslet().isProjectable());
+    assertEquals("32", transform(transformer));
+  }
+
+  @Test
+  public void unusedElementIsProjectedOut() throws Exception {
+    final TransformerImpl transformer = newTransformer("<xsl:template match='/'>"
+        + "<xsl:for-each select='doc/items/item'><xsl:value-of select='name'/>;</xsl:for-each></xsl:template>");
+    final AbstractTranslet translet = transformer.getTranslet();
+    assertTrue(translet.isElementProjectable());
+    assertTrue(translet.isTextProjectable());
+
+    final DOMProjectionFilter filter = new DOMProjectionFilter(translet);
+    assertTrue(filter.getShouldKeepElement("", "item"));
+    assertFalse(filter.getShouldKeepElement("", "header"));
+    assertTrue(filter.getShouldKeepSubtree("", "name"));
+    assertFalse(filter.getShouldKeepSubtree("", "item"));
+    assertFalse(filter.getShouldKeepText());
+
+    final XSLTCDTMManager manager = XSLTCDTMManager.newInstance();
+    manager.setProjectionFilter(filter);
+    final DTM dtm = manager.getDTM(new StreamSource(new StringReader(ITEMS)), false, null, true, false);
+    final int doc = dtm.getFirstChild(dtm.getDocument());
+    assertEquals("doc(items(item(name(#text b(#text ) ) ) item(name(#text ) ) ) )", tree(dtm, doc));
+
+    assertEquals("ax;c;", transform(transformer, ITEMS));
+  }
+
+  @Test
+  public void textStepKeepsText() throws Exception {
+    final TransformerImpl transformer = newTransformer("<xsl:template match='/'>"
+        + "<xsl:value-of select='count(doc/text())'/><xsl:value-of select='count(doc/items/item/note)'/>"
+        + "</xsl:template>");
+    final AbstractTranslet translet = transformer.getTranslet();
+    assertTrue(translet.isElementProjectable());
+    assertFalse(translet.isTextProjectable());
+    assertEquals("11", transform(transformer, ITEMS));
+  }
+
+  @Test
+  public void descendantStepKeepsAllElements() throws Exception {
+    final TransformerImpl transformer = newTransformer("<xsl:template match='/'>"
+        + "<xsl:for-each select='//item'><xsl:value-of select='name'/>;</xsl:for-each></xsl:template>");
+    assertFalse(transformer.getTranslet().isElementProjectable());
+    assertEquals("ax;c;", transform(transformer, ITEMS));
+  }
+
+  @Test
+  public void contextValueKeepsAllElements() throws Exception {
+    final TransformerImpl transformer = newTransformer("<xsl:template match='/'>"
+        + "<xsl:for-each select='doc/items/item'><xsl:value-of select='.'/>;</xsl:for-each></xsl:template>");
+    assertFalse(transformer.getTranslet().isElementProjectable());
+    assertEquals("axn;c;", transform(transformer, ITEMS));
+  }
+
+  @Test
+  public void builtInRulesKeepAllElements() throws Exception {
+    final TransformerImpl transformer = newTransformer("<xsl:template match='name'>"
+        + "<xsl:value-of select='.'/>;</xsl:template>");
+    assertFalse(transformer.getTranslet().isElementProjectable());
+    assertEquals("ax;c;", transform(transformer, ITEMS));
+  }
+
+  @Test
+  public void stringValueKeepsSubtree() throws Exception {
+    final TransformerImpl transformer = newTransformer("<xsl:template match='/'>"
+        + "<xsl:value-of select='doc/header'/><xsl:value-of select='count(doc/items/item[name])'/></xsl:template>");
+    final AbstractTranslet translet = transformer.getTranslet();
+    assertTrue(translet.isElementProjectable());
+
+    final DOMProjectionFilter filter = new DOMProjectionFilter(translet);
+    assertTrue(filter.getShouldKeepSubtree("", "header"));
+    assertFalse(filter.getShouldKeepSubtree("", "name"));
+    assertEquals("T2", transform(transformer, ITEMS));
+  }
+
+  @Test
+  public void appliedModeNeedsCatchAllTemplate() throws Exception {
+    final TransformerImpl transformer = newTransformer("<xsl:template match='/'>"
+        + "<xsl:apply-templates select='doc/items'/></xsl:template>"
+        + "<xsl:template match='item'><xsl:value-of select='name'/>;</xsl:template>");
+    assertFalse(transformer.getTranslet().isElementProjectable());
+    assertEquals("ax;c;", transform(transformer, ITEMS));
+  }
+
+  private static String tree(DTM dtm, int node) {
+    if (dtm.getNodeType(node) == DTM.TEXT_NODE)
+      return "#text";
+    final StringBuilder sb = new StringBuilder(dtm.getNodeName(node)).append('(');
+    for (int child = dtm.getFirstChild(node); child != DTM.NULL; child = dtm.getNextSibling(child)) {
+      sb.append(tree(dtm, child)).append(' ');
+    }
+    return sb.append(')').toString();
+  }
+
+  private static TransformerImpl newTransformer(String templates) throws Exception {
+    final TransformerImpl transformer = new TransformerFactoryImpl().newTransformer(
+        new StreamSource(new StringReader("<xsl:stylesheet version='1.0' "
+            + "xmlns:xsl='http://www.w3.org/1999/XSL/Transform' xmlns:exsl='http://exslt.org/common'>"
+            + "<xsl:template match='text()'/>" + templates + "</xsl:stylesheet>")));
+    transformer.setOutputProperty(OutputKeys.METHOD, "text");
+    return transformer;
+  }
+
+  private static String transform(TransformerImpl transformer) throws Exception {
+    return transform(transformer, INPUT);
+  }
+
+  private static String transform(TransformerImpl transformer, String input) throws Exception {
+    final StringWriter out = new StringWriter();
+    transformer.transform(new StreamSource(new StringReader(input)), new StreamResult(out));
+    return out.toString();
+  }
+}
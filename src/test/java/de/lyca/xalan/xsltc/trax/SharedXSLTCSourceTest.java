@@ -0,0 +1,91 @@
+package de.lyca.xalan.xsltc.trax;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+/**
+ * Transforms one shared source from several threads at once, with stylesheets
+ * that map different names onto the shared tree, and compares the results with
+ * transformations of a private copy of the input.
+ */
+public class SharedXSLTCSourceTest {
+
+  private static final int THREADS = 4;
+
+  private static final int RUNS = 25;
+
+  @Test
+  public void concurrentTransformations() throws Exception {
+    final StringBuilder input = new StringBuilder("<doc xmlns:p='urn:p'>");
+    for (int i = 0; i < 200; i++) {
+      input.append("<item id='i").append(i).append("' p:n='").append(i).append("'><name>n").append(i)
+          .append("</name> <p:extra>x</p:extra></item>\n");
+    }
+    final String xml = input.append("</doc>").toString();
+
+    final TransformerFactoryImpl factory = new TransformerFactoryImpl();
+    final Templates[] templates = {
+        templates(factory, "<xsl:template match='/'><xsl:for-each select='//item'>"
+            + "<xsl:value-of select='name'/>,</xsl:for-each></xsl:template>"),
+        templates(factory, "<xsl:template match='/'><xsl:value-of select='sum(//@p:n)'/>:"
+            + "<xsl:value-of select='count(//p:extra)'/>:<xsl:value-of select='id(\"i7\")/name'/>:"
+            + "<xsl:value-of select='count(//missing)'/></xsl:template>"),
+        templates(factory, "<xsl:strip-space elements='*'/><xsl:template match='/'>"
+            + "<xsl:value-of select='count(//text())'/></xsl:template>") };
+    final String[] expected = new String[templates.length];
+    for (int i = 0; i < templates.length; i++) {
+      expected[i] = transform(templates[i], new StreamSource(new StringReader(xml)));
+    }
+
+    final SharedXSLTCSource shared = new SharedXSLTCSource(new StreamSource(new StringReader(xml)));
+    final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        final int offset = t;
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int run = 0; run < RUNS; run++) {
+              final int i = (run + offset) % templates.length;
+              assertEquals(expected[i], transform(templates[i], shared));
+            }
+            return null;
+          }
+        }));
+      }
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static Templates templates(TransformerFactoryImpl factory, String body) throws Exception {
+    return factory.newTemplates(new StreamSource(new StringReader("<xsl:stylesheet version='1.0' "
+        + "xmlns:xsl='http://www.w3.org/1999/XSL/Transform' xmlns:p='urn:p'><xsl:output method='text'/>" + body
+        + "</xsl:stylesheet>")));
+  }
+
+  private static String transform(Templates templates, Source source) throws Exception {
+    final StringWriter out = new StringWriter();
+    templates.newTransformer().transform(source, new StreamResult(out));
+    return out.toString();
+  }
+}
@@ -0,0 +1,86 @@
+package de.lyca.xml.dtm.ref.sax2dtm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import de.lyca.xalan.xsltc.dom.XSLTCDTMManager;
+
+/**
+ * Checks the string-values returned through the cache of a document, and the
+ * hits and misses it counts.
+ */
+public class StringValueCacheTest {
+
+  private static final String LONG = "0123456789abcdefghijklmnopqrstuvwxyz0123456789abcdefghijklmnopqrstuvwxyz";
+
+  @Test
+  public void secondRequestHits() {
+    final SAX2DTM2 dom = dom("<doc><a>x<b>y</b>z</a><c>" + LONG + "</c></doc>");
+    final int a = dom.getFirstChild(dom.getFirstChild(dom.getDocument()));
+    final int c = dom.getNextSibling(a);
+    assertEquals("xyz", dom.getStringValueX(a));
+    assertEquals(LONG, dom.getStringValueX(c));
+    assertEquals(0, dom.getStringValueCacheHits());
+    assertEquals(2, dom.getStringValueCacheMisses());
+
+    assertEquals("xyz", dom.getStringValueX(a));
+    assertEquals(LONG, dom.getStringValueX(c));
+    assertEquals("xyz" + LONG, dom.getStringValueX(dom.getDocument()));
+    assertEquals(2, dom.getStringValueCacheHits());
+    assertEquals(3, dom.getStringValueCacheMisses());
+  }
+
+  @Test
+  public void collidingNodeReplacesEntry() {
+    final StringBuilder document = new StringBuilder("<doc>");
+    for (int i = 0; i < 20; i++) {
+      document.append("<e>").append(i).append("</e>");
+    }
+    final SAX2DTM2 dom = dom(document.append("</doc>").toString());
+    // The cache of a document of some 40 nodes has 32 entries
+    final int first = dom.getFirstChild(dom.getFirstChild(dom.getDocument()));
+    int colliding = first;
+    while (dom.makeNodeIdentity(colliding) != dom.makeNodeIdentity(first) + 32) {
+      colliding = dom.getNextSibling(colliding);
+    }
+    assertEquals("0", dom.getStringValueX(first));
+    assertEquals("16", dom.getStringValueX(colliding));
+    assertEquals("0", dom.getStringValueX(first));
+    assertEquals(0, dom.getStringValueCacheHits());
+    assertEquals(3, dom.getStringValueCacheMisses());
+  }
+
+  @Test
+  public void textAndAttributesAreNotCached() {
+    final SAX2DTM2 dom = dom("<doc a='v'>t</doc>");
+    final int element = dom.getFirstChild(dom.getDocument());
+    assertEquals("v", dom.getStringValueX(dom.getFirstAttribute(element)));
+    assertEquals("t", dom.getStringValueX(dom.getFirstChild(element)));
+    assertEquals(0, dom.getStringValueCacheHits() + dom.getStringValueCacheMisses());
+  }
+
+  @Test
+  public void disabledCacheReturnsSameValues() {
+    final String document = "<doc><a>x<b>y</b>z</a><c/>" + LONG + "</doc>";
+    final SAX2DTM2 cached = dom(document);
+    final SAX2DTM2 uncached = dom(document);
+    uncached.m_stringValueCacheSize = 0;
+    for (int round = 0; round < 2; round++) {
+      for (int identity = 0; identity < cached.getNumberOfNodes(); identity++) {
+        assertEquals(cached.getStringValueX(cached.makeNodeHandle(identity)),
+            uncached.getStringValueX(uncached.makeNodeHandle(identity)));
+      }
+    }
+    assertEquals(0, uncached.getStringValueCacheHits() + uncached.getStringValueCacheMisses());
+  }
+
+  private static SAX2DTM2 dom(String document) {
+    return (SAX2DTM2) XSLTCDTMManager.newInstance().getDTM(new StreamSource(new StringReader(document)), false, null,
+        true, false);
+  }
+}
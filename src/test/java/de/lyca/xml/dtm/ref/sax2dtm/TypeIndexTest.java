@@ -0,0 +1,163 @@
+package de.lyca.xml.dtm.ref.sax2dtm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+import de.lyca.xalan.xsltc.dom.SAXImpl;
+import de.lyca.xalan.xsltc.dom.XSLTCDTMManager;
+import de.lyca.xalan.xsltc.util.IntegerArray;
+import de.lyca.xml.dtm.Axis;
+import de.lyca.xml.dtm.DTM;
+import de.lyca.xml.dtm.DTMAxisIterator;
+
+/**
+ * Checks that the typed descendant, following and preceding iterators return
+ * the same nodes with a type index as by scanning, from every start node of a
+ * random document.
+ */
+public class TypeIndexTest {
+
+  private static final Axis[] AXES = { Axis.DESCENDANT, Axis.DESCENDANTORSELF, Axis.FOLLOWING, Axis.PRECEDING };
+
+  private static final String[] NAMES = { "a", "b", "c", "p:a" };
+
+  private final Random random = new Random(42);
+
+  @Test
+  public void indexedAxesMatchScan() {
+    final SAXImpl dom = (SAXImpl) XSLTCDTMManager.newInstance().getDTM(
+        new StreamSource(new StringReader(randomDocument())), false, null, true, false);
+    final List<Integer> nodes = allNodes(dom);
+    final Set<Integer> types = new LinkedHashSet<>();
+    for (final int node : nodes) {
+      if (dom.getNodeType(node) != DTM.ATTRIBUTE_NODE) {
+        types.add(dom.getExpandedTypeID(node));
+      }
+    }
+
+    final List<int[]> scanned = new ArrayList<>();
+    for (final Axis axis : AXES) {
+      for (final int type : types) {
+        for (final int node : nodes) {
+          final int[] expected = filter(dom, dom.getAxisIterator(axis).setStartNode(node), type);
+          final int[] actual = read(dom.getTypedAxisIterator(axis, type).setStartNode(node));
+          assertArrayEquals(axis + " " + type + " " + node, expected, actual);
+          scanned.add(actual);
+        }
+      }
+    }
+
+    dom.buildTypeIndex();
+    int i = 0;
+    for (final Axis axis : AXES) {
+      for (final int type : types) {
+        for (final int node : nodes) {
+          final int[] expected = scanned.get(i++);
+          final DTMAxisIterator iterator = dom.getTypedAxisIterator(axis, type).setStartNode(node);
+          if (axis != Axis.PRECEDING) {
+            assertEquals(axis + " " + type + " " + node, expected.length, iterator.getLast());
+          }
+          assertArrayEquals(axis + " " + type + " " + node, expected, read(iterator));
+          checkMark(axis + " " + type + " " + node, iterator, expected);
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks that the nodes after a mark are returned again after gotoMark(),
+   * and all of them after reset().
+   */
+  private static void checkMark(String message, DTMAxisIterator iterator, int[] expected) {
+    iterator.reset();
+    final int marked = expected.length / 2;
+    for (int i = 0; i < marked; i++) {
+      assertEquals(message, expected[i], iterator.next());
+    }
+    iterator.setMark();
+    final int[] rest = read(iterator);
+    iterator.gotoMark();
+    assertArrayEquals(message, rest, read(iterator));
+    iterator.reset();
+    assertArrayEquals(message, expected, read(iterator));
+  }
+
+  private String randomDocument() {
+    final StringBuilder document = new StringBuilder("<doc xmlns:p='urn:p'>");
+    element(document, 0);
+    element(document, 0);
+    return document.append("</doc>").toString();
+  }
+
+  private void element(StringBuilder document, int depth) {
+    final String name = NAMES[random.nextInt(NAMES.length)];
+    document.append('<').append(name);
+    if (random.nextBoolean()) {
+      document.append(" a='1'");
+    }
+    document.append('>');
+    final int children = depth < 5 ? random.nextInt(4) : 0;
+    for (int i = 0; i < children; i++) {
+      switch (random.nextInt(4)) {
+        case 0:
+          document.append("text");
+          break;
+        case 1:
+          document.append("<!--c-->");
+          break;
+        default:
+          element(document, depth + 1);
+      }
+    }
+    document.append("</").append(name).append('>');
+  }
+
+  /**
+   * Returns all nodes of the document, including attributes.
+   */
+  private static List<Integer> allNodes(SAXImpl dom) {
+    final List<Integer> nodes = new ArrayList<>();
+    final DTMAxisIterator descendants = dom.getAxisIterator(Axis.DESCENDANTORSELF).setStartNode(dom.getDocument());
+    int node;
+    while ((node = descendants.next()) != DTM.NULL) {
+      nodes.add(node);
+      final DTMAxisIterator attributes = dom.getAxisIterator(Axis.ATTRIBUTE).setStartNode(node);
+      int attribute;
+      while ((attribute = attributes.next()) != DTM.NULL) {
+        nodes.add(attribute);
+      }
+    }
+    return nodes;
+  }
+
+  private static int[] filter(SAXImpl dom, DTMAxisIterator iterator, int type) {
+    final IntegerArray nodes = new IntegerArray();
+    int node;
+    while ((node = iterator.next()) != DTM.NULL) {
+      if (dom.getExpandedTypeID(node) == type) {
+        nodes.add(node);
+      }
+    }
+    return nodes.toIntArray();
+  }
+
+  private static int[] read(DTMAxisIterator iterator) {
+    final IntegerArray nodes = new IntegerArray();
+    int node;
+    while ((node = iterator.next()) != DTM.NULL) {
+      nodes.add(node);
+    }
+    return nodes.toIntArray();
+  }
+}
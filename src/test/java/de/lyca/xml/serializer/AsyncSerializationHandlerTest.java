@@ -0,0 +1,208 @@
+package de.lyca.xml.serializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks that the events replayed on the serializer thread give the same
+ * output, that a full ring holds up the producer, and that the exceptions of
+ * the serializer reach the producer.
+ */
+public class AsyncSerializationHandlerTest {
+
+  private static final int ELEMENTS = 100000;
+
+  @Test
+  public void sameOutputThroughTinyRing() throws Exception {
+    final ByteArrayOutputStream direct = new ByteArrayOutputStream();
+    final ToXMLStream serializer = new ToXMLStream();
+    serializer.setOutputStream(direct);
+    write(serializer, null);
+
+    final ByteArrayOutputStream async = new ByteArrayOutputStream();
+    final ToXMLStream wrapped = new ToXMLStream();
+    wrapped.setOutputStream(async);
+    final AsyncSerializationHandler handler = new AsyncSerializationHandler(wrapped, 1);
+    write(handler, null);
+    assertNull(handler.stop());
+    assertEquals(direct.toString("UTF-8"), async.toString("UTF-8"));
+  }
+
+  @Test
+  public void fullRingHoldsUpProducer() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final ToXMLStream serializer = new ToXMLStream();
+    serializer.setOutputStream(new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        try {
+          release.await();
+        } catch (final InterruptedException e) {
+          throw new IOException(e);
+        }
+        out.write(b, off, len);
+      }
+    });
+    final AsyncSerializationHandler handler = new AsyncSerializationHandler(serializer, 1);
+    final AtomicInteger written = new AtomicInteger();
+    final Thread producer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          write(handler, written);
+        } catch (final SAXException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    producer.start();
+    // The serializer blocks once its buffer is full, and the producer once the
+    // ring is full
+    for (int i = 0; i < 100 && producer.getState() != Thread.State.WAITING; i++) {
+      Thread.sleep(20);
+    }
+    assertTrue(producer.isAlive());
+    final int held = written.get();
+    assertTrue(Integer.toString(held), held > 0 && held < ELEMENTS);
+    Thread.sleep(100);
+    assertEquals(held, written.get());
+
+    release.countDown();
+    producer.join(30000);
+    assertFalse(producer.isAlive());
+    assertNull(handler.stop());
+    assertEquals(ELEMENTS, written.get());
+    assertTrue(out.toString("UTF-8").endsWith("</doc>"));
+  }
+
+  @Test
+  public void serializerExceptionReachesProducer() throws Exception {
+    final IOException failure = new IOException("disk full");
+    final AsyncSerializationHandler handler = new AsyncSerializationHandler(failingSerializer(failure), 1);
+    try {
+      write(handler, null);
+      fail();
+    } catch (final SAXException e) {
+      assertSame(failure, cause(e));
+    }
+    // The exception has been thrown, and the consumer is released
+    assertNull(handler.stop());
+    assertNull(handler.stop());
+  }
+
+  @Test
+  public void stopReturnsExceptionNotThrownYet() throws Exception {
+    final IOException failure = new IOException("disk full");
+    final ToXMLStream serializer = new ToXMLStream();
+    serializer.setWriter(new Writer() {
+      @Override
+      public void write(char[] cbuf, int off, int len) throws IOException {
+        throw failure;
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    });
+    // Fewer events than are passed on at once, so nothing is replayed before
+    // stop()
+    final AsyncSerializationHandler handler = new AsyncSerializationHandler(serializer);
+    handler.startDocument();
+    handler.startElement("", "e", "e");
+    handler.endElement("", "e", "e");
+    final SAXException e = handler.stop();
+    assertNotNull(e);
+    assertSame(failure, cause(e));
+    assertNull(handler.stop());
+  }
+
+  @Test
+  public void startPrefixMappingTellsIfPushed() throws Exception {
+    final ByteArrayOutputStream direct = new ByteArrayOutputStream();
+    final ToXMLStream serializer = new ToXMLStream();
+    serializer.setOutputStream(direct);
+    final ByteArrayOutputStream async = new ByteArrayOutputStream();
+    final ToXMLStream wrapped = new ToXMLStream();
+    wrapped.setOutputStream(async);
+    final AsyncSerializationHandler handler = new AsyncSerializationHandler(wrapped);
+    for (final SerializationHandler h : new SerializationHandler[] { serializer, handler }) {
+      h.startDocument();
+      h.startElement("urn:p", "doc", "p:doc");
+      assertFalse(h.startPrefixMapping("p", "urn:p", false));
+      assertTrue(h.startPrefixMapping("q", "urn:q", false));
+      assertFalse(h.startPrefixMapping("q", "urn:q", false));
+      assertTrue(h.startPrefixMapping("r", "urn:r", true));
+      h.startElement("urn:r", "e", "r:e");
+      h.endElement("urn:r", "e", "r:e");
+      h.endElement("urn:p", "doc", "p:doc");
+      h.endDocument();
+    }
+    assertNull(handler.stop());
+    assertEquals(direct.toString("UTF-8"), async.toString("UTF-8"));
+  }
+
+  private static ToXMLStream failingSerializer(final IOException failure) {
+    final ToXMLStream serializer = new ToXMLStream();
+    serializer.setOutputStream(new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw failure;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        throw failure;
+      }
+    });
+    return serializer;
+  }
+
+  private static Throwable cause(Throwable e) {
+    while (e.getCause() != null && e.getCause() != e) {
+      e = e.getCause();
+    }
+    return e;
+  }
+
+  private static void write(SerializationHandler handler, AtomicInteger written) throws SAXException {
+    handler.startDocument();
+    handler.startElement("", "doc", "doc");
+    for (int i = 0; i < ELEMENTS; i++) {
+      handler.startElement("", "e", "e");
+      handler.addAttribute("n", Integer.toString(i));
+      handler.characters("a < b & c");
+      handler.comment(" " + i + " ");
+      handler.endElement("", "e", "e");
+      if (written != null) {
+        written.incrementAndGet();
+      }
+    }
+    handler.endElement("", "doc", "doc");
+    handler.endDocument();
+  }
+}
@@ -0,0 +1,141 @@
+package de.lyca.xml.serializer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the buffered writers of the serializer write the same bytes as
+ * String.getBytes() does, however the characters are passed to them.
+ */
+public class BufferedWritersTest {
+
+  private final Random random = new Random(7);
+
+  @Test
+  public void latin1() throws IOException {
+    for (int round = 0; round < 20; round++) {
+      final String text = randomText(true);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final WriterToLatin1Buffered writer = new WriterToLatin1Buffered(out, '\u00FF');
+      check(text, StandardCharsets.ISO_8859_1, writer, out);
+    }
+  }
+
+  @Test
+  public void ascii() throws IOException {
+    for (int round = 0; round < 20; round++) {
+      final String text = randomText(true);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final WriterToLatin1Buffered writer = new WriterToLatin1Buffered(out, '\u007F');
+      check(text, StandardCharsets.US_ASCII, writer, out);
+    }
+  }
+
+  @Test
+  public void utf8() throws IOException {
+    for (int round = 0; round < 20; round++) {
+      final String text = randomText(false);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final WriterToUTF8Buffered writer = new WriterToUTF8Buffered(out);
+      check(text, StandardCharsets.UTF_8, writer, out);
+    }
+  }
+
+  @Test
+  public void surrogatePairIsOneCharacter() throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final WriterToLatin1Buffered writer = new WriterToLatin1Buffered(out, '\u007F');
+    writer.write("a\uD83D\uDE00b\uDE00\uD83D");
+    writer.write('\uDE00');
+    writer.write("\uD83D");
+    writer.write(new char[] { '\uDE00', '\u00E9' }, 0, 2);
+    writer.write('\uD83D');
+    writer.write('c');
+    writer.flush();
+    assertEquals("a?b?????c", new String(out.toByteArray(), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void reusedForAnotherStream() throws IOException {
+    final ByteArrayOutputStream first = new ByteArrayOutputStream();
+    final WriterToLatin1Buffered writer = new WriterToLatin1Buffered(first, '\u00FF');
+    writer.write("lost\uD83D");
+    final ByteArrayOutputStream second = new ByteArrayOutputStream();
+    writer.setOutputStream(second);
+    writer.write("\uDE00caf\u00E9");
+    writer.flush();
+    assertEquals(0, first.size());
+    assertEquals("?caf\u00E9", new String(second.toByteArray(), StandardCharsets.ISO_8859_1));
+  }
+
+  /**
+   * Writes the text in random pieces, through all the write methods, and
+   * compares the bytes with those of String.getBytes().
+   */
+  private void check(String text, Charset charset, Writer writer, ByteArrayOutputStream out) throws IOException {
+    int i = 0;
+    while (i < text.length()) {
+      int end = Math.min(text.length(), i + 1 + random.nextInt(random.nextBoolean() ? 20 : 20000));
+      if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+        // WriterToUTF8Buffered expects both chars of a pair in one call, the
+        // splitting of pairs is checked by surrogatePairIsOneCharacter()
+        end++;
+      }
+      switch (random.nextInt(4)) {
+        case 0:
+          for (int j = i; j < end; j++) {
+            if (Character.isHighSurrogate(text.charAt(j)) && j + 1 < end) {
+              writer.write(text.toCharArray(), j++, 2);
+            } else {
+              writer.write(text.charAt(j));
+            }
+          }
+          break;
+        case 1:
+          writer.write(text.toCharArray(), i, end - i);
+          break;
+        case 2:
+          writer.write(text.substring(i, end));
+          break;
+        default:
+          writer.write(text, i, end - i);
+      }
+      i = end;
+    }
+    writer.flush();
+    assertArrayEquals(text.getBytes(charset), out.toByteArray());
+  }
+
+  /**
+   * Returns mostly ASCII text with Latin-1 characters, other characters,
+   * surrogate pairs and, if requested, unpaired surrogates.
+   */
+  private String randomText(boolean unpairedSurrogates) {
+    final StringBuilder text = new StringBuilder();
+    final int length = random.nextInt(40000);
+    while (text.length() < length) {
+      final int kind = random.nextInt(100);
+      if (kind < 80) {
+        text.append((char) (0x20 + random.nextInt(0x5F)));
+      } else if (kind < 90) {
+        text.append((char) (0xA0 + random.nextInt(0x60)));
+      } else if (kind < 95) {
+        text.append((char) (0x100 + random.nextInt(0xD700)));
+      } else if (kind < 98 || !unpairedSurrogates) {
+        text.appendCodePoint(0x10000 + random.nextInt(0x10000));
+      } else {
+        text.append((char) (0xD800 + random.nextInt(0x800)));
+      }
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,105 @@
+package de.lyca.xml.serializer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the output reaches the buffers of the caller or the channel in
+ * order, and that a channel in non-blocking mode is refused.
+ */
+public class ByteBufferOutputStreamTest {
+
+  @Test
+  public void fillsBuffersOfCaller() throws IOException {
+    final ByteBuffer first = ByteBuffer.allocate(10);
+    first.position(4);
+    final ByteBuffer second = ByteBuffer.allocate(10);
+    final ByteBufferOutputStream out = new ByteBufferOutputStream(first, second);
+    out.write("abcdefghij".getBytes("US-ASCII"));
+    out.write('k');
+    out.close();
+    assertEquals(10, first.position());
+    assertEquals(5, second.position());
+    assertEquals("abcdef", new String(first.array(), 4, 6, "US-ASCII"));
+    assertEquals("ghijk", new String(second.array(), 0, 5, "US-ASCII"));
+  }
+
+  @Test
+  public void overflowsBuffersOfCaller() throws IOException {
+    final ByteBufferOutputStream out = new ByteBufferOutputStream(ByteBuffer.allocate(3));
+    out.write(new byte[3]);
+    try {
+      out.write(0);
+      fail();
+    } catch (final IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("3"));
+    }
+  }
+
+  @Test
+  public void writesToChannel() throws IOException {
+    final byte[] bytes = new byte[1000000];
+    new Random(3).nextBytes(bytes);
+    final ByteArrayOutputStream target = new ByteArrayOutputStream();
+    final ByteBufferOutputStream out = new ByteBufferOutputStream(Channels.newChannel(target));
+    int i = 0;
+    while (i < bytes.length) {
+      final int length = Math.min(bytes.length - i, 1 + i % 70000);
+      out.write(bytes, i, length);
+      i += length;
+      if (i < bytes.length) {
+        out.write(bytes[i++]);
+      }
+    }
+    // Nothing has been written since the last full buffers
+    assertEquals(0, target.size() % (64 * 1024));
+    out.close();
+    assertArrayEquals(bytes, target.toByteArray());
+  }
+
+  @Test
+  public void refusesNonBlockingChannel() throws IOException {
+    final Pipe pipe = Pipe.open();
+    try {
+      pipe.sink().configureBlocking(false);
+      new ByteBufferOutputStream(pipe.sink());
+      fail();
+    } catch (final IllegalArgumentException e) {
+      // expected
+    } finally {
+      pipe.sink().close();
+      pipe.source().close();
+    }
+  }
+
+  @Test
+  public void failsOnChannelSwitchedToNonBlocking() throws IOException {
+    final Pipe pipe = Pipe.open();
+    try {
+      final ByteBufferOutputStream out = new ByteBufferOutputStream(pipe.sink());
+      pipe.sink().configureBlocking(false);
+      // Nobody reads from the pipe, so it is full long before the output is
+      // written
+      try {
+        out.write(new byte[16 * 1024 * 1024]);
+        fail();
+      } catch (final IOException e) {
+        // expected
+      }
+    } finally {
+      pipe.sink().close();
+      pipe.source().close();
+    }
+  }
+}
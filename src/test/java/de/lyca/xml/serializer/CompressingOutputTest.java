@@ -0,0 +1,121 @@
+package de.lyca.xml.serializer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.xml.transform.OutputKeys;
+
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+/**
+ * Checks that compressed output inflates to the uncompressed output, also
+ * when a serializer is re-used, flushed in the middle of a document or closed
+ * in between.
+ */
+public class CompressingOutputTest {
+
+  @Test
+  public void gzipRoundTrip() throws Exception {
+    final ToXMLStream serializer = new ToXMLStream();
+    assertEquals(uncompressed(new ToXMLStream(), "doc"), compressed(serializer, "gzip", "doc"));
+  }
+
+  @Test
+  public void deflateRoundTrip() throws Exception {
+    final ToXMLStream serializer = new ToXMLStream();
+    assertEquals(uncompressed(new ToXMLStream(), "doc"), compressed(serializer, "deflate", "doc"));
+  }
+
+  @Test
+  public void reusedSerializer() throws Exception {
+    final String expected = uncompressed(new ToXMLStream(), "doc");
+    final ToXMLStream serializer = new ToXMLStream();
+    for (final String compression : new String[] { "gzip", "gzip", "deflate", "none", "gzip" }) {
+      serializer.reset();
+      assertEquals(compression, expected, compressed(serializer, compression, "doc"));
+    }
+    // A closed serializer compresses with a new deflater
+    serializer.close();
+    serializer.reset();
+    assertEquals(expected, compressed(serializer, "deflate", "doc"));
+  }
+
+  @Test
+  public void flushInTheMiddleOfTheDocument() throws Exception {
+    final String expected = uncompressed(new ToXMLStream(), "doc");
+    final ToXMLStream serializer = new ToXMLStream() {
+      @Override
+      public void endElement(String namespaceURI, String localName, String name) throws SAXException {
+        super.endElement(namespaceURI, localName, name);
+        flushWriter();
+      }
+    };
+    assertEquals(expected, compressed(serializer, "gzip", "doc"));
+  }
+
+  @Test
+  public void unknownStreamSwitchingToHTML() throws Exception {
+    final String expected = uncompressed(new ToUnknownStream(), "html");
+    final ToUnknownStream serializer = new ToUnknownStream();
+    for (final String compression : new String[] { "gzip", "deflate" }) {
+      serializer.reset();
+      assertEquals(compression, expected, compressed(serializer, compression, "html"));
+    }
+  }
+
+  private static String uncompressed(SerializationHandler serializer, String root) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+    serializer.setOutputStream(out);
+    write(serializer, root);
+    return out.toString("UTF-8");
+  }
+
+  private static String compressed(SerializationHandler serializer, String compression, String root)
+      throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+    serializer.setOutputProperty(OutputPropertiesFactory.S_KEY_COMPRESSION, compression);
+    serializer.setOutputStream(out);
+    write(serializer, root);
+    final InputStream in;
+    if ("gzip".equals(compression)) {
+      in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+    } else if ("deflate".equals(compression)) {
+      in = new InflaterInputStream(new ByteArrayInputStream(out.toByteArray()));
+    } else {
+      in = new ByteArrayInputStream(out.toByteArray());
+    }
+    return new String(readAll(in), "UTF-8");
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[4096];
+    for (int n; (n = in.read(buffer)) > 0;) {
+      out.write(buffer, 0, n);
+    }
+    in.close();
+    return out.toByteArray();
+  }
+
+  private static void write(SerializationHandler serializer, String root) throws SAXException {
+    serializer.startDocument();
+    serializer.startElement("", root, root);
+    for (int i = 0; i < 20000; i++) {
+      serializer.startElement("", "p", "p");
+      serializer.addAttribute("n", Integer.toString(i));
+      serializer.characters("caf\u00E9 & \u4E2D " + i);
+      serializer.endElement("", "p", "p");
+    }
+    serializer.endElement("", root, root);
+    serializer.endDocument();
+  }
+}
@@ -0,0 +1,83 @@
+package de.lyca.xml.serializer;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Checks the lookups in the shared table of HTML element descriptions, which
+ * ignore the case of ASCII letters only.
+ */
+public class ElemDescTableTest {
+
+  private static final String[] NAMES = { "br", "BR", "Br", "bR", "table", "TABLE", "Td", "sCrIpT", "basefont",
+      "unknown", "b r", "" };
+
+  @Test
+  public void ignoresCaseOfASCIILetters() {
+    final ElemDesc br = ElemDescTable.HTML.get("br");
+    assertNotNull(br);
+    assertTrue((br.getFlags() & ElemDesc.EMPTY) != 0);
+    assertSame(br, ElemDescTable.HTML.get("BR"));
+    assertSame(br, ElemDescTable.HTML.get("Br"));
+    assertSame(br, ElemDescTable.HTML.get("bR"));
+    assertSame(ElemDescTable.HTML.get("script"), ElemDescTable.HTML.get("sCrIpT"));
+  }
+
+  @Test
+  public void nonASCIINames() {
+    // U+0130 and U+017F turn into 'i' and 's' with String.toLowerCase() and
+    // toUpperCase() in some locales, but are not ASCII letters
+    assertNull(ElemDescTable.HTML.get("SCRİPT"));
+    assertNull(ElemDescTable.HTML.get("ſcript"));
+    assertNull(ElemDescTable.HTML.get("élément"));
+  }
+
+  @Test
+  public void unknownNames() {
+    assertNull(ElemDescTable.HTML.get("unknown"));
+    assertNull(ElemDescTable.HTML.get("b r"));
+    assertNull(ElemDescTable.HTML.get("brr"));
+    assertNull(ElemDescTable.HTML.get(""));
+  }
+
+  @Test
+  public void lookupsOnManyThreads() throws Exception {
+    final ElemDesc[] expected = new ElemDesc[NAMES.length];
+    for (int i = 0; i < NAMES.length; i++) {
+      expected[i] = ElemDescTable.HTML.get(NAMES[i]);
+    }
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<Boolean>> results = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            for (int n = 0; n < 10000; n++) {
+              final int i = n % NAMES.length;
+              if (ElemDescTable.HTML.get(NAMES[i]) != expected[i])
+                return false;
+            }
+            return true;
+          }
+        }));
+      }
+      for (final Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
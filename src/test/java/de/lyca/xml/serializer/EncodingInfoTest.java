@@ -0,0 +1,115 @@
+package de.lyca.xml.serializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Checks which chars and surrogate pairs are in an encoding, for supported,
+ * unsupported and missing encodings.
+ */
+public class EncodingInfoTest {
+
+  @Test
+  public void sameCharsAsStringGetBytes() throws Exception {
+    for (final String javaName : new String[] { "ISO8859_1", "Cp1252", "SJIS", "ASCII" }) {
+      final EncodingInfo info = new EncodingInfo(javaName, javaName, '\u0000');
+      for (int ch = 0; ch < 0x10000; ch++) {
+        assertEquals(javaName + " " + ch, inEncoding((char) ch, javaName), info.isInEncoding((char) ch));
+      }
+    }
+  }
+
+  @Test
+  public void surrogatePairs() {
+    assertTrue(Encodings.getEncodingInfo("UTF-8").isInEncoding('\uD83D', '\uDE00'));
+    assertTrue(Encodings.getEncodingInfo("UTF-16").isInEncoding('\uD83D', '\uDE00'));
+    assertFalse(Encodings.getEncodingInfo("ISO-8859-1").isInEncoding('\uD83D', '\uDE00'));
+    assertFalse(Encodings.getEncodingInfo("US-ASCII").isInEncoding('\uD83D', '\uDE00'));
+  }
+
+  @Test
+  public void surrogatePairsOnManyThreads() throws Exception {
+    final EncodingInfo utf8 = Encodings.getEncodingInfo("UTF-8");
+    final EncodingInfo latin1 = Encodings.getEncodingInfo("ISO-8859-1");
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<Boolean>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            for (char low = '\uDC00'; low <= '\uDFFF'; low++) {
+              if (!utf8.isInEncoding('\uD800', low) || latin1.isInEncoding('\uD800', low))
+                return false;
+            }
+            return true;
+          }
+        }));
+      }
+      for (final Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void unsupportedEncoding() {
+    // Only the ASCII chars are in an unsupported ISO 8859 encoding
+    final EncodingInfo iso = new EncodingInfo("ISO-8859-99", "ISO8859_99", '\u0000');
+    assertTrue(iso.isInEncoding('a'));
+    assertTrue(iso.isInEncoding('~'));
+    assertFalse(iso.isInEncoding('\u0000'));
+    assertFalse(iso.isInEncoding('\u007F'));
+    assertFalse(iso.isInEncoding('\u00E9'));
+    assertFalse(iso.isInEncoding('\uD83D', '\uDE00'));
+
+    // and no char at all is in any other unsupported encoding
+    final EncodingInfo other = new EncodingInfo("X-UNKNOWN", "x-unknown", '\u0000');
+    assertFalse(other.isInEncoding('a'));
+    assertFalse(other.isInEncoding('\u00E9'));
+    assertFalse(other.isInEncoding('\uD83D', '\uDE00'));
+  }
+
+  @Test
+  public void javaNameUnknownToTheJRE() {
+    // 8859-1 is one of the Java names of ISO-8859-1 in Encodings.properties
+    final EncodingInfo latin1 = new EncodingInfo("ISO-8859-1", "8859-1", '\u00FF');
+    assertTrue(latin1.isInEncoding('a'));
+    assertTrue(latin1.isInEncoding('\u00E9'));
+    assertFalse(latin1.isInEncoding('\u4E2D'));
+    assertFalse(latin1.isInEncoding('\uD83D', '\uDE00'));
+    for (final String name : new String[] { "ISO-8859-1", "US-ASCII", "UTF-8", "windows-1252" }) {
+      assertTrue(name, Encodings.getEncodingInfo(name).isInEncoding('a'));
+    }
+  }
+
+  @Test
+  public void withoutJavaName() {
+    final EncodingInfo info = new EncodingInfo(null, null, '\u0000');
+    assertTrue(info.isInEncoding('\u0000'));
+    assertTrue(info.isInEncoding('a'));
+    assertTrue(info.isInEncoding('\u4E2D'));
+    assertFalse(info.isInEncoding('\uD83D', '\uDE00'));
+  }
+
+  /**
+   * Whether a char is in an encoding, as String.getBytes() tells.
+   */
+  private static boolean inEncoding(char ch, String encoding) throws UnsupportedEncodingException {
+    final byte[] bytes = String.valueOf(ch).getBytes(encoding);
+    return bytes.length > 0 && bytes[0] != 0 && (bytes[0] != '?' || ch == '?');
+  }
+}
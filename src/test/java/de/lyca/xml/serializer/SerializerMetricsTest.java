@@ -0,0 +1,57 @@
+package de.lyca.xml.serializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * Checks the counters of a stream serializer.
+ */
+public class SerializerMetricsTest {
+
+  @Test
+  public void countsDocument() throws Exception {
+    final ToXMLStream serializer = new ToXMLStream();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.setOutputStream(out);
+    serializer.startDocument();
+    serializer.startPrefixMapping("p", "urn:p");
+    serializer.startElement("urn:p", "doc", "p:doc");
+    serializer.addAttribute("", "a", "a", "CDATA", "<1>");
+    serializer.startElement("", "e", "e");
+    serializer.characters("a & b");
+    serializer.endElement("", "e", "e");
+    serializer.endElement("urn:p", "doc", "p:doc");
+    serializer.endDocument();
+
+    final SerializerMetrics metrics = serializer.getMetrics();
+    assertEquals(2, metrics.getElementCount());
+    assertEquals(2, metrics.getAttributeCount());
+    assertEquals(1, metrics.getNamespaceDeclarationCount());
+    assertEquals(5, metrics.getCharacterCount());
+    assertEquals(3, metrics.getEscapedCharacterCount());
+    assertEquals(out.size(), metrics.getBytesWritten());
+    assertTrue(metrics.getFlushCount() > 0);
+
+    assertTrue(serializer.reset());
+    assertEquals(0, serializer.getMetrics().getElementCount());
+  }
+
+  @Test
+  public void registersTotals() throws Exception {
+    assertTrue(SerializerMetrics.registerTotals());
+    final ObjectName name = new ObjectName(SerializerMetrics.OBJECT_NAME);
+    final long documents = (Long) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "DocumentCount");
+    final SerializerMetrics metrics = new SerializerMetrics();
+    metrics.m_elements = 3;
+    metrics.addToTotals();
+    assertEquals(documents + 1, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "DocumentCount"));
+  }
+
+}
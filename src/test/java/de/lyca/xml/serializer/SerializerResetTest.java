@@ -0,0 +1,199 @@
+package de.lyca.xml.serializer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.xml.transform.OutputKeys;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Checks that a stream serializer that is reset after it has been used is in
+ * the same state as a new one, field by field.
+ */
+public class SerializerResetTest {
+
+  /**
+   * Fields that are kept on purpose when a serializer is reset: buffers and
+   * frames that are re-used, and objects that are replaced when the output is
+   * set.
+   */
+  private static final Set<String> KEPT = new HashSet<>(Arrays.asList("m_writer", "m_outputStream",
+      "m_encodingInfo", "m_charsBuff", "m_attrBuff", "m_charBuffer", "m_next", "m_values", "m_htmlHandler",
+      "m_compressor", "m_meter"));
+
+  @Test
+  public void resetToXMLStream() throws Exception {
+    assertResetComplete(new ToXMLStream(), new ToXMLStream(), "doc");
+  }
+
+  @Test
+  public void resetToHTMLStream() throws Exception {
+    assertResetComplete(new ToHTMLStream(), new ToHTMLStream(), "html");
+  }
+
+  @Test
+  public void resetToXHTMLStream() throws Exception {
+    assertResetComplete(new ToXHTMLStream(), new ToXHTMLStream(), "html");
+  }
+
+  @Test
+  public void resetToTextStream() throws Exception {
+    assertResetComplete(new ToTextStream(), new ToTextStream(), "doc");
+  }
+
+  @Test
+  public void resetToUnknownStreamAsXML() throws Exception {
+    assertResetComplete(new ToUnknownStream(), new ToUnknownStream(), "doc");
+  }
+
+  @Test
+  public void resetToUnknownStreamAsHTML() throws Exception {
+    assertResetComplete(new ToUnknownStream(), new ToUnknownStream(), "html");
+  }
+
+  @Test
+  public void reusedOutputIsUnchanged() throws Exception {
+    final String expected = serialize(new ToXMLStream());
+    final ToXMLStream serializer = new ToXMLStream();
+    for (int i = 0; i < 3; i++) {
+      assertTrue(serializer.reset());
+      assertEquals(expected, serialize(serializer));
+    }
+  }
+
+  /**
+   * Use a serializer, leave the document unfinished as a failed transformation
+   * would, reset it and compare it with a serializer that has never been used.
+   */
+  private static void assertResetComplete(SerializationHandler used, SerializationHandler fresh, String root)
+      throws Exception {
+    final Properties format = new Properties();
+    format.setProperty(OutputKeys.INDENT, "yes");
+    format.setProperty(OutputKeys.DOCTYPE_SYSTEM, "doc.dtd");
+    format.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    format.setProperty(OutputKeys.ENCODING, "ISO-8859-1");
+    format.setProperty(OutputKeys.CDATA_SECTION_ELEMENTS, "pre");
+    format.setProperty(OutputPropertiesFactory.S_KEY_ENTITIES, "de/lyca/xml/serializer/XMLEntities.properties");
+    used.setOutputFormat(format);
+    used.setOutputStream(new ByteArrayOutputStream());
+    used.startDocument();
+    used.startPrefixMapping("p", "urn:p");
+    used.startElement("", root, root);
+    used.addAttribute("", "a", "a", "CDATA", "1");
+    used.startElement("urn:p", "pre", "p:pre");
+    used.characters("text <&> \u00e9\u20ac");
+    used.setEscaping(false);
+    used.characters("<raw/>");
+    used.comment("comment");
+    used.startElement("", "pre", "pre");
+    used.startCDATA();
+    used.characters("cdata");
+    used.processingInstruction("pi", "data");
+    used.flushPending();
+
+    assertTrue(used.reset());
+    new Comparison().assertSame(used.getClass().getSimpleName(), fresh, used);
+  }
+
+  private static String serialize(SerializationHandler serializer) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.setOutputStream(out);
+    serializer.startDocument();
+    serializer.startElement("", "doc", "doc");
+    final AttributesImpl atts = new AttributesImpl();
+    atts.addAttribute("", "a", "a", "CDATA", "<1>");
+    serializer.startElement("", "e", "e", atts);
+    serializer.characters("text & more");
+    serializer.endElement("", "e", "e");
+    serializer.endElement("", "doc", "doc");
+    serializer.endDocument();
+    return out.toString("UTF-8");
+  }
+
+  private static final class Comparison {
+
+    private final Map<Object, Object> m_compared = new IdentityHashMap<>();
+
+    void assertSame(String path, Object expected, Object actual) throws IllegalAccessException {
+      if (expected == actual || isEmpty(expected) && isEmpty(actual))
+        return;
+      if (expected == null || actual == null || expected.getClass() != actual.getClass()) {
+        fail(path + ": expected " + expected + " but was " + actual);
+      }
+      if (m_compared.put(expected, actual) != null)
+        return;
+      final Class<?> type = expected.getClass();
+      if (type.isArray()) {
+        final int length = Array.getLength(expected);
+        assertEquals(path + ".length", length, Array.getLength(actual));
+        for (int i = 0; i < length; i++) {
+          assertSame(path + '[' + i + ']', Array.get(expected, i), Array.get(actual, i));
+        }
+      } else if (expected instanceof Attributes) {
+        final Attributes expectedAtts = (Attributes) expected;
+        final Attributes actualAtts = (Attributes) actual;
+        assertEquals(path + ".getLength()", expectedAtts.getLength(), actualAtts.getLength());
+        for (int i = 0; i < expectedAtts.getLength(); i++) {
+          assertEquals(path + ".getQName(" + i + ')', expectedAtts.getQName(i), actualAtts.getQName(i));
+          assertEquals(path + ".getValue(" + i + ')', expectedAtts.getValue(i), actualAtts.getValue(i));
+        }
+      } else if (expected instanceof StringBuilder) {
+        assertEquals(path, expected.toString(), actual.toString());
+      } else if (expected instanceof Map) {
+        final Map<?, ?> expectedMap = (Map<?, ?>) expected;
+        final Map<?, ?> actualMap = (Map<?, ?>) actual;
+        assertEquals(path + ".keySet()", expectedMap.keySet(), actualMap.keySet());
+        for (final Object key : expectedMap.keySet()) {
+          assertSame(path + '[' + key + ']', expectedMap.get(key), actualMap.get(key));
+        }
+      } else if (expected instanceof Collection) {
+        final Collection<?> expectedCollection = (Collection<?>) expected;
+        final Collection<?> actualCollection = (Collection<?>) actual;
+        assertEquals(path + ".size()", expectedCollection.size(), actualCollection.size());
+        final Iterator<?> iterator = actualCollection.iterator();
+        int i = 0;
+        for (final Object element : expectedCollection) {
+          assertSame(path + '[' + i++ + ']', element, iterator.next());
+        }
+      } else if (type.getName().startsWith("de.lyca.")) {
+        for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+          for (final Field field : c.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || KEPT.contains(field.getName())) {
+              continue;
+            }
+            field.setAccessible(true);
+            assertSame(path + '.' + field.getName(), field.get(expected), field.get(actual));
+          }
+        }
+      } else {
+        assertEquals(path, expected, actual);
+      }
+    }
+
+    /**
+     * Maps and collections that are created lazily are cleared on reset.
+     */
+    private static boolean isEmpty(Object value) {
+      return value == null || value instanceof Map && ((Map<?, ?>) value).isEmpty() || value instanceof Collection
+          && ((Collection<?>) value).isEmpty();
+    }
+  }
+
+}
@@ -0,0 +1,70 @@
+package de.lyca.xml.serializer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.util.Properties;
+
+import javax.xml.transform.OutputKeys;
+
+import org.junit.Test;
+
+import de.lyca.xml.utils.FastStringBuffer;
+
+/**
+ * Checks that text that is passed to a stream serializer in several pieces is
+ * written as if it had been passed at once, also when a surrogate pair is split
+ * between the chunks of a FastStringBuffer.
+ */
+public class SplitCharactersTest {
+
+  private static final String PAIR = "\uD83D\uDE00";
+
+  @Test
+  public void pairSplitBetweenChunks() throws Exception {
+    final FastStringBuffer fsb = new FastStringBuffer(4, 6);
+    for (int pad = 0; pad < 100; pad++) {
+      fsb.setLength(0);
+      final StringBuilder text = new StringBuilder();
+      for (int i = 0; i < pad; i++) {
+        text.append(i % 10);
+      }
+      text.append(PAIR).append(" & ").append(PAIR);
+      fsb.append(text.toString());
+      final String expected = text.toString().replace(PAIR, "&#128512;").replace("&", "&amp;")
+          .replace("&amp;#", "&#");
+      assertEquals("pad " + pad, "<d>" + expected + "</d>", serialize(fsb));
+    }
+  }
+
+  @Test
+  public void lonePairHalves() throws Exception {
+    final ToXMLStream serializer = start(new StringWriter());
+    serializer.characters(new char[] { '\uD83D' }, 0, 1, true);
+    serializer.characters(new char[0], 0, 0, true);
+    serializer.characters(new char[] { 'x', '\uD83D' }, 0, 2, false);
+    serializer.endElement("d");
+    serializer.endDocument();
+    assertEquals("<d>&#55357;x&#55357;</d>", serializer.getWriter().toString());
+  }
+
+  private static String serialize(FastStringBuffer fsb) throws Exception {
+    final ToXMLStream serializer = start(new StringWriter());
+    fsb.sendCharacters(serializer, 0, fsb.length());
+    serializer.endElement("d");
+    serializer.endDocument();
+    return serializer.getWriter().toString();
+  }
+
+  private static ToXMLStream start(StringWriter writer) throws Exception {
+    final Properties format = new Properties();
+    format.setProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    format.setProperty(OutputKeys.ENCODING, "US-ASCII");
+    final ToXMLStream serializer = new ToXMLStream();
+    serializer.setOutputFormat(format);
+    serializer.setWriter(writer);
+    serializer.startDocument();
+    serializer.startElement("d");
+    return serializer;
+  }
+}
@@ -0,0 +1,109 @@
+package de.lyca.xml.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.Test;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Checks how the XMLReaderManager pools readers.
+ */
+public class XMLReaderManagerTest {
+
+  private final XMLReaderManager manager = XMLReaderManager.getInstance();
+
+  @Test
+  public void releasedReaderIsReused() throws Exception {
+    final XMLReader reader = manager.getXMLReader();
+    final DefaultHandler handler = new DefaultHandler();
+    reader.setContentHandler(handler);
+    reader.setErrorHandler(handler);
+    manager.releaseXMLReader(reader);
+
+    final XMLReader again = manager.getXMLReader();
+    try {
+      assertSame(reader, again);
+      assertNull(again.getContentHandler());
+      assertNull(again.getErrorHandler());
+    } finally {
+      manager.releaseXMLReader(again);
+    }
+  }
+
+  @Test
+  public void securePoolIsSeparate() throws Exception {
+    final XMLReader reader = manager.getXMLReader();
+    manager.releaseXMLReader(reader);
+    final XMLReader secure = manager.getXMLReader(true);
+    try {
+      assertNotSame(reader, secure);
+    } finally {
+      manager.releaseXMLReader(secure);
+    }
+    assertSame(reader, manager.getXMLReader());
+    manager.releaseXMLReader(reader);
+  }
+
+  @Test
+  public void foreignReaderIsNotPooled() throws Exception {
+    final List<XMLReader> idle = drain(XMLReaderManager.POOL_SIZE);
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    factory.setNamespaceAware(true);
+    final XMLReader foreign = factory.newSAXParser().getXMLReader();
+    manager.releaseXMLReader(foreign);
+    final XMLReader reader = manager.getXMLReader();
+    assertNotSame(foreign, reader);
+    manager.releaseXMLReader(reader);
+    release(idle);
+  }
+
+  @Test
+  public void overflowingReadersAreDropped() throws Exception {
+    final int extra = 5;
+    final List<XMLReader> first = drain(XMLReaderManager.POOL_SIZE + extra);
+    release(first);
+
+    final Set<XMLReader> released = Collections.newSetFromMap(new IdentityHashMap<XMLReader, Boolean>());
+    released.addAll(first);
+    final List<XMLReader> second = drain(XMLReaderManager.POOL_SIZE + extra);
+    int reused = 0;
+    for (final XMLReader reader : second) {
+      if (released.contains(reader)) {
+        reused++;
+      }
+    }
+    assertEquals(XMLReaderManager.POOL_SIZE, reused);
+    release(second);
+  }
+
+  /**
+   * Takes the given number of readers, which is at least the number of idle
+   * readers, so that the pool is empty afterwards.
+   */
+  private List<XMLReader> drain(int count) throws Exception {
+    final List<XMLReader> readers = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      readers.add(manager.getXMLReader());
+    }
+    return readers;
+  }
+
+  private void release(List<XMLReader> readers) {
+    for (final XMLReader reader : readers) {
+      manager.releaseXMLReader(reader);
+    }
+  }
+
+}
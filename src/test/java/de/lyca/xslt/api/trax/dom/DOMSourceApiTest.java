@@ -31,8 +31,10 @@ import static de.lyca.xslt.ResourceUtils.getInputSource;
 import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
@@ -43,6 +45,8 @@ import javax.xml.transform.stream.StreamResult;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 import de.lyca.xslt.ResourceUtils;
@@ -288,4 +292,24 @@ public class DOMSourceApiTest {
     Assert.assertEquals(expected, writer.toString());
   }
 
+  @Test
+  public void testIdentityGeneratesAttributePrefixes() throws Exception {
+    final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    documentBuilderFactory.setNamespaceAware(true);
+    final Document doc = documentBuilderFactory.newDocumentBuilder().newDocument();
+    final Element root = doc.createElementNS(null, "root");
+    root.setAttributeNS("urn:a", "a", "1");
+    root.setAttributeNS("urn:p", "a:b", "2");
+    root.setAttributeNS(XMLConstants.XML_NS_URI, "xml:lang", "en");
+    root.setAttributeNS("urn:c", "c", "3");
+    doc.appendChild(root);
+    final Transformer identityTransformer = TransformerFactory.newInstance().newTransformer();
+    identityTransformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+    final StringWriter writer = new StringWriter();
+    identityTransformer.transform(new DOMSource(doc), new StreamResult(writer));
+    // Every attribute in a namespace counts towards the number of a generated prefix
+    Assert.assertEquals("<root xmlns:ns0=\"urn:a\" ns0:a=\"1\" xmlns:a=\"urn:p\" a:b=\"2\""
+        + " xmlns:ns2=\"urn:c\" ns2:c=\"3\" xml:lang=\"en\"/>", writer.toString());
+  }
+
 }
@@ -0,0 +1,73 @@
+package de.lyca.xslt.conf;
+
+import static de.lyca.xslt.ResourceUtils.getSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Collection;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Runs the output conformance tests several times through the same
+ * Transformer, which re-uses its serializer for every output method and
+ * encoding. Every run has to produce the same output as a fresh Transformer,
+ * so the tests do not depend on the expected output files.
+ */
+@RunWith(Parameterized.class)
+public class ConfOutputReuseTests {
+
+  private static final TransformerFactory TF = TransformerFactory.newInstance();
+  private static final String PACKAGE = '/' + ConfOutputReuseTests.class.getPackage().getName().replace('.', '/')
+      + "/output/";
+
+  private String name;
+  private Charset encoding;
+
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> params() {
+    return ConfOutputTests.params();
+  }
+
+  public ConfOutputReuseTests(String name, Charset encoding) {
+    this.name = PACKAGE + name;
+    this.encoding = encoding;
+  }
+
+  @Test
+  public void confOutputReuseTest() throws Exception {
+    final Source xsl = getSource(name + ".xsl");
+    final Templates templates = TF.newTemplates(xsl);
+    final String expectedBytes = toStream(templates.newTransformer());
+    final String expectedChars = toWriter(templates.newTransformer());
+    final Transformer transformer = templates.newTransformer();
+    for (int i = 0; i < 2; i++) {
+      Assert.assertEquals("stream, run " + (i + 1), expectedBytes, toStream(transformer));
+      Assert.assertEquals("writer, run " + (i + 1), expectedChars, toWriter(transformer));
+    }
+  }
+
+  private String toStream(Transformer transformer) throws Exception {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    transformer.transform(getSource(name + ".xml"), new StreamResult(bytes));
+    return new String(bytes.toByteArray(), encoding);
+  }
+
+  private String toWriter(Transformer transformer) throws Exception {
+    final StringWriter chars = new StringWriter();
+    transformer.transform(getSource(name + ".xml"), new StreamResult(chars));
+    return chars.toString();
+  }
+
+}
@@ -0,0 +1,148 @@
+package de.lyca.xslt.perf;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import de.lyca.xalan.xsltc.dom.XSLTCDTMManager;
+import de.lyca.xml.dtm.DTM;
+import de.lyca.xml.dtm.DTMManager;
+import de.lyca.xml.dtm.ref.DTMDefaultBase;
+import de.lyca.xml.dtm.ref.DTMManagerDefault;
+import de.lyca.xpath.objects.XMLStringFactoryImpl;
+
+/**
+ * Allocates, looks up and releases DTMs of one DTMManagerDefault from many
+ * threads at once, and checks that failed parses give their DTM IDs back.
+ */
+public class PerfDTMManagerTests {
+
+  private static final int LOOKUPS = 64;
+
+  @Test
+  public void concurrentAllocation() throws Exception {
+    final DTMManagerDefault manager = newManager();
+    final ConcurrentHashMap<Integer, DTM> live = new ConcurrentHashMap<>();
+    run(manager, 32, 500, live);
+    Assert.assertTrue(live.isEmpty());
+    // All IDs have been returned to the free list
+    final DTM dtm = manager.getDTM(null, true, null, false, false);
+    Assert.assertEquals(1, manager.getDTMIdentity(dtm) >>> DTMManager.IDENT_DTM_NODE_BITS);
+    manager.release(dtm, true);
+  }
+
+  @Test
+  public void failedParseFreesID() throws Exception {
+    final DTMManagerDefault manager = newManager();
+    try {
+      manager.getDTM(new StreamSource(new StringReader("<doc><unclosed></doc>")), true, null, false, false);
+      Assert.fail("Malformed document parsed");
+    } catch (final RuntimeException e) {
+      // expected
+    }
+    try {
+      manager.getDTM(new StreamSource(), true, null, false, false);
+      Assert.fail("Empty source parsed");
+    } catch (final RuntimeException e) {
+      // expected
+    }
+    final DTM dtm = manager.getDTM(new StreamSource(new StringReader("<doc/>")), true, null, false, false);
+    Assert.assertEquals(1, manager.getDTMIdentity(dtm) >>> DTMManager.IDENT_DTM_NODE_BITS);
+    manager.release(dtm, true);
+  }
+
+  @Test
+  public void xsltcFailedParseFreesID() throws Exception {
+    final XSLTCDTMManager manager = XSLTCDTMManager.newInstance();
+    DTM dtm = manager.getDTM(new StreamSource(new StringReader("<doc/>")), true, null, false, false);
+    final int id = manager.getDTMIdentity(dtm) >>> DTMManager.IDENT_DTM_NODE_BITS;
+    manager.release(dtm, true);
+    try {
+      manager.getDTM(new StreamSource(new StringReader("<doc><unclosed></doc>")), true, null, false, false);
+      Assert.fail("Malformed document parsed");
+    } catch (final RuntimeException e) {
+      // expected
+    }
+    try {
+      manager.getDTM(new StreamSource(), true, null, false, false);
+      Assert.fail("Empty source parsed");
+    } catch (final RuntimeException e) {
+      // expected
+    }
+    dtm = manager.getDTM(new StreamSource(new StringReader("<doc/>")), true, null, false, false);
+    Assert.assertEquals(id, manager.getDTMIdentity(dtm) >>> DTMManager.IDENT_DTM_NODE_BITS);
+    manager.release(dtm, true);
+  }
+
+  @Test
+  @Ignore("Benchmark, prints the throughput for 1 to 64 threads")
+  public void scaling() throws Exception {
+    final int iterations = 20000;
+    for (int threads = 1; threads <= 64; threads *= 2) {
+      final DTMManagerDefault manager = newManager();
+      // warm up
+      run(manager, threads, iterations / 10, new ConcurrentHashMap<Integer, DTM>());
+      final long start = System.nanoTime();
+      run(manager, threads, iterations, new ConcurrentHashMap<Integer, DTM>());
+      final long ops = (long) threads * iterations * (LOOKUPS + 2);
+      final double millis = (System.nanoTime() - start) / 1e6;
+      System.out.printf("%2d threads: %,12.0f ops/ms%n", threads, ops / millis);
+    }
+  }
+
+  private static DTMManagerDefault newManager() {
+    return (DTMManagerDefault) DTMManager.newInstance(XMLStringFactoryImpl.getFactory());
+  }
+
+  /**
+   * Every thread repeatedly creates a DTM, resolves its document handle
+   * through the manager and releases it again. An ID that is handed out twice
+   * while still in use fails the run.
+   */
+  private static void run(final DTMManagerDefault manager, int threads, final int iterations,
+      final ConcurrentHashMap<Integer, DTM> live) throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(threads);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      final List<Future<Void>> results = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        results.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            barrier.await();
+            for (int i = 0; i < iterations; i++) {
+              final DTM dtm = manager.getDTM(null, true, null, false, false);
+              final int handle = manager.getDTMIdentity(dtm);
+              final Integer id = handle >>> DTMManager.IDENT_DTM_NODE_BITS;
+              Assert.assertNull("DTM ID " + id + " handed out twice", live.putIfAbsent(id, dtm));
+              for (int j = 0; j < LOOKUPS; j++) {
+                Assert.assertSame(dtm, manager.getDTM(handle));
+                Assert.assertEquals(0, ((DTMDefaultBase) dtm).makeNodeIdentity(handle));
+              }
+              live.remove(id);
+              manager.release(dtm, true);
+            }
+            return null;
+          }
+        }));
+      }
+      for (final Future<Void> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}